@@ -0,0 +1,423 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Acervo guardado em colunas, pra catálogos muito grandes (opcional)
+ *
+ * No acervo normal cada item é um objeto Livro/Revista com as Strings dele,
+ * mais as entradas nos índices - algumas centenas de bytes por item. Aqui
+ * cada campo é um array primitivo com uma posição por item: código, título
+ * e ISBN/ISSN ficam em UTF-8 num byte[] só, autor/editora viram o número
+ * no Dicionario, ano/edição/volume são números, e os exemplares são uma
+ * palavra de bits (até 64 por título). A busca por código é uma tabela hash
+ * aberta de int, sem objeto nenhum por item.
+ *
+ * item(n) e buscar(codigo) devolvem uma "visão": um Livro ou Revista leve,
+ * criado na hora, que lê e escreve direto nas colunas. Dá pra passar a
+ * visão pra quem espera um ItemDeAcervo (listar, gerar JSON, linhaItem,
+ * pegar e devolver exemplar), mas ela não é única - duas visões do mesmo
+ * item são equals, não ==. Por isso ela não entra no SistemaBiblioteca
+ * (empréstimos, reservas e índices guardam o item pela referência); o uso
+ * é consultar e circular exemplares num catálogo grande sem pagar o heap
+ * de um objeto por item.
+ *
+ * O cadastro (adicionar/carregar) tem que terminar antes de as visões
+ * serem usadas por várias threads: os arrays são trocados quando crescem.
+ * Depois disso, pegar e devolver exemplar é compare-and-set, sem trava.
+ *
+ * @author Ryan Figueredo
+ */
+public class AcervoColunar implements ColunasAcervo {
+    // Uma palavra de bits por item
+    public static final int MAX_EXEMPLARES = 64;
+
+    private static final byte TIPO_LIVRO = 1;
+    private static final byte TIPO_REVISTA = 2;
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Dicionario dicionario;
+    private int tamanho;
+    private byte[] tipos;
+    private short[] anos;
+    private int[] numeros;        // Edição (livro) ou volume (revista)
+    private int[] nomes;          // Autor (livro) ou editora (revista), código no dicionário
+    private byte[] exemplares;    // Quantidade de exemplares (1 a 64)
+    private long[] ocupados;      // Bit ligado = exemplar fora da estante
+    private final Textos codigos;
+    private final Textos titulos;
+    private final Textos identificadores; // ISBN (livro) ou ISSN (revista)
+    // Busca por código: posição + 1 (0 = vazio), sondagem linear, no máximo metade cheia
+    private int[] tabela;
+
+    public AcervoColunar() {
+        this(1024);
+    }
+
+    // Capacidade inicial - evita ir dobrando os arrays quando já se sabe o tamanho
+    public AcervoColunar(int capacidade) {
+        int c = Math.max(capacidade, 16);
+        this.dicionario = Dicionario.GERAL;
+        this.tipos = new byte[c];
+        this.anos = new short[c];
+        this.numeros = new int[c];
+        this.nomes = new int[c];
+        this.exemplares = new byte[c];
+        this.ocupados = new long[c];
+        this.codigos = new Textos(c, 8);
+        this.titulos = new Textos(c, 24);
+        this.identificadores = new Textos(c, 12);
+        this.tabela = new int[Integer.highestOneBit(c - 1) << 2];
+    }
+
+    // Copia todos os itens pra um acervo em colunas
+    public static AcervoColunar de(Collection<? extends ItemDeAcervo> itens) throws RegraDeNegocioException {
+        AcervoColunar acervo = new AcervoColunar(itens.size());
+        for (ItemDeAcervo item : itens) {
+            acervo.adicionar(item);
+        }
+        acervo.compactar();
+        return acervo;
+    }
+
+    // Lê o acervo de um snapshot binário direto pras colunas: cada Livro/Revista lido é
+    // copiado e descartado, então o catálogo nunca existe inteiro como objetos. Os exemplares
+    // com empréstimo em aberto ou separados pra reserva ficam marcados como fora da estante
+    public static AcervoColunar carregar(Path snapshot) throws IOException {
+        AcervoColunar acervo = new AcervoColunar();
+        SnapshotBinario.ler(snapshot, new SnapshotBinario.Leitor() {
+            @Override
+            public void usuario(Usuario usuario) {
+                // Usuários não entram no acervo
+            }
+
+            @Override
+            public void item(ItemDeAcervo item) {
+                try {
+                    acervo.adicionar(item);
+                } catch (RegraDeNegocioException e) {
+                    // Código repetido: fica o primeiro, como no SistemaBiblioteca
+                }
+            }
+
+            @Override
+            public void emprestimo(String id, String idUsuario, String codItem, int exemplar, LocalDate dataEmprestimo,
+                                   LocalDate dataPrevista, LocalDate dataReal, long multaCentavos) {
+                if (dataReal == null) {
+                    acervo.marcar(codItem, exemplar);
+                }
+            }
+
+            @Override
+            public void reserva(String id, String idUsuario, String codItem, LocalDate dataReserva,
+                                Reserva.Status status, LocalDate prazoRetirada, int exemplar) {
+                if (status == Reserva.Status.AGUARDANDO_RETIRADA) {
+                    acervo.marcar(codItem, exemplar);
+                }
+            }
+        });
+        acervo.compactar();
+        return acervo;
+    }
+
+    // Copia um item (com a situação dos exemplares) e retorna o número dele nas colunas
+    public synchronized int adicionar(ItemDeAcervo item) throws RegraDeNegocioException {
+        int quantidade = item.getQuantidadeExemplares();
+        if (quantidade > MAX_EXEMPLARES) {
+            throw new IllegalArgumentException("O acervo em colunas aceita até " + MAX_EXEMPLARES
+                    + " exemplares por título ('" + item.getCodigo() + "' tem " + quantidade + ")");
+        }
+        byte[] codigo = item.getCodigo().getBytes(StandardCharsets.UTF_8);
+        if (posicao(codigo) >= 0) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                    "Já existe um item com o código '" + item.getCodigo() + "'.");
+        }
+        if (tamanho == tipos.length) {
+            crescer();
+        }
+        int n = tamanho;
+        if (item instanceof Livro) {
+            Livro l = (Livro) item;
+            tipos[n] = TIPO_LIVRO;
+            numeros[n] = l.getEdicao();
+            nomes[n] = dicionario.codigo(l.getAutor() == null ? "" : l.getAutor());
+            identificadores.adicionar(l.getIsbn());
+        } else if (item instanceof Revista) {
+            Revista r = (Revista) item;
+            tipos[n] = TIPO_REVISTA;
+            numeros[n] = r.getVolume();
+            nomes[n] = dicionario.codigo(r.getEditora() == null ? "" : r.getEditora());
+            identificadores.adicionar(r.getIssn());
+        } else {
+            throw new IllegalArgumentException("Tipo de item sem formato em colunas: " + item.getClass().getSimpleName());
+        }
+        anos[n] = (short) item.getAnoPublicacao();
+        exemplares[n] = (byte) quantidade;
+        long bits = quantidade == 64 ? 0L : -1L << quantidade; // Bits que não são exemplar já nascem ligados
+        for (int e = 0; e < quantidade; e++) {
+            if (item.isExemplarOcupado(e)) {
+                bits |= 1L << e;
+            }
+        }
+        ocupados[n] = bits;
+        codigos.adicionar(codigo);
+        titulos.adicionar(item.getTitulo());
+        tamanho = n + 1;
+        if (tamanho * 2 > tabela.length) {
+            reconstruirTabela(tabela.length * 2);
+        } else {
+            inserirNaTabela(n);
+        }
+        return n;
+    }
+
+    private void crescer() {
+        int c = Math.max(16, tipos.length * 2); // Depois do compactar() pode estar vazio
+        tipos = Arrays.copyOf(tipos, c);
+        anos = Arrays.copyOf(anos, c);
+        numeros = Arrays.copyOf(numeros, c);
+        nomes = Arrays.copyOf(nomes, c);
+        exemplares = Arrays.copyOf(exemplares, c);
+        ocupados = Arrays.copyOf(ocupados, c);
+    }
+
+    // Corta a folga dos arrays (que crescem dobrando) - pra chamar quando o cadastro acabou
+    public synchronized void compactar() {
+        tipos = Arrays.copyOf(tipos, tamanho);
+        anos = Arrays.copyOf(anos, tamanho);
+        numeros = Arrays.copyOf(numeros, tamanho);
+        nomes = Arrays.copyOf(nomes, tamanho);
+        exemplares = Arrays.copyOf(exemplares, tamanho);
+        ocupados = Arrays.copyOf(ocupados, tamanho);
+        codigos.compactar();
+        titulos.compactar();
+        identificadores.compactar();
+    }
+
+    // Marca um exemplar como fora da estante (carga do snapshot)
+    private void marcar(String codigo, int exemplar) {
+        int n = posicao(codigo.getBytes(StandardCharsets.UTF_8));
+        if (n >= 0 && exemplar >= 0 && exemplar < exemplares[n]) {
+            ocupados[n] |= 1L << exemplar;
+        }
+    }
+
+    // ---------------------------------------------------------------- busca por código
+
+    private void reconstruirTabela(int tamanhoTabela) {
+        tabela = new int[tamanhoTabela];
+        for (int n = 0; n < tamanho; n++) {
+            inserirNaTabela(n);
+        }
+    }
+
+    private void inserirNaTabela(int n) {
+        int mascara = tabela.length - 1;
+        int i = codigos.hash(n) & mascara;
+        while (tabela[i] != 0) {
+            i = (i + 1) & mascara;
+        }
+        tabela[i] = n + 1;
+    }
+
+    private int posicao(byte[] codigo) {
+        int mascara = tabela.length - 1;
+        int i = Textos.hash(codigo, 0, codigo.length) & mascara;
+        for (int n; (n = tabela[i]) != 0; i = (i + 1) & mascara) {
+            if (codigos.igual(n - 1, codigo)) {
+                return n - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Número do item com esse código, ou -1
+    public int numeroDe(String codigo) {
+        return posicao(codigo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Visão do item com esse código, ou null
+    public ItemDeAcervo buscar(String codigo) {
+        int n = numeroDe(codigo);
+        return n < 0 ? null : item(n);
+    }
+
+    // Visão do item na posição n (0 até tamanho() - 1)
+    public ItemDeAcervo item(int n) {
+        if (n < 0 || n >= tamanho) {
+            throw new IndexOutOfBoundsException("Item " + n + " fora do acervo (tamanho " + tamanho + ")");
+        }
+        return ColunasAcervo.visao(this, n, tipos[n] == TIPO_LIVRO);
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    // Itens com pelo menos um exemplar na estante - só olha a coluna de bits
+    public int contarDisponiveis() {
+        int total = 0;
+        for (int n = 0; n < tamanho; n++) {
+            if (livres(n) > 0) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    // ---------------------------------------------------------------- colunas (usadas pelas visões)
+
+    @Override
+    public String codigo(int n) {
+        return codigos.texto(n);
+    }
+
+    @Override
+    public String titulo(int n) {
+        return titulos.texto(n);
+    }
+
+    @Override
+    public String identificador(int n) {
+        return identificadores.texto(n);
+    }
+
+    @Override
+    public String nome(int n) {
+        return dicionario.valor(nomes[n]);
+    }
+
+    @Override
+    public int ano(int n) {
+        return anos[n];
+    }
+
+    @Override
+    public int numero(int n) {
+        return numeros[n];
+    }
+
+    @Override
+    public int exemplares(int n) {
+        return exemplares[n];
+    }
+
+    @Override
+    public int livres(int n) {
+        return 64 - Long.bitCount((long) BITS.getVolatile(ocupados, n));
+    }
+
+    @Override
+    public boolean ocupado(int n, int exemplar) {
+        return ((long) BITS.getVolatile(ocupados, n) & (1L << exemplar)) != 0;
+    }
+
+    // Mesma ideia do ItemDeAcervo, mas com uma palavra só: o bit livre mais baixo, com CAS
+    @Override
+    public int tentarEmprestar(int n) {
+        while (true) {
+            long atual = (long) BITS.getVolatile(ocupados, n);
+            long vagos = ~atual;
+            if (vagos == 0) {
+                return -1;
+            }
+            long bit = vagos & -vagos;
+            if (BITS.compareAndSet(ocupados, n, atual, atual | bit)) {
+                return Long.numberOfTrailingZeros(bit);
+            }
+        }
+    }
+
+    @Override
+    public boolean trocar(int n, int exemplar, boolean ocupar) {
+        long bit = 1L << exemplar;
+        while (true) {
+            long atual = (long) BITS.getVolatile(ocupados, n);
+            if (((atual & bit) != 0) == ocupar) {
+                return false;
+            }
+            if (BITS.compareAndSet(ocupados, n, atual, atual ^ bit)) {
+                return true;
+            }
+        }
+    }
+
+    // Memória aproximada das colunas em bytes (sem o dicionário, que é compartilhado)
+    public long bytesOcupados() {
+        long c = tipos.length;
+        return c * (1 + 2 + 4 + 4 + 1 + 8) + tabela.length * 4L
+                + codigos.bytesOcupados() + titulos.bytesOcupados() + identificadores.bytesOcupados();
+    }
+
+    // ---------------------------------------------------------------- textos
+
+    // Strings de uma coluna, em UTF-8 uma atrás da outra num byte[] só
+    private static final class Textos {
+        private byte[] bytes;
+        private int usados;
+        private int[] fins; // fins[n] = onde acaba o texto n (o começo é o fim do anterior)
+        private int quantidade;
+
+        Textos(int capacidade, int bytesPorTexto) {
+            this.bytes = new byte[capacidade * bytesPorTexto];
+            this.fins = new int[capacidade];
+        }
+
+        void adicionar(String s) {
+            adicionar((s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+        }
+
+        void adicionar(byte[] b) {
+            if (usados + b.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, usados + b.length));
+            }
+            if (quantidade == fins.length) {
+                fins = Arrays.copyOf(fins, Math.max(16, fins.length * 2));
+            }
+            System.arraycopy(b, 0, bytes, usados, b.length);
+            usados += b.length;
+            fins[quantidade++] = usados;
+        }
+
+        private int inicio(int n) {
+            return n == 0 ? 0 : fins[n - 1];
+        }
+
+        String texto(int n) {
+            int i = inicio(n);
+            return new String(bytes, i, fins[n] - i, StandardCharsets.UTF_8);
+        }
+
+        boolean igual(int n, byte[] outro) {
+            int i = inicio(n);
+            return Arrays.equals(bytes, i, fins[n], outro, 0, outro.length);
+        }
+
+        int hash(int n) {
+            return hash(bytes, inicio(n), fins[n]);
+        }
+
+        // FNV-1a com uma mistura no fim (códigos parecidos como "L1", "L2"... não encostam)
+        static int hash(byte[] b, int de, int ate) {
+            int h = 0x811C9DC5;
+            for (int i = de; i < ate; i++) {
+                h = (h ^ b[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        void compactar() {
+            bytes = Arrays.copyOf(bytes, usados);
+            fins = Arrays.copyOf(fins, quantidade);
+        }
+
+        long bytesOcupados() {
+            return bytes.length + fins.length * 4L;
+        }
+    }
+}
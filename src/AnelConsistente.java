@@ -0,0 +1,91 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Anel de hash consistente: diz qual nó do cluster é dono de uma chave
+ *
+ * Cada nó ocupa VIRTUAIS pontos espalhados no anel (hash de "nó#i"); a
+ * chave vai pro primeiro ponto depois do hash dela, dando a volta no fim.
+ * Com vários pontos por nó a divisão fica parelha, e quando entra ou sai
+ * um nó só mudam de dono as chaves dos pontos dele (~1/n do total) - o
+ * resto do acervo e dos usuários fica onde está.
+ *
+ * O anel não muda depois de criado (pra mudar os nós, crie outro); todos
+ * os nós e clientes montam o mesmo anel a partir da mesma lista, então
+ * concordam sobre o dono sem conversar.
+ *
+ * @author Ryan Figueredo
+ */
+public final class AnelConsistente {
+    public static final int VIRTUAIS = 128;
+
+    private final long[] pontos;   // Ordenados
+    private final String[] donos;  // donos[i] é o nó do pontos[i]
+    private final List<String> nos;
+
+    public AnelConsistente(Collection<String> nos) {
+        this(nos, VIRTUAIS);
+    }
+
+    public AnelConsistente(Collection<String> nos, int virtuais) {
+        if (nos.isEmpty() || virtuais < 1) {
+            throw new IllegalArgumentException("Anel precisa de pelo menos um nó");
+        }
+        this.nos = List.copyOf(nos);
+        int total = this.nos.size() * virtuais;
+        long[] chaves = new long[total];
+        String[] nomes = new String[total];
+        int k = 0;
+        for (String no : this.nos) {
+            for (int i = 0; i < virtuais; i++) {
+                chaves[k] = hash(no + "#" + i);
+                nomes[k] = no;
+                k++;
+            }
+        }
+        // Ordena os pontos levando o dono junto (índices ordenados pelo hash)
+        Integer[] ordem = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            ordem[i] = i;
+        }
+        Arrays.sort(ordem, (a, b) -> Long.compare(chaves[a], chaves[b]));
+        this.pontos = new long[total];
+        this.donos = new String[total];
+        for (int i = 0; i < total; i++) {
+            pontos[i] = chaves[ordem[i]];
+            donos[i] = nomes[ordem[i]];
+        }
+    }
+
+    // Nó dono da chave (código do item ou ID do usuário)
+    public String dono(String chave) {
+        int i = Arrays.binarySearch(pontos, hash(chave));
+        if (i < 0) {
+            i = -i - 1; // Primeiro ponto maior que o hash
+        }
+        return donos[i == pontos.length ? 0 : i];
+    }
+
+    public List<String> getNos() {
+        return new ArrayList<>(nos);
+    }
+
+    // FNV-1a de 64 bits nos bytes UTF-8, com a mistura final do MurmurHash3 - o String.hashCode()
+    // tem só 32 bits e deixa chaves parecidas ("L1", "L2"...) perto umas das outras
+    static long hash(String chave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : chave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
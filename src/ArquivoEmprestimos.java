@@ -0,0 +1,501 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Arquivo morto dos empréstimos devolvidos
+ *
+ * Empréstimo devolvido há muito tempo não muda mais, mas ficava no
+ * historicoEmprestimos e no índice pra sempre: anos de histórico viram
+ * milhões de objetos vivos que o gc tem que percorrer. O SistemaBiblioteca
+ * passa esses empréstimos pra cá (arquivarEmprestimos) e tira da memória.
+ *
+ * Cada rodada grava um segmento novo (arquivo-00001.seg, ...) que nunca
+ * mais é alterado. Dentro dele os empréstimos vão em blocos de 512,
+ * comprimidos com Deflater, e no fim vem o índice: três listas ordenadas
+ * de long (id, usuário e item), cada entrada com o hash da chave nos bits
+ * de cima e o número do bloco nos 12 de baixo. O segmento é lido mapeado
+ * em memória (fora do heap): achar um empréstimo é uma busca binária no
+ * índice mapeado e descomprimir um bloco. O que fica no heap por segmento
+ * são só alguns números.
+ *
+ * O segmento é gravado num .tmp e renomeado no fim, então uma queda no
+ * meio da gravação não deixa segmento pela metade. Os empréstimos que
+ * voltam daqui são montados na hora (pelo Montador) - não são os mesmos
+ * objetos de antes, compare pelo ID.
+ *
+ * @author Ryan Figueredo
+ */
+public class ArquivoEmprestimos {
+    private static final int MAGICO = 0x42494241; // "BIBA"
+    private static final int VERSAO = 1;
+    private static final int POR_BLOCO = 512;
+    private static final int BITS_BLOCO = 12;
+    private static final long MASCARA_BLOCO = (1L << BITS_BLOCO) - 1;
+    private static final int POR_SEGMENTO = POR_BLOCO << BITS_BLOCO; // ~2 milhões
+    private static final int TAMANHO_RODAPE = 8 + 4 + 4 + 4 + 4 + 4 + 8 + 4 + 4;
+    private static final String PREFIXO = "arquivo-";
+    private static final String SUFIXO = ".seg";
+
+    // Monta o Emprestimo de um registro do arquivo (null se o usuário ou o item não existe mais)
+    public interface Montador {
+        Emprestimo montar(String id, String idUsuario, String codItem, int exemplar, long diaEmprestimo,
+                          long diaPrevisto, long diaDevolucao, long multaCentavos);
+    }
+
+    private final Path pasta;
+    private final Montador montador;
+    // Trocado inteiro quando entra segmento novo - a leitura não trava
+    private volatile Segmento[] segmentos = new Segmento[0];
+
+    public ArquivoEmprestimos(Path pasta, Montador montador) {
+        this.pasta = pasta;
+        this.montador = montador;
+    }
+
+    // Mapeia os segmentos que já estão na pasta (chamar uma vez, na carga)
+    public synchronized void abrir() throws IOException {
+        List<Path> arquivos = new ArrayList<>();
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(pasta, PREFIXO + "*" + SUFIXO)) {
+            lista.forEach(arquivos::add);
+        }
+        arquivos.sort(null); // O número no nome tem zeros à esquerda
+        Segmento[] abertos = new Segmento[arquivos.size()];
+        for (int i = 0; i < abertos.length; i++) {
+            abertos[i] = new Segmento(arquivos.get(i));
+        }
+        segmentos = abertos;
+    }
+
+    // Grava os empréstimos (todos já devolvidos) em segmentos novos e retorna quantos entraram
+    // Só depois que isso retorna o chamador pode tirar eles da memória
+    public synchronized int arquivar(List<Emprestimo> fechados) throws IOException {
+        int gravados = 0;
+        while (gravados < fechados.size()) {
+            int fim = Math.min(fechados.size(), gravados + POR_SEGMENTO);
+            List<Emprestimo> parte = fechados.subList(gravados, fim);
+            Segmento[] atual = segmentos;
+            int numero = atual.length == 0 ? 1 : atual[atual.length - 1].numero + 1;
+            Path destino = pasta.resolve(String.format("%s%05d%s", PREFIXO, numero, SUFIXO));
+            Path temporario = pasta.resolve(destino.getFileName() + ".tmp");
+            gravarSegmento(temporario, parte);
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+            Segmento[] novos = Arrays.copyOf(atual, atual.length + 1);
+            novos[atual.length] = new Segmento(destino);
+            segmentos = novos;
+            gravados = fim;
+        }
+        return gravados;
+    }
+
+    // ---------------------------------------------------------------- consultas
+
+    public Emprestimo buscar(String id) {
+        long chave = chave(id);
+        Segmento[] atual = segmentos;
+        for (int s = atual.length - 1; s >= 0; s--) {
+            Segmento seg = atual[s];
+            for (int bloco : seg.blocos(seg.posIndiceId, seg.qtdIndiceId, chave)) {
+                for (Emprestimo e : seg.ler(bloco, montador, id, Campo.ID)) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Não depende do usuário e do item ainda existirem - serve pra carga não duplicar empréstimo
+    public boolean contem(String id) {
+        long chave = chave(id);
+        for (Segmento seg : segmentos) {
+            for (int bloco : seg.blocos(seg.posIndiceId, seg.qtdIndiceId, chave)) {
+                if (!seg.ler(bloco, null, id, Campo.ID).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Empréstimos arquivados do usuário, na ordem em que foram arquivados
+    public List<Emprestimo> doUsuario(String idUsuario) {
+        return consultar(idUsuario, Campo.USUARIO);
+    }
+
+    public List<Emprestimo> doItem(String codItem) {
+        return consultar(codItem, Campo.ITEM);
+    }
+
+    private List<Emprestimo> consultar(String valor, Campo campo) {
+        long chave = chave(valor);
+        List<Emprestimo> saida = new ArrayList<>();
+        for (Segmento seg : segmentos) {
+            int pos = campo == Campo.USUARIO ? seg.posIndiceUsuario : seg.posIndiceItem;
+            int qtd = campo == Campo.USUARIO ? seg.qtdIndiceUsuario : seg.qtdIndiceItem;
+            for (int bloco : seg.blocos(pos, qtd, chave)) {
+                saida.addAll(seg.ler(bloco, montador, valor, campo));
+            }
+        }
+        return saida;
+    }
+
+    // Todos os empréstimos arquivados, bloco a bloco - em paralelo cada bloco vai pra uma thread
+    public Stream<Emprestimo> emprestimos() {
+        Segmento[] atual = segmentos;
+        int total = 0;
+        for (Segmento seg : atual) {
+            total += seg.qtdBlocos;
+        }
+        long[] blocos = new long[total]; // Segmento nos 32 bits de cima, bloco nos de baixo
+        int n = 0;
+        for (int s = 0; s < atual.length; s++) {
+            for (int b = 0; b < atual[s].qtdBlocos; b++) {
+                blocos[n++] = ((long) s << 32) | b;
+            }
+        }
+        return LongStream.of(blocos)
+                .mapToObj(sb -> atual[(int) (sb >>> 32)].ler((int) sb, montador, null, null))
+                .flatMap(List::stream);
+    }
+
+    public long getQuantidade() {
+        long total = 0;
+        for (Segmento seg : segmentos) {
+            total += seg.qtdEmprestimos;
+        }
+        return total;
+    }
+
+    // Maior ID numérico arquivado - pro SistemaBiblioteca não gerar um ID que já existe aqui
+    public long getMaiorId() {
+        long maior = 0;
+        for (Segmento seg : segmentos) {
+            maior = Math.max(maior, seg.maiorId);
+        }
+        return maior;
+    }
+
+    public int getQuantidadeSegmentos() {
+        return segmentos.length;
+    }
+
+    // Tamanho em disco de todos os segmentos
+    public long getBytes() {
+        long total = 0;
+        for (Segmento seg : segmentos) {
+            total += seg.mapa.capacity();
+        }
+        return total;
+    }
+
+    // ---------------------------------------------------------------- formato
+
+    private enum Campo { ID, USUARIO, ITEM }
+
+    // Hash de 64 bits (FNV-1a) sem os bits do bloco - as colisões são resolvidas lendo o bloco
+    private static long chave(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        return h & ~MASCARA_BLOCO;
+    }
+
+    // Cabeçalho: MAGICO, VERSAO
+    // Blocos:    [tamanho comprimido][quantidade][deflate dos registros]
+    // Tabela:    posição de cada bloco (int)
+    // Índices:   id, usuário e item - long ordenados (hash | bloco)
+    // Rodapé:    posição da tabela, qtd de blocos, qtd de empréstimos, tamanho dos 3 índices,
+    //            maior ID numérico, VERSAO, MAGICO
+    private static void gravarSegmento(Path arquivo, List<Emprestimo> emprestimos) throws IOException {
+        int qtdBlocos = (emprestimos.size() + POR_BLOCO - 1) / POR_BLOCO;
+        long[] indiceId = new long[emprestimos.size()];
+        long[] indiceUsuario = new long[emprestimos.size()];
+        long[] indiceItem = new long[emprestimos.size()];
+        int[] posicoes = new int[qtdBlocos];
+        long maiorId = 0;
+        Registros registros = new Registros();
+        Deflater deflater = new Deflater();
+        byte[] comprimido = new byte[1 << 16];
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(8).putInt(MAGICO).putInt(VERSAO);
+            escrever(canal, cabecalho.flip());
+            for (int b = 0; b < qtdBlocos; b++) {
+                registros.limpar();
+                int fim = Math.min(emprestimos.size(), (b + 1) * POR_BLOCO);
+                for (int i = b * POR_BLOCO; i < fim; i++) {
+                    Emprestimo e = emprestimos.get(i);
+                    if (!e.isDevolvido()) {
+                        throw new IllegalArgumentException("Empréstimo " + e.getIdEmprestimo() + " ainda está aberto");
+                    }
+                    registros.gravar(e);
+                    indiceId[i] = chave(e.getIdEmprestimo()) | b;
+                    indiceUsuario[i] = chave(e.getUsuario().getId()) | b;
+                    indiceItem[i] = chave(e.getItem().getCodigo()) | b;
+                    maiorId = Math.max(maiorId, idNumerico(e.getIdEmprestimo()));
+                }
+                deflater.reset();
+                deflater.setInput(registros.bytes, 0, registros.tamanho);
+                deflater.finish();
+                int tamanho = 0;
+                while (!deflater.finished()) {
+                    if (tamanho == comprimido.length) {
+                        comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+                    }
+                    tamanho += deflater.deflate(comprimido, tamanho, comprimido.length - tamanho);
+                }
+                posicoes[b] = (int) canal.position();
+                escrever(canal, ByteBuffer.allocate(8).putInt(tamanho).putInt(fim - b * POR_BLOCO).flip());
+                escrever(canal, ByteBuffer.wrap(comprimido, 0, tamanho));
+            }
+            deflater.end();
+
+            int posTabela = (int) canal.position();
+            int qtdId = ordenar(indiceId);
+            int qtdUsuario = ordenar(indiceUsuario);
+            int qtdItem = ordenar(indiceItem);
+            ByteBuffer fim = ByteBuffer.allocate(4 * qtdBlocos + 8 * (qtdId + qtdUsuario + qtdItem) + TAMANHO_RODAPE);
+            for (int p : posicoes) {
+                fim.putInt(p);
+            }
+            fim.asLongBuffer().put(indiceId, 0, qtdId).put(indiceUsuario, 0, qtdUsuario).put(indiceItem, 0, qtdItem);
+            fim.position(fim.position() + 8 * (qtdId + qtdUsuario + qtdItem));
+            fim.putLong(posTabela).putInt(qtdBlocos).putInt(emprestimos.size())
+                    .putInt(qtdId).putInt(qtdUsuario).putInt(qtdItem).putLong(maiorId).putInt(VERSAO).putInt(MAGICO);
+            escrever(canal, fim.flip());
+            canal.force(true);
+        }
+    }
+
+    // Ordena e tira as entradas repetidas (mesma chave no mesmo bloco) - retorna quantas sobraram
+    private static int ordenar(long[] indice) {
+        Arrays.sort(indice);
+        int n = 0;
+        for (int i = 0; i < indice.length; i++) {
+            if (n == 0 || indice[n - 1] != indice[i]) {
+                indice[n++] = indice[i];
+            }
+        }
+        return n;
+    }
+
+    private static void escrever(FileChannel canal, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private static long idNumerico(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return 0; // ID que não é número não entra na sequência
+        }
+    }
+
+    // Registros de um bloco antes de comprimir (varint; dias como diferença pro empréstimo)
+    private static final class Registros {
+        byte[] bytes = new byte[1 << 15];
+        int tamanho;
+
+        void limpar() {
+            tamanho = 0;
+        }
+
+        void gravar(Emprestimo e) {
+            texto(e.getIdEmprestimo());
+            texto(e.getUsuario().getId());
+            texto(e.getItem().getCodigo());
+            varlong(e.getExemplar());
+            varlong(zigzag(e.getDiaEmprestimo()));
+            varlong(zigzag(e.getDiaDevolucaoPrevista() - e.getDiaEmprestimo()));
+            varlong(zigzag(e.getDiaDevolucaoReal() - e.getDiaEmprestimo()));
+            varlong(e.getMultaCentavos());
+        }
+
+        private void garantir(int n) {
+            if (tamanho + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, tamanho + n));
+            }
+        }
+
+        private void varlong(long valor) {
+            garantir(10);
+            while ((valor & ~0x7FL) != 0) {
+                bytes[tamanho++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            bytes[tamanho++] = (byte) valor;
+        }
+
+        private void texto(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varlong(b.length);
+            garantir(b.length);
+            System.arraycopy(b, 0, bytes, tamanho, b.length);
+            tamanho += b.length;
+        }
+
+        private static long zigzag(long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+    }
+
+    // Um arquivo de segmento mapeado
+    private static final class Segmento {
+        final int numero;
+        final MappedByteBuffer mapa;
+        final int posTabela;
+        final int qtdBlocos;
+        final int qtdEmprestimos;
+        final int posIndiceId;
+        final int qtdIndiceId;
+        final int posIndiceUsuario;
+        final int qtdIndiceUsuario;
+        final int posIndiceItem;
+        final int qtdIndiceItem;
+        final long maiorId;
+
+        Segmento(Path arquivo) throws IOException {
+            String nome = arquivo.getFileName().toString();
+            this.numero = Integer.parseInt(nome.substring(PREFIXO.length(), nome.length() - SUFIXO.length()));
+            try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+                this.mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            }
+            int rodape = mapa.capacity() - TAMANHO_RODAPE;
+            if (rodape < 8 || mapa.getInt(0) != MAGICO || mapa.getInt(mapa.capacity() - 4) != MAGICO) {
+                throw new IOException("Segmento de arquivo inválido: " + arquivo);
+            }
+            int versao = mapa.getInt(mapa.capacity() - 8);
+            if (versao > VERSAO) {
+                throw new IOException("Segmento " + arquivo + " é de uma versão mais nova (" + versao + ")");
+            }
+            this.posTabela = (int) mapa.getLong(rodape);
+            this.qtdBlocos = mapa.getInt(rodape + 8);
+            this.qtdEmprestimos = mapa.getInt(rodape + 12);
+            this.qtdIndiceId = mapa.getInt(rodape + 16);
+            this.qtdIndiceUsuario = mapa.getInt(rodape + 20);
+            this.qtdIndiceItem = mapa.getInt(rodape + 24);
+            this.maiorId = mapa.getLong(rodape + 28);
+            this.posIndiceId = posTabela + 4 * qtdBlocos;
+            this.posIndiceUsuario = posIndiceId + 8 * qtdIndiceId;
+            this.posIndiceItem = posIndiceUsuario + 8 * qtdIndiceUsuario;
+        }
+
+        // Blocos onde a chave pode estar: busca binária no índice mapeado
+        int[] blocos(int pos, int qtd, long chave) {
+            int baixo = 0;
+            int alto = qtd;
+            while (baixo < alto) {
+                int meio = (baixo + alto) >>> 1;
+                if (mapa.getLong(pos + 8 * meio) < chave) {
+                    baixo = meio + 1;
+                } else {
+                    alto = meio;
+                }
+            }
+            int fim = baixo;
+            while (fim < qtd && (mapa.getLong(pos + 8 * fim) & ~MASCARA_BLOCO) == chave) {
+                fim++;
+            }
+            int[] blocos = new int[fim - baixo];
+            for (int i = baixo; i < fim; i++) {
+                blocos[i - baixo] = (int) (mapa.getLong(pos + 8 * i) & MASCARA_BLOCO);
+            }
+            return blocos;
+        }
+
+        // Descomprime o bloco e monta os empréstimos (só os que batem com o filtro, se tiver)
+        // Sem montador a lista vem com um null por registro que bate - serve só pra contar
+        List<Emprestimo> ler(int bloco, Montador montador, String filtro, Campo campo) {
+            int pos = mapa.getInt(posTabela + 4 * bloco);
+            int tamanho = mapa.getInt(pos);
+            int quantidade = mapa.getInt(pos + 4);
+            byte[] bytes = new byte[Math.max(64, quantidade * 48)];
+            int lidos = 0;
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(mapa.slice(pos + 8, tamanho));
+                while (!inflater.finished()) {
+                    if (lidos == bytes.length) {
+                        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    }
+                    int n = inflater.inflate(bytes, lidos, bytes.length - lidos);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IllegalStateException("Bloco " + bloco + " do arquivo está truncado");
+                    }
+                    lidos += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Bloco " + bloco + " do arquivo está corrompido: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            ByteBuffer r = ByteBuffer.wrap(bytes, 0, lidos);
+            List<Emprestimo> saida = new ArrayList<>(filtro == null ? quantidade : 1);
+            for (int i = 0; i < quantidade; i++) {
+                String id = texto(r);
+                String idUsuario = texto(r);
+                String codItem = texto(r);
+                int exemplar = (int) varlong(r);
+                long diaEmprestimo = zagzig(varlong(r));
+                long diaPrevisto = diaEmprestimo + zagzig(varlong(r));
+                long diaDevolucao = diaEmprestimo + zagzig(varlong(r));
+                long multa = varlong(r);
+                if (campo != null && !filtro.equals(campo == Campo.ID ? id : campo == Campo.USUARIO ? idUsuario : codItem)) {
+                    continue;
+                }
+                if (montador == null) {
+                    saida.add(null); // Sem montador só interessa se achou
+                    continue;
+                }
+                Emprestimo e = montador.montar(id, idUsuario, codItem, exemplar, diaEmprestimo, diaPrevisto, diaDevolucao, multa);
+                if (e != null) {
+                    saida.add(e);
+                }
+            }
+            return saida;
+        }
+
+        private static long varlong(ByteBuffer r) {
+            long valor = 0;
+            int deslocamento = 0;
+            byte b;
+            do {
+                b = r.get();
+                valor |= (long) (b & 0x7F) << deslocamento;
+                deslocamento += 7;
+            } while ((b & 0x80) != 0);
+            return valor;
+        }
+
+        private static String texto(ByteBuffer r) {
+            int n = (int) varlong(r);
+            String s = new String(r.array(), r.position(), n, StandardCharsets.UTF_8);
+            r.position(r.position() + n);
+            return s;
+        }
+
+        private static long zagzig(long v) {
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
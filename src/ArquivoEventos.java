@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assinante do BarramentoEventos que grava os eventos num arquivo (eventos.log)
+ *
+ * Cada lote recebido vira uma escrita só no fim do arquivo, com fsync, uma
+ * linha por evento (Evento.linha()). O arquivo só cresce, então a posição em
+ * bytes de uma linha nunca muda: quem consome de fora (e-mail, análise,
+ * ERP) guarda o "offset" onde parou e pede ler(offset) de novo depois,
+ * como um tail -f. Vale entre reinícios do sistema também.
+ *
+ * Se a gravação falhar, a exceção volta pro barramento, que tenta o mesmo
+ * lote de novo.
+ *
+ * @author Ryan Figueredo
+ */
+public class ArquivoEventos implements BarramentoEventos.Consumidor, AutoCloseable {
+    private static final int TAMANHO_LEITURA = 1 << 16;
+
+    private final FileChannel canal;
+
+    public ArquivoEventos(Path arquivo) throws IOException {
+        this.canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void receber(List<Evento> lote) {
+        StringBuilder sb = new StringBuilder(lote.size() * 64);
+        for (Evento e : lote) {
+            sb.append(e.linha()).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar arquivo de eventos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resultado de uma leitura: os eventos e o offset pra pedir os próximos
+     */
+    public static class Leitura {
+        private final List<Evento> eventos;
+        private final long proximoOffset;
+
+        Leitura(List<Evento> eventos, long proximoOffset) {
+            this.eventos = eventos;
+            this.proximoOffset = proximoOffset;
+        }
+
+        public List<Evento> getEventos() {
+            return eventos;
+        }
+
+        public long getProximoOffset() {
+            return proximoOffset;
+        }
+    }
+
+    // Lê até "limite" eventos a partir do offset (em bytes, 0 = começo do arquivo)
+    // Linha que ainda está sendo gravada (sem '\n') fica pra próxima leitura
+    public static Leitura ler(Path arquivo, long offset, int limite) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset inválido: " + offset);
+        }
+        if (!Files.exists(arquivo)) {
+            return new Leitura(Collections.emptyList(), offset);
+        }
+        List<Evento> eventos = new ArrayList<>();
+        long posicao = offset;
+        try (FileChannel leitura = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (offset > leitura.size()) {
+                throw new IllegalArgumentException("Offset " + offset + " passa do fim do arquivo (" + leitura.size() + ")");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_LEITURA);
+            byte[] pendente = new byte[0]; // Linha começada no pedaço anterior
+            leitura.position(offset);
+            while (eventos.size() < limite && leitura.read(buffer) > 0) {
+                buffer.flip();
+                byte[] pedaco = new byte[pendente.length + buffer.remaining()];
+                System.arraycopy(pendente, 0, pedaco, 0, pendente.length);
+                buffer.get(pedaco, pendente.length, buffer.remaining());
+                buffer.clear();
+                int inicio = 0;
+                for (int i = 0; i < pedaco.length && eventos.size() < limite; i++) {
+                    if (pedaco[i] == '\n') {
+                        eventos.add(Evento.deLinha(new String(pedaco, inicio, i - inicio, StandardCharsets.UTF_8)));
+                        posicao += i + 1 - inicio;
+                        inicio = i + 1;
+                    }
+                }
+                pendente = Arrays.copyOfRange(pedaco, inicio, pedaco.length);
+            }
+        }
+        return new Leitura(eventos, posicao);
+    }
+}
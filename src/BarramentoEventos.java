@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Barramento de eventos dentro do processo (anel de tamanho fixo, sem trava)
+ *
+ * O SistemaBiblioteca publica um Evento a cada cadastro, empréstimo,
+ * devolução e multa; cada assinante (assinar) tem a sua thread, que recebe
+ * os eventos na ordem, em lotes. É o mesmo desenho de um "disruptor":
+ *   - o anel é um array com capacidade potência de 2; cada evento ganha um
+ *     número de sequência (getAndIncrement) e vai pra posição seq & máscara
+ *   - publicados[posição] = seq avisa que a posição já foi escrita - o
+ *     assinante só lê até a primeira sequência que ainda não chegou
+ *   - cada assinante guarda até onde já leu (cursor)
+ *   - contrapressão: antes de escrever, quem publica espera o assinante
+ *     mais atrasado liberar a posição (seq - capacidade < menor cursor).
+ *     Assinante lento segura quem publica em vez de perder evento
+ *
+ * Nada disso pega trava. O assinante parado dorme (park) e quem publica
+ * acorda ele. Um lote que dá exceção é tentado de novo algumas vezes e
+ * depois pulado (conta em getDescartados()), senão um assinante com
+ * defeito travaria a circulação inteira.
+ *
+ * Quem entra depois só recebe os eventos dali pra frente. Pra ler o que
+ * já passou, use um ArquivoEventos como assinante.
+ *
+ * @author Ryan Figueredo
+ */
+public class BarramentoEventos {
+    public static final int CAPACIDADE_PADRAO = 1 << 14;
+    public static final int LOTE_PADRAO = 256;
+    private static final int TENTATIVAS = 3;
+
+    // Recebe os eventos em ordem - a lista é reaproveitada, copie se precisar guardar
+    public interface Consumidor {
+        void receber(List<Evento> lote);
+    }
+
+    private final Evento[] anel;
+    private final int mascara;
+    private final AtomicLongArray publicados;
+    private final AtomicLong proximo = new AtomicLong();
+    private final CopyOnWriteArrayList<Assinatura> assinaturas = new CopyOnWriteArrayList<>();
+    private final LongAdder esperas = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+
+    public BarramentoEventos() {
+        this(CAPACIDADE_PADRAO);
+    }
+
+    public BarramentoEventos(int capacidade) {
+        if (capacidade < 2 || Integer.bitCount(capacidade) != 1) {
+            throw new IllegalArgumentException("Capacidade tem que ser potência de 2: " + capacidade);
+        }
+        this.anel = new Evento[capacidade];
+        this.mascara = capacidade - 1;
+        this.publicados = new AtomicLongArray(capacidade);
+        for (int i = 0; i < capacidade; i++) {
+            publicados.set(i, -1);
+        }
+    }
+
+    // Sem assinante ninguém vai ler - o SistemaBiblioteca nem monta o evento
+    public boolean temAssinantes() {
+        return !assinaturas.isEmpty();
+    }
+
+    // Publica o evento; se o anel está cheio, espera o assinante mais atrasado
+    public void publicar(Evento evento) {
+        long seq = proximo.getAndIncrement();
+        long limite = seq - anel.length;
+        if (limite >= menorCursor()) {
+            esperas.increment();
+            for (int voltas = 0; limite >= menorCursor(); voltas++) {
+                esperar(voltas);
+            }
+        }
+        int posicao = (int) seq & mascara;
+        anel[posicao] = evento;
+        publicados.set(posicao, seq); // Escrita volatile: o evento fica visível pro assinante junto
+        for (Assinatura a : assinaturas) {
+            if (a.dormindo) {
+                LockSupport.unpark(a.thread);
+            }
+        }
+    }
+
+    private long menorCursor() {
+        long menor = Long.MAX_VALUE;
+        for (Assinatura a : assinaturas) {
+            menor = Math.min(menor, a.cursor);
+        }
+        return menor;
+    }
+
+    // Gira um pouco, depois cede a vez, depois dorme - espera curta não paga a troca de contexto
+    private static void esperar(int voltas) {
+        if (voltas < 100) {
+            Thread.onSpinWait();
+        } else if (voltas < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    // Começa a entregar os eventos publicados daqui pra frente ao consumidor, numa thread própria
+    public Assinatura assinar(String nome, Consumidor consumidor) {
+        return assinar(nome, consumidor, LOTE_PADRAO);
+    }
+
+    public Assinatura assinar(String nome, Consumidor consumidor, int maxLote) {
+        Assinatura a = new Assinatura(nome, consumidor, maxLote);
+        a.cursor = proximo.get();
+        assinaturas.add(a);
+        a.thread.start();
+        return a;
+    }
+
+    // Para todos os assinantes (cada um entrega o que já foi publicado antes de parar)
+    public void fechar() {
+        for (Assinatura a : assinaturas) {
+            a.cancelar();
+        }
+    }
+
+    // Quantos eventos já foram publicados
+    public long getPublicados() {
+        return proximo.get();
+    }
+
+    // Quantas vezes alguém teve que esperar vaga no anel (contrapressão)
+    public long getEsperas() {
+        return esperas.sum();
+    }
+
+    // Lotes pulados depois de falhar TENTATIVAS vezes no consumidor
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    public List<Assinatura> getAssinaturas() {
+        return new ArrayList<>(assinaturas);
+    }
+
+    /**
+     * Um assinante do barramento, com a thread e o cursor dele
+     */
+    public final class Assinatura {
+        private final String nome;
+        private final Consumidor consumidor;
+        private final int maxLote;
+        private final Thread thread;
+        private volatile long cursor;      // Próxima sequência a entregar
+        private volatile boolean dormindo;
+        private volatile boolean rodando = true;
+
+        private Assinatura(String nome, Consumidor consumidor, int maxLote) {
+            if (maxLote < 1) {
+                throw new IllegalArgumentException("Lote inválido: " + maxLote);
+            }
+            this.nome = nome;
+            this.consumidor = consumidor;
+            this.maxLote = maxLote;
+            this.thread = new Thread(this::entregar, "eventos-" + nome);
+            this.thread.setDaemon(true);
+        }
+
+        private boolean publicado(long seq) {
+            return publicados.get((int) seq & mascara) == seq;
+        }
+
+        private void entregar() {
+            List<Evento> lote = new ArrayList<>(maxLote);
+            long seq = cursor;
+            int voltas = 0;
+            while (true) {
+                while (lote.size() < maxLote && publicado(seq + lote.size())) {
+                    lote.add(anel[(int) (seq + lote.size()) & mascara]);
+                }
+                if (lote.isEmpty()) {
+                    if (!rodando) {
+                        return; // Já entregou tudo o que tinha sido publicado
+                    }
+                    if (voltas++ < 100) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    // Marca que vai dormir e olha de novo: quem publicar depois disso acorda a thread
+                    dormindo = true;
+                    if (!publicado(seq) && rodando) {
+                        LockSupport.parkNanos(10_000_000);
+                    }
+                    dormindo = false;
+                    continue;
+                }
+                voltas = 0;
+                entregarLote(lote);
+                seq += lote.size();
+                lote.clear();
+                cursor = seq; // Só agora as posições ficam livres pra quem publica
+            }
+        }
+
+        private void entregarLote(List<Evento> lote) {
+            for (int tentativa = 1; ; tentativa++) {
+                try {
+                    consumidor.receber(lote);
+                    return;
+                } catch (RuntimeException e) {
+                    System.err.println("Erro no assinante de eventos '" + nome + "' (tentativa " + tentativa + "): " + e.getMessage());
+                    if (tentativa == TENTATIVAS) {
+                        descartados.increment();
+                        return;
+                    }
+                    LockSupport.parkNanos(100_000_000L * tentativa);
+                }
+            }
+        }
+
+        // Para a thread depois de entregar o que já foi publicado e sai do barramento
+        public void cancelar() {
+            rodando = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assinaturas.remove(this);
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        // Eventos publicados que esse assinante ainda não recebeu
+        public long getPendentes() {
+            return proximo.get() - cursor;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mede o tempo de carga do acervo
+ *
+ * Gera um acervo.csv com N itens (padrão 1 milhão) e compara o jeito antigo
+ * (BufferedReader + split, uma linha por vez) com o CarregadorCsv (blocos
+ * mapeados em memória convertidos em paralelo). As duas versões criam os
+ * objetos Livro/Revista, e a carga completa pelo SistemaBiblioteca também
+ * é medida.
+ *
+ * Uso: java BenchmarkCarregamento [quantidadeItens]
+ *
+ * @author Ryan Figueredo
+ */
+public class BenchmarkCarregamento {
+    private static final int RODADAS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int quantidade = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path pasta = Files.createTempDirectory("bench-carga");
+        Path arquivo = pasta.resolve("acervo.csv");
+        gerarAcervo(arquivo, quantidade);
+        System.out.printf("Arquivo: %d itens, %.1f MB%n", quantidade, Files.size(arquivo) / (1024.0 * 1024.0));
+
+        for (int r = 1; r <= RODADAS; r++) {
+            long t0 = System.nanoTime();
+            int antigo = carregarJeitoAntigo(arquivo);
+            long t1 = System.nanoTime();
+            int novo = CarregadorCsv.carregar(arquivo, SistemaBiblioteca::converterItem).getRegistros().size();
+            long t2 = System.nanoTime();
+            System.out.printf("Rodada %d | antigo: %5d ms (%d itens) | paralelo: %5d ms (%d itens)%n",
+                    r, (t1 - t0) / 1_000_000, antigo, (t2 - t1) / 1_000_000, novo);
+        }
+
+        // Carga completa, incluindo o cadastro nos índices
+        long t0 = System.nanoTime();
+        new SistemaBiblioteca(pasta.toString()).carregarDados();
+        System.out.printf("carregarDados completo: %d ms%n", (System.nanoTime() - t0) / 1_000_000);
+
+        Files.deleteIfExists(arquivo);
+        Files.deleteIfExists(pasta);
+    }
+
+    // O carregamento como era antes do CarregadorCsv
+    private static int carregarJeitoAntigo(Path arquivo) throws IOException {
+        List<ItemDeAcervo> itens = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(arquivo.toFile(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(";");
+                itens.add(SistemaBiblioteca.converterItem(parts));
+            }
+        }
+        return itens.size();
+    }
+
+    // Gera um acervo meio a meio de livros e revistas
+    static void gerarAcervo(Path arquivo, int quantidade) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < quantidade; i++) {
+                if (i % 2 == 0) {
+                    w.write("Livro;L" + i + ";Introdução à Computação vol. " + i + ";" + (1950 + i % 75)
+                            + ";" + (i % 10 == 0) + ";Autor " + (i % 5000) + ";978" + i + ";" + (1 + i % 9));
+                } else {
+                    w.write("Revista;R" + i + ";Revista Científica nº " + i + ";" + (1950 + i % 75)
+                            + ";false;Editora " + (i % 300) + ";" + (i % 120) + ";" + (1000 + i % 9000) + "-" + i);
+                }
+                w.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark dos caminhos mais usados da circulação
+ *
+ * Mede realizarEmprestimo, realizarDevolucao, isAptoParaEmprestimo, as
+ * listagens e salvarDados/carregarDados, numa escala escolhida (10k, 1m ou
+ * 10m itens) e com um histórico de empréstimos já fechado por trás. Os
+ * empréstimos e devoluções rodam com 1 thread e com várias threads, e tem
+ * um cenário de disputa onde todas as threads brigam pelos mesmos itens.
+ *
+ * Cada caso roda algumas vezes e vale a melhor rodada, pra diminuir o
+ * ruído de GC e JIT. Os resultados podem ser gravados num arquivo e comparados com uma rodada
+ * anterior: se algum caso ficar mais lento que a tolerância, o programa
+ * avisa e sai com código 1 (dá pra usar pra pegar regressão).
+ *
+ * Uso: java BenchmarkCirculacao [escala] [historico] [--saida arq] [--base arq] [--tolerancia 0.10]
+ *
+ * @author Ryan Figueredo
+ */
+public class BenchmarkCirculacao {
+    private static final int ITENS_DISPUTADOS = 64;
+    private static final int RODADAS = 5; // Cada caso roda 5 vezes e fica a melhor
+
+    // Um caso medido: quantas operações em quanto tempo
+    private static class Resultado {
+        final String nome;
+        final int threads;
+        final long operacoes;
+        final long nanos;
+
+        Resultado(String nome, int threads, long operacoes, long nanos) {
+            this.nome = nome;
+            this.threads = threads;
+            this.operacoes = operacoes;
+            this.nanos = nanos;
+        }
+
+        String chave() {
+            return nome + "@" + threads;
+        }
+
+        double opsPorSegundo() {
+            return operacoes * 1e9 / nanos;
+        }
+    }
+
+    // Trabalho de uma thread: recebe o número dela e o total de threads, devolve quantas operações fez
+    private interface Tarefa {
+        long executar(int thread, int totalThreads) throws Exception;
+    }
+
+    private final Map<String, Resultado> resultados = new LinkedHashMap<>();
+    private final PrintStream saidaOriginal = System.out;
+    private final PrintStream saidaNula = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        int escala = 10_000;
+        int historico = -1;
+        Path saida = null;
+        Path base = null;
+        double tolerancia = 0.10;
+        List<String> posicionais = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--saida": saida = Paths.get(args[++i]); break;
+                case "--base": base = Paths.get(args[++i]); break;
+                case "--tolerancia": tolerancia = Double.parseDouble(args[++i]); break;
+                default: posicionais.add(args[i]);
+            }
+        }
+        if (posicionais.size() > 0) {
+            escala = lerEscala(posicionais.get(0));
+        }
+        if (posicionais.size() > 1) {
+            historico = lerEscala(posicionais.get(1));
+        }
+        if (historico < 0) {
+            historico = escala; // Por padrão o histórico fechado é do tamanho do acervo
+        }
+
+        BenchmarkCirculacao bench = new BenchmarkCirculacao();
+        bench.executar(escala, historico);
+        bench.imprimir();
+
+        if (saida != null) {
+            bench.gravar(saida);
+        }
+        if (base != null && bench.compararCom(base, tolerancia) > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int lerEscala(String texto) {
+        String t = texto.toLowerCase();
+        if (t.endsWith("k")) {
+            return Integer.parseInt(t.substring(0, t.length() - 1)) * 1_000;
+        }
+        if (t.endsWith("m")) {
+            return Integer.parseInt(t.substring(0, t.length() - 1)) * 1_000_000;
+        }
+        return Integer.parseInt(t);
+    }
+
+    private void executar(int escala, int historico) throws Exception {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int[] threads = cpus > 1 ? new int[] { 1, cpus * 2 } : new int[] { 1, 4 };
+        saidaOriginal.printf("Escala: %,d itens | histórico: %,d empréstimos fechados | CPUs: %d%n%n",
+                escala, historico, cpus);
+
+        // Aquecimento do JIT numa escala pequena - resultado descartado
+        silenciar(() -> {
+            SistemaBiblioteca aquecimento = montarEm(null, Math.min(escala, 20_000), 20_000, null);
+            emprestarTodos(aquecimento, Math.min(escala, 20_000), 2);
+            return 0;
+        });
+        resultados.clear();
+
+        for (int t : threads) {
+            SistemaBiblioteca sistema = montarEm(null, escala, historico, null);
+            // Cada rodada empresta o acervo todo e devolve tudo, então o estado volta ao início
+            for (int r = 0; r < RODADAS; r++) {
+                List<String> ids = new ArrayList<>();
+                medir("realizarEmprestimo", t, (thread, total) -> {
+                    List<String> meus = emprestarParte(sistema, escala, thread, total);
+                    synchronized (ids) {
+                        ids.addAll(meus);
+                    }
+                    return meus.size();
+                });
+                medir("realizarDevolucao", t, (thread, total) -> {
+                    long feitos = 0;
+                    for (int i = thread; i < ids.size(); i += total) {
+                        sistema.realizarDevolucao(ids.get(i));
+                        feitos++;
+                    }
+                    return feitos;
+                });
+            }
+            repetir("disputa(" + ITENS_DISPUTADOS + " itens)", t, (thread, total) -> disputar(sistema, escala, thread));
+        }
+
+        // Lote: cada aluno leva os seus 3 itens num carrinho e tudo volta numa devolução só
+        SistemaBiblioteca emLote = montarEm(null, escala, historico, null);
+        for (int r = 0; r < RODADAS; r++) {
+            List<String> ids = new ArrayList<>();
+            medir("realizarEmprestimos(carrinhos)", 1, (thread, total) -> {
+                Map<String, List<String>> carrinhos = new LinkedHashMap<>();
+                for (int i = 0; i < escala; i++) {
+                    carrinhos.computeIfAbsent("U" + (i / 3), u -> new ArrayList<>()).add("C" + i);
+                }
+                for (ResultadoLote lote : emLote.realizarEmprestimos(carrinhos).values()) {
+                    lote.getLinhas().forEach(l -> ids.add(l.getEmprestimo().getIdEmprestimo()));
+                }
+                return ids.size();
+            });
+            medir("realizarDevolucoes(lote)", 1, (thread, total) -> emLote.realizarDevolucoes(ids).getQuantidadeSucesso());
+        }
+
+        List<Usuario> usuarios = new ArrayList<>();
+        SistemaBiblioteca sistema = montarEm(null, escala, historico, usuarios);
+        repetir("isAptoParaEmprestimo", 1, (thread, total) -> {
+            long chamadas = 0;
+            int aptos = 0;
+            while (chamadas < 2_000_000) {
+                for (Usuario u : usuarios) {
+                    if (u.isAptoParaEmprestimo()) {
+                        aptos++;
+                    }
+                    chamadas++;
+                }
+            }
+            return aptos >= 0 ? chamadas : 0; // Usa "aptos" pro JIT não eliminar o laço
+        });
+
+        // Consultas variadas: palavra inteira, prefixo, duas palavras, com e sem filtro de disponível
+        String[] consultas = { "livro", "revis", "autor 42", "editora 7", "livro 1234", "978" + (escala / 2), "introd" };
+        repetir("buscarNoAcervo", 1, (thread, total) -> {
+            long feitas = 0;
+            for (int k = 0; k < 1_000; k++) {
+                sistema.buscarNoAcervo(consultas[k % consultas.length], 20, k % 2 == 0);
+                feitas++;
+            }
+            return feitas;
+        });
+
+        // Filtros combinados pelos índices secundários, contando e lendo a primeira página
+        IndicesAcervo.Filtro[] filtros = {
+                new IndicesAcervo.Filtro().tipo(Livro.class).anos(2015, 2020).apenasDisponiveis(),
+                new IndicesAcervo.Filtro().tipo(Revista.class).editora("Editora 7"),
+                new IndicesAcervo.Filtro().autor("Autor 42").apenasDisponiveis(),
+                new IndicesAcervo.Filtro().apenasDisponiveis() };
+        repetir("filtrarAcervo", 1, (thread, total) -> {
+            long feitas = 0;
+            for (int k = 0; k < 100; k++) {
+                IndicesAcervo.Resultado r = sistema.filtrarAcervo(filtros[k % filtros.length]);
+                r.contar();
+                r.pagina(0, 20);
+                feitas++;
+            }
+            return feitas;
+        });
+
+        emprestarTodos(sistema, escala / 2, 1); // Metade do acervo emprestada pras listagens de ativos
+        // Listagens: as 10 primeiras páginas de 20 numa ordem que não é a da lista, seguindo o cursor
+        repetir("listarUsuarios(paginas)", 1, (thread, total) -> paginas(c -> sistema.listarUsuarios(
+                Listagens.OrdemUsuarios.NOME, false, c, Listagens.LIMITE_PADRAO)));
+        repetir("listarAcervo(paginas)", 1, (thread, total) -> paginas(c -> sistema.listarAcervo(
+                Listagens.OrdemAcervo.TITULO, false, c, Listagens.LIMITE_PADRAO)));
+        repetir("listarEmprestimosAtivos(paginas)", 1, (thread, total) -> paginas(c -> sistema.listarEmprestimosAtivos(
+                Listagens.OrdemEmprestimos.PREVISTA, true, c, Listagens.LIMITE_PADRAO)));
+        repetir("listarEmprestimosAtrasados(paginas)", 1, (thread, total) -> paginas(c -> sistema.listarEmprestimosAtrasados(
+                Listagens.OrdemEmprestimos.ID, false, c, Listagens.LIMITE_PADRAO)));
+        // Exportação completa em CSV, pra um canal que joga os bytes fora
+        for (Listagens.Tipo tipo : Listagens.Tipo.values()) {
+            repetir("exportar(" + tipo.getNome() + ")", 1, (thread, total) ->
+                    sistema.exportar(tipo, Channels.newChannel(OutputStream.nullOutputStream())));
+        }
+
+        Path pasta = Files.createTempDirectory("bench-circulacao");
+        try {
+            SistemaBiblioteca comPasta = montarEm(pasta, escala, historico, null);
+            for (SistemaBiblioteca.FormatoSnapshot formato : SistemaBiblioteca.FormatoSnapshot.values()) {
+                comPasta.setFormatoSnapshot(formato);
+                repetir("salvarDados(" + formato + ")", 1, (thread, total) -> silenciar(() -> { comPasta.salvarDados(); return 1; }));
+                repetir("carregarDados(" + formato + ")", 1, (thread, total) -> silenciar(() -> {
+                    SistemaBiblioteca novo = new SistemaBiblioteca(pasta.toString());
+                    novo.carregarDados();
+                    novo.fecharJournal();
+                    return 1;
+                }));
+            }
+        } finally {
+            apagarPasta(pasta);
+        }
+    }
+
+    private void repetir(String nome, int qtdThreads, Tarefa tarefa) throws Exception {
+        for (int r = 0; r < RODADAS; r++) {
+            medir(nome, qtdThreads, tarefa);
+        }
+    }
+
+    // Roda a tarefa em N threads ao mesmo tempo e anota o tempo total (fica a melhor rodada)
+    private void medir(String nome, int qtdThreads, Tarefa tarefa) throws Exception {
+        AtomicLong operacoes = new AtomicLong();
+        CountDownLatch largada = new CountDownLatch(1);
+        CountDownLatch fim = new CountDownLatch(qtdThreads);
+        List<Exception> erros = new ArrayList<>();
+        for (int t = 0; t < qtdThreads; t++) {
+            final int thread = t;
+            Thread th = new Thread(() -> {
+                try {
+                    largada.await();
+                    operacoes.addAndGet(tarefa.executar(thread, qtdThreads));
+                } catch (Exception e) {
+                    synchronized (erros) {
+                        erros.add(e);
+                    }
+                } finally {
+                    fim.countDown();
+                }
+            });
+            th.start();
+        }
+        long inicio = System.nanoTime();
+        largada.countDown();
+        fim.await();
+        long nanos = System.nanoTime() - inicio;
+        if (!erros.isEmpty()) {
+            throw erros.get(0);
+        }
+        Resultado r = new Resultado(nome, qtdThreads, operacoes.get(), nanos);
+        resultados.merge(r.chave(), r, (antes, agora) -> agora.opsPorSegundo() > antes.opsPorSegundo() ? agora : antes);
+    }
+
+    // Até 10 páginas seguidas pelo cursor - retorna quantas linhas vieram
+    private static long paginas(Function<String, Listagens.Pagina<?>> listar) {
+        long linhas = 0;
+        String cursor = null;
+        for (int p = 0; p < 10; p++) {
+            Listagens.Pagina<?> pagina = listar.apply(cursor);
+            linhas += pagina.getItens().size();
+            if (!pagina.temMais()) {
+                break;
+            }
+            cursor = pagina.getProximoCursor();
+        }
+        return linhas;
+    }
+
+    // Executa com o System.out jogado fora (o salvar/carregar imprime)
+    private long silenciar(Callable<Integer> acao) throws Exception {
+        System.setOut(saidaNula);
+        try {
+            return acao.call();
+        } finally {
+            System.setOut(saidaOriginal);
+        }
+    }
+
+    // Acervo de livros e revistas, um aluno a cada 3 itens (limite de 3) e o histórico fechado
+    // Sem pasta o sistema não tem journal; os usuários criados vão pra lista, se informada
+    private static SistemaBiblioteca montarEm(Path pasta, int escala, int historico, List<Usuario> usuarios)
+            throws RegraDeNegocioException {
+        SistemaBiblioteca sistema = pasta == null ? new SistemaBiblioteca() : new SistemaBiblioteca(pasta.toString());
+        int qtdUsuarios = escala / 3 + 1;
+        for (int u = 0; u < qtdUsuarios; u++) {
+            Aluno aluno = new Aluno("U" + u, "Aluno " + u, "Rua " + u, "M" + u, "Curso " + (u % 40));
+            sistema.adicionarUsuario(aluno);
+            if (usuarios != null) {
+                usuarios.add(aluno);
+            }
+        }
+        for (int i = 0; i < escala; i++) {
+            if (i % 2 == 0) {
+                sistema.adicionarItem(new Livro("C" + i, "Livro " + i, 1950 + i % 75, "Autor " + (i % 5000), "978" + i, 1));
+            } else {
+                sistema.adicionarItem(new Revista("C" + i, "Revista " + i, 1950 + i % 75, "Editora " + (i % 300), i % 120, "ISSN" + i));
+            }
+        }
+        // Histórico: empresta e devolve no mesmo dia (sem multa) até ter a profundidade pedida
+        for (int h = 0; h < historico; h++) {
+            Emprestimo e = sistema.realizarEmprestimo("U" + (h % qtdUsuarios), "C" + (h % escala));
+            sistema.realizarDevolucao(e.getIdEmprestimo());
+        }
+        return sistema;
+    }
+
+    // Empresta os itens da parte da thread: item i vai pro usuário i/3
+    private static List<String> emprestarParte(SistemaBiblioteca sistema, int qtdItens, int thread, int total)
+            throws RegraDeNegocioException {
+        List<String> ids = new ArrayList<>();
+        for (int i = thread; i < qtdItens; i += total) {
+            ids.add(sistema.realizarEmprestimo("U" + (i / 3), "C" + i).getIdEmprestimo());
+        }
+        return ids;
+    }
+
+    private static void emprestarTodos(SistemaBiblioteca sistema, int qtdItens, int threads) throws RegraDeNegocioException {
+        for (int t = 0; t < threads; t++) {
+            emprestarParte(sistema, qtdItens, t, threads);
+        }
+    }
+
+    // Todas as threads emprestam e devolvem os mesmos poucos itens - conta tentativas (com ou sem sucesso)
+    private static long disputar(SistemaBiblioteca sistema, int escala, int thread) {
+        Random random = new Random(thread);
+        int qtdUsuarios = escala / 3 + 1;
+        int itens = Math.min(ITENS_DISPUTADOS, escala);
+        long tentativas = 0;
+        List<String> meus = new ArrayList<>();
+        for (int op = 0; op < 200_000; op++) {
+            try {
+                if (!meus.isEmpty() && random.nextBoolean()) {
+                    sistema.realizarDevolucao(meus.remove(meus.size() - 1));
+                } else {
+                    meus.add(sistema.realizarEmprestimo("U" + random.nextInt(qtdUsuarios),
+                            "C" + random.nextInt(itens)).getIdEmprestimo());
+                }
+            } catch (RegraDeNegocioException e) {
+                // RN1/RN2 fazem parte da disputa
+            }
+            tentativas++;
+        }
+        for (String id : meus) {
+            try {
+                sistema.realizarDevolucao(id);
+            } catch (RegraDeNegocioException e) {
+                // Já devolvido
+            }
+        }
+        return tentativas;
+    }
+
+    private void imprimir() {
+        for (Resultado r : resultados.values()) {
+            saidaOriginal.printf("%-32s %3d thread(s) | %,12d ops | %,10.1f ms | %,14.0f ops/s%n",
+                    r.nome, r.threads, r.operacoes, r.nanos / 1e6, r.opsPorSegundo());
+        }
+    }
+
+    // Formato: chave;operacoes;nanos;ops_por_s
+    private void gravar(Path arquivo) throws IOException {
+        List<String> linhas = new ArrayList<>();
+        for (Resultado r : resultados.values()) {
+            linhas.add(r.chave() + ";" + r.operacoes + ";" + r.nanos + ";" + (long) r.opsPorSegundo());
+        }
+        Files.write(arquivo, linhas, StandardCharsets.UTF_8);
+        saidaOriginal.println("Resultados gravados em " + arquivo);
+    }
+
+    // Compara com uma rodada anterior e devolve quantos casos pioraram além da tolerância
+    private int compararCom(Path arquivo, double tolerancia) throws IOException {
+        Map<String, Double> anterior = new HashMap<>();
+        for (String linha : Files.readAllLines(arquivo, StandardCharsets.UTF_8)) {
+            String[] campos = CarregadorCsv.dividir(linha);
+            anterior.put(campos[0], Double.parseDouble(campos[3]));
+        }
+        int regressoes = 0;
+        saidaOriginal.println("\nComparação com " + arquivo + " (tolerância " + (int) (tolerancia * 100) + "%):");
+        for (Resultado r : resultados.values()) {
+            Double antes = anterior.get(r.chave());
+            if (antes == null) {
+                continue;
+            }
+            double variacao = r.opsPorSegundo() / antes - 1;
+            boolean regressao = variacao < -tolerancia;
+            if (regressao) {
+                regressoes++;
+            }
+            saidaOriginal.printf("  %-40s %+7.1f%%%s%n", r.chave(), variacao * 100, regressao ? "  <-- REGRESSÃO" : "");
+        }
+        return regressoes;
+    }
+
+    private static void apagarPasta(Path pasta) throws IOException {
+        try (Stream<Path> arquivos = Files.list(pasta)) {
+            for (Path p : (Iterable<Path>) arquivos::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(pasta);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Mede quanto heap cada item do acervo custa
+ *
+ * Gera N itens (padrão 1 milhão), metade livros e metade revistas, com
+ * autores e editoras repetidos como num catálogo de verdade (cada linha
+ * com a sua cópia da String, como vem de um arquivo), e mede o heap usado
+ * depois de um System.gc() em três jeitos de guardar:
+ *   - o AcervoColunar
+ *   - só os objetos Livro/Revista numa lista
+ *   - o SistemaBiblioteca inteiro (objetos + índices)
+ *
+ * O número é aproximado (o gc não promete nada), mas dá a ordem de grandeza.
+ * Pra 10 milhões de itens use um heap maior: java -Xmx6g BenchmarkMemoria 10000000
+ *
+ * Uso: java BenchmarkMemoria [quantidadeItens]
+ *
+ * @author Ryan Figueredo
+ */
+public class BenchmarkMemoria {
+
+    public static void main(String[] args) throws IOException, RegraDeNegocioException {
+        int quantidade = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.println("Itens: " + quantidade + " | heap máximo: "
+                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+
+        // O SistemaBiblioteca fica por último: ele deixa coisas vivas (journal, JMX) que
+        // atrapalhariam a medida dos outros dois
+        long base = heapUsado();
+        AcervoColunar colunar = new AcervoColunar(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            colunar.adicionar(gerarItem(i)); // O objeto gerado vira lixo logo depois da cópia
+        }
+        colunar.compactar();
+        mostrar("AcervoColunar", heapUsado() - base, quantidade);
+        System.out.println("   (colunas: " + colunar.bytesOcupados() / quantidade + " bytes/item, "
+                + colunar.contarDisponiveis() + " itens disponíveis)");
+        colunar = null;
+
+        base = heapUsado();
+        List<ItemDeAcervo> lista = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            lista.add(gerarItem(i));
+        }
+        mostrar("objetos numa lista", heapUsado() - base, quantidade);
+        lista = null;
+
+        Path pasta = Files.createTempDirectory("bench-memoria");
+        base = heapUsado();
+        SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+        for (int i = 0; i < quantidade; i++) {
+            sistema.adicionarItem(gerarItem(i));
+        }
+        mostrar("SistemaBiblioteca", heapUsado() - base, quantidade);
+        sistema.fecharJournal();
+
+        try (Stream<Path> arquivos = Files.list(pasta)) {
+            for (Path p : (Iterable<Path>) arquivos::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(pasta);
+    }
+
+    // Mesmos itens do BenchmarkSnapshot, com Strings novas a cada item
+    static ItemDeAcervo gerarItem(int i) {
+        if (i % 2 == 0) {
+            return new Livro("L" + i, "Introdução à Computação vol. " + i, 1950 + i % 75,
+                    "Autor " + (i % 5000), "978" + i, 1 + i % 9);
+        }
+        return new Revista("R" + i, "Revista Científica nº " + i, 1950 + i % 75,
+                "Editora " + (i % 300), i % 120, "1000-" + i);
+    }
+
+    private static void mostrar(String nome, long bytes, int quantidade) {
+        System.out.printf(">> %-20s | %8.1f MB | %6.1f bytes/item%n",
+                nome, bytes / (1024.0 * 1024.0), (double) bytes / quantidade);
+    }
+
+    // Heap em uso depois de deixar o gc rodar até estabilizar
+    private static long heapUsado() {
+        Runtime rt = Runtime.getRuntime();
+        long anterior = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long usado = rt.totalMemory() - rt.freeMemory();
+            if (usado >= anterior) {
+                return usado;
+            }
+            anterior = usado;
+        }
+        return anterior;
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+/**
+ * Compara o snapshot em CSV com o snapshot binário
+ *
+ * Monta um sistema com N itens (padrão 1 milhão), N/10 usuários e N/10
+ * empréstimos, salva nos dois formatos e mede tamanho em disco, tempo de
+ * gravação e tempo de carga.
+ *
+ * Uso: java BenchmarkSnapshot [quantidadeItens]
+ *
+ * @author Ryan Figueredo
+ */
+public class BenchmarkSnapshot {
+    private static final int RODADAS = 3;
+
+    public static void main(String[] args) throws IOException, RegraDeNegocioException {
+        int quantidade = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path pasta = Files.createTempDirectory("bench-snapshot");
+        SistemaBiblioteca sistema = montarSistema(pasta, quantidade);
+
+        for (SistemaBiblioteca.FormatoSnapshot formato : SistemaBiblioteca.FormatoSnapshot.values()) {
+            sistema.setFormatoSnapshot(formato);
+            long melhorGravacao = Long.MAX_VALUE;
+            long melhorCarga = Long.MAX_VALUE;
+            for (int r = 0; r < RODADAS; r++) {
+                long t0 = System.nanoTime();
+                sistema.salvarDados();
+                long t1 = System.nanoTime();
+                SistemaBiblioteca carregado = new SistemaBiblioteca(pasta.toString());
+                carregado.carregarDados();
+                long t2 = System.nanoTime();
+                carregado.fecharJournal();
+                melhorGravacao = Math.min(melhorGravacao, t1 - t0);
+                melhorCarga = Math.min(melhorCarga, t2 - t1);
+            }
+            System.out.printf("%n>> %-8s | tamanho: %6.1f MB | gravação: %5d ms | carga: %5d ms%n%n",
+                    formato, tamanhoDosDados(pasta, formato) / (1024.0 * 1024.0),
+                    melhorGravacao / 1_000_000, melhorCarga / 1_000_000);
+        }
+
+        try (Stream<Path> arquivos = Files.list(pasta)) {
+            for (Path p : (Iterable<Path>) arquivos::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(pasta);
+    }
+
+    static SistemaBiblioteca montarSistema(Path pasta, int quantidade) throws RegraDeNegocioException {
+        SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+        String[] cursos = { "Eng. Comp.", "ADS", "Direito", "Medicina", "Administração" };
+        int qtdUsuarios = Math.max(1, quantidade / 10);
+        for (int i = 0; i < qtdUsuarios; i++) {
+            if (i % 20 == 0) {
+                sistema.adicionarUsuario(new Professor("P" + i, "Professor " + i, "Rua " + i, "S" + i, "Departamento " + (i % 12)));
+            } else {
+                sistema.adicionarUsuario(new Aluno("A" + i, "Aluno " + i, "Rua " + i, "M" + i, cursos[i % cursos.length]));
+            }
+        }
+        for (int i = 0; i < quantidade; i++) {
+            if (i % 2 == 0) {
+                sistema.adicionarItem(new Livro("L" + i, "Introdução à Computação vol. " + i, 1950 + i % 75,
+                        "Autor " + (i % 5000), "978" + i, 1 + i % 9));
+            } else {
+                sistema.adicionarItem(new Revista("R" + i, "Revista Científica nº " + i, 1950 + i % 75,
+                        "Editora " + (i % 300), i % 120, "1000-" + i));
+            }
+        }
+        // Um empréstimo aberto pra cada usuário (o primeiro item par que couber)
+        for (int i = 0; i < qtdUsuarios && 2 * i < quantidade; i++) {
+            String idUsuario = (i % 20 == 0 ? "P" : "A") + i;
+            sistema.realizarEmprestimo(idUsuario, "L" + (2 * i));
+        }
+        System.out.println("Sistema montado: " + quantidade + " itens, " + qtdUsuarios + " usuários, "
+                + sistema.getHistoricoEmprestimos().size() + " empréstimos (" + LocalDate.now() + ")");
+        return sistema;
+    }
+
+    private static long tamanhoDosDados(Path pasta, SistemaBiblioteca.FormatoSnapshot formato) throws IOException {
+        if (formato == SistemaBiblioteca.FormatoSnapshot.BINARIO) {
+            return Files.size(pasta.resolve("biblioteca.snap"));
+        }
+        return Files.size(pasta.resolve("usuarios.csv")) + Files.size(pasta.resolve("acervo.csv"))
+                + Files.size(pasta.resolve("emprestimos.csv"));
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Classe que lê os arquivos CSV do sistema em paralelo
+ *
+ * O arquivo é dividido em blocos que sempre terminam numa quebra de linha.
+ * Cada bloco é mapeado em memória (FileChannel.map) e convertido numa thread
+ * do pool fork-join (parallelStream). Os campos são separados com indexOf,
+ * sem regex. Uma linha com defeito vira um erro no resultado em vez de
+ * derrubar o arquivo inteiro.
+ *
+ * @author Ryan Figueredo
+ */
+public class CarregadorCsv {
+    private static final int TAMANHO_BLOCO = 4 * 1024 * 1024; // 4 MB por bloco
+    private static final char SEPARADOR = ';';
+
+    // Converte os campos de uma linha num objeto
+    // Pode lançar qualquer RuntimeException - a linha vira erro no resultado
+    public interface Conversor<T> {
+        T converter(String[] campos);
+    }
+
+    // Resultado da leitura: os objetos na ordem do arquivo e as linhas com erro
+    public static class Resultado<T> {
+        private final List<T> registros;
+        private final List<String> erros;
+        private final int totalLinhas;
+
+        private Resultado(List<T> registros, List<String> erros, int totalLinhas) {
+            this.registros = registros;
+            this.erros = erros;
+            this.totalLinhas = totalLinhas;
+        }
+
+        public List<T> getRegistros() {
+            return registros;
+        }
+
+        public List<String> getErros() {
+            return erros;
+        }
+
+        public int getTotalLinhas() {
+            return totalLinhas;
+        }
+    }
+
+    // Resultado parcial de um bloco - os números de linha ainda são locais
+    private static class ResultadoBloco<T> {
+        final List<T> registros = new ArrayList<>();
+        final List<Integer> linhasComErro = new ArrayList<>();
+        final List<String> mensagensErro = new ArrayList<>();
+        int linhas;
+    }
+
+    private CarregadorCsv() {
+    }
+
+    // Lê o arquivo todo e converte cada linha com o conversor
+    public static <T> Resultado<T> carregar(Path arquivo, Conversor<T> conversor) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            List<long[]> blocos = dividirEmBlocos(canal);
+
+            // Cada bloco é convertido numa thread do pool fork-join comum
+            // O collect mantém a ordem dos blocos, então a ordem do arquivo é preservada
+            List<ResultadoBloco<T>> parciais = blocos.parallelStream()
+                    .map(b -> converterBloco(canal, b[0], b[1], conversor))
+                    .collect(Collectors.toList());
+
+            // Junta tudo e corrige o número das linhas com erro (soma das linhas dos blocos anteriores)
+            List<T> registros = new ArrayList<>();
+            List<String> erros = new ArrayList<>();
+            int linhasAntes = 0;
+            for (ResultadoBloco<T> parcial : parciais) {
+                registros.addAll(parcial.registros);
+                for (int i = 0; i < parcial.linhasComErro.size(); i++) {
+                    erros.add("Linha " + (linhasAntes + parcial.linhasComErro.get(i)) + ": " + parcial.mensagensErro.get(i));
+                }
+                linhasAntes += parcial.linhas;
+            }
+            return new Resultado<>(registros, erros, linhasAntes);
+        }
+    }
+
+    // Divide o arquivo em blocos [inicio, fim) que terminam logo depois de um '\n'
+    private static List<long[]> dividirEmBlocos(FileChannel canal) throws IOException {
+        List<long[]> blocos = new ArrayList<>();
+        long tamanho = canal.size();
+        ByteBuffer busca = ByteBuffer.allocate(8192);
+        long inicio = 0;
+        while (inicio < tamanho) {
+            long fim = Math.min(inicio + TAMANHO_BLOCO, tamanho);
+            // Anda até o fim da linha pra não cortar um registro no meio
+            while (fim < tamanho) {
+                busca.clear();
+                int lidos = canal.read(busca, fim);
+                if (lidos <= 0) {
+                    fim = tamanho;
+                    break;
+                }
+                int i = 0;
+                while (i < lidos && busca.get(i) != '\n') {
+                    i++;
+                }
+                if (i < lidos) {
+                    fim += i + 1;
+                    break;
+                }
+                fim += lidos;
+            }
+            blocos.add(new long[] { inicio, fim });
+            inicio = fim;
+        }
+        return blocos;
+    }
+
+    private static <T> ResultadoBloco<T> converterBloco(FileChannel canal, long inicio, long fim, Conversor<T> conversor) {
+        ResultadoBloco<T> resultado = new ResultadoBloco<>();
+        String texto;
+        try {
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio);
+            texto = StandardCharsets.UTF_8.decode(mapa).toString();
+        } catch (IOException e) {
+            resultado.linhasComErro.add(1);
+            resultado.mensagensErro.add("bloco ilegível a partir do byte " + inicio + " (" + e.getMessage() + ")");
+            return resultado;
+        }
+
+        int pos = 0;
+        int tamanho = texto.length();
+        while (pos < tamanho) {
+            int quebra = texto.indexOf('\n', pos);
+            int fimLinha = quebra < 0 ? tamanho : quebra;
+            // Aceita arquivo salvo no Windows (\r\n)
+            int fimConteudo = fimLinha > pos && texto.charAt(fimLinha - 1) == '\r' ? fimLinha - 1 : fimLinha;
+            resultado.linhas++;
+
+            if (fimConteudo > pos) { // Linha em branco não é erro, só é pulada
+                String linha = texto.substring(pos, fimConteudo);
+                try {
+                    resultado.registros.add(conversor.converter(dividir(linha)));
+                } catch (RuntimeException e) {
+                    resultado.linhasComErro.add(resultado.linhas);
+                    resultado.mensagensErro.add(descreverErro(e) + " -> " + linha);
+                }
+            }
+            pos = fimLinha + 1;
+        }
+        return resultado;
+    }
+
+    // Separa os campos pelo ';' sem usar regex (String.split)
+    public static String[] dividir(String linha) {
+        int qtdCampos = 1;
+        for (int i = 0; i < linha.length(); i++) {
+            if (linha.charAt(i) == SEPARADOR) {
+                qtdCampos++;
+            }
+        }
+        String[] campos = new String[qtdCampos];
+        int inicio = 0;
+        for (int c = 0; c < qtdCampos - 1; c++) {
+            int fim = linha.indexOf(SEPARADOR, inicio);
+            campos[c] = linha.substring(inicio, fim);
+            inicio = fim + 1;
+        }
+        campos[qtdCampos - 1] = linha.substring(inicio);
+        return campos;
+    }
+
+    private static String descreverErro(RuntimeException e) {
+        if (e instanceof NumberFormatException) {
+            return "número inválido (" + e.getMessage() + ")";
+        }
+        if (e instanceof ArrayIndexOutOfBoundsException) {
+            return "faltam campos";
+        }
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Catálogo só de leitura num arquivo mapeado em memória (catalogo.map)
+ *
+ * Todo balcão que reinicia passa pelo carregarDados(): lê o acervo inteiro
+ * e cria um Livro/Revista por item antes do primeiro empréstimo. Aqui o
+ * catálogo é gravado uma vez (gravar) num formato que dá pra usar direto
+ * do arquivo: abrir() só mapeia e lê o cabeçalho, qualquer que seja o
+ * tamanho do acervo. Vários processos na mesma máquina abrindo o mesmo
+ * arquivo dividem as mesmas páginas do cache do sistema operacional.
+ *
+ * O arquivo tem um registro de tamanho fixo por item (24 bytes: tipo,
+ * exemplares, ano, edição/volume e a posição de cada texto), os textos em
+ * UTF-8 logo depois (autor/editora repetido é gravado uma vez só) e uma
+ * tabela hash de int pra achar o item pelo código. Nada disso é copiado
+ * pro heap: item(n) e buscar(codigo) devolvem a mesma visão leve do
+ * AcervoColunar (ColunasAcervo), que lê o campo do arquivo na hora.
+ *
+ * No heap fica só o que muda: os bits de exemplar fora da estante, em
+ * páginas de 4096 itens criadas no primeiro empréstimo de um item da
+ * página. No SistemaBiblioteca (usarCatalogoMapeado) quem mexe nos bits
+ * são os empréstimos e reservas, da carga e do balcão; aberto direto, quem
+ * abre marca os exemplares que já estão fora (marcar). O arquivo em si
+ * nunca é alterado - mudou o acervo, grava de novo.
+ *
+ * Máximo de 64 exemplares por título e 2 GB de arquivo (um mapeamento só).
+ *
+ * @author Ryan Figueredo
+ */
+public class CatalogoMapeado implements ColunasAcervo {
+    private static final int MAGICO = 0x42494243; // "BIBC"
+    private static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 32;
+    private static final int TAMANHO_REGISTRO = 24;
+    private static final int BITS_PAGINA = 12;
+    private static final int ITENS_PAGINA = 1 << BITS_PAGINA;
+
+    private static final byte TIPO_LIVRO = 1;
+    private static final byte TIPO_REVISTA = 2;
+
+    // Posições dentro do registro
+    private static final int R_TIPO = 0;
+    private static final int R_EXEMPLARES = 1;
+    private static final int R_ANO = 2;
+    private static final int R_NUMERO = 4;
+    private static final int R_CODIGO = 8;
+    private static final int R_TITULO = 12;
+    private static final int R_IDENTIFICADOR = 16;
+    private static final int R_NOME = 20;
+
+    private final MappedByteBuffer mapa;
+    private final int tamanho;
+    private final int tamanhoTabela;
+    private final int posTabela;
+    private final int posRegistros;
+    // Bits de exemplar ocupado, uma página por 4096 itens (null até alguém pegar um exemplar dela)
+    private final AtomicReferenceArray<AtomicLongArray> paginas;
+
+    private CatalogoMapeado(MappedByteBuffer mapa, Path arquivo) throws IOException {
+        this.mapa = mapa;
+        if (mapa.capacity() < TAMANHO_CABECALHO || mapa.getInt(0) != MAGICO) {
+            throw new IOException("Arquivo não é um catálogo: " + arquivo);
+        }
+        int versao = mapa.getInt(4);
+        if (versao > VERSAO) {
+            throw new IOException("Catálogo " + arquivo + " é de uma versão mais nova (" + versao + ")");
+        }
+        this.tamanho = mapa.getInt(8);
+        this.tamanhoTabela = mapa.getInt(12);
+        this.posTabela = mapa.getInt(16);
+        this.posRegistros = mapa.getInt(20);
+        if (mapa.getInt(28) != mapa.capacity()) {
+            throw new IOException("Catálogo " + arquivo + " está truncado");
+        }
+        this.paginas = new AtomicReferenceArray<>((tamanho + ITENS_PAGINA - 1) >>> BITS_PAGINA);
+    }
+
+    // Mapeia o arquivo - não lê item nenhum
+    public static CatalogoMapeado abrir(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            return new CatalogoMapeado(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()), arquivo);
+        }
+    }
+
+    // ---------------------------------------------------------------- gravação
+
+    // Cabeçalho: MAGICO, VERSAO, quantidade, tamanho da tabela, posição da tabela,
+    //            dos registros e dos textos, tamanho do arquivo
+    // Tabela:    número do item + 1 (0 = vazio), sondagem linear, no máximo metade cheia
+    // Registros: TAMANHO_REGISTRO bytes por item
+    // Textos:    [tamanho (2 bytes)][UTF-8]
+    // Código repetido fica só o primeiro, como no SistemaBiblioteca
+    public static void gravar(Path arquivo, Collection<? extends ItemDeAcervo> itens) throws IOException {
+        ItemDeAcervo[] copia = itens.toArray(new ItemDeAcervo[0]); // Lista sincronizada: copia com a trava
+
+        // 1ª passada: quais entram, tamanho dos textos e a tabela de códigos
+        BitSet repetidos = new BitSet(copia.length);
+        Set<String> vistos = new HashSet<>();
+        Map<String, Integer> nomes = new HashMap<>();
+        long bytesTextos = 0;
+        int quantidade = 0;
+        for (int i = 0; i < copia.length; i++) {
+            ItemDeAcervo item = copia[i];
+            if (!vistos.add(item.getCodigo())) {
+                repetidos.set(i);
+                continue;
+            }
+            if (item.getQuantidadeExemplares() > AcervoColunar.MAX_EXEMPLARES) {
+                throw new IllegalArgumentException("O catálogo aceita até " + AcervoColunar.MAX_EXEMPLARES
+                        + " exemplares por título ('" + item.getCodigo() + "' tem " + item.getQuantidadeExemplares() + ")");
+            }
+            bytesTextos += tamanhoTexto(item.getCodigo()) + tamanhoTexto(item.getTitulo()) + tamanhoTexto(identificador(item));
+            String nome = nome(item);
+            if (nomes.putIfAbsent(nome, -1) == null) {
+                bytesTextos += tamanhoTexto(nome);
+            }
+            quantidade++;
+        }
+        vistos = null;
+        int tamanhoTabela = Integer.highestOneBit(Math.max(quantidade, 8) - 1) << 2;
+        int[] tabela = new int[tamanhoTabela];
+        long posTabela = TAMANHO_CABECALHO;
+        long posRegistros = posTabela + 4L * tamanhoTabela;
+        long posTextos = posRegistros + (long) TAMANHO_REGISTRO * quantidade;
+        long total = posTextos + bytesTextos;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("O catálogo passaria de 2 GB (" + total / (1024 * 1024) + " MB)");
+        }
+
+        // 2ª passada: grava direto no arquivo mapeado
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer saida = canal.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            saida.putInt(0, MAGICO).putInt(4, VERSAO).putInt(8, quantidade).putInt(12, tamanhoTabela)
+                    .putInt(16, (int) posTabela).putInt(20, (int) posRegistros).putInt(24, (int) posTextos)
+                    .putInt(28, (int) total);
+            int texto = (int) posTextos;
+            int n = 0;
+            for (int i = 0; i < copia.length; i++) {
+                if (repetidos.get(i)) {
+                    continue;
+                }
+                ItemDeAcervo item = copia[i];
+                int r = (int) posRegistros + n * TAMANHO_REGISTRO;
+                boolean livro = item instanceof Livro;
+                if (!livro && !(item instanceof Revista)) {
+                    throw new IllegalArgumentException("Tipo de item sem formato no catálogo: " + item.getClass().getSimpleName());
+                }
+                saida.put(r + R_TIPO, livro ? TIPO_LIVRO : TIPO_REVISTA);
+                saida.put(r + R_EXEMPLARES, (byte) item.getQuantidadeExemplares());
+                saida.putShort(r + R_ANO, (short) item.getAnoPublicacao());
+                saida.putInt(r + R_NUMERO, livro ? ((Livro) item).getEdicao() : ((Revista) item).getVolume());
+
+                byte[] codigo = utf8(item.getCodigo());
+                saida.putInt(r + R_CODIGO, texto);
+                texto = escreverTexto(saida, texto, codigo);
+                saida.putInt(r + R_TITULO, texto);
+                texto = escreverTexto(saida, texto, utf8(item.getTitulo()));
+                saida.putInt(r + R_IDENTIFICADOR, texto);
+                texto = escreverTexto(saida, texto, utf8(identificador(item)));
+                String nome = nome(item);
+                int posNome = nomes.get(nome);
+                if (posNome < 0) {
+                    posNome = texto;
+                    nomes.put(nome, posNome);
+                    texto = escreverTexto(saida, texto, utf8(nome));
+                }
+                saida.putInt(r + R_NOME, posNome);
+
+                int mascara = tamanhoTabela - 1;
+                int t = hash(codigo) & mascara;
+                while (tabela[t] != 0) {
+                    t = (t + 1) & mascara;
+                }
+                tabela[t] = n + 1;
+                n++;
+            }
+            saida.position((int) posTabela);
+            saida.asIntBuffer().put(tabela);
+            saida.force();
+        }
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String identificador(ItemDeAcervo item) {
+        return texto(item instanceof Livro ? ((Livro) item).getIsbn() : ((Revista) item).getIssn());
+    }
+
+    private static String nome(ItemDeAcervo item) {
+        return texto(item instanceof Livro ? ((Livro) item).getAutor() : ((Revista) item).getEditora());
+    }
+
+    private static String texto(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] b = texto(s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF) {
+            throw new IllegalArgumentException("Texto grande demais pro catálogo (" + b.length + " bytes)");
+        }
+        return b;
+    }
+
+    private static long tamanhoTexto(String s) {
+        return 2 + utf8(s).length;
+    }
+
+    private static int escreverTexto(MappedByteBuffer saida, int pos, byte[] b) {
+        saida.putShort(pos, (short) b.length);
+        saida.put(pos + 2, b);
+        return pos + 2 + b.length;
+    }
+
+    // Mesmo FNV-1a do AcervoColunar
+    private static int hash(byte[] b) {
+        int h = 0x811C9DC5;
+        for (byte x : b) {
+            h = (h ^ x) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // ---------------------------------------------------------------- consultas
+
+    // Número do item com esse código, ou -1 (só lê a tabela e os códigos mapeados)
+    public int numeroDe(String codigo) {
+        byte[] procurado = codigo.getBytes(StandardCharsets.UTF_8);
+        int mascara = tamanhoTabela - 1;
+        for (int t = hash(procurado) & mascara; ; t = (t + 1) & mascara) {
+            int n = mapa.getInt(posTabela + 4 * t);
+            if (n == 0) {
+                return -1;
+            }
+            if (textoIgual(registro(n - 1) + R_CODIGO, procurado)) {
+                return n - 1;
+            }
+        }
+    }
+
+    private boolean textoIgual(int campo, byte[] procurado) {
+        int pos = mapa.getInt(campo);
+        if ((mapa.getShort(pos) & 0xFFFF) != procurado.length) {
+            return false;
+        }
+        for (int i = 0; i < procurado.length; i++) {
+            if (mapa.get(pos + 2 + i) != procurado[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Visão do item com esse código, ou null
+    public ItemDeAcervo buscar(String codigo) {
+        int n = numeroDe(codigo);
+        return n < 0 ? null : item(n);
+    }
+
+    // Visão do item na posição n (0 até tamanho() - 1)
+    public ItemDeAcervo item(int n) {
+        if (n < 0 || n >= tamanho) {
+            throw new IndexOutOfBoundsException("Item " + n + " fora do catálogo (tamanho " + tamanho + ")");
+        }
+        return ColunasAcervo.visao(this, n, mapa.get(registro(n) + R_TIPO) == TIPO_LIVRO);
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    // Itens com pelo menos um exemplar na estante
+    public int contarDisponiveis() {
+        int total = 0;
+        for (int n = 0; n < tamanho; n++) {
+            if (livres(n) > 0) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    // Marca um exemplar como fora da estante (empréstimo em aberto ou separado pra reserva)
+    // Retorna false se o código ou o exemplar não existe, ou se ele já estava marcado
+    public boolean marcar(String codigo, int exemplar) {
+        int n = numeroDe(codigo);
+        return n >= 0 && exemplar >= 0 && exemplar < exemplares(n) && trocar(n, exemplar, true);
+    }
+
+    // Heap usado pelos bits de exemplar (a única parte do catálogo que não fica no arquivo)
+    public long bytesNoHeap() {
+        long total = 16L + 4L * paginas.length();
+        for (int p = 0; p < paginas.length(); p++) {
+            if (paginas.get(p) != null) {
+                total += 16 + 8L * ITENS_PAGINA;
+            }
+        }
+        return total;
+    }
+
+    public long bytesArquivo() {
+        return mapa.capacity();
+    }
+
+    // ---------------------------------------------------------------- colunas (usadas pelas visões)
+
+    private int registro(int n) {
+        return posRegistros + n * TAMANHO_REGISTRO;
+    }
+
+    private String lerTexto(int campo) {
+        int pos = mapa.getInt(campo);
+        byte[] b = new byte[mapa.getShort(pos) & 0xFFFF];
+        mapa.get(pos + 2, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String codigo(int n) {
+        return lerTexto(registro(n) + R_CODIGO);
+    }
+
+    @Override
+    public String titulo(int n) {
+        return lerTexto(registro(n) + R_TITULO);
+    }
+
+    @Override
+    public String identificador(int n) {
+        return lerTexto(registro(n) + R_IDENTIFICADOR);
+    }
+
+    @Override
+    public String nome(int n) {
+        return lerTexto(registro(n) + R_NOME);
+    }
+
+    @Override
+    public int ano(int n) {
+        return mapa.getShort(registro(n) + R_ANO);
+    }
+
+    @Override
+    public int numero(int n) {
+        return mapa.getInt(registro(n) + R_NUMERO);
+    }
+
+    @Override
+    public int exemplares(int n) {
+        return mapa.get(registro(n) + R_EXEMPLARES);
+    }
+
+    // Bits do item - página que ainda não existe é tudo na estante
+    private long bits(int n) {
+        AtomicLongArray pagina = paginas.get(n >>> BITS_PAGINA);
+        return pagina == null ? 0L : pagina.get(n & (ITENS_PAGINA - 1));
+    }
+
+    private AtomicLongArray pagina(int n) {
+        int p = n >>> BITS_PAGINA;
+        AtomicLongArray pagina = paginas.get(p);
+        if (pagina == null) {
+            paginas.compareAndSet(p, null, new AtomicLongArray(ITENS_PAGINA));
+            pagina = paginas.get(p); // Se outra thread criou antes, fica a dela
+        }
+        return pagina;
+    }
+
+    @Override
+    public int livres(int n) {
+        return exemplares(n) - Long.bitCount(bits(n));
+    }
+
+    @Override
+    public boolean ocupado(int n, int exemplar) {
+        return (bits(n) & (1L << exemplar)) != 0;
+    }
+
+    // O bit livre mais baixo, com CAS - os bits acima da quantidade de exemplares não contam
+    @Override
+    public int tentarEmprestar(int n) {
+        int quantidade = exemplares(n);
+        long existentes = quantidade == 64 ? -1L : (1L << quantidade) - 1;
+        AtomicLongArray pagina = pagina(n);
+        int i = n & (ITENS_PAGINA - 1);
+        while (true) {
+            long atual = pagina.get(i);
+            long vagos = ~atual & existentes;
+            if (vagos == 0) {
+                return -1;
+            }
+            long bit = vagos & -vagos;
+            if (pagina.compareAndSet(i, atual, atual | bit)) {
+                return Long.numberOfTrailingZeros(bit);
+            }
+        }
+    }
+
+    @Override
+    public boolean trocar(int n, int exemplar, boolean ocupar) {
+        if (!ocupar && paginas.get(n >>> BITS_PAGINA) == null) {
+            return false; // Nada da página saiu da estante - não precisa criar ela
+        }
+        long bit = 1L << exemplar;
+        AtomicLongArray pagina = pagina(n);
+        int i = n & (ITENS_PAGINA - 1);
+        while (true) {
+            long atual = pagina.get(i);
+            if (((atual & bit) != 0) == ocupar) {
+                return false;
+            }
+            if (pagina.compareAndSet(i, atual, atual ^ bit)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Cliente do cluster de bibliotecas (ver NoCluster)
+ *
+ * Sabe a lista de nós e monta o mesmo AnelConsistente que eles, então
+ * manda cada pedido direto pro nó certo: cadastro de usuário pro dono do
+ * ID, cadastro de item e empréstimo pro dono do código, devolução pro nó
+ * que aparece no ID do empréstimo ("n2-17" = empréstimo 17 do nó n2).
+ *
+ * O protocolo é texto, uma linha por pedido e uma por resposta, campos
+ * separados por ';' (o que pode ter ';' vai sempre por último):
+ *   pedido:   COMANDO;campo;campo...
+ *   resposta: OK;campo...   ou   ERRO;REGRA;mensagem
+ * ERRO vira RegraDeNegocioException com a mesma regra (RN1, RN2...) do
+ * sistema de um nó só; nó fora do ar vira IOException.
+ *
+ * As conexões ficam abertas e são reaproveitadas (um pool por nó). Os nós
+ * usam esta mesma classe pra conversar entre si.
+ *
+ * @author Ryan Figueredo
+ */
+public class ClienteCluster implements AutoCloseable {
+    private static final int TIMEOUT_MS = 10_000;
+
+    // Uma conexão aberta com um nó - um pedido por vez
+    private static final class Conexao {
+        final Socket socket;
+        final BufferedReader entrada;
+        final BufferedWriter saida;
+
+        Conexao(InetSocketAddress endereco) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(endereco, TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            saida = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void fechar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Já estava fechada
+            }
+        }
+    }
+
+    private final Map<String, InetSocketAddress> membros;
+    private final AnelConsistente anel;
+    private final Map<String, ConcurrentLinkedQueue<Conexao>> livres = new ConcurrentHashMap<>();
+
+    public ClienteCluster(Map<String, InetSocketAddress> membros) {
+        this.membros = new LinkedHashMap<>(membros);
+        this.anel = new AnelConsistente(this.membros.keySet());
+    }
+
+    public AnelConsistente getAnel() {
+        return anel;
+    }
+
+    public String donoDoUsuario(String idUsuario) {
+        return anel.dono(idUsuario);
+    }
+
+    public String donoDoItem(String codItem) {
+        return anel.dono(codItem);
+    }
+
+    public void cadastrarUsuario(Usuario u) throws RegraDeNegocioException, IOException {
+        chamar(donoDoUsuario(u.getId()), "USUARIO;" + SistemaBiblioteca.linhaUsuario(u));
+    }
+
+    public void cadastrarItem(ItemDeAcervo item) throws RegraDeNegocioException, IOException {
+        chamar(donoDoItem(item.getCodigo()), "ITEM;" + SistemaBiblioteca.linhaItem(item));
+    }
+
+    // Empréstimo em qualquer nó - devolve o ID global do empréstimo ("nó-id")
+    // Quem coordena é o dono do item: ele reserva a vaga no dono do usuário (RN2/RN3/RN4)
+    // e pega o exemplar (RN1)
+    public String emprestar(String idUsuario, String codItem) throws RegraDeNegocioException, IOException {
+        return chamar(donoDoItem(codItem), "EMPRESTAR;" + idUsuario + ";" + codItem);
+    }
+
+    // Devolve o empréstimo e retorna a multa cobrada, em centavos
+    public long devolver(String idGlobal) throws RegraDeNegocioException, IOException {
+        int traco = idGlobal.lastIndexOf('-');
+        if (traco <= 0 || !membros.containsKey(idGlobal.substring(0, traco))) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO,
+                    "Empréstimo não encontrado.");
+        }
+        return Long.parseLong(chamar(idGlobal.substring(0, traco), "DEVOLVER;" + idGlobal.substring(traco + 1)));
+    }
+
+    // Pagamento de multa, no dono do usuário - devolve o saldo que sobrou, em centavos
+    // "recibo" é o número do caixa: mandar de novo o mesmo recibo não cobra duas vezes (null gera um)
+    public long pagarMulta(String idUsuario, long centavos, String recibo) throws RegraDeNegocioException, IOException {
+        if (recibo != null && SistemaBiblioteca.temSeparador(recibo)) {
+            throw new RegraDeNegocioException("Recibo não pode ter ';' nem quebra de linha.");
+        }
+        return Long.parseLong(chamar(donoDoUsuario(idUsuario),
+                "COTA_QUITAR;" + idUsuario + ";" + (recibo == null ? "" : recibo) + ";" + centavos));
+    }
+
+    // Situação do usuário no cluster inteiro, do jeito que o dono dele vê
+    // ("abertos=2;vagas=0;multaCentavos=0")
+    public String situacao(String idUsuario) throws RegraDeNegocioException, IOException {
+        return chamar(donoDoUsuario(idUsuario), "SITUACAO;" + idUsuario);
+    }
+
+    // Manda um pedido pro nó e devolve o que veio depois do "OK;" (ou "" se veio só OK)
+    String chamar(String no, String pedido) throws RegraDeNegocioException, IOException {
+        InetSocketAddress endereco = membros.get(no);
+        if (endereco == null) {
+            throw new IllegalArgumentException("Nó desconhecido: " + no);
+        }
+        ConcurrentLinkedQueue<Conexao> fila = livres.computeIfAbsent(no, k -> new ConcurrentLinkedQueue<>());
+        Conexao c = fila.poll();
+        if (c != null) {
+            try {
+                return enviar(fila, c, no, pedido);
+            } catch (IOException e) {
+                // Conexão do pool que o nó já tinha fechado (reinício) - tenta uma vez numa nova
+            }
+        }
+        return enviar(fila, new Conexao(endereco), no, pedido);
+    }
+
+    private static String enviar(ConcurrentLinkedQueue<Conexao> fila, Conexao c, String no, String pedido)
+            throws RegraDeNegocioException, IOException {
+        String resposta;
+        try {
+            c.saida.write(pedido);
+            c.saida.newLine();
+            c.saida.flush();
+            resposta = c.entrada.readLine();
+            if (resposta == null) {
+                throw new IOException("Nó " + no + " fechou a conexão");
+            }
+        } catch (IOException e) {
+            c.fechar(); // Não volta pro pool - pode ter ficado no meio de uma resposta
+            throw e;
+        }
+        fila.add(c);
+        return conteudo(resposta);
+    }
+
+    // Abre a resposta: o que vem depois do OK, ou a exceção do ERRO
+    static String conteudo(String resposta) throws RegraDeNegocioException {
+        if (resposta.equals("OK")) {
+            return "";
+        }
+        if (resposta.startsWith("OK;")) {
+            return resposta.substring(3);
+        }
+        String[] campos = resposta.split(";", 3);
+        if (campos.length == 3 && campos[0].equals("ERRO")) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.valueOf(campos[1]), campos[2]);
+        }
+        throw new IllegalStateException("Resposta inválida do nó: " + resposta);
+    }
+
+    @Override
+    public void close() {
+        for (ConcurrentLinkedQueue<Conexao> fila : livres.values()) {
+            for (Conexao c; (c = fila.poll()) != null; ) {
+                c.fechar();
+            }
+        }
+    }
+}
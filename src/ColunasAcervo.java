@@ -0,0 +1,121 @@
+/**
+ * Acervo guardado campo a campo, sem um objeto por item
+ *
+ * É o que o AcervoColunar (arrays no heap) e o CatalogoMapeado (arquivo
+ * mapeado em memória) têm em comum: cada item é só um número n, e cada
+ * campo é lido da coluna na hora. As visões abaixo são o Livro/Revista
+ * leve que os dois devolvem - quem recebe trata como um ItemDeAcervo
+ * normal, e a visão repassa tudo pra cá.
+ *
+ * Duas visões do mesmo item são equals, não ==.
+ *
+ * @author Ryan Figueredo
+ */
+interface ColunasAcervo {
+
+    String codigo(int n);
+
+    String titulo(int n);
+
+    String identificador(int n); // ISBN (livro) ou ISSN (revista)
+
+    String nome(int n);          // Autor (livro) ou editora (revista)
+
+    int ano(int n);
+
+    int numero(int n);           // Edição (livro) ou volume (revista)
+
+    int exemplares(int n);
+
+    int livres(int n);
+
+    boolean ocupado(int n, int exemplar);
+
+    // Pega o exemplar livre mais baixo (-1 se não tem)
+    int tentarEmprestar(int n);
+
+    // Liga ou desliga o bit do exemplar - false se ele já estava assim
+    boolean trocar(int n, int exemplar, boolean ocupar);
+
+    static ItemDeAcervo visao(ColunasAcervo colunas, int n, boolean livro) {
+        return livro ? new LivroColunar(colunas, n) : new RevistaColunar(colunas, n);
+    }
+
+    // Livro que lê e escreve nas colunas - os campos herdados ficam vazios
+    final class LivroColunar extends Livro {
+        private final ColunasAcervo colunas;
+        private final int n;
+
+        LivroColunar(ColunasAcervo colunas, int n) {
+            super(null, null, 0, null, null, 0);
+            this.colunas = colunas;
+            this.n = n;
+        }
+
+        @Override public String getCodigo() { return colunas.codigo(n); }
+        @Override public String getTitulo() { return colunas.titulo(n); }
+        @Override public int getAnoPublicacao() { return colunas.ano(n); }
+        @Override public int getNumeroInterno() { return n; }
+        @Override public String getAutor() { return colunas.nome(n); }
+        @Override public String getIsbn() { return colunas.identificador(n); }
+        @Override public int getEdicao() { return colunas.numero(n); }
+        @Override public int getQuantidadeExemplares() { return colunas.exemplares(n); }
+        @Override public int getExemplaresLivres() { return colunas.livres(n); }
+        @Override public boolean isExemplarOcupado(int exemplar) { return colunas.ocupado(n, exemplar); }
+        @Override public boolean isEmprestado() { return colunas.livres(n) == 0; }
+        @Override public boolean isDisponivel() { return colunas.livres(n) > 0; }
+        @Override public boolean isDisponivelPara(Usuario usuario) { return colunas.livres(n) > 0; }
+        @Override public int tentarEmprestar() { return colunas.tentarEmprestar(n); }
+        @Override public boolean devolver(int exemplar) { return colunas.trocar(n, exemplar, false); }
+        @Override void emprestar(int exemplar) { colunas.trocar(n, exemplar, true); }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LivroColunar && ((LivroColunar) o).colunas == colunas && ((LivroColunar) o).n == n;
+        }
+
+        @Override
+        public int hashCode() {
+            return n;
+        }
+    }
+
+    // Revista que lê e escreve nas colunas - mesma coisa do LivroColunar
+    final class RevistaColunar extends Revista {
+        private final ColunasAcervo colunas;
+        private final int n;
+
+        RevistaColunar(ColunasAcervo colunas, int n) {
+            super(null, null, 0, null, 0, null);
+            this.colunas = colunas;
+            this.n = n;
+        }
+
+        @Override public String getCodigo() { return colunas.codigo(n); }
+        @Override public String getTitulo() { return colunas.titulo(n); }
+        @Override public int getAnoPublicacao() { return colunas.ano(n); }
+        @Override public int getNumeroInterno() { return n; }
+        @Override public String getEditora() { return colunas.nome(n); }
+        @Override public String getIssn() { return colunas.identificador(n); }
+        @Override public int getVolume() { return colunas.numero(n); }
+        @Override public int getQuantidadeExemplares() { return colunas.exemplares(n); }
+        @Override public int getExemplaresLivres() { return colunas.livres(n); }
+        @Override public boolean isExemplarOcupado(int exemplar) { return colunas.ocupado(n, exemplar); }
+        @Override public boolean isEmprestado() { return colunas.livres(n) == 0; }
+        @Override public boolean isDisponivel() { return colunas.livres(n) > 0; }
+        @Override public boolean isDisponivelPara(Usuario usuario) { return colunas.livres(n) > 0; }
+        @Override public int tentarEmprestar() { return colunas.tentarEmprestar(n); }
+        @Override public boolean devolver(int exemplar) { return colunas.trocar(n, exemplar, false); }
+        @Override void emprestar(int exemplar) { colunas.trocar(n, exemplar, true); }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RevistaColunar && ((RevistaColunar) o).colunas == colunas && ((RevistaColunar) o).n == n;
+        }
+
+        @Override
+        public int hashCode() {
+            return n;
+        }
+    }
+}
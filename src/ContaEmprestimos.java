@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conta de empréstimos de um usuário: os que estão abertos e as multas
+ *
+ * Substitui a ArrayList que o Usuario tinha. Os totais que as regras
+ * olham ficam prontos, atualizados a cada lançamento:
+ *   - quantos empréstimos abertos (RN2)
+ *   - saldo de multa em centavos e quantas devoluções geraram multa (RN3),
+ *     que baixa com pagamento/isenção (ver Pagamentos)
+ *   - o menor dia previsto de devolução entre os abertos (vencimento
+ *     mais próximo)
+ * Então checar se o usuário pode pegar mais um item não percorre nada.
+ *
+ * Cada empréstimo aberto sabe sua posição (Emprestimo.posicaoNaConta):
+ * fechar é trocar o último pro lugar dele, O(1) e por identidade, sem
+ * equals(). A posição 0 fica num campo e só a partir do segundo aberto
+ * aparece um vetor (que cresce dobrando) - quem tem um empréstimo só
+ * gasta o objeto da conta e mais nada.
+ *
+ * O Usuario só cria a conta no primeiro empréstimo e solta quando ela fica
+ * vazia (sem aberto e sem multa), então os milhões de usuários que não
+ * estão com nada emprestado não gastam nada com ela.
+ *
+ * Não é thread-safe: quem altera segura a trava do usuário (ver
+ * SistemaBiblioteca), como já era com a lista.
+ *
+ * @author Ryan Figueredo
+ */
+public final class ContaEmprestimos {
+    static final int SEM_VENCIMENTO = Integer.MAX_VALUE;
+
+    private Emprestimo primeiro;   // Posição 0
+    private Emprestimo[] demais;   // Posições 1.. (null até o segundo aberto)
+    private int quantidade;
+    private int menorDiaPrevisto = SEM_VENCIMENTO;
+    private int multas;
+    private long multaCentavos;
+
+    void abrir(Emprestimo emprestimo) {
+        if (contem(emprestimo)) {
+            return; // Já está (o mesmo empréstimo reaplicado)
+        }
+        if (quantidade > 0 && (demais == null || quantidade > demais.length)) {
+            Emprestimo[] maior = new Emprestimo[demais == null ? 2 : demais.length * 2];
+            if (demais != null) {
+                System.arraycopy(demais, 0, maior, 0, demais.length);
+            }
+            demais = maior;
+        }
+        emprestimo.setPosicaoNaConta(quantidade);
+        colocar(quantidade++, emprestimo);
+        menorDiaPrevisto = Math.min(menorDiaPrevisto, emprestimo.getDiaDevolucaoPrevista());
+    }
+
+    // Retorna false se o empréstimo não estava aberto nesta conta
+    boolean fechar(Emprestimo emprestimo) {
+        if (!contem(emprestimo)) {
+            return false;
+        }
+        int posicao = emprestimo.getPosicaoNaConta();
+        Emprestimo ultimo = aberto(--quantidade);
+        colocar(posicao, ultimo);
+        ultimo.setPosicaoNaConta(posicao);
+        colocar(quantidade, null);
+        emprestimo.setPosicaoNaConta(-1);
+        if (quantidade <= 1) {
+            demais = null; // Voltou a caber no campo
+        }
+        // Só recalcula o vencimento se saiu justo o mais próximo - no máximo "limite" posições
+        if (emprestimo.getDiaDevolucaoPrevista() == menorDiaPrevisto) {
+            menorDiaPrevisto = SEM_VENCIMENTO;
+            for (int i = 0; i < quantidade; i++) {
+                menorDiaPrevisto = Math.min(menorDiaPrevisto, aberto(i).getDiaDevolucaoPrevista());
+            }
+        }
+        return true;
+    }
+
+    private boolean contem(Emprestimo emprestimo) {
+        int posicao = emprestimo.getPosicaoNaConta();
+        return posicao >= 0 && posicao < quantidade && aberto(posicao) == emprestimo;
+    }
+
+    private Emprestimo aberto(int posicao) {
+        return posicao == 0 ? primeiro : demais[posicao - 1];
+    }
+
+    private void colocar(int posicao, Emprestimo emprestimo) {
+        if (posicao == 0) {
+            primeiro = emprestimo;
+        } else {
+            demais[posicao - 1] = emprestimo;
+        }
+    }
+
+    // Devolução com multa
+    void lancarMulta(long centavos) {
+        multas++;
+        multaCentavos += centavos;
+    }
+
+    // Pagamento ou isenção - quem chama já limitou o valor ao saldo
+    // Saldo zerado: as multas contadas estão todas quitadas
+    void quitarMulta(long centavos) {
+        multaCentavos = Math.max(0, multaCentavos - centavos);
+        if (multaCentavos == 0) {
+            multas = 0;
+        }
+    }
+
+    int getQuantidade() {
+        return quantidade;
+    }
+
+    int getMenorDiaPrevisto() {
+        return menorDiaPrevisto;
+    }
+
+    int getMultas() {
+        return multas;
+    }
+
+    long getMultaCentavos() {
+        return multaCentavos;
+    }
+
+    boolean isVazia() {
+        return quantidade == 0 && multas == 0 && multaCentavos == 0;
+    }
+
+    // Algum aberto deste item? Percorre só os abertos (no máximo o limite do usuário)
+    boolean temItem(ItemDeAcervo item) {
+        for (int i = 0; i < quantidade; i++) {
+            if (aberto(i).getItem() == item) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<Emprestimo> listar() {
+        List<Emprestimo> lista = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            lista.add(aberto(i));
+        }
+        return lista;
+    }
+}
@@ -0,0 +1,113 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Classe que controla os empréstimos atrasados
+ * 
+ * Em vez de varrer o histórico inteiro pra achar atrasos, os empréstimos
+ * em aberto ficam numa fila de prioridade ordenada pela data prevista.
+ * Uma vez por dia a fila "anda": quem venceu sai da fila, vai pro conjunto
+ * de atrasados e o contador de atrasos do usuário sobe. Na devolução o
+ * contador desce. Assim a checagem de RN4 é O(1) e a listagem de atrasados
+ * é O(atrasados).
+ * 
+ * @author Ryan Figueredo
+ */
+public class ControleAtrasos {
+    // Empréstimos em aberto que ainda não venceram, o que vence primeiro fica no topo
+    private final PriorityQueue<Emprestimo> aVencer;
+    // Empréstimos vencidos e não devolvidos, na ordem em que entraram - quase sempre a do
+    // vencimento, menos os que já chegam vencidos na carga ou no journal (vêm na ordem do arquivo)
+    private final Set<Emprestimo> atrasados;
+    // Último dia processado (número do dia) - volatile pra checagem rápida sem pegar a trava
+    private volatile long ultimoDia;
+
+    public ControleAtrasos(LocalDate hoje) {
+        this.aVencer = new PriorityQueue<>(Comparator.comparingInt(Emprestimo::getDiaDevolucaoPrevista));
+        this.atrasados = new LinkedHashSet<>();
+        this.ultimoDia = hoje.toEpochDay();
+    }
+
+    // Registra um empréstimo novo
+    // Se já nasce vencido (ex: empréstimo carregado de arquivo) entra direto nos atrasados
+    public synchronized void registrarAbertura(Emprestimo emprestimo) {
+        if (emprestimo.getDiaDevolucaoPrevista() < ultimoDia) {
+            marcarAtrasado(emprestimo);
+        } else {
+            aVencer.add(emprestimo);
+        }
+    }
+
+    // Registra a devolução - chamar depois de finalizarEmprestimo()
+    // Se ainda estiver na fila de a vencer, fica lá e é descartado quando chegar no topo
+    public synchronized void registrarDevolucao(Emprestimo emprestimo) {
+        if (atrasados.remove(emprestimo)) {
+            emprestimo.getUsuario().removerAtraso();
+        }
+    }
+
+    // Mesma coisa pra vários empréstimos de uma vez (lote) - pega a trava uma vez só
+    public synchronized void registrarAberturas(List<Emprestimo> emprestimos) {
+        for (Emprestimo e : emprestimos) {
+            registrarAbertura(e);
+        }
+    }
+
+    public synchronized void registrarDevolucoes(List<Emprestimo> emprestimos) {
+        for (Emprestimo e : emprestimos) {
+            registrarDevolucao(e);
+        }
+    }
+
+    // Tira da fila os devolvidos que ainda não chegaram no topo - O(n), pra quando o histórico
+    // vai pro arquivo morto e a fila não pode continuar segurando os objetos na memória
+    public synchronized int descartarDevolvidos() {
+        int antes = aVencer.size();
+        aVencer.removeIf(Emprestimo::isDevolvido);
+        return antes - aVencer.size();
+    }
+
+    // Avança o controle até o dia informado
+    // Barato quando o dia não mudou, então dá pra chamar em toda operação
+    public void avancarAte(LocalDate hoje) {
+        long dia = hoje.toEpochDay();
+        if (dia <= ultimoDia) {
+            return;
+        }
+        synchronized (this) {
+            if (dia <= ultimoDia) {
+                return; // Outra thread já avançou
+            }
+            while (!aVencer.isEmpty() && aVencer.peek().getDiaDevolucaoPrevista() < dia) {
+                Emprestimo e = aVencer.poll();
+                if (!e.isDevolvido()) {
+                    marcarAtrasado(e);
+                }
+            }
+            ultimoDia = dia;
+        }
+    }
+
+    private void marcarAtrasado(Emprestimo emprestimo) {
+        if (atrasados.add(emprestimo)) {
+            emprestimo.getUsuario().registrarAtraso();
+        }
+    }
+
+    // Cópia dos atrasados, do que venceu primeiro pro último
+    // A ordenação é da cópia (quase já ordenada, sai barato) - o conjunto fica como está
+    public synchronized List<Emprestimo> listarAtrasados() {
+        List<Emprestimo> lista = new ArrayList<>(atrasados);
+        lista.sort(Comparator.comparingInt(Emprestimo::getDiaDevolucaoPrevista));
+        return lista;
+    }
+
+    public synchronized int getQuantidadeAtrasados() {
+        return atrasados.size();
+    }
+}
@@ -0,0 +1,302 @@
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe que controla as filas de reserva dos itens
+ *
+ * Cada item sem exemplar na estante pode ter uma fila (FIFO) de reservas.
+ * Quando um exemplar volta, ele é separado pro primeiro da fila que está
+ * apto a pegar emprestado (quem está bloqueado ou no limite continua na
+ * fila, no mesmo lugar) e essa pessoa ganha um prazo pra retirar. O
+ * exemplar separado nem chega a voltar pra estante: o bit dele continua
+ * ligado no item e passa da reserva pro empréstimo (ou pra próxima
+ * reserva, se esta expirar).
+ *
+ * Os prazos de retirada ficam numa fila de prioridade, igual aos atrasos
+ * no ControleAtrasos: expirar é só tirar do topo o que venceu, sem varrer
+ * os itens. Quem chama expirarAte() é o agendador do SistemaBiblioteca (e
+ * as próprias operações, que checam antes se tem algo vencido).
+ *
+ * Tudo que muda reserva passa pela trava deste objeto. Item sem fila não
+ * paga nada na devolução (só uma consulta no mapa de filas).
+ *
+ * @author Ryan Figueredo
+ */
+public class ControleReservas {
+    // Dias que o usuário tem pra retirar o item depois que ele é separado
+    public static final int DIAS_RETIRADA = 3;
+
+    // Reservas NA_FILA por código do item - a fila some quando esvazia
+    private final Map<String, ArrayDeque<Reserva>> filas;
+    // Reservas ativas (na fila ou aguardando retirada) por ID, na ordem em que foram feitas
+    private final Map<String, Reserva> ativas;
+    // Reservas aguardando retirada, o prazo que vence primeiro no topo
+    // Reserva atendida/cancelada continua aqui e é descartada quando chegar no topo
+    private final PriorityQueue<Reserva> aguardando;
+    // Menor prazo da fila acima - volatile pra checagem rápida sem pegar a trava
+    private volatile LocalDate proximoVencimento;
+
+    public ControleReservas() {
+        this.filas = new ConcurrentHashMap<>();
+        this.ativas = new LinkedHashMap<>();
+        this.aguardando = new PriorityQueue<>(Comparator.comparing(Reserva::getPrazoRetirada));
+    }
+
+    // Coloca uma reserva nova no fim da fila do item
+    // Recusa se tem exemplar na estante (é só pegar emprestado) ou se o usuário já está na fila
+    // (se o usuário já está com o item quem checa é o SistemaBiblioteca, com a trava dele)
+    public synchronized void reservar(Reserva reserva) throws RegraDeNegocioException {
+        ItemDeAcervo item = reserva.getItem();
+        Usuario usuario = reserva.getUsuario();
+        if (item.isDisponivel()) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                    "O item '" + item.getTitulo() + "' está disponível - faça o empréstimo direto.");
+        }
+        Reserva separada = item.getReservaSeparadaPara(usuario);
+        if (separada != null) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                    "O item já está separado para este usuário até " + separada.getPrazoRetirada() + ".");
+        }
+        ArrayDeque<Reserva> fila = filas.get(item.getCodigo());
+        if (fila != null) {
+            for (Reserva r : fila) {
+                if (r.getUsuario() == usuario) {
+                    throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                            "Usuário já está na fila deste item (reserva #" + r.getIdReserva() + ").");
+                }
+            }
+        }
+        enfileirar(reserva);
+    }
+
+    private void enfileirar(Reserva reserva) {
+        filas.computeIfAbsent(reserva.getItem().getCodigo(), c -> new ArrayDeque<>()).addLast(reserva);
+        ativas.put(reserva.getIdReserva(), reserva);
+    }
+
+    // Chamado na devolução, ANTES de liberar o exemplar (ele ainda consta como fora da
+    // estante, então ninguém fura a fila). Passa o exemplar pro próximo apto e retorna a
+    // reserva separada - aí quem devolveu NÃO libera o exemplar. Retorna null se o item
+    // não tem fila ou ninguém da fila pode pegar agora
+    public Reserva alocar(ItemDeAcervo item, int exemplar, LocalDate hoje) {
+        if (!filas.containsKey(item.getCodigo())) {
+            return null;
+        }
+        synchronized (this) {
+            return separarProximo(item, exemplar, hoje);
+        }
+    }
+
+    // Chamado na devolução, DEPOIS de liberar o exemplar: uma reserva que entrou na fila entre
+    // o alocar() e a liberação ficaria esperando à toa. Só separa se conseguir pegar um
+    // exemplar (compare-and-set), então não briga com um empréstimo que chegou junto
+    public Reserva alocarSeLivre(ItemDeAcervo item, LocalDate hoje) {
+        if (!filas.containsKey(item.getCodigo()) || !item.isDisponivel()) {
+            return null;
+        }
+        synchronized (this) {
+            int exemplar = item.tentarEmprestar();
+            if (exemplar < 0) {
+                return null;
+            }
+            Reserva separada = separarProximo(item, exemplar, hoje);
+            if (separada == null) {
+                item.devolver(exemplar);
+            }
+            return separada;
+        }
+    }
+
+    // Primeiro da fila que está apto fica com o exemplar; os outros continuam na mesma posição
+    // Sem ninguém apto retorna null, e quem chamou devolve o exemplar pra estante
+    private Reserva separarProximo(ItemDeAcervo item, int exemplar, LocalDate hoje) {
+        ArrayDeque<Reserva> fila = filas.get(item.getCodigo());
+        if (fila != null) {
+            for (Iterator<Reserva> it = fila.iterator(); it.hasNext(); ) {
+                Reserva r = it.next();
+                if (r.getUsuario().isAptoParaEmprestimo()) {
+                    it.remove();
+                    if (fila.isEmpty()) {
+                        filas.remove(item.getCodigo());
+                    }
+                    separar(r, hoje.plusDays(DIAS_RETIRADA), exemplar);
+                    return r;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void separar(Reserva reserva, LocalDate prazo, int exemplar) {
+        reserva.separar(prazo, exemplar);
+        reserva.getItem().separarPara(reserva);
+        aguardando.add(reserva);
+        proximoVencimento = aguardando.peek().getPrazoRetirada();
+    }
+
+    // O usuário veio buscar: a reserva vira empréstimo, que leva o exemplar separado
+    // (reserva.getExemplar()). Retorna false se a reserva não está mais aguardando
+    // (expirou ou foi cancelada)
+    public synchronized boolean atender(Reserva reserva) {
+        return atenderTodas(Collections.singletonList(reserva));
+    }
+
+    // Mesma coisa pra um carrinho: ou todas as reservas são atendidas, ou nenhuma
+    public synchronized boolean atenderTodas(List<Reserva> reservas) {
+        for (Reserva r : reservas) {
+            if (r.getStatus() != Reserva.Status.AGUARDANDO_RETIRADA) {
+                return false;
+            }
+        }
+        for (Reserva r : reservas) {
+            encerrar(r, Reserva.Status.ATENDIDA);
+        }
+        return true;
+    }
+
+    // Cancela uma reserva ativa; se tinha exemplar separado pra ela, passa pro próximo da fila
+    // Retorna as reservas que mudaram (a cancelada e, se teve, a que foi separada no lugar)
+    public synchronized List<Reserva> cancelar(Reserva reserva, LocalDate hoje) throws RegraDeNegocioException {
+        if (!reserva.isAtiva()) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                    "Reserva já encerrada (" + reserva.getStatus() + ").");
+        }
+        boolean estavaSeparada = reserva.getStatus() == Reserva.Status.AGUARDANDO_RETIRADA;
+        encerrar(reserva, Reserva.Status.CANCELADA);
+        List<Reserva> mudancas = new ArrayList<>(2);
+        mudancas.add(reserva);
+        if (estavaSeparada) {
+            repassar(reserva, hoje, mudancas);
+        }
+        return mudancas;
+    }
+
+    // O exemplar de uma reserva separada que acabou sem retirada vai pro próximo da fila
+    // (que entra em "mudancas") ou, se não tem ninguém apto, volta pra estante
+    private void repassar(Reserva encerrada, LocalDate hoje, List<Reserva> mudancas) {
+        Reserva proxima = separarProximo(encerrada.getItem(), encerrada.getExemplar(), hoje);
+        if (proxima != null) {
+            mudancas.add(proxima);
+        } else {
+            encerrada.getItem().devolver(encerrada.getExemplar());
+        }
+    }
+
+    // Expira de uma vez todas as retiradas que venceram antes de hoje e passa cada
+    // exemplar pro próximo da fila. Barato quando nada venceu, então dá pra chamar sempre
+    // Retorna as reservas que mudaram, na ordem em que mudaram
+    public List<Reserva> expirarAte(LocalDate hoje) {
+        LocalDate proximo = proximoVencimento;
+        if (proximo == null || !proximo.isBefore(hoje)) {
+            return Collections.emptyList();
+        }
+        synchronized (this) {
+            List<Reserva> mudancas = new ArrayList<>();
+            while (!aguardando.isEmpty() && aguardando.peek().getPrazoRetirada().isBefore(hoje)) {
+                Reserva r = aguardando.poll();
+                if (r.getStatus() != Reserva.Status.AGUARDANDO_RETIRADA) {
+                    continue; // Já foi atendida ou cancelada
+                }
+                encerrar(r, Reserva.Status.EXPIRADA);
+                mudancas.add(r);
+                repassar(r, hoje, mudancas);
+            }
+            proximoVencimento = aguardando.isEmpty() ? null : aguardando.peek().getPrazoRetirada();
+            return mudancas;
+        }
+    }
+
+    // Tira a reserva da fila (ou a separação do item) e marca o status final
+    // O exemplar separado fica como está - quem chamou decide se ele vai pra estante
+    private void encerrar(Reserva reserva, Reserva.Status status) {
+        if (reserva.getStatus() == Reserva.Status.NA_FILA) {
+            ArrayDeque<Reserva> fila = filas.get(reserva.getItem().getCodigo());
+            if (fila != null) {
+                fila.remove(reserva);
+                if (fila.isEmpty()) {
+                    filas.remove(reserva.getItem().getCodigo());
+                }
+            }
+        } else {
+            reserva.getItem().tirarSeparacao(reserva);
+        }
+        reserva.encerrar(status);
+        ativas.remove(reserva.getIdReserva());
+    }
+
+    // ---------------------------------------------------------------- carga
+
+    // Recria uma reserva ativa do snapshot ou do journal - retorna false se ela já existe
+    // Tem que ser chamado na ordem em que as reservas foram feitas (a ordem da fila)
+    public synchronized boolean restaurar(Reserva reserva, Reserva.Status status, LocalDate prazo, int exemplar) {
+        if (ativas.containsKey(reserva.getIdReserva())) {
+            return false;
+        }
+        enfileirar(reserva);
+        if (status != Reserva.Status.NA_FILA) {
+            aplicar(reserva.getIdReserva(), status, prazo, exemplar);
+        }
+        return true;
+    }
+
+    // Aplica uma mudança de status vinda do journal. Só anda pra frente
+    // (fila -> separada -> encerrada), então repetir um evento não muda nada
+    // Na separação o exemplar é marcado como fora da estante; se a reserva expira ou é
+    // cancelada ele volta (o evento seguinte separa de novo, se foi repassado)
+    public synchronized boolean aplicar(String idReserva, Reserva.Status status, LocalDate prazo, int exemplar) {
+        Reserva reserva = ativas.get(idReserva);
+        if (reserva == null || status == Reserva.Status.NA_FILA || status == reserva.getStatus()) {
+            return false;
+        }
+        if (status == Reserva.Status.AGUARDANDO_RETIRADA) {
+            ArrayDeque<Reserva> fila = filas.get(reserva.getItem().getCodigo());
+            fila.remove(reserva);
+            if (fila.isEmpty()) {
+                filas.remove(reserva.getItem().getCodigo());
+            }
+            reserva.getItem().emprestar(exemplar);
+            separar(reserva, prazo, exemplar);
+        } else {
+            boolean estavaSeparada = reserva.getStatus() == Reserva.Status.AGUARDANDO_RETIRADA;
+            encerrar(reserva, status);
+            if (estavaSeparada && status != Reserva.Status.ATENDIDA) {
+                reserva.getItem().devolver(reserva.getExemplar());
+            }
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------- consultas
+
+    public synchronized Reserva buscar(String idReserva) {
+        return ativas.get(idReserva);
+    }
+
+    // Reservas ativas na ordem em que foram feitas (é a ordem gravada no snapshot)
+    public synchronized List<Reserva> listarAtivas() {
+        return new ArrayList<>(ativas.values());
+    }
+
+    // Situação de um item: as reservas com exemplar separado e depois a fila na ordem
+    public synchronized List<Reserva> listar(ItemDeAcervo item) {
+        List<Reserva> lista = new ArrayList<>(item.getReservasSeparadas());
+        ArrayDeque<Reserva> fila = filas.get(item.getCodigo());
+        if (fila != null) {
+            lista.addAll(fila);
+        }
+        return lista;
+    }
+
+    public synchronized int getQuantidadeAtivas() {
+        return ativas.size();
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário de strings que se repetem muito (curso, departamento, autor,
+ * editora)
+ *
+ * Cada valor diferente ganha um número e uma instância só de String. Num
+ * acervo de milhões de itens o mesmo autor aparece em milhares de linhas,
+ * e cada linha lida do arquivo criava a sua cópia; passando pelo dicionário
+ * todas apontam pra mesma. O AcervoColunar guarda só o número (um int por
+ * item no lugar de uma referência pra uma String).
+ *
+ * Só serve pra campo de pouca variedade: o dicionário nunca esquece um
+ * valor. Nome, título, código e ISBN não passam por aqui.
+ *
+ * @author Ryan Figueredo
+ */
+public class Dicionario {
+    // Dicionário compartilhado pelas entidades (Aluno, Professor, Livro, Revista)
+    public static final Dicionario GERAL = new Dicionario();
+
+    private final ConcurrentHashMap<String, Integer> codigos = new ConcurrentHashMap<>();
+    // Valor de cada código - trocado inteiro quando cresce, então a leitura não trava
+    private volatile String[] valores = new String[16];
+    private int tamanho;
+
+    // Número do valor no dicionário - cadastra se é a primeira vez
+    public int codigo(String valor) {
+        Integer codigo = codigos.get(valor);
+        return codigo != null ? codigo : cadastrar(valor);
+    }
+
+    private synchronized int cadastrar(String valor) {
+        Integer codigo = codigos.get(valor);
+        if (codigo != null) {
+            return codigo; // Outra thread cadastrou antes
+        }
+        String[] atual = valores;
+        if (tamanho == atual.length) {
+            atual = Arrays.copyOf(atual, atual.length * 2);
+        }
+        atual[tamanho] = valor;
+        valores = atual; // Publica o valor antes do código aparecer no mapa
+        codigos.put(valor, tamanho);
+        return tamanho++;
+    }
+
+    public String valor(int codigo) {
+        return valores[codigo];
+    }
+
+    // A instância única do valor (null continua null)
+    public String canonico(String valor) {
+        return valor == null ? null : valor(codigo(valor));
+    }
+
+    public synchronized int tamanho() {
+        return tamanho;
+    }
+}
@@ -1,5 +1,4 @@
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 
 /**
  * Classe que representa um Empréstimo
@@ -11,40 +10,106 @@ import java.time.temporal.ChronoUnit;
  * @author Ryan Figueredo
  */
 public class Emprestimo {
+    // diaDevolucaoReal enquanto o empréstimo está em aberto
+    private static final int EM_ABERTO = Integer.MIN_VALUE;
+
     private String idEmprestimo;
     private Usuario usuario;
     private ItemDeAcervo item; // Pode ser Livro ou Revista
-    private LocalDate dataEmprestimo;
-    private LocalDate dataDevolucaoPrevista;
-    private LocalDate dataDevolucaoReal;
-    private double multaCobrada;
+    private int exemplar; // Qual exemplar físico do item saiu
+    // Datas guardadas como número do dia (LocalDate.toEpochDay()): comparar é comparar int,
+    // e são dois LocalDate a menos por empréstimo. Os getters de data montam o LocalDate na hora
+    private final int diaEmprestimo;
+    private final int diaDevolucaoPrevista;
+    // volatile porque a devolução pode acontecer em outra thread que a listagem
+    private volatile int diaDevolucaoReal = EM_ABERTO;
+    private volatile long multaCentavos;
+    // Multa que já correu num empréstimo em aberto e atrasado, até o último recálculo
+    // (é só informação - a cobrança é na devolução)
+    private volatile long multaAcumuladaCentavos;
+    // Posição na ContaEmprestimos do usuário enquanto está aberto (-1 = fora) - fechar é O(1)
+    private int posicaoNaConta = -1;
 
     // Construtor - calcula a data de devolução usando o método do usuário
-    // Isso é polimorfismo: se for Aluno retorna +7 dias, se for Professor +15 dias
+    // Isso é polimorfismo: o prazo vem da política pro tipo do usuário (Aluno ou Professor)
     public Emprestimo(String idEmprestimo, Usuario usuario, ItemDeAcervo item, LocalDate dataEmprestimo) {
+        this(idEmprestimo, usuario, item, 0, dataEmprestimo);
+    }
+
+    // Mesma coisa, com o exemplar que saiu (o construtor acima é pra item de um exemplar só)
+    public Emprestimo(String idEmprestimo, Usuario usuario, ItemDeAcervo item, int exemplar, LocalDate dataEmprestimo) {
         this.idEmprestimo = idEmprestimo;
         this.usuario = usuario;
         this.item = item;
-        this.dataEmprestimo = dataEmprestimo;
+        this.exemplar = exemplar;
+        this.diaEmprestimo = (int) dataEmprestimo.toEpochDay();
         // Polimorfismo: o método se comporta diferente dependendo do tipo de usuário
-        this.dataDevolucaoPrevista = usuario.calculaPrazoDevolucao(dataEmprestimo);
-        this.multaCobrada = 0.0;
+        this.diaDevolucaoPrevista = (int) usuario.calculaPrazoDevolucao(dataEmprestimo).toEpochDay();
     }
 
-    // Calcula a multa se tiver atraso
-    // R$ 1,00 por dia de atraso
-    public double calcularMulta(LocalDate dataDevolucaoReal) {
-        if (dataDevolucaoReal.isAfter(this.dataDevolucaoPrevista)) {
-            long diasAtraso = ChronoUnit.DAYS.between(this.dataDevolucaoPrevista, dataDevolucaoReal);
-            return diasAtraso * 1.0;
-        }
-        return 0.0;
+    // Construtor usado na carga dos arquivos - recebe tudo pronto, sem recalcular
+    public Emprestimo(String idEmprestimo, Usuario usuario, ItemDeAcervo item, int exemplar, LocalDate dataEmprestimo,
+                      LocalDate dataDevolucaoPrevista, LocalDate dataDevolucaoReal, long multaCentavos) {
+        this.idEmprestimo = idEmprestimo;
+        this.usuario = usuario;
+        this.item = item;
+        this.exemplar = exemplar;
+        this.diaEmprestimo = (int) dataEmprestimo.toEpochDay();
+        this.diaDevolucaoPrevista = (int) dataDevolucaoPrevista.toEpochDay();
+        this.diaDevolucaoReal = dataDevolucaoReal == null ? EM_ABERTO : (int) dataDevolucaoReal.toEpochDay();
+        this.multaCentavos = multaCentavos;
+    }
+
+    // Calcula a multa (em centavos) se o item voltar no dia informado
+    // Taxa, teto, carência e dias fechados vêm da política vigente
+    public long calcularMultaCentavos(long diaDevolucao) {
+        return PoliticaEmprestimo.vigente().multaCentavos(usuario.getTipoUsuario(), item.getTipoItem(),
+                diaDevolucaoPrevista, diaDevolucao);
     }
 
     // Finaliza o empréstimo e calcula a multa
+    // Se teve multa, o usuário fica com uma multa pendente (RN3)
     public void finalizarEmprestimo(LocalDate dataDevolucaoReal) {
-        this.dataDevolucaoReal = dataDevolucaoReal;
-        this.multaCobrada = calcularMulta(dataDevolucaoReal);
+        long dia = dataDevolucaoReal.toEpochDay();
+        this.multaCentavos = calcularMultaCentavos(dia);
+        this.multaAcumuladaCentavos = 0;
+        this.diaDevolucaoReal = (int) dia;
+        if (this.multaCentavos > 0) {
+            usuario.registrarMulta(this.multaCentavos);
+        }
+    }
+
+    // Mesma coisa, mas com a multa que já foi cobrada (journal/replicação) - a política
+    // pode ter mudado desde a devolução, então não recalcula
+    void finalizarEmprestimo(LocalDate dataDevolucaoReal, long multaCentavos) {
+        this.multaCentavos = multaCentavos;
+        this.multaAcumuladaCentavos = 0;
+        this.diaDevolucaoReal = (int) dataDevolucaoReal.toEpochDay();
+        if (multaCentavos > 0) {
+            usuario.registrarMulta(multaCentavos);
+        }
+    }
+
+    // Recalcula a multa que já correu até "hoje" (número do dia) - não aloca nada,
+    // é o que roda pra cada empréstimo no recálculo da madrugada
+    // Retorna a multa acumulada (0 se já foi devolvido ou não está atrasado)
+    long atualizarMultaAcumulada(PoliticaEmprestimo politica, long hoje) {
+        if (diaDevolucaoReal != EM_ABERTO) {
+            return 0;
+        }
+        long multa = politica.multaCentavos(usuario.getTipoUsuario(), item.getTipoItem(), diaDevolucaoPrevista, hoje);
+        if (multa != multaAcumuladaCentavos) {
+            multaAcumuladaCentavos = multa; // Só escreve se mudou
+        }
+        return multa;
+    }
+
+    int getPosicaoNaConta() {
+        return posicaoNaConta;
+    }
+
+    void setPosicaoNaConta(int posicaoNaConta) {
+        this.posicaoNaConta = posicaoNaConta;
     }
 
     // Getters
@@ -60,30 +125,65 @@ public class Emprestimo {
         return item; 
     }
     
+    public int getExemplar() {
+        return exemplar;
+    }
+
     public LocalDate getDataEmprestimo() { 
-        return dataEmprestimo; 
+        return LocalDate.ofEpochDay(diaEmprestimo); 
     }
     
     public LocalDate getDataDevolucaoPrevista() { 
-        return dataDevolucaoPrevista; 
+        return LocalDate.ofEpochDay(diaDevolucaoPrevista); 
     }
     
     public LocalDate getDataDevolucaoReal() { 
-        return dataDevolucaoReal; 
+        int dia = diaDevolucaoReal;
+        return dia == EM_ABERTO ? null : LocalDate.ofEpochDay(dia); 
     }
-    
+
+    // Os mesmos dias como número (LocalDate.toEpochDay()), sem criar LocalDate
+    public int getDiaEmprestimo() {
+        return diaEmprestimo;
+    }
+
+    public int getDiaDevolucaoPrevista() {
+        return diaDevolucaoPrevista;
+    }
+
+    // Só vale depois da devolução (ver isDevolvido())
+    public int getDiaDevolucaoReal() {
+        return diaDevolucaoReal;
+    }
+
+    public boolean isDevolvido() {
+        return diaDevolucaoReal != EM_ABERTO;
+    }
+
+    // Multa cobrada na devolução, em reais (é o que vai pro CSV e pro JSON)
     public double getMultaCobrada() { 
-        return multaCobrada; 
+        return multaCentavos / 100.0; 
+    }
+
+    public long getMultaCentavos() {
+        return multaCentavos;
+    }
+
+    public long getMultaAcumuladaCentavos() {
+        return multaAcumuladaCentavos;
     }
     
     // toString pra exibir as informações do empréstimo
     @Override
     public String toString() {
-        String status = dataDevolucaoReal == null ? "Em aberto" : "Devolvido";
-        return String.format("Empréstimo #%s | Usuário: %s | Item: %s | Empréstimo: %s | Previsto: %s | Real: %s | Multa: R$ %.2f | Status: %s",
-                idEmprestimo, usuario.getNome(), item.getTitulo(),
-                dataEmprestimo, dataDevolucaoPrevista,
-                dataDevolucaoReal != null ? dataDevolucaoReal.toString() : "Não devolvido",
-                multaCobrada, status);
+        boolean devolvido = isDevolvido();
+        long multa = devolvido ? multaCentavos : multaAcumuladaCentavos;
+        return String.format("Empréstimo #%s | Usuário: %s | Item: %s | Empréstimo: %s | Previsto: %s | Real: %s | Multa: R$ %.2f%s | Status: %s",
+                idEmprestimo, usuario.getNome(), item.getTitulo()
+                        + (item.getQuantidadeExemplares() > 1 ? " (exemplar " + (exemplar + 1) + ")" : ""),
+                getDataEmprestimo(), getDataDevolucaoPrevista(),
+                devolvido ? getDataDevolucaoReal().toString() : "Não devolvido",
+                multa / 100.0, !devolvido && multa > 0 ? " (acumulada)" : "",
+                devolvido ? "Devolvido" : "Em aberto");
     }
 }
@@ -0,0 +1,118 @@
+/**
+ * Um fato da circulação, publicado pelo SistemaBiblioteca no BarramentoEventos
+ *
+ * É o que os sistemas de fora (aviso por e-mail, análise, ERP do campus)
+ * precisam pra saber o que mudou sem comparar os CSVs depois de cada
+ * salvarDados(). Cada evento tem o tipo, o instante (milissegundos desde
+ * 1970) e as chaves envolvidas; cadastro de usuário e de item levam também
+ * a linha completa no mesmo formato do usuarios.csv/acervo.csv.
+ *
+ * O evento é imutável. Em texto (ArquivoEventos) ele vira uma linha:
+ * TIPO;instante;usuário;item;empréstimo;valor;dados
+ *
+ * @author Ryan Figueredo
+ */
+public final class Evento {
+
+    public enum Tipo {
+        USUARIO_CADASTRADO,
+        ITEM_ADICIONADO,
+        EMPRESTIMO_REALIZADO,
+        EMPRESTIMO_DEVOLVIDO,
+        MULTA_APLICADA   // Valor = multa em centavos
+    }
+
+    private final Tipo tipo;
+    private final long instante;
+    private final String idUsuario;    // "" quando não se aplica
+    private final String codItem;
+    private final String idEmprestimo;
+    private final long valor;
+    private final String dados;        // Linha do CSV (cadastros) ou ""
+
+    private Evento(Tipo tipo, long instante, String idUsuario, String codItem, String idEmprestimo, long valor, String dados) {
+        this.tipo = tipo;
+        this.instante = instante;
+        this.idUsuario = idUsuario;
+        this.codItem = codItem;
+        this.idEmprestimo = idEmprestimo;
+        this.valor = valor;
+        this.dados = dados;
+    }
+
+    public static Evento usuarioCadastrado(Usuario u) {
+        return new Evento(Tipo.USUARIO_CADASTRADO, System.currentTimeMillis(), u.getId(), "", "", 0,
+                SistemaBiblioteca.linhaUsuario(u));
+    }
+
+    public static Evento itemAdicionado(ItemDeAcervo item) {
+        return new Evento(Tipo.ITEM_ADICIONADO, System.currentTimeMillis(), "", item.getCodigo(), "", 0,
+                SistemaBiblioteca.linhaItem(item));
+    }
+
+    public static Evento emprestimoRealizado(Emprestimo e) {
+        return doEmprestimo(Tipo.EMPRESTIMO_REALIZADO, e, e.getExemplar());
+    }
+
+    public static Evento emprestimoDevolvido(Emprestimo e) {
+        return doEmprestimo(Tipo.EMPRESTIMO_DEVOLVIDO, e, e.getExemplar());
+    }
+
+    public static Evento multaAplicada(Emprestimo e) {
+        return doEmprestimo(Tipo.MULTA_APLICADA, e, e.getMultaCentavos());
+    }
+
+    private static Evento doEmprestimo(Tipo tipo, Emprestimo e, long valor) {
+        return new Evento(tipo, System.currentTimeMillis(), e.getUsuario().getId(), e.getItem().getCodigo(),
+                e.getIdEmprestimo(), valor, "");
+    }
+
+    // Linha do ArquivoEventos (sem o '\n')
+    public String linha() {
+        return tipo + ";" + instante + ";" + idUsuario + ";" + codItem + ";" + idEmprestimo + ";" + valor + ";" + dados;
+    }
+
+    // Volta da linha - os dados ficam por último porque também têm ';'
+    public static Evento deLinha(String linha) {
+        String[] campos = linha.split(";", 7);
+        if (campos.length < 7) {
+            throw new IllegalArgumentException("Linha de evento incompleta: " + linha);
+        }
+        return new Evento(Tipo.valueOf(campos[0]), Long.parseLong(campos[1]), campos[2], campos[3], campos[4],
+                Long.parseLong(campos[5]), campos[6]);
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public long getInstante() {
+        return instante;
+    }
+
+    public String getIdUsuario() {
+        return idUsuario;
+    }
+
+    public String getCodItem() {
+        return codItem;
+    }
+
+    public String getIdEmprestimo() {
+        return idEmprestimo;
+    }
+
+    // Exemplar (empréstimo e devolução) ou multa em centavos (MULTA_APLICADA)
+    public long getValor() {
+        return valor;
+    }
+
+    public String getDados() {
+        return dados;
+    }
+
+    @Override
+    public String toString() {
+        return linha();
+    }
+}
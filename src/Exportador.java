@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Exporta as listagens em CSV direto pra um canal (arquivo, resposta HTTP)
+ *
+ * O CSV é montado byte a byte num buffer de 64 KB, reaproveitado a
+ * exportação toda, e só vai pro canal quando enche - sem String.format,
+ * sem toString() e sem uma String por linha. Texto vira UTF-8 aqui mesmo,
+ * número vira dígito, centavos viram "12.50" e dia (epoch day) vira data
+ * ISO "2024-03-15".
+ *
+ * Mesmo formato dos arquivos de dados: separado por ';', com cabeçalho e
+ * sem aspas - ';' e quebra de linha dentro de um campo viram espaço, pra o
+ * arquivo continuar abrindo no CarregadorCsv.
+ *
+ * @author Ryan Figueredo
+ */
+public final class Exportador {
+    static final int TAMANHO_BUFFER = 64 * 1024;
+
+    private final WritableByteChannel canal;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+    private long bytes;
+
+    public Exportador(WritableByteChannel canal) {
+        this.canal = canal;
+    }
+
+    public Exportador(OutputStream saida) {
+        this(Channels.newChannel(saida));
+    }
+
+    // Bytes já mandados pro canal
+    public long getBytes() {
+        return bytes;
+    }
+
+    // ---------------------------------------------------------------- listagens
+
+    // tipo;id;nome;status;emprestimos;limite;multa_pendente - retorna quantas linhas
+    public int usuarios(Iterable<Usuario> usuarios) throws IOException {
+        ascii("tipo;id;nome;status;emprestimos;limite;multa_pendente\n");
+        int linhas = 0;
+        for (Usuario u : usuarios) {
+            texto(u.getClass().getSimpleName()).separador();
+            texto(u.getId()).separador();
+            texto(u.getNome()).separador();
+            texto(u.getSituacao().getRotulo()).separador();
+            numero(u.getQuantidadeEmprestimos()).separador();
+            numero(u.getLimiteEmprestimo()).separador();
+            reais(u.getMultaCentavos()).fimDeLinha();
+            linhas++;
+        }
+        descarregar();
+        return linhas;
+    }
+
+    // tipo;codigo;titulo;ano;autor_editora;exemplares;livres
+    public int acervo(Iterable<ItemDeAcervo> itens) throws IOException {
+        ascii("tipo;codigo;titulo;ano;autor_editora;exemplares;livres\n");
+        int linhas = 0;
+        for (ItemDeAcervo i : itens) {
+            texto(i.getClass().getSimpleName()).separador();
+            texto(i.getCodigo()).separador();
+            texto(i.getTitulo()).separador();
+            numero(i.getAnoPublicacao()).separador();
+            if (i instanceof Livro) {
+                texto(((Livro) i).getAutor());
+            } else if (i instanceof Revista) {
+                texto(((Revista) i).getEditora());
+            }
+            separador();
+            numero(i.getQuantidadeExemplares()).separador();
+            numero(i.getExemplaresLivres()).fimDeLinha();
+            linhas++;
+        }
+        descarregar();
+        return linhas;
+    }
+
+    // id;usuario;item;exemplar;data_emprestimo;data_prevista;dias_atraso;multa_hoje
+    // "hoje" é o epoch day usado pro atraso e pra multa se devolvesse hoje
+    public int emprestimos(Iterable<Emprestimo> emprestimos, long hoje) throws IOException {
+        ascii("id;usuario;item;exemplar;data_emprestimo;data_prevista;dias_atraso;multa_hoje\n");
+        int linhas = 0;
+        for (Emprestimo e : emprestimos) {
+            texto(e.getIdEmprestimo()).separador();
+            texto(e.getUsuario().getId()).separador();
+            texto(e.getItem().getCodigo()).separador();
+            numero(e.getExemplar() + 1).separador();
+            data(e.getDiaEmprestimo()).separador();
+            data(e.getDiaDevolucaoPrevista()).separador();
+            numero(Math.max(0, hoje - e.getDiaDevolucaoPrevista())).separador();
+            reais(e.calcularMultaCentavos(hoje)).fimDeLinha();
+            linhas++;
+        }
+        descarregar();
+        return linhas;
+    }
+
+    // Manda o que estiver no buffer pro canal
+    public void descarregar() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += canal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // ---------------------------------------------------------------- campos
+
+    private Exportador separador() throws IOException {
+        return ascii(';');
+    }
+
+    private Exportador fimDeLinha() throws IOException {
+        return ascii('\n');
+    }
+
+    private Exportador ascii(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            descarregar();
+        }
+        buffer.put((byte) c);
+        return this;
+    }
+
+    private Exportador ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ascii(s.charAt(i));
+        }
+        return this;
+    }
+
+    // UTF-8 na mão - null vira campo vazio
+    private Exportador texto(String s) throws IOException {
+        if (s == null) {
+            return this;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (buffer.remaining() < 4) {
+                descarregar();
+            }
+            if (c < 0x80) {
+                buffer.put(c == ';' || c == '\n' || c == '\r' ? (byte) ' ' : (byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | cp >> 18));
+                buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+                buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?'); // Metade de par sozinha - não dá pra codificar
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    private Exportador numero(long valor) throws IOException {
+        if (buffer.remaining() < 20) {
+            descarregar();
+        }
+        if (valor < 0) {
+            buffer.put((byte) '-');
+            if (valor == Long.MIN_VALUE) {
+                return ascii("9223372036854775808");
+            }
+            valor = -valor;
+        }
+        long divisor = 1;
+        while (divisor <= valor / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + valor / divisor % 10));
+        }
+        return this;
+    }
+
+    // Centavos em reais com ponto, igual ao relatório: 1250 -> "12.50"
+    private Exportador reais(long centavos) throws IOException {
+        if (centavos < 0) {
+            ascii('-');
+            centavos = -centavos;
+        }
+        numero(centavos / 100).ascii('.');
+        long resto = centavos % 100;
+        return ascii((char) ('0' + resto / 10)).ascii((char) ('0' + resto % 10));
+    }
+
+    // Epoch day -> AAAA-MM-DD sem passar por LocalDate (algoritmo "days from civil" ao contrário)
+    private Exportador data(long dia) throws IOException {
+        long z = dia + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long d = doy - (153 * mp + 2) / 5 + 1;
+        long m = mp < 10 ? mp + 3 : mp - 9;
+        long a = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        if (a < 0) {
+            ascii('-');
+            a = -a;
+        }
+        for (long casa = 1000; casa > 1 && a < casa; casa /= 10) {
+            ascii('0'); // Ano sempre com 4 dígitos, igual ao LocalDate
+        }
+        numero(a).ascii('-');
+        ascii((char) ('0' + m / 10)).ascii((char) ('0' + m % 10)).ascii('-');
+        return ascii((char) ('0' + d / 10)).ascii((char) ('0' + d % 10));
+    }
+}
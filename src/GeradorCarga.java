@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Gerador de carga pro ServidorHttp
+ *
+ * Vários clientes (threads) mandam requisições sem parar durante um tempo
+ * fixo: metade buscas, um quarto empréstimos e um quarto devoluções dos
+ * próprios empréstimos. Cada cliente usa os seus usuários e itens, então
+ * as recusas por RN1/RN2 são raras. No fim mostra requisições por segundo
+ * e as latências p50/p90/p99/máxima.
+ *
+ * Sem URL, sobe um servidor no mesmo processo (porta livre) com um acervo
+ * de teste - nesse caso cliente e servidor dividem a mesma CPU.
+ *
+ * Uso: java GeradorCarga [segundos] [clientes] [url]
+ *
+ * @author Ryan Figueredo
+ */
+public class GeradorCarga {
+    private static final int ITENS = 30_000;
+    private static final String[] BUSCAS = { "livro", "revis", "autor 42", "editora 7", "livro 123", "978500" };
+
+    // Faixas de status contadas: 2xx, 4xx, 5xx e falha de conexão
+    private static final int OK = 0;
+    private static final int RECUSADA = 1;
+    private static final int ERRO = 2;
+    private static final int FALHA = 3;
+
+    private final HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final String url;
+    private final AtomicLongArray porStatus = new AtomicLongArray(4);
+
+    private GeradorCarga(String url) {
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int segundos = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int clientes = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        ServidorHttp local = null;
+        String url;
+        if (args.length > 2) {
+            url = args[2];
+        } else {
+            local = new ServidorHttp(montarSistema(), 0);
+            local.iniciar();
+            url = "http://localhost:" + local.getPorta();
+            System.out.println("Servidor local em " + url + (local.isThreadsVirtuais() ? " (threads virtuais)" : " (pool de threads)"));
+        }
+
+        GeradorCarga gerador = new GeradorCarga(url);
+        gerador.executar(2, clientes); // Aquecimento - descartado
+        for (int i = 0; i < gerador.porStatus.length(); i++) {
+            gerador.porStatus.set(i, 0);
+        }
+
+        long inicio = System.nanoTime();
+        long[][] latencias = gerador.executar(segundos, clientes);
+        double duracao = (System.nanoTime() - inicio) / 1e9;
+        gerador.imprimir(latencias, duracao, clientes);
+
+        if (local != null) {
+            local.parar();
+        }
+    }
+
+    // Acervo de teste: itens "C0".."C{n}" e um aluno a cada 3 itens
+    private static SistemaBiblioteca montarSistema() throws RegraDeNegocioException {
+        SistemaBiblioteca sistema = new SistemaBiblioteca();
+        for (int u = 0; u < ITENS / 3; u++) {
+            sistema.adicionarUsuario(new Aluno("U" + u, "Aluno " + u, "Rua " + u, "M" + u, "Curso " + (u % 40)));
+        }
+        for (int i = 0; i < ITENS; i++) {
+            if (i % 2 == 0) {
+                sistema.adicionarItem(new Livro("C" + i, "Livro " + i, 1950 + i % 75, "Autor " + (i % 5000), "978" + i, 1));
+            } else {
+                sistema.adicionarItem(new Revista("C" + i, "Revista " + i, 1950 + i % 75, "Editora " + (i % 300), i % 120, "ISSN" + i));
+            }
+        }
+        return sistema;
+    }
+
+    // Roda todos os clientes pelo tempo pedido e devolve as latências (ns) de cada um
+    private long[][] executar(int segundos, int clientes) throws InterruptedException {
+        long[][] latencias = new long[clientes][];
+        CountDownLatch fim = new CountDownLatch(clientes);
+        long prazo = System.nanoTime() + segundos * 1_000_000_000L;
+        for (int c = 0; c < clientes; c++) {
+            final int cliente = c;
+            Thread t = new Thread(() -> {
+                try {
+                    latencias[cliente] = rodarCliente(cliente, clientes, prazo);
+                } finally {
+                    fim.countDown();
+                }
+            }, "carga-" + c);
+            t.start();
+        }
+        fim.await();
+        return latencias;
+    }
+
+    private long[] rodarCliente(int cliente, int clientes, long prazo) {
+        Random random = new Random(cliente);
+        long[] latencias = new long[1024];
+        int n = 0;
+        Deque<String> meusEmprestimos = new ArrayDeque<>();
+        // Usuários e itens deste cliente: os de número congruente a "cliente"
+        int proximoItem = cliente;
+        int usuario = cliente;
+
+        for (long op = 0; System.nanoTime() < prazo; op++) {
+            HttpRequest pedido;
+            int tipo = (int) (op & 3);
+            if (tipo == 2 || (tipo == 3 && meusEmprestimos.isEmpty())) {
+                pedido = post("/emprestimos", "{\"usuario\":\"U" + usuario + "\",\"item\":\"C" + proximoItem + "\"}");
+                proximoItem += clientes;
+                if (proximoItem >= ITENS) {
+                    proximoItem = cliente;
+                }
+                usuario = (usuario + clientes) % (ITENS / 3);
+            } else if (tipo == 3) {
+                pedido = post("/devolucoes", "{\"emprestimo\":\"" + meusEmprestimos.pollFirst() + "\"}");
+            } else {
+                String q = BUSCAS[random.nextInt(BUSCAS.length)].replace(" ", "+");
+                pedido = HttpRequest.newBuilder(URI.create(url + "/busca?q=" + q + "&limite=20")).GET().build();
+            }
+
+            long t0 = System.nanoTime();
+            try {
+                HttpResponse<String> resposta = this.cliente.send(pedido, HttpResponse.BodyHandlers.ofString());
+                long t1 = System.nanoTime();
+                if (n == latencias.length) {
+                    latencias = Arrays.copyOf(latencias, n * 2);
+                }
+                latencias[n++] = t1 - t0;
+                int status = resposta.statusCode();
+                porStatus.incrementAndGet(status < 300 ? OK : status < 500 ? RECUSADA : ERRO);
+                if (status == 201 && tipo >= 2) {
+                    Map<String, Object> emprestimo = Json.lerObjeto(resposta.body());
+                    meusEmprestimos.addLast(String.valueOf(emprestimo.get("id")));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                porStatus.incrementAndGet(FALHA);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return Arrays.copyOf(latencias, n);
+    }
+
+    private HttpRequest post(String caminho, String json) {
+        return HttpRequest.newBuilder(URI.create(url + caminho))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private void imprimir(long[][] latencias, double duracao, int clientes) {
+        int total = 0;
+        for (long[] l : latencias) {
+            total += l.length;
+        }
+        long[] todas = new long[total];
+        int pos = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(todas);
+
+        System.out.printf("%nClientes: %d | duração: %.1f s | requisições: %,d | %,.0f req/s%n",
+                clientes, duracao, total, total / duracao);
+        System.out.printf("Status: %,d ok | %,d recusadas (4xx) | %,d erros (5xx) | %,d falhas de conexão%n",
+                porStatus.get(OK), porStatus.get(RECUSADA), porStatus.get(ERRO), porStatus.get(FALHA));
+        if (total > 0) {
+            System.out.printf("Latência: p50 %.2f ms | p90 %.2f ms | p99 %.2f ms | máx %.2f ms%n",
+                    percentil(todas, 0.50), percentil(todas, 0.90), percentil(todas, 0.99), todas[total - 1] / 1e6);
+        }
+    }
+
+    private static double percentil(long[] ordenadas, double p) {
+        int i = (int) Math.ceil(p * ordenadas.length) - 1;
+        return ordenadas[Math.max(0, i)] / 1e6;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências (em nanossegundos), no estilo do HdrHistogram
+ *
+ * Os baldes crescem em potências de 2 e cada potência é dividida em 16
+ * partes iguais, então o erro de qualquer percentil fica abaixo de ~6%
+ * (de 1 ns até ~36 minutos) com só 608 contadores. Registrar é uma conta
+ * de bits e um incremento atômico: não aloca nada e não trava, pode ser
+ * chamado de vários balcões ao mesmo tempo. Os percentis são calculados
+ * só na hora de ler.
+ *
+ * @author Ryan Figueredo
+ */
+public class Histograma {
+    private static final int BITS_SUB = 4;
+    private static final int SUB = 1 << BITS_SUB;       // 16 partes por potência de 2
+    private static final int MAIOR_EXPOENTE = 41;        // 2^41 ns ~ 36 min - acima disso vai pro último balde
+    private static final long MAIOR_VALOR = (1L << MAIOR_EXPOENTE) - 1;
+    private static final int BALDES = (MAIOR_EXPOENTE - BITS_SUB + 1) * SUB;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(BALDES);
+    private final LongAdder quantidade = new LongAdder();
+    private final LongAdder soma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public void registrar(long nanos) {
+        long v = nanos < 0 ? 0 : Math.min(nanos, MAIOR_VALOR);
+        baldes.incrementAndGet(balde(v));
+        quantidade.increment();
+        soma.add(v);
+        long atual = maximo.get();
+        while (v > atual && !maximo.compareAndSet(atual, v)) {
+            atual = maximo.get();
+        }
+    }
+
+    // Valores até 31 têm balde próprio; acima disso, 16 baldes por potência de 2
+    static int balde(long v) {
+        if (v < 2 * SUB) {
+            return (int) v;
+        }
+        int deslocamento = 63 - Long.numberOfLeadingZeros(v) - BITS_SUB;
+        return (deslocamento + 1) * SUB + (int) (v >>> deslocamento) - SUB;
+    }
+
+    // Maior valor que cai no balde
+    static long limiteSuperior(int balde) {
+        if (balde < 2 * SUB) {
+            return balde;
+        }
+        int deslocamento = balde / SUB - 1;
+        long sub = balde % SUB + SUB;
+        return ((sub + 1) << deslocamento) - 1;
+    }
+
+    public long getQuantidade() {
+        return quantidade.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public double getMedia() {
+        long n = quantidade.sum();
+        return n == 0 ? 0 : (double) soma.sum() / n;
+    }
+
+    // Percentil (0 a 100) em nanossegundos - o limite de cima do balde, nunca maior que o máximo
+    public long percentil(double p) {
+        long[] copia = new long[BALDES];
+        long total = 0;
+        for (int i = 0; i < BALDES; i++) {
+            copia[i] = baldes.get(i);
+            total += copia[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long acumulado = 0;
+        for (int i = 0; i < BALDES; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    // Não é atômico em relação a quem está registrando - serve pra começar uma medição do zero
+    public void zerar() {
+        for (int i = 0; i < BALDES; i++) {
+            baldes.set(i, 0);
+        }
+        quantidade.reset();
+        soma.reset();
+        maximo.set(0);
+    }
+}
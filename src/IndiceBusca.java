@@ -0,0 +1,408 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice invertido pra busca textual no acervo
+ *
+ * Cada palavra do título, autor, editora, ISBN e ISSN aponta pra lista
+ * ordenada dos itens onde ela aparece (um int[] com o número interno do
+ * item e um short[] com o peso). As palavras são normalizadas: minúsculas
+ * e sem acento, então "Computação" e "computacao" são a mesma coisa. O
+ * dicionário de palavras é um TreeMap, o que permite achar todas as
+ * palavras que começam com um prefixo.
+ *
+ * A consulta exige todas as palavras (E), cada uma como prefixo. A
+ * pontuação soma o peso do campo onde a palavra apareceu, com bônus pra
+ * palavra inteira, e só os N melhores são devolvidos. Um prefixo entra
+ * com todas as palavras que começam com ele (sem corte: cortar na ordem
+ * do dicionário sumiria com as palavras do fim do alfabeto); quem limita
+ * o trabalho é o heap dos N melhores. A menor lista guia
+ * a interseção (as outras são consultadas por busca galopante) e a busca
+ * para assim que já tem N itens com a pontuação máxima possível.
+ *
+ * @author Ryan Figueredo
+ */
+public class IndiceBusca {
+    // Peso de cada campo na pontuação
+    private static final short PESO_TITULO = 4;
+    private static final short PESO_CODIGO = 4; // ISBN/ISSN
+    private static final short PESO_AUTOR = 2;
+    private static final short PESO_EDITORA = 1;
+    private static final int BONUS_PALAVRA_INTEIRA = 2;
+
+    private static final Set<String> PALAVRAS_VAZIAS = new HashSet<>(Arrays.asList(
+            "a", "o", "as", "os", "e", "de", "da", "do", "das", "dos", "em", "no", "na", "nos", "nas",
+            "um", "uma", "para", "por", "com", "the", "of", "and"));
+
+    // Lista de ocorrências de uma palavra, sempre ordenada pelo número do item
+    private static class Postagens {
+        int[] itens = new int[1];
+        short[] pesos = new short[1];
+        int tamanho;
+        short pesoMaximo; // Maior peso da lista - limite de cima pra parar a busca cedo
+
+        void adicionar(int numero, short peso) {
+            // O mesmo item pode ter a palavra em mais de um campo - soma os pesos
+            if (tamanho > 0 && itens[tamanho - 1] == numero) {
+                pesos[tamanho - 1] += peso;
+                pesoMaximo = (short) Math.max(pesoMaximo, pesos[tamanho - 1]);
+                return;
+            }
+            if (tamanho == itens.length) {
+                itens = Arrays.copyOf(itens, tamanho * 2);
+                pesos = Arrays.copyOf(pesos, tamanho * 2);
+            }
+            // Quase sempre o número é maior que o último (cadastro em ordem); se não for, insere no lugar
+            int pos = tamanho;
+            if (tamanho > 0 && itens[tamanho - 1] > numero) {
+                pos = Arrays.binarySearch(itens, 0, tamanho, numero);
+                if (pos >= 0) {
+                    pesos[pos] += peso;
+                    pesoMaximo = (short) Math.max(pesoMaximo, pesos[pos]);
+                    return;
+                }
+                pos = -pos - 1;
+                System.arraycopy(itens, pos, itens, pos + 1, tamanho - pos);
+                System.arraycopy(pesos, pos, pesos, pos + 1, tamanho - pos);
+            }
+            itens[pos] = numero;
+            pesos[pos] = peso;
+            pesoMaximo = (short) Math.max(pesoMaximo, peso);
+            tamanho++;
+        }
+    }
+
+    private final TreeMap<String, Postagens> dicionario = new TreeMap<>();
+    private ItemDeAcervo[] itens = new ItemDeAcervo[1024];
+    private final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+
+    // Indexa um item - o número interno dele precisa já estar definido
+    public void adicionar(ItemDeAcervo item) {
+        int numero = item.getNumeroInterno();
+        trava.writeLock().lock();
+        try {
+            if (numero >= itens.length) {
+                itens = Arrays.copyOf(itens, Math.max(numero + 1, itens.length * 2));
+            }
+            itens[numero] = item;
+            indexarCampo(numero, item.getTitulo(), PESO_TITULO);
+            if (item instanceof Livro) {
+                Livro l = (Livro) item;
+                indexarCampo(numero, l.getAutor(), PESO_AUTOR);
+                indexarCodigo(numero, l.getIsbn());
+            } else if (item instanceof Revista) {
+                Revista r = (Revista) item;
+                indexarCampo(numero, r.getEditora(), PESO_EDITORA);
+                indexarCodigo(numero, r.getIssn());
+            }
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    private void indexarCampo(int numero, String texto, short peso) {
+        for (String palavra : palavras(texto)) {
+            dicionario.computeIfAbsent(palavra, p -> new Postagens()).adicionar(numero, peso);
+        }
+    }
+
+    // ISBN/ISSN entram também sem hífen, pra "978-85-7522" achar "978857522..."
+    private void indexarCodigo(int numero, String codigo) {
+        indexarCampo(numero, codigo, PESO_CODIGO);
+        String compacto = normalizar(codigo).replace("-", "").replace(" ", "");
+        if (!compacto.isEmpty() && !palavras(codigo).contains(compacto)) {
+            dicionario.computeIfAbsent(compacto, p -> new Postagens()).adicionar(numero, PESO_CODIGO);
+        }
+    }
+
+    // Busca os itens que têm todas as palavras da consulta (como prefixo)
+    // Com apenasDisponiveis=true os emprestados (e os separados pra uma reserva) ficam de fora
+    public List<ItemDeAcervo> buscar(String consulta, int limite, boolean apenasDisponiveis) {
+        List<String> termos = palavras(consulta);
+        if (termos.isEmpty() || limite <= 0) {
+            return Collections.emptyList();
+        }
+
+        trava.readLock().lock();
+        try {
+            Ocorrencias[] listas = new Ocorrencias[termos.size()];
+            int maximoPossivel = 0;
+            for (int t = 0; t < listas.length; t++) {
+                listas[t] = expandir(termos.get(t));
+                if (listas[t].tamanho == 0) {
+                    return Collections.emptyList(); // Alguma palavra não existe: nada bate com todas
+                }
+                maximoPossivel += listas[t].pontosMaximo;
+            }
+            // A menor lista puxa a busca; as outras só são consultadas pelos candidatos dela
+            Arrays.sort(listas, (x, y) -> Integer.compare(x.tamanho, y.tamanho));
+            Ocorrencias base = listas[0];
+            int[] cursores = new int[listas.length];
+
+            MelhoresN melhores = new MelhoresN(limite);
+            for (int k = 0; k < base.tamanho; k++) {
+                // Já tem N com a pontuação máxima: os próximos (cadastrados depois) perdem no empate
+                if (melhores.cheio() && melhores.piorPontos() >= maximoPossivel) {
+                    break;
+                }
+                int item = base.item(k);
+                int pontos = base.pontos(k);
+                boolean emTodas = true;
+                for (int t = 1; t < listas.length && emTodas; t++) {
+                    int pos = listas[t].procurar(item, cursores[t]);
+                    if (pos < 0) {
+                        cursores[t] = -pos - 1;
+                        emTodas = false;
+                    } else {
+                        cursores[t] = pos + 1;
+                        pontos += listas[t].pontos(pos);
+                    }
+                }
+                if (!emTodas || !melhores.entraria(item, pontos)) {
+                    continue;
+                }
+                if (apenasDisponiveis && !itens[item].isDisponivel()) {
+                    continue;
+                }
+                melhores.adicionar(item, pontos);
+            }
+
+            int[] ordem = melhores.itensEmOrdem();
+            ItemDeAcervo[] ordenados = new ItemDeAcervo[ordem.length];
+            for (int k = 0; k < ordem.length; k++) {
+                ordenados[k] = itens[ordem[k]];
+            }
+            return Arrays.asList(ordenados);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    // Ocorrências de um termo da consulta
+    // Quando o prefixo é uma palavra só, aponta direto pras postagens dela (sem cópia);
+    // quando expande pra várias, guarda a junção num long[] (item nos 32 bits de cima, pontos nos de baixo)
+    private static class Ocorrencias {
+        final Postagens postagens;
+        final int bonus;
+        final long[] juntas;
+        final int tamanho;
+        final int pontosMaximo;
+
+        Ocorrencias(Postagens postagens, int bonus) {
+            this.postagens = postagens;
+            this.bonus = bonus;
+            this.juntas = null;
+            this.tamanho = postagens.tamanho;
+            this.pontosMaximo = postagens.pesoMaximo + bonus;
+        }
+
+        Ocorrencias(long[] juntas, int tamanho, int pontosMaximo) {
+            this.postagens = null;
+            this.bonus = 0;
+            this.juntas = juntas;
+            this.tamanho = tamanho;
+            this.pontosMaximo = pontosMaximo;
+        }
+
+        int item(int i) {
+            return juntas == null ? postagens.itens[i] : (int) (juntas[i] >>> 32);
+        }
+
+        int pontos(int i) {
+            return juntas == null ? postagens.pesos[i] + bonus : (int) juntas[i];
+        }
+
+        // Busca galopante a partir de "de": os candidatos chegam em ordem, então o cursor só anda pra frente
+        // Devolve a posição, ou -(inserção) - 1 se o item não está na lista
+        int procurar(int alvo, int de) {
+            int passo = 1;
+            int hi = de;
+            while (hi < tamanho && item(hi) < alvo) {
+                de = hi + 1;
+                hi += passo;
+                passo <<= 1;
+            }
+            int lo = de;
+            hi = Math.min(hi, tamanho - 1);
+            while (lo <= hi) {
+                int meio = (lo + hi) >>> 1;
+                int v = item(meio);
+                if (v < alvo) {
+                    lo = meio + 1;
+                } else if (v > alvo) {
+                    hi = meio - 1;
+                } else {
+                    return meio;
+                }
+            }
+            return -lo - 1;
+        }
+    }
+
+    // Heap de mínimo com os N melhores, tudo em long[] (pontos nos 32 bits de cima,
+    // item invertido nos de baixo pra que, no empate, o cadastrado primeiro ganhe)
+    private static class MelhoresN {
+        final long[] heap;
+        int tamanho;
+
+        MelhoresN(int limite) {
+            heap = new long[limite];
+        }
+
+        static long chave(int item, int pontos) {
+            return ((long) pontos << 32) | (Integer.MAX_VALUE - item);
+        }
+
+        boolean cheio() {
+            return tamanho == heap.length;
+        }
+
+        int piorPontos() {
+            return (int) (heap[0] >> 32);
+        }
+
+        boolean entraria(int item, int pontos) {
+            return !cheio() || chave(item, pontos) > heap[0];
+        }
+
+        void adicionar(int item, int pontos) {
+            long c = chave(item, pontos);
+            if (!cheio()) {
+                int i = tamanho++;
+                while (i > 0 && heap[(i - 1) / 2] > c) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = c;
+                return;
+            }
+            // Troca o pior e desce
+            int i = 0;
+            while (true) {
+                int filho = 2 * i + 1;
+                if (filho >= tamanho) {
+                    break;
+                }
+                if (filho + 1 < tamanho && heap[filho + 1] < heap[filho]) {
+                    filho++;
+                }
+                if (heap[filho] >= c) {
+                    break;
+                }
+                heap[i] = heap[filho];
+                i = filho;
+            }
+            heap[i] = c;
+        }
+
+        // Do melhor pro pior
+        int[] itensEmOrdem() {
+            long[] ordem = Arrays.copyOf(heap, tamanho);
+            Arrays.sort(ordem);
+            int[] resultado = new int[tamanho];
+            for (int k = 0; k < tamanho; k++) {
+                resultado[k] = Integer.MAX_VALUE - (int) ordem[tamanho - 1 - k];
+            }
+            return resultado;
+        }
+    }
+
+    // Junta as ocorrências de todas as palavras que começam com o termo
+    // O custo é o das postagens da faixa, uma vez por consulta; a interseção e o heap dos N melhores
+    // cuidam do resto
+    private Ocorrencias expandir(String termo) {
+        Map<String, Postagens> faixa = dicionario.subMap(termo, true, termo + Character.MAX_VALUE, false);
+        int total = 0;
+        int expansoes = 0;
+        for (Postagens p : faixa.values()) {
+            total += p.tamanho;
+            expansoes++;
+        }
+        if (expansoes == 0) {
+            return new Ocorrencias(new long[0], 0, 0);
+        }
+        if (expansoes == 1) {
+            // Uma palavra só: usa a lista dela como está (já ordenada e sem repetição)
+            Map.Entry<String, Postagens> e = faixa.entrySet().iterator().next();
+            return new Ocorrencias(e.getValue(), e.getKey().length() == termo.length() ? BONUS_PALAVRA_INTEIRA : 0);
+        }
+        long[] ocorrencias = new long[total];
+        int n = 0;
+        for (Map.Entry<String, Postagens> e : faixa.entrySet()) {
+            Postagens p = e.getValue();
+            int bonus = e.getKey().length() == termo.length() ? BONUS_PALAVRA_INTEIRA : 0;
+            for (int i = 0; i < p.tamanho; i++) {
+                ocorrencias[n++] = ((long) p.itens[i] << 32) | (p.pesos[i] + bonus);
+            }
+        }
+        // Ordena e soma quando o mesmo item aparece em duas palavras
+        // O máximo sai da soma de verdade: somar o pior caso de cada palavra, com centenas delas,
+        // daria um limite que nunca é atingido e a busca não pararia cedo
+        Arrays.sort(ocorrencias);
+        int unicos = 0;
+        int maximo = 0;
+        for (int i = 0; i < n; i++) {
+            if (unicos > 0 && (ocorrencias[unicos - 1] >>> 32) == (ocorrencias[i] >>> 32)) {
+                int soma = (int) ocorrencias[unicos - 1] + (int) ocorrencias[i];
+                ocorrencias[unicos - 1] = (ocorrencias[i] & 0xFFFFFFFF00000000L) | soma;
+            } else {
+                ocorrencias[unicos++] = ocorrencias[i];
+            }
+            maximo = Math.max(maximo, (int) ocorrencias[unicos - 1]);
+        }
+        return new Ocorrencias(ocorrencias, unicos, maximo);
+    }
+
+    public int getQuantidadePalavras() {
+        trava.readLock().lock();
+        try {
+            return dicionario.size();
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    // Quebra o texto em palavras normalizadas, sem repetir e sem palavras vazias
+    static List<String> palavras(String texto) {
+        List<String> resultado = new ArrayList<>();
+        if (texto == null) {
+            return resultado;
+        }
+        String normal = normalizar(texto);
+        int inicio = -1;
+        for (int i = 0; i <= normal.length(); i++) {
+            boolean letra = i < normal.length() && Character.isLetterOrDigit(normal.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                String palavra = normal.substring(inicio, i);
+                if (!PALAVRAS_VAZIAS.contains(palavra) && !resultado.contains(palavra)) {
+                    resultado.add(palavra);
+                }
+                inicio = -1;
+            }
+        }
+        return resultado;
+    }
+
+    // Minúsculas e sem acento ("Introdução" -> "introducao")
+    static String normalizar(String texto) {
+        String decomposto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposto.length());
+        for (int i = 0; i < decomposto.length(); i++) {
+            char c = decomposto.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índices secundários do acervo pra filtrar sem varrer a lista inteira
+ *
+ * Tipo do item e disponibilidade viram mapas de bits densos (um bit por
+ * item). O de disponibilidade é mantido pelo próprio item: emprestar() e
+ * devolver() já atualizam o bit. Ano, autor e editora têm muitos valores
+ * diferentes com poucos itens cada, então guardam só a lista de números
+ * dos itens de cada valor.
+ *
+ * Um filtro combinado vira uma interseção de bits (um AND por palavra de
+ * 64 itens) e o resultado é paginado direto pelos bits, com um cursor, sem
+ * montar lista com todos os itens encontrados.
+ *
+ * @author Ryan Figueredo
+ */
+public class IndicesAcervo {
+
+    // Números dos itens com um certo valor (ano, autor ou editora) - a ordem não importa
+    private static class ListaNumeros {
+        int[] numeros = new int[4];
+        int tamanho;
+
+        void adicionar(int numero) {
+            if (tamanho == numeros.length) {
+                numeros = Arrays.copyOf(numeros, tamanho * 2);
+            }
+            numeros[tamanho++] = numero;
+        }
+    }
+
+    private final MapaDeBits cadastrados = new MapaDeBits();
+    private final MapaDeBits disponiveis = new MapaDeBits();
+    private final Map<Class<?>, MapaDeBits> porTipo = new HashMap<>();
+    private final TreeMap<Integer, ListaNumeros> porAno = new TreeMap<>();
+    private final Map<String, ListaNumeros> porAutor = new HashMap<>();
+    private final Map<String, ListaNumeros> porEditora = new HashMap<>();
+    private ItemDeAcervo[] itens = new ItemDeAcervo[1024];
+    private int quantidade; // Maior número interno + 1
+    private final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+
+    // Indexa um item - o número interno dele precisa já estar definido
+    public void adicionar(ItemDeAcervo item) {
+        int numero = item.getNumeroInterno();
+        trava.writeLock().lock();
+        try {
+            if (numero >= itens.length) {
+                itens = Arrays.copyOf(itens, Math.max(numero + 1, itens.length * 2));
+            }
+            itens[numero] = item;
+            quantidade = Math.max(quantidade, numero + 1);
+            cadastrados.marcar(numero);
+            porTipo.computeIfAbsent(item.getClass(), c -> new MapaDeBits()).marcar(numero);
+            porAno.computeIfAbsent(item.getAnoPublicacao(), a -> new ListaNumeros()).adicionar(numero);
+            if (item instanceof Livro) {
+                porAutor.computeIfAbsent(chave(((Livro) item).getAutor()), a -> new ListaNumeros()).adicionar(numero);
+            } else if (item instanceof Revista) {
+                porEditora.computeIfAbsent(chave(((Revista) item).getEditora()), e -> new ListaNumeros()).adicionar(numero);
+            }
+        } finally {
+            trava.writeLock().unlock();
+        }
+        // Daqui pra frente o item mantém o próprio bit de disponibilidade
+        item.vincularMapaDisponiveis(disponiveis);
+    }
+
+    // Autor e editora são comparados sem maiúsculas, acentos e espaços nas pontas
+    private static String chave(String valor) {
+        return valor == null ? "" : IndiceBusca.normalizar(valor.trim());
+    }
+
+    public int contarDisponiveis() {
+        int total = 0;
+        for (int p = 0; p < disponiveis.getQuantidadePalavras(); p++) {
+            total += Long.bitCount(disponiveis.palavra(p));
+        }
+        return total;
+    }
+
+    // Aplica o filtro e devolve os bits dos itens que passaram
+    public Resultado filtrar(Filtro filtro) {
+        trava.readLock().lock();
+        try {
+            int palavras = (quantidade + 63) >>> 6;
+            long[] bits = null;
+
+            // Primeiro os filtros de lista (quase sempre os mais seletivos)
+            if (filtro.autor != null) {
+                bits = e(bits, bitsDaLista(porAutor.get(chave(filtro.autor)), palavras));
+            }
+            if (filtro.editora != null) {
+                bits = e(bits, bitsDaLista(porEditora.get(chave(filtro.editora)), palavras));
+            }
+            if (filtro.anoInicial != Integer.MIN_VALUE || filtro.anoFinal != Integer.MAX_VALUE) {
+                long[] anos = new long[palavras];
+                if (filtro.anoInicial <= filtro.anoFinal) {
+                    for (ListaNumeros l : porAno.subMap(filtro.anoInicial, true, filtro.anoFinal, true).values()) {
+                        marcarLista(anos, l);
+                    }
+                }
+                bits = e(bits, anos);
+            }
+
+            // Depois os mapas densos, palavra por palavra
+            if (bits == null) {
+                bits = new long[palavras];
+                Arrays.fill(bits, -1L);
+            }
+            e(bits, cadastrados); // Número reservado mas item ainda não indexado fica de fora
+            if (filtro.tipo != null) {
+                e(bits, porTipo.get(filtro.tipo));
+            }
+            if (filtro.apenasDisponiveis) {
+                e(bits, disponiveis);
+            }
+            return new Resultado(bits, itens, filtro.apenasDisponiveis);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    private static long[] bitsDaLista(ListaNumeros lista, int palavras) {
+        long[] bits = new long[palavras];
+        if (lista != null) {
+            marcarLista(bits, lista);
+        }
+        return bits;
+    }
+
+    private static void marcarLista(long[] bits, ListaNumeros lista) {
+        for (int i = 0; i < lista.tamanho; i++) {
+            int n = lista.numeros[i];
+            bits[n >>> 6] |= 1L << n;
+        }
+    }
+
+    // AND entre os dois (o primeiro pode ser null = "ainda sem filtro")
+    private static long[] e(long[] bits, long[] outro) {
+        if (bits == null) {
+            return outro;
+        }
+        for (int p = 0; p < bits.length; p++) {
+            bits[p] &= outro[p];
+        }
+        return bits;
+    }
+
+    private static void e(long[] bits, MapaDeBits mapa) {
+        if (mapa == null) {
+            Arrays.fill(bits, 0L);
+            return;
+        }
+        for (int p = 0; p < bits.length; p++) {
+            bits[p] &= mapa.palavra(p);
+        }
+    }
+
+    /**
+     * Critérios de um filtro do acervo - os que não forem definidos não filtram
+     */
+    public static class Filtro {
+        private Class<? extends ItemDeAcervo> tipo;
+        private int anoInicial = Integer.MIN_VALUE;
+        private int anoFinal = Integer.MAX_VALUE;
+        private String autor;
+        private String editora;
+        private boolean apenasDisponiveis;
+
+        public Filtro tipo(Class<? extends ItemDeAcervo> tipo) {
+            this.tipo = tipo;
+            return this;
+        }
+
+        // Intervalo fechado: anos(2015, 2020) inclui 2015 e 2020
+        public Filtro anos(int anoInicial, int anoFinal) {
+            this.anoInicial = anoInicial;
+            this.anoFinal = anoFinal;
+            return this;
+        }
+
+        public Filtro autor(String autor) {
+            this.autor = autor;
+            return this;
+        }
+
+        public Filtro editora(String editora) {
+            this.editora = editora;
+            return this;
+        }
+
+        public Filtro apenasDisponiveis() {
+            this.apenasDisponiveis = true;
+            return this;
+        }
+    }
+
+    /**
+     * Resultado de um filtro: os bits dos itens encontrados, na ordem de cadastro
+     *
+     * A disponibilidade é a do momento do filtro; na paginação os itens que
+     * foram emprestados depois disso são pulados.
+     */
+    public static class Resultado {
+        private final long[] bits;
+        private final ItemDeAcervo[] itens;
+        private final boolean apenasDisponiveis;
+
+        Resultado(long[] bits, ItemDeAcervo[] itens, boolean apenasDisponiveis) {
+            this.bits = bits;
+            this.itens = itens;
+            this.apenasDisponiveis = apenasDisponiveis;
+        }
+
+        public int contar() {
+            int total = 0;
+            for (long palavra : bits) {
+                total += Long.bitCount(palavra);
+            }
+            return total;
+        }
+
+        // Até "tamanho" itens a partir do cursor (0 na primeira página)
+        public Pagina pagina(int cursor, int tamanho) {
+            List<ItemDeAcervo> encontrados = new ArrayList<>(Math.min(tamanho, 64));
+            int p = cursor >>> 6;
+            long palavra = p < bits.length ? bits[p] & (-1L << cursor) : 0L;
+            while (p < bits.length) {
+                while (palavra != 0) {
+                    int numero = (p << 6) + Long.numberOfTrailingZeros(palavra);
+                    palavra &= palavra - 1;
+                    if (apenasDisponiveis && !itens[numero].isDisponivel()) {
+                        continue;
+                    }
+                    if (encontrados.size() == tamanho) {
+                        return new Pagina(encontrados, numero);
+                    }
+                    encontrados.add(itens[numero]);
+                }
+                if (++p < bits.length) {
+                    palavra = bits[p];
+                }
+            }
+            return new Pagina(encontrados, -1);
+        }
+    }
+
+    /**
+     * Uma página do resultado e o cursor da próxima (-1 quando acabou)
+     */
+    public static class Pagina {
+        private final List<ItemDeAcervo> itens;
+        private final int proximoCursor;
+
+        Pagina(List<ItemDeAcervo> itens, int proximoCursor) {
+            this.itens = itens;
+            this.proximoCursor = proximoCursor;
+        }
+
+        public List<ItemDeAcervo> getItens() {
+            return itens;
+        }
+
+        public int getProximoCursor() {
+            return proximoCursor;
+        }
+
+        public boolean temMais() {
+            return proximoCursor >= 0;
+        }
+    }
+}
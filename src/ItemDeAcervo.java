@@ -1,49 +1,271 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Classe abstrata que representa um item do acervo
- * 
+ *
  * Criei essa classe porque tanto Livro quanto Revista têm coisas em comum,
  * então faz sentido ter uma classe base pra não repetir código.
- * 
+ *
+ * O item é o registro bibliográfico (título, autor, ISBN...), que é um só
+ * por título. Os exemplares físicos são só bits: um bit por exemplar, ligado
+ * quando ele está fora da estante (emprestado ou separado pra uma reserva).
+ * Vinte cópias de um livro-texto são um objeto Livro com 20 bits, não 20
+ * objetos iguais. Pegar "qualquer exemplar livre" é um compare-and-set no
+ * contador de livres e outro na palavra de bits, sem trava.
+ *
  * @author Ryan Figueredo
  */
 public abstract class ItemDeAcervo {
+    // Limite de exemplares por título (64 bits por palavra)
+    public static final int MAX_EXEMPLARES = 64 * 1024;
+
+    private static final AtomicLongFieldUpdater<ItemDeAcervo> OCUPADOS =
+            AtomicLongFieldUpdater.newUpdater(ItemDeAcervo.class, "ocupados");
+    private static final AtomicIntegerFieldUpdater<ItemDeAcervo> LIVRES =
+            AtomicIntegerFieldUpdater.newUpdater(ItemDeAcervo.class, "livres");
+    private static final Reserva[] NENHUMA = new Reserva[0];
+
     private String codigo;
     private String titulo;
     private int anoPublicacao;
-    private boolean isEmprestado;
+    private final int quantidadeExemplares;
+    // Bits dos exemplares 0 a 63 - o campo fica no próprio objeto, então o caso comum
+    // (poucos exemplares) não aloca nada a mais. Bits além da quantidade já nascem ligados
+    private volatile long ocupados;
+    // Exemplares do 64 em diante, uma palavra por 64 (null se o título tem até 64)
+    private final AtomicLongArray ocupadosExtras;
+    // Exemplares na estante. Diminui ANTES de ligar o bit e aumenta DEPOIS de desligar,
+    // então quem conseguiu diminuir tem garantia de achar um bit desligado
+    private volatile int livres;
+    // Posição do item no acervo, definida no cadastro - usada pelos índices (-1 = fora do acervo)
+    private int numeroInterno = -1;
+    // Bit de disponibilidade nos índices do acervo (null enquanto não está cadastrado)
+    private volatile MapaDeBits mapaDisponiveis;
+    // Reservas com um exemplar separado esperando retirada - só o ControleReservas muda
+    // (troca o array inteiro, então a leitura não precisa de trava)
+    private volatile Reserva[] separadas = NENHUMA;
 
-    // Construtor básico
+    // Construtor básico - um exemplar só
     public ItemDeAcervo(String codigo, String titulo, int anoPublicacao) {
+        this(codigo, titulo, anoPublicacao, 1);
+    }
+
+    // Construtor com a quantidade de exemplares físicos do título
+    public ItemDeAcervo(String codigo, String titulo, int anoPublicacao, int quantidadeExemplares) {
+        if (quantidadeExemplares < 1 || quantidadeExemplares > MAX_EXEMPLARES) {
+            throw new IllegalArgumentException("Quantidade de exemplares inválida: " + quantidadeExemplares
+                    + " (de 1 a " + MAX_EXEMPLARES + ")");
+        }
         this.codigo = codigo;
         this.titulo = titulo;
         this.anoPublicacao = anoPublicacao;
-        this.isEmprestado = false; // Todo item novo começa disponível
+        this.quantidadeExemplares = quantidadeExemplares;
+        // Todo exemplar novo começa disponível
+        int palavras = (quantidadeExemplares + 63) >>> 6;
+        this.ocupados = palavras == 1 ? sobra(quantidadeExemplares) : 0L;
+        if (palavras > 1) {
+            this.ocupadosExtras = new AtomicLongArray(palavras - 1);
+            this.ocupadosExtras.set(palavras - 2, sobra(quantidadeExemplares));
+        } else {
+            this.ocupadosExtras = null;
+        }
+        this.livres = quantidadeExemplares;
+    }
+
+    // Bits da última palavra que não correspondem a exemplar nenhum
+    private static long sobra(int quantidade) {
+        int usados = quantidade & 63;
+        return usados == 0 ? 0L : -1L << usados;
+    }
+
+    private long palavra(int p) {
+        return p == 0 ? ocupados : ocupadosExtras.get(p - 1);
     }
 
-    // Método pra marcar como emprestado
-    public void emprestar() {
-        this.isEmprestado = true;
+    private boolean trocarPalavra(int p, long antes, long depois) {
+        return p == 0 ? OCUPADOS.compareAndSet(this, antes, depois) : ocupadosExtras.compareAndSet(p - 1, antes, depois);
     }
 
-    // Método pra marcar como devolvido
-    public void devolver() {
-        this.isEmprestado = false;
+    // Tenta pegar um exemplar qualquer que esteja na estante
+    // Retorna o número do exemplar (0, 1, ...) ou -1 se não sobrou nenhum
+    public int tentarEmprestar() {
+        int n;
+        do {
+            n = livres;
+            if (n == 0) {
+                return -1;
+            }
+        } while (!LIVRES.compareAndSet(this, n, n - 1));
+        // Daqui pra frente tem um bit desligado garantido pra esta thread - só falta achar
+        int palavras = ocupadosExtras == null ? 1 : ocupadosExtras.length() + 1;
+        int p = 0;
+        while (true) {
+            long atual = palavra(p);
+            long vagos = ~atual;
+            if (vagos == 0) {
+                p = p + 1 == palavras ? 0 : p + 1;
+                continue;
+            }
+            long bit = vagos & -vagos;
+            if (trocarPalavra(p, atual, atual | bit)) {
+                if (n == 1) {
+                    atualizarMapaDisponiveis(); // Era o último exemplar na estante
+                }
+                return (p << 6) + Long.numberOfTrailingZeros(bit);
+            }
+        }
     }
 
+    // Marca um exemplar específico como fora da estante - usado na carga do snapshot e do
+    // journal (uma thread só). Marcar de novo o mesmo exemplar não muda nada
+    void emprestar(int exemplar) {
+        int p = exemplar >>> 6;
+        long bit = 1L << exemplar;
+        long atual;
+        do {
+            atual = palavra(p);
+            if ((atual & bit) != 0) {
+                return;
+            }
+        } while (!trocarPalavra(p, atual, atual | bit));
+        if (LIVRES.decrementAndGet(this) == 0) {
+            atualizarMapaDisponiveis();
+        }
+    }
+
+    // Põe o exemplar de volta na estante - retorna false se ele já estava lá
+    public boolean devolver(int exemplar) {
+        int p = exemplar >>> 6;
+        long bit = 1L << exemplar;
+        long atual;
+        do {
+            atual = palavra(p);
+            if ((atual & bit) == 0) {
+                return false;
+            }
+        } while (!trocarPalavra(p, atual, atual & ~bit));
+        if (LIVRES.getAndIncrement(this) == 0) {
+            atualizarMapaDisponiveis(); // Voltou o primeiro exemplar
+        }
+        return true;
+    }
+
+    // Separa um exemplar (já marcado como fora da estante) pra uma reserva - só o ControleReservas chama
+    void separarPara(Reserva reserva) {
+        Reserva[] atual = separadas;
+        Reserva[] novo = Arrays.copyOf(atual, atual.length + 1);
+        novo[atual.length] = reserva;
+        separadas = novo;
+    }
+
+    // Tira a separação (a reserva foi atendida, expirou ou foi cancelada)
+    void tirarSeparacao(Reserva reserva) {
+        Reserva[] atual = separadas;
+        for (int i = 0; i < atual.length; i++) {
+            if (atual[i] == reserva) {
+                Reserva[] novo = atual.length == 1 ? NENHUMA : new Reserva[atual.length - 1];
+                System.arraycopy(atual, 0, novo, 0, i);
+                System.arraycopy(atual, i + 1, novo, i, atual.length - i - 1);
+                separadas = novo;
+                return;
+            }
+        }
+    }
+
+    // Copia o estado atual pro bit. Relê o estado dentro do synchronized: se um
+    // empréstimo e uma devolução se cruzarem, quem grava por último grava o valor final
+    // Só é chamado quando o item passa de 0 pra 1 exemplar livre ou de 1 pra 0
+    private void atualizarMapaDisponiveis() {
+        MapaDeBits mapa = this.mapaDisponiveis;
+        if (mapa != null) {
+            synchronized (this) {
+                mapa.definir(numeroInterno, isDisponivel());
+            }
+        }
+    }
+
+    // Cada tipo de item tem a sua taxa de multa na política de empréstimo
+    public abstract PoliticaEmprestimo.TipoItem getTipoItem();
+
     // Getters básicos
-    public String getCodigo() { 
-        return codigo; 
+    public String getCodigo() {
+        return codigo;
     }
-    
-    public String getTitulo() { 
-        return titulo; 
+
+    public String getTitulo() {
+        return titulo;
     }
-    
-    public int getAnoPublicacao() { 
-        return anoPublicacao; 
+
+    public int getAnoPublicacao() {
+        return anoPublicacao;
     }
-    
-    public boolean isEmprestado() { 
-        return isEmprestado; 
+
+    public int getNumeroInterno() {
+        return numeroInterno;
+    }
+
+    // Só o SistemaBiblioteca define, na hora do cadastro
+    void setNumeroInterno(int numeroInterno) {
+        this.numeroInterno = numeroInterno;
+    }
+
+    // Chamado pelos índices do acervo depois do cadastro
+    void vincularMapaDisponiveis(MapaDeBits mapa) {
+        this.mapaDisponiveis = mapa;
+        atualizarMapaDisponiveis();
+    }
+
+    public int getQuantidadeExemplares() {
+        return quantidadeExemplares;
+    }
+
+    public int getExemplaresLivres() {
+        return livres;
+    }
+
+    // Se o exemplar está fora da estante (emprestado ou separado)
+    public boolean isExemplarOcupado(int exemplar) {
+        return (palavra(exemplar >>> 6) & (1L << exemplar)) != 0;
+    }
+
+    // Nenhum exemplar na estante (com um exemplar só, é o "emprestado" de sempre)
+    public boolean isEmprestado() {
+        return livres == 0;
+    }
+
+    // Reservas que têm um exemplar separado esperando retirada
+    public List<Reserva> getReservasSeparadas() {
+        return Arrays.asList(separadas);
+    }
+
+    // Reserva com exemplar separado pra esse usuário, ou null
+    public Reserva getReservaSeparadaPara(Usuario usuario) {
+        for (Reserva r : separadas) {
+            if (r.getUsuario() == usuario) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    // Tem pelo menos um exemplar na estante (os separados pra reservas não contam)
+    public boolean isDisponivel() {
+        return livres > 0;
+    }
+
+    // Disponível pra esse usuário - um exemplar separado pra ele conta como disponível
+    public boolean isDisponivelPara(Usuario usuario) {
+        return livres > 0 || getReservaSeparadaPara(usuario) != null;
+    }
+
+    // Status pros toString das subclasses
+    protected String descricaoStatus() {
+        String status = isEmprestado() ? "Emprestado" : "Disponível";
+        int exemplares = getQuantidadeExemplares();
+        return exemplares == 1 ? status : status + " (" + getExemplaresLivres() + " de " + exemplares + " exemplares)";
     }
 }
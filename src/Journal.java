@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Classe que grava o journal (diário) de eventos do sistema
+ *
+ * Cada cadastro, empréstimo e devolução vira uma linha no fim do arquivo
+ * assim que acontece. Uma thread escritora junta tudo o que chegou enquanto
+ * ela estava ocupada e grava o lote com um único fsync (group commit), então
+ * vários balcões dividem o custo do disco. Quem registra recebe um
+ * CompletableFuture que só completa depois que a linha está no disco.
+ *
+ * Na carga, o sistema lê o último snapshot e depois reaplica as linhas do
+ * journal. Depois de um snapshot novo o journal é compactado (só fica o que
+ * veio depois do snapshot começar).
+ *
+ * @author Ryan Figueredo
+ */
+public class Journal implements AutoCloseable {
+    private static final int MAX_LOTE = 4096; // Máximo de pedidos por fsync
+
+    // Pedido pra thread escritora: ou são dados pra gravar, ou um pedido de compactação
+    private static class Pedido {
+        final byte[] dados;
+        final long compactarAte; // -1 quando é um pedido de gravação
+        final CompletableFuture<Void> feito = new CompletableFuture<>();
+
+        Pedido(byte[] dados, long compactarAte) {
+            this.dados = dados;
+            this.compactarAte = compactarAte;
+        }
+    }
+
+    private static final Pedido FIM = new Pedido(new byte[0], -1);
+
+    private final Path arquivo;
+    private final BlockingQueue<Pedido> fila;
+    private final Thread escritor;
+    private FileChannel canal; // Só a thread escritora mexe depois de aberto
+    private volatile long tamanhoDuravel;
+    private volatile boolean fechado;
+    // Pôr na fila (leitura - vários balcões juntos) x fechar (escrita): nada entra depois do FIM,
+    // senão o pedido ficaria na fila sem ninguém pra gravar e quem espera por ele travaria
+    private final ReentrantReadWriteLock travaFila = new ReentrantReadWriteLock();
+
+    public Journal(Path arquivo) throws IOException {
+        this.arquivo = arquivo;
+        this.canal = abrirCanal(arquivo);
+        this.tamanhoDuravel = canal.size();
+        this.fila = new LinkedBlockingQueue<>();
+        this.escritor = new Thread(this::loopEscritor, "journal-escritor");
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    private static FileChannel abrirCanal(Path arquivo) throws IOException {
+        return FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Coloca uma linha na fila de gravação
+    // O future completa quando a linha (e todo o lote dela) já passou pelo fsync
+    public CompletableFuture<Void> registrar(String linha) {
+        return enfileirar(new Pedido((linha + "\n").getBytes(StandardCharsets.UTF_8), -1));
+    }
+
+    private CompletableFuture<Void> enfileirar(Pedido p) {
+        travaFila.readLock().lock();
+        try {
+            if (fechado) {
+                return CompletableFuture.failedFuture(new IOException("Journal fechado"));
+            }
+            fila.add(p);
+            return p.feito;
+        } finally {
+            travaFila.readLock().unlock();
+        }
+    }
+
+    // Quantos bytes já estão garantidos no disco
+    // Usado como marca na hora do snapshot: tudo antes disso já está na memória
+    public long getTamanhoDuravel() {
+        return tamanhoDuravel;
+    }
+
+    // Descarta o começo do journal até a posição informada (já coberto pelo snapshot)
+    // Quem gravou depois dessa posição continua no arquivo
+    public CompletableFuture<Void> compactar(long ate) {
+        return enfileirar(new Pedido(null, ate));
+    }
+
+    private void loopEscritor() {
+        List<Pedido> lote = new ArrayList<>();
+        while (true) {
+            try {
+                lote.add(fila.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            fila.drainTo(lote, MAX_LOTE - 1);
+
+            List<Pedido> gravacoes = new ArrayList<>();
+            for (Pedido p : lote) {
+                if (p == FIM) {
+                    gravarLote(gravacoes);
+                    return;
+                }
+                if (p.compactarAte >= 0) {
+                    // Grava o que veio antes e só depois compacta, pra não perder nada
+                    gravarLote(gravacoes);
+                    gravacoes.clear();
+                    executarCompactacao(p);
+                } else {
+                    gravacoes.add(p);
+                }
+            }
+            gravarLote(gravacoes);
+            lote.clear();
+        }
+    }
+
+    // Grava o lote inteiro e faz um fsync só
+    private void gravarLote(List<Pedido> gravacoes) {
+        if (gravacoes.isEmpty()) {
+            return;
+        }
+        int total = 0;
+        for (Pedido p : gravacoes) {
+            total += p.dados.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (Pedido p : gravacoes) {
+            buffer.put(p.dados);
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(false);
+            tamanhoDuravel = canal.size();
+            gravacoes.forEach(p -> p.feito.complete(null));
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar journal: " + e.getMessage());
+            gravacoes.forEach(p -> p.feito.completeExceptionally(e));
+        }
+    }
+
+    // Copia o final do journal (depois da marca) pra um arquivo novo e troca os dois
+    private void executarCompactacao(Pedido p) {
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try {
+            long tamanho = canal.size();
+            long inicio = Math.min(p.compactarAte, tamanho);
+            try (FileChannel leitura = FileChannel.open(arquivo, StandardOpenOption.READ);
+                 FileChannel novo = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long copiado = 0;
+                while (copiado < tamanho - inicio) {
+                    copiado += leitura.transferTo(inicio + copiado, tamanho - inicio - copiado, novo);
+                }
+                novo.force(true);
+            }
+            canal.close();
+            Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            canal = abrirCanal(arquivo);
+            tamanhoDuravel = canal.size();
+            p.feito.complete(null);
+        } catch (IOException e) {
+            System.err.println("Erro ao compactar journal: " + e.getMessage());
+            p.feito.completeExceptionally(e);
+            try {
+                if (!canal.isOpen()) {
+                    canal = abrirCanal(arquivo);
+                }
+            } catch (IOException e2) {
+                throw new UncheckedIOException(e2);
+            }
+        }
+    }
+
+    // Lê as linhas completas do journal
+    // Uma última linha sem '\n' é de uma gravação interrompida (queda) e é descartada
+    // Dispositivo no lugar do arquivo (ex: /dev/full) não tem o que reler
+    public static List<String> lerLinhas(Path arquivo) throws IOException {
+        List<String> linhas = new ArrayList<>();
+        if (!Files.isRegularFile(arquivo)) {
+            return linhas;
+        }
+        String texto = new String(Files.readAllBytes(arquivo), StandardCharsets.UTF_8);
+        int pos = 0;
+        int quebra;
+        while ((quebra = texto.indexOf('\n', pos)) >= 0) {
+            if (quebra > pos) {
+                linhas.add(texto.substring(pos, quebra));
+            }
+            pos = quebra + 1;
+        }
+        return linhas;
+    }
+
+    // Espera gravar o que está na fila e fecha o arquivo
+    @Override
+    public void close() {
+        travaFila.writeLock().lock();
+        try {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            fila.add(FIM);
+        } finally {
+            travaFila.writeLock().unlock();
+        }
+        try {
+            escritor.join();
+            canal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leitura e escrita de JSON pro servidor HTTP
+ *
+ * Só o necessário pros pedidos e respostas do sistema: objetos, listas,
+ * textos, números, true/false e null. A leitura devolve Map (objeto),
+ * List (lista), String, Double/Long (número), Boolean ou null. Pra não
+ * trazer biblioteca de fora, o parser é um descendente recursivo simples.
+ *
+ * @author Ryan Figueredo
+ */
+public class Json {
+    private final String texto;
+    private int pos;
+
+    private Json(String texto) {
+        this.texto = texto;
+    }
+
+    // Lê um objeto JSON ({...}) - lança IllegalArgumentException se o texto for inválido
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> lerObjeto(String texto) {
+        Json leitor = new Json(texto);
+        leitor.pularEspacos();
+        Object valor = leitor.valor();
+        leitor.pularEspacos();
+        if (!(valor instanceof Map) || leitor.pos != texto.length()) {
+            throw new IllegalArgumentException("era esperado um objeto JSON");
+        }
+        return (Map<String, Object>) valor;
+    }
+
+    private Object valor() {
+        if (pos >= texto.length()) {
+            throw erro("fim inesperado");
+        }
+        char c = texto.charAt(pos);
+        switch (c) {
+            case '{': return objeto();
+            case '[': return lista();
+            case '"': return textoJson();
+            case 't': return palavra("true", Boolean.TRUE);
+            case 'f': return palavra("false", Boolean.FALSE);
+            case 'n': return palavra("null", null);
+            default: return numero();
+        }
+    }
+
+    private Map<String, Object> objeto() {
+        Map<String, Object> mapa = new LinkedHashMap<>();
+        pos++; // {
+        pularEspacos();
+        if (consumir('}')) {
+            return mapa;
+        }
+        do {
+            pularEspacos();
+            if (pos >= texto.length() || texto.charAt(pos) != '"') {
+                throw erro("nome de campo esperado");
+            }
+            String nome = textoJson();
+            pularEspacos();
+            if (!consumir(':')) {
+                throw erro("':' esperado");
+            }
+            pularEspacos();
+            mapa.put(nome, valor());
+            pularEspacos();
+        } while (consumir(','));
+        if (!consumir('}')) {
+            throw erro("'}' esperado");
+        }
+        return mapa;
+    }
+
+    private List<Object> lista() {
+        List<Object> lista = new ArrayList<>();
+        pos++; // [
+        pularEspacos();
+        if (consumir(']')) {
+            return lista;
+        }
+        do {
+            pularEspacos();
+            lista.add(valor());
+            pularEspacos();
+        } while (consumir(','));
+        if (!consumir(']')) {
+            throw erro("']' esperado");
+        }
+        return lista;
+    }
+
+    private String textoJson() {
+        StringBuilder sb = new StringBuilder();
+        pos++; // "
+        while (pos < texto.length()) {
+            char c = texto.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= texto.length()) {
+                break;
+            }
+            char esc = texto.charAt(pos++);
+            switch (esc) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > texto.length()) {
+                        throw erro("escape \\u incompleto");
+                    }
+                    sb.append((char) Integer.parseInt(texto.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(esc); // \" \\ \/
+            }
+        }
+        throw erro("texto sem fechar aspas");
+    }
+
+    private Object numero() {
+        int inicio = pos;
+        while (pos < texto.length() && "+-0123456789.eE".indexOf(texto.charAt(pos)) >= 0) {
+            pos++;
+        }
+        String n = texto.substring(inicio, pos);
+        if (n.isEmpty()) {
+            throw erro("valor inesperado");
+        }
+        try {
+            if (n.indexOf('.') < 0 && n.indexOf('e') < 0 && n.indexOf('E') < 0) {
+                return Long.parseLong(n);
+            }
+            return Double.parseDouble(n);
+        } catch (NumberFormatException e) {
+            throw erro("número inválido '" + n + "'");
+        }
+    }
+
+    private Object palavra(String palavra, Object valor) {
+        if (!texto.startsWith(palavra, pos)) {
+            throw erro("valor inesperado");
+        }
+        pos += palavra.length();
+        return valor;
+    }
+
+    private boolean consumir(char c) {
+        if (pos < texto.length() && texto.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void pularEspacos() {
+        while (pos < texto.length() && Character.isWhitespace(texto.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException erro(String motivo) {
+        return new IllegalArgumentException("JSON inválido na posição " + pos + ": " + motivo);
+    }
+
+    // ---------------------------------------------------------------- escrita
+
+    // Acrescenta o texto entre aspas, com escape
+    public static StringBuilder texto(StringBuilder sb, String valor) {
+        if (valor == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    // "nome": pra montar objetos na mão
+    public static StringBuilder campo(StringBuilder sb, String nome) {
+        return texto(sb, nome).append(':');
+    }
+}
@@ -0,0 +1,260 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * Listagens paginadas de usuários, acervo e empréstimos
+ *
+ * Antes o menu imprimia a lista inteira de uma vez, segurando o lock da
+ * lista enquanto o terminal (lento) escrevia. Agora cada listagem devolve
+ * uma página por vez, na ordem pedida:
+ *   - cada elemento ganha uma chave de texto única que segue a ordem
+ *     (campo da ordem + '\0' + ID; número com largura fixa pra ordenar
+ *     como texto)
+ *   - uma passada só pela lista guarda os "limite" menores depois do
+ *     cursor numa fila de prioridade limitada - O(n log limite), sem
+ *     ordenar a lista toda
+ *   - o cursor é a chave do último da página (keyset): cadastro ou
+ *     devolução entre uma página e outra não repete nem pula ninguém
+ *
+ * O cursor vai em Base64 (dá pra pôr na URL) e leva a listagem, a ordem e
+ * o sentido junto; cursor de outra listagem é recusado com
+ * IllegalArgumentException.
+ *
+ * @author Ryan Figueredo
+ */
+public final class Listagens {
+    public static final int LIMITE_PADRAO = 20;
+    public static final int LIMITE_MAXIMO = 1000;
+
+    public enum OrdemUsuarios { ID, NOME }
+
+    public enum OrdemAcervo { CODIGO, TITULO, ANO }
+
+    public enum OrdemEmprestimos { ID, PREVISTA, USUARIO, ITEM }
+
+    // As quatro listagens, com o nome que aparece na URL e no arquivo exportado
+    public enum Tipo {
+        USUARIOS("usuarios"),
+        ACERVO("acervo"),
+        EMPRESTIMOS_ATIVOS("emprestimos-ativos"),
+        EMPRESTIMOS_ATRASADOS("emprestimos-atrasados");
+
+        private final String nome;
+
+        Tipo(String nome) {
+            this.nome = nome;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public static Tipo porNome(String nome) {
+            for (Tipo t : values()) {
+                if (t.nome.equals(nome)) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("Listagem desconhecida: " + nome);
+        }
+    }
+
+    // Uma página: os itens e o cursor da próxima (null = acabou)
+    public static final class Pagina<T> {
+        private final List<T> itens;
+        private final String proximoCursor;
+        private final int total;
+
+        Pagina(List<T> itens, String proximoCursor, int total) {
+            this.itens = itens;
+            this.proximoCursor = proximoCursor;
+            this.total = total;
+        }
+
+        public List<T> getItens() {
+            return itens;
+        }
+
+        public String getProximoCursor() {
+            return proximoCursor;
+        }
+
+        public boolean temMais() {
+            return proximoCursor != null;
+        }
+
+        // Quantos a listagem tem ao todo (todas as páginas)
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    private Listagens() {
+    }
+
+    // ---------------------------------------------------------------- chaves
+
+    static Function<Usuario, String> chave(OrdemUsuarios ordem) {
+        switch (ordem) {
+            case NOME:
+                return u -> semAcento(u.getNome()) + '\0' + u.getId();
+            default:
+                return Usuario::getId;
+        }
+    }
+
+    static Function<ItemDeAcervo, String> chave(OrdemAcervo ordem) {
+        switch (ordem) {
+            case TITULO:
+                return i -> semAcento(i.getTitulo()) + '\0' + i.getCodigo();
+            case ANO:
+                return i -> fixo(i.getAnoPublicacao()) + '\0' + i.getCodigo();
+            default:
+                return ItemDeAcervo::getCodigo;
+        }
+    }
+
+    static Function<Emprestimo, String> chave(OrdemEmprestimos ordem) {
+        switch (ordem) {
+            case PREVISTA:
+                return e -> fixo(e.getDiaDevolucaoPrevista()) + '\0' + idEmprestimo(e);
+            case USUARIO:
+                return e -> e.getUsuario().getId() + '\0' + idEmprestimo(e);
+            case ITEM:
+                return e -> e.getItem().getCodigo() + '\0' + idEmprestimo(e);
+            default:
+                return Listagens::idEmprestimo;
+        }
+    }
+
+    // O ID do empréstimo é um contador: "10" tem que vir depois de "9"
+    private static String idEmprestimo(Emprestimo e) {
+        String id = e.getIdEmprestimo();
+        if (id.length() >= 19 || !somenteDigitos(id)) {
+            return "~" + id; // Não numérico (não acontece hoje) - vai pro fim
+        }
+        char[] c = new char[19];
+        int zeros = 19 - id.length();
+        Arrays.fill(c, 0, zeros, '0');
+        id.getChars(0, id.length(), c, zeros);
+        return new String(c);
+    }
+
+    private static boolean somenteDigitos(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Minúsculas e sem acento pra ordenar; texto só ASCII (a maioria) não passa pelo Normalizer,
+    // que é o que mais pesa numa página - a chave é calculada pra cada elemento da lista
+    static String semAcento(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) >= 0x80) {
+                return IndiceBusca.normalizar(texto);
+            }
+        }
+        return texto.toLowerCase(Locale.ROOT);
+    }
+
+    // int com 10 dígitos e deslocado pra negativo ordenar antes
+    private static String fixo(int valor) {
+        long v = (long) valor - Integer.MIN_VALUE;
+        char[] c = new char[10];
+        for (int i = 9; i >= 0; i--) {
+            c[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        return new String(c);
+    }
+
+    // ---------------------------------------------------------------- paginação
+
+    // Uma passada por "fonte": guarda os "limite" primeiros depois do cursor na ordem da chave
+    // "listagem" identifica o tipo/ordem/sentido dentro do cursor
+    static <T> Pagina<T> paginar(Iterable<T> fonte, Function<T, String> chave, String listagem,
+                                 String cursor, int limite, boolean decrescente) {
+        int n = Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+        String apos = cursor == null || cursor.isEmpty() ? null : abrirCursor(cursor, listagem);
+        Comparator<Entrada<T>> ordem = Comparator.comparing(en -> en.chave);
+        if (decrescente) {
+            ordem = ordem.reversed();
+        }
+        // O topo da fila é o pior dos guardados - sai quando chega um melhor
+        PriorityQueue<Entrada<T>> melhores = new PriorityQueue<>(n + 2, ordem.reversed());
+        int total = 0;
+        for (T elemento : fonte) {
+            total++;
+            String k = chave.apply(elemento);
+            if (apos != null) {
+                int c = k.compareTo(apos);
+                if (decrescente ? c >= 0 : c <= 0) {
+                    continue;
+                }
+            }
+            // n+1 pra saber se tem próxima página sem outra passada
+            if (melhores.size() <= n) {
+                melhores.add(new Entrada<>(k, elemento));
+            } else if (decrescente ? k.compareTo(melhores.peek().chave) > 0 : k.compareTo(melhores.peek().chave) < 0) {
+                melhores.poll();
+                melhores.add(new Entrada<>(k, elemento));
+            }
+        }
+        List<Entrada<T>> ordenados = new ArrayList<>(melhores);
+        ordenados.sort(ordem);
+        boolean temMais = ordenados.size() > n;
+        List<T> itens = new ArrayList<>(Math.min(n, ordenados.size()));
+        for (int i = 0; i < ordenados.size() && i < n; i++) {
+            itens.add(ordenados.get(i).elemento);
+        }
+        String proximo = temMais ? fecharCursor(listagem, ordenados.get(n - 1).chave) : null;
+        return new Pagina<>(Collections.unmodifiableList(itens), proximo, total);
+    }
+
+    private static final class Entrada<T> {
+        final String chave;
+        final T elemento;
+
+        Entrada(String chave, T elemento) {
+            this.chave = chave;
+            this.elemento = elemento;
+        }
+    }
+
+    static String listagem(String tipo, Enum<?> ordem, boolean decrescente) {
+        return tipo + "|" + ordem.name() + "|" + (decrescente ? "d" : "a");
+    }
+
+    private static String fecharCursor(String listagem, String chave) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((listagem + "|" + chave).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String abrirCursor(String cursor, String listagem) {
+        String texto;
+        try {
+            texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor inválido.");
+        }
+        if (!texto.startsWith(listagem + "|")) {
+            throw new IllegalArgumentException("Cursor de outra listagem ou ordem.");
+        }
+        return texto.substring(listagem.length() + 1);
+    }
+}
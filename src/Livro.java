@@ -11,10 +11,16 @@ public class Livro extends ItemDeAcervo {
     private String isbn;
     private int edicao;
 
-    // Construtor - uso super() pra chamar o construtor da classe pai
+    // Construtor - um exemplar só
     public Livro(String codigo, String titulo, int anoPublicacao, String autor, String isbn, int edicao) {
-        super(codigo, titulo, anoPublicacao);
-        this.autor = autor;
+        this(codigo, titulo, anoPublicacao, autor, isbn, edicao, 1);
+    }
+
+    // Construtor com a quantidade de exemplares - uso super() pra chamar o construtor da classe pai
+    public Livro(String codigo, String titulo, int anoPublicacao, String autor, String isbn, int edicao,
+                 int quantidadeExemplares) {
+        super(codigo, titulo, anoPublicacao, quantidadeExemplares);
+        this.autor = Dicionario.GERAL.canonico(autor); // Mesma String pra todos os itens do mesmo autor
         this.isbn = isbn;
         this.edicao = edicao;
     }
@@ -31,12 +37,17 @@ public class Livro extends ItemDeAcervo {
     public int getEdicao() { 
         return edicao; 
     }
+
+    @Override
+    public PoliticaEmprestimo.TipoItem getTipoItem() {
+        return PoliticaEmprestimo.TipoItem.LIVRO;
+    }
     
     // toString pra exibir as informações do livro
     @Override
     public String toString() {
-        String status = isEmprestado() ? "Emprestado" : "Disponível";
+        String status = descricaoStatus();
         return String.format("Livro - Código: %s | Título: %s | Autor: %s | ISBN: %s | Edição: %d | Ano: %d | Status: %s",
-                getCodigo(), getTitulo(), autor, isbn, edicao, getAnoPublicacao(), status);
+                getCodigo(), getTitulo(), getAutor(), getIsbn(), getEdicao(), getAnoPublicacao(), status);
     }
 }
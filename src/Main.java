@@ -1,4 +1,22 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Main {
     public static void main(String[] args) {
@@ -11,10 +29,17 @@ public class Main {
         Livro livro1 = new Livro("L001", "POO com Java", 2022, "Autor X", "12345", 3);
         Revista revista1 = new Revista("R001", "Java Magazine", 2023, "Editora Y", 50, "98765");
 
-        sistema.adicionarUsuario(aluno1);
-        sistema.adicionarUsuario(prof1);
-        sistema.adicionarItem(livro1);
-        sistema.adicionarItem(revista1);
+        try {
+            sistema.adicionarUsuario(aluno1);
+            sistema.adicionarUsuario(prof1);
+            sistema.adicionarItem(livro1);
+            sistema.adicionarItem(revista1);
+
+            System.out.println("\n Teste 0: Cadastro FALHA (ID duplicado) ");
+            sistema.adicionarUsuario(new Aluno("A100", "Outro Aluno", "Rua C", "2023002", "ADS"));
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
 
         // Testa polimorfismo - mesmo metodo retorna valores diferentes
         System.out.println("Teste de Polimorfismo (Prazo de Devolução)");
@@ -43,7 +68,7 @@ public class Main {
 
             System.out.println("\n Teste 4: Empréstimo com Multa (RN3) ");
             Emprestimo empAtraso = new Emprestimo("3", prof1, revista1, LocalDate.now().minusDays(20));
-            empAtraso.getItem().emprestar();
+            empAtraso.getItem().emprestar(0);
             prof1.adicionarEmprestimo(empAtraso);
 
             System.out.println("Professor vai devolver item. Previsto: " + empAtraso.getDataDevolucaoPrevista());
@@ -53,7 +78,7 @@ public class Main {
             Livro livro2 = new Livro("L002", "Design Patterns", 2020, "Autor Z", "67890", 1);
             sistema.adicionarItem(livro2);
 
-            System.out.println("\n Teste 5: Empréstimo FALHA (RN4: Usuário com Multa) ");
+            System.out.println("\n Teste 5: Empréstimo FALHA (RN3: Usuário com Multa) ");
             sistema.realizarEmprestimo(prof1.getId(), livro2.getCodigo());
 
         } catch (RegraDeNegocioException e) {
@@ -63,6 +88,1227 @@ public class Main {
         System.out.println("\n Teste 6: Persistência ");
         sistema.salvarDados();
         sistema.carregarDados();
+
+        System.out.println("\n Teste 7: Concorrência (vários balcões ao mesmo tempo) ");
+        testeConcorrencia();
+
+        System.out.println("\n Teste 8: Controle de atrasos (RN4 sem varrer empréstimos) ");
+        LocalDate hoje = LocalDate.now();
+        ControleAtrasos controle = new ControleAtrasos(hoje.minusDays(30));
+        Aluno aluno2 = new Aluno("A200", "Maria Souza", "Rua D", "2023003", "ADS");
+        Livro livro3 = new Livro("L003", "Estruturas de Dados", 2019, "Autor W", "11111", 2);
+        Emprestimo empVencido = new Emprestimo("X1", aluno2, livro3, hoje.minusDays(10));
+        aluno2.adicionarEmprestimo(empVencido);
+        controle.registrarAbertura(empVencido);
+        System.out.println("Antes de avançar o dia - apto: " + aluno2.isAptoParaEmprestimo());
+        controle.avancarAte(hoje);
+        System.out.println("Depois de avançar - apto: " + aluno2.isAptoParaEmprestimo()
+                + " | Atrasados: " + controle.getQuantidadeAtrasados());
+        empVencido.finalizarEmprestimo(hoje);
+        aluno2.removerEmprestimo(empVencido);
+        controle.registrarDevolucao(empVencido);
+        System.out.println("Depois da devolução - atrasados: " + controle.getQuantidadeAtrasados()
+                + " | Multas pendentes: " + aluno2.getMultasPendentes());
+        // Já vencidos na chegada (como na carga), fora da ordem do vencimento: a listagem ordena
+        ControleAtrasos carga = new ControleAtrasos(hoje);
+        Aluno aluno3 = new Aluno("A201", "Caio Lima", "Rua D", "2023004", "ADS");
+        carga.registrarAbertura(new Emprestimo("X2", aluno3, livro3, hoje.minusDays(12)));
+        carga.registrarAbertura(new Emprestimo("X3", aluno3, livro3, hoje.minusDays(22)));
+        StringBuilder ordem = new StringBuilder();
+        for (Emprestimo e : carga.listarAtrasados()) {
+            ordem.append(' ').append(e.getIdEmprestimo());
+        }
+        System.out.println("Atrasados vindos da carga, do mais antigo:" + ordem);
+
+        System.out.println("\n Teste 9: Journal (queda sem salvar não perde empréstimo) ");
+        testeJournal();
+
+        System.out.println("\n Teste 10: Filtros do acervo (índices secundários) ");
+        testeFiltros();
+
+        System.out.println("\n Teste 11: Empréstimo e devolução em lote ");
+        testeLote();
+
+        System.out.println("\n Teste 12: Métricas dos testes acima ");
+        Metricas metricas = sistema.getMetricas();
+        System.out.println("Empréstimos: " + metricas.getEmprestimos() + " | Devoluções: " + metricas.getDevolucoes()
+                + " | Recusas RN1: " + metricas.getRecusasRN1() + ", RN3: " + metricas.getRecusasRN3()
+                + ", não encontrado: " + metricas.getRecusasNaoEncontrado());
+        System.out.print(metricas.relatorio());
+
+        System.out.println("\n Teste 13: Fila de reservas ");
+        testeReservas();
+
+        System.out.println("\n Teste 14: Título com vários exemplares ");
+        testeExemplares();
+
+        System.out.println("\n Teste 15: Acervo em colunas ");
+        testeAcervoColunar();
+
+        System.out.println("\n Teste 16: Política de multas ");
+        testePoliticaMultas();
+
+        System.out.println("\n Teste 17: Relatórios do histórico ");
+        testeRelatorios();
+
+        System.out.println("\n Teste 18: Arquivo morto de empréstimos ");
+        testeArquivoEmprestimos();
+
+        System.out.println("\n Teste 19: Catálogo mapeado em memória ");
+        testeCatalogoMapeado();
+
+        System.out.println("\n Teste 20: Eventos de circulação ");
+        testeEventos();
+
+        System.out.println("\n Teste 21: Cluster com 3 nós ");
+        testeCluster();
+
+        System.out.println("\n Teste 22: Réplica somente leitura ");
+        testeReplicacao();
+
+        System.out.println("\n Teste 23: Listagem paginada e exportação CSV ");
+        testeListagens();
+
+        System.out.println("\n Teste 24: Conta de empréstimos do usuário ");
+        testeContaEmprestimos();
+
+        System.out.println("\n Teste 25: Pagamento e isenção de multa ");
+        testePagamentos();
+
+        System.out.println("\n Teste 26: Cadastro com ';' ou quebra de linha no texto ");
+        testeCamposComSeparador();
+
+        System.out.println("\n Teste 27: Busca por prefixo com muitas palavras ");
+        testeBuscaPrefixo();
+
+        System.out.println("\n Teste 28: Disco cheio no journal ");
+        testeDiscoCheio();
+    }
+
+    // O journal aponta pro /dev/full: a gravação falha, o empréstimo volta como falha e o
+    // sistema passa a só ler. A replicação para sem mandar a linha que falhou, e a réplica é
+    // promovida. Recarregando a pasta, o empréstimo que falhou não existe
+    private static void testeDiscoCheio() {
+        Path cheio = Path.of("/dev/full");
+        if (!Files.exists(cheio)) {
+            System.out.println("Sem /dev/full neste sistema - teste pulado");
+            return;
+        }
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-disco-cheio");
+            SistemaBiblioteca inicial = new SistemaBiblioteca(pasta.toString());
+            inicial.carregarDados();
+            inicial.adicionarUsuario(new Aluno("F1", "Rui Faria", "Rua F", "2024801", "Física"));
+            inicial.adicionarItem(new Livro("F10", "Termodinâmica", 2014, "Autor F", "33333", 1, 2));
+            inicial.salvarDados();
+            inicial.fecharJournal();
+            Files.delete(pasta.resolve("journal.log"));
+            Files.createSymbolicLink(pasta.resolve("journal.log"), cheio);
+
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            PrimarioReplicacao replicacao = sistema.iniciarReplicacao(0);
+            SistemaBiblioteca replica = new SistemaBiblioteca(Files.createTempDirectory("biblioteca-disco-replica").toString());
+            SeguidorReplicacao seguidor = new SeguidorReplicacao(replica, new java.net.InetSocketAddress("localhost", replicacao.getPorta()));
+            seguidor.iniciar();
+            long limite = System.currentTimeMillis() + 10_000;
+            while (replica.consultarUsuario("F1").isEmpty() && System.currentTimeMillis() < limite) {
+                Thread.sleep(10);
+            }
+            try {
+                sistema.realizarEmprestimo("F1", "F10");
+                System.out.println("ERRO: empréstimo confirmado sem journal");
+            } catch (IllegalStateException e) {
+                System.out.println("Empréstimo: " + e.getMessage());
+            }
+            try {
+                sistema.realizarEmprestimo("F1", "F10");
+                System.out.println("ERRO: aceitou alteração depois da falha");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Depois da falha: " + e.getMessage());
+            }
+            while (seguidor.isConectada() && System.currentTimeMillis() < limite) {
+                Thread.sleep(10);
+            }
+            System.out.println("Réplica conectada: " + seguidor.isConectada() + " | réplicas no primário: "
+                    + replicacao.getReplicas() + " | empréstimos na réplica: " + replica.getHistoricoEmprestimos().size());
+            seguidor.promover();
+            System.out.println("Réplica promovida: empréstimo " + replica.realizarEmprestimo("F1", "F10").getIdEmprestimo());
+            replica.fecharJournal();
+            sistema.fecharJournal();
+
+            Files.delete(pasta.resolve("journal.log"));
+            SistemaBiblioteca recarregado = new SistemaBiblioteca(pasta.toString());
+            recarregado.carregarDados();
+            System.out.println("Depois de recarregar: empréstimos " + recarregado.getHistoricoEmprestimos().size()
+                    + " | F10 livres: " + recarregado.listarAcervo(Listagens.OrdemAcervo.CODIGO, false, null, 10)
+                    .getItens().get(0).getExemplaresLivres());
+            recarregado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 300 palavras começando com "quim" antes de "quimica" no dicionário: a palavra do fim
+    // da faixa ainda entra na expansão, então "quim geral" acha a Química Geral
+    private static void testeBuscaPrefixo() {
+        SistemaBiblioteca sistema = new SistemaBiblioteca();
+        try {
+            for (int i = 0; i < 300; i++) {
+                sistema.adicionarItem(new Livro("Q" + i, "Quimb" + i + " Volume", 2000, "Autor Q", "7" + i, 1));
+            }
+            sistema.adicionarItem(new Livro("Q300", "Química Geral", 2010, "Autor Q", "7300", 1));
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+        System.out.println("'quim geral': " + sistema.buscarNoAcervo("quim geral", 3, false)
+                + " | 'quim': " + sistema.buscarNoAcervo("quim", 500, false).size() + " itens");
+    }
+
+    // Um nome com "\nU;..." viraria outro usuário no journal; o cadastro é recusado e a
+    // recarga da pasta encontra só o que foi aceito
+    private static void testeCamposComSeparador() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-separador");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            sistema.adicionarUsuario(new Aluno("S1", "Sara Dias", "Rua S", "2024901", "Química"));
+            try {
+                sistema.adicionarUsuario(new Aluno("S2", "Nome;Falso", "Rua\nU;Professor;P9;Intruso;Rua;Ativo;1;Depto",
+                        "2024902", "Química"));
+                System.out.println("ERRO: cadastro com separador aceito");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Usuário recusado: " + e.getMessage());
+            }
+            try {
+                sistema.adicionarItem(new Livro("S3", "Título; com ponto e vírgula", 2020, "Autor S", "88888", 1));
+                System.out.println("ERRO: item com separador aceito");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Item recusado: " + e.getMessage());
+            }
+            sistema.fecharJournal();
+
+            SistemaBiblioteca recarregado = new SistemaBiblioteca(pasta.toString());
+            recarregado.carregarDados();
+            System.out.println("Depois de recarregar: S1 = " + recarregado.consultarUsuario("S1").map(Usuario::getNome).orElse("?")
+                    + " | S2 existe: " + recarregado.consultarUsuario("S2").isPresent()
+                    + " | P9 existe: " + recarregado.consultarUsuario("P9").isPresent()
+                    + " | itens no acervo: " + recarregado.listarAcervo(Listagens.OrdemAcervo.CODIGO, false, null, 10).getTotal());
+            recarregado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Quatro devoluções com atraso entram pelo journal; uma multa é paga no balcão (e o recibo
+    // repetido não cobra de novo), outra é isentada e as outras duas vêm na planilha do caixa,
+    // importada duas vezes. No fim as devoluções multadas vão pro arquivo morto e o sistema é
+    // recarregado da pasta: o saldo que sobrou (A82) volta igual
+    private static void testePagamentos() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-pagamentos");
+            SistemaBiblioteca inicial = new SistemaBiblioteca(pasta.toString());
+            inicial.carregarDados();
+            for (int i = 0; i < 4; i++) {
+                inicial.adicionarUsuario(new Aluno("A8" + i, "Aluno Multado " + i, "Rua M", "20248" + i, "Direito"));
+            }
+            inicial.adicionarItem(new Livro("C80", "Processo Civil", 2019, "Autor M", "55555", 1, 5));
+            inicial.fecharJournal();
+            LocalDate hoje = LocalDate.now();
+            StringBuilder atrasados = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                atrasados.append("E;900").append(i).append(";A8").append(i).append(";C80;")
+                        .append(hoje.minusDays(20 + 5 * i)).append(';').append(i).append('\n')
+                        .append("D;900").append(i).append(';').append(hoje).append('\n');
+            }
+            Files.write(pasta.resolve("journal.log"), atrasados.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            Usuario a80 = sistema.consultarUsuario("A80").get();
+            try {
+                sistema.realizarEmprestimo("A80", "C80");
+                System.out.println("ERRO: emprestou com multa pendente");
+            } catch (RegraDeNegocioException e) {
+                System.out.printf("Multa de A80: R$ %.2f | %s%n", a80.getMultaCentavos() / 100.0, e.getMessage());
+            }
+            long devido = a80.getMultaCentavos();
+            Pagamentos.Lancamento pago = sistema.pagarMulta("A80", devido, "REC-1");
+            Pagamentos.Lancamento repetido = sistema.pagarMulta("A80", devido, "REC-1");
+            System.out.println(pago + "\n  Recibo repetido devolve o mesmo: " + (repetido == pago)
+                    + " | multa agora: " + a80.getMultaCentavos() + " | apto: " + a80.isAptoParaEmprestimo());
+            try {
+                sistema.pagarMulta("A81", 100, "REC-1");
+                System.out.println("ERRO: recibo reaproveitado pra outro usuário");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("  Mesmo recibo, outro usuário: " + e.getRegra() + " - " + e.getMessage());
+            }
+            System.out.println("Empréstimo logo depois do pagamento: #"
+                    + sistema.realizarEmprestimo("A80", "C80").getIdEmprestimo());
+            try {
+                sistema.pagarMulta("A80", 100, null);
+                System.out.println("ERRO: pagamento sem multa aceito");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Pagamento sem multa recusado: " + e.getMessage());
+            }
+            System.out.println(sistema.isentarMulta("A81", 0, "Primeira ocorrência", null));
+
+            Usuario a82 = sistema.consultarUsuario("A82").get();
+            Usuario a83 = sistema.consultarUsuario("A83").get();
+            long metade = a82.getMultaCentavos() / 2;
+            Path planilha = pasta.resolve("caixa.csv");
+            Files.write(planilha, ("recibo;usuario;valor;data\n"
+                    + "CX-1;A82;" + metade / 100 + "," + String.format("%02d", metade % 100) + ";" + hoje + "\n"
+                    + "CX-2;A83;" + a83.getMultaCentavos() / 100.0 + "\n"
+                    + "CX-3;X99;5.00\n"
+                    + "CX-4;A82;abc\n"
+                    + "REC-1;A82;1.00\n").getBytes(StandardCharsets.UTF_8));
+            System.out.println("Primeira importação: " + sistema.importarQuitacoes(planilha));
+            Pagamentos.Importacao segunda = sistema.importarQuitacoes(planilha);
+            System.out.println("Segunda importação:  " + segunda);
+            segunda.getErros().forEach(erro -> System.out.println("  " + erro));
+            System.out.printf("Saldos: A82 R$ %.2f (apto: %s) | A83 R$ %.2f (apto: %s)%n",
+                    a82.getMultaCentavos() / 100.0, a82.isAptoParaEmprestimo(),
+                    a83.getMultaCentavos() / 100.0, a83.isAptoParaEmprestimo());
+            System.out.println("Arquivados (com multa): " + sistema.arquivarEmprestimos(0));
+            sistema.salvarDados(); // Compacta o journal: os lançamentos ficam só no lancamentos.log
+            sistema.fecharJournal();
+
+            SistemaBiblioteca recarregado = new SistemaBiblioteca(pasta.toString());
+            recarregado.carregarDados();
+            System.out.printf("Depois de recarregar: %d lançamento(s) | multas A80..A83: %d %d %d %d%n",
+                    recarregado.getPagamentos().getQuantidade(),
+                    recarregado.consultarUsuario("A80").get().getMultaCentavos(),
+                    recarregado.consultarUsuario("A81").get().getMultaCentavos(),
+                    recarregado.consultarUsuario("A82").get().getMultaCentavos(),
+                    recarregado.consultarUsuario("A83").get().getMultaCentavos());
+            recarregado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Abre três, fecha o do meio e o de vencimento mais próximo: contagem, vencimento e
+    // saldo de multa saem da conta sem percorrer nada
+    private static void testeContaEmprestimos() {
+        LocalDate hoje = LocalDate.now();
+        Aluno aluno = new Aluno("A70", "Rita Melo", "Rua Z", "2023070", "Física");
+        Livro livro = new Livro("C70", "Óptica", 2012, "Autor C", "44444", 3);
+        Emprestimo[] abertos = new Emprestimo[3];
+        for (int i = 0; i < abertos.length; i++) {
+            abertos[i] = new Emprestimo("C" + i, aluno, livro, i, hoje.minusDays(10 - i));
+            aluno.adicionarEmprestimo(abertos[i]);
+        }
+        System.out.println("Abertos: " + aluno.getQuantidadeEmprestimos() + " | próximo vencimento: "
+                + aluno.getProximoVencimento() + " | apto (limite 3): " + aluno.isAptoParaEmprestimo());
+        aluno.removerEmprestimo(abertos[1]);
+        aluno.removerEmprestimo(abertos[1]); // De novo: não muda nada
+        abertos[0].finalizarEmprestimo(hoje);
+        aluno.removerEmprestimo(abertos[0]);
+        System.out.printf("Depois de fechar dois: abertos %d | próximo vencimento %s | multa pendente R$ %.2f"
+                        + " | bloqueado: %s%n", aluno.getQuantidadeEmprestimos(), aluno.getProximoVencimento(),
+                aluno.getMultaCentavos() / 100.0, aluno.isBloqueado());
+    }
+
+    // Páginas de 10 por nome seguindo o cursor, com cadastro no meio do caminho,
+    // e a exportação em CSV pra um arquivo
+    private static void testeListagens() {
+        try {
+            SistemaBiblioteca sistema = new SistemaBiblioteca();
+            String[] nomes = { "Zeca", "Ana", "Érica", "bruno", "Carla", "Davi", "Olga", "Igor", "Hugo", "Lia" };
+            for (int i = 0; i < 25; i++) {
+                sistema.adicionarUsuario(new Aluno("L" + i, nomes[i % nomes.length] + " " + i, "Rua L", "M" + i, "Letras"));
+            }
+            sistema.adicionarItem(new Livro("LV1", "Gramática", 2010, "Autor L", "33333", 3));
+            Emprestimo e = sistema.realizarEmprestimo("L0", "LV1");
+
+            List<String> vistos = new ArrayList<>();
+            String cursor = null;
+            int paginas = 0;
+            do {
+                Listagens.Pagina<Usuario> pagina = sistema.listarUsuarios(Listagens.OrdemUsuarios.NOME, false, cursor, 10);
+                pagina.getItens().forEach(u -> vistos.add(u.getNome()));
+                cursor = pagina.getProximoCursor();
+                if (paginas++ == 0) {
+                    // Entra antes do cursor ("Aaron" < tudo): não pode aparecer nem bagunçar as páginas
+                    sistema.adicionarUsuario(new Aluno("L99", "Aaron", "Rua L", "M99", "Letras"));
+                }
+            } while (cursor != null);
+            boolean ordenado = true;
+            for (int i = 1; i < vistos.size(); i++) {
+                ordenado &= IndiceBusca.normalizar(vistos.get(i - 1)).compareTo(IndiceBusca.normalizar(vistos.get(i))) <= 0;
+            }
+            System.out.println("Páginas: " + paginas + " | usuários vistos: " + vistos.size() + " | sem repetir: "
+                    + (vistos.stream().distinct().count() == vistos.size()) + " | em ordem: " + ordenado
+                    + " | primeiros: " + vistos.subList(0, 3));
+
+            Listagens.Pagina<Usuario> primeira = sistema.listarUsuarios(Listagens.OrdemUsuarios.ID, true, null, 2);
+            try {
+                sistema.listarAcervo(Listagens.OrdemAcervo.CODIGO, false, primeira.getProximoCursor(), 2);
+                System.out.println("ERRO: cursor de usuários aceito no acervo");
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Cursor trocado recusado: " + ex.getMessage());
+            }
+
+            Path pasta = Files.createTempDirectory("biblioteca-exportar");
+            Path csv = pasta.resolve("usuarios.csv");
+            try (FileChannel canal = FileChannel.open(csv, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                System.out.println("Exportados: " + sistema.exportar(Listagens.Tipo.USUARIOS, canal) + " usuário(s)");
+            }
+            List<String> linhas = Files.readAllLines(csv);
+            System.out.println("  " + linhas.get(0) + "\n  " + linhas.get(1) + "\n  " + linhas.get(3));
+            ByteArrayOutputStream ativos = new ByteArrayOutputStream();
+            sistema.exportar(Listagens.Tipo.EMPRESTIMOS_ATIVOS, Channels.newChannel(ativos));
+            System.out.print(ativos.toString(StandardCharsets.UTF_8).replaceAll("(?m)^", "  "));
+            System.out.println("Previsto do empréstimo " + e.getIdEmprestimo() + ": " + e.getDataDevolucaoPrevista());
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Primário e réplica no mesmo processo, pela rede local: a réplica recebe o estado inicial
+    // (base), depois acompanha os empréstimos, recusa alteração e por fim é promovida
+    private static void testeReplicacao() {
+        SeguidorReplicacao seguidor = null;
+        SistemaBiblioteca primario = null;
+        try {
+            Path pastaPrimario = Files.createTempDirectory("biblioteca-primario");
+            SistemaBiblioteca inicial = new SistemaBiblioteca(pastaPrimario.toString());
+            inicial.carregarDados();
+            inicial.adicionarUsuario(new Aluno("R99", "Leitor Multado", "Rua R", "202499", "Letras"));
+            inicial.adicionarItem(new Livro("RL99", "Romance Antigo", 1980, "Autora R", "7799", 1));
+            inicial.fecharJournal();
+            // Devolvido com atraso há tempos: vai pro arquivo morto antes de a réplica conectar
+            LocalDate hoje = LocalDate.now();
+            Files.write(pastaPrimario.resolve("journal.log"), ("E;9900;R99;RL99;" + hoje.minusDays(60) + ";0;"
+                    + hoje.minusDays(45) + "\nD;9900;" + hoje.minusDays(30) + ";1500\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+            primario = new SistemaBiblioteca(pastaPrimario.toString());
+            primario.carregarDados();
+            primario.pagarMulta("R99", 500, "REC-R99");
+            int arquivados = primario.arquivarEmprestimos(0);
+            for (int i = 0; i < 50; i++) {
+                primario.adicionarUsuario(new Aluno("R" + i, "Leitor " + i, "Rua R", "2024" + i, "Letras"));
+                primario.adicionarItem(new Livro("RL" + i, "Romance " + i, 1990 + i % 30, "Autora R", "77" + i, 1, 2));
+            }
+            PrimarioReplicacao replicacao = primario.iniciarReplicacao(0);
+
+            SistemaBiblioteca replica = new SistemaBiblioteca(Files.createTempDirectory("biblioteca-replica").toString());
+            seguidor = new SeguidorReplicacao(replica, new java.net.InetSocketAddress("localhost", replicacao.getPorta()));
+            seguidor.iniciar();
+
+            List<Emprestimo> emprestados = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                emprestados.add(primario.realizarEmprestimo("R" + i, "RL" + i));
+            }
+            for (int i = 0; i < 50; i += 2) {
+                primario.realizarDevolucao(emprestados.get(i).getIdEmprestimo());
+            }
+            long alvo = replicacao.getUltimaSequencia();
+            long limite = System.currentTimeMillis() + 10_000;
+            while (seguidor.getAplicada() < alvo && System.currentTimeMillis() < limite) {
+                Thread.sleep(10);
+            }
+            System.out.println("Primário: sequência " + alvo + ", " + primario.getEmprestimosAtivos().size() + " ativos"
+                    + " | réplica: aplicada " + seguidor.getAplicada() + ", " + replica.getEmprestimosAtivos().size()
+                    + " ativos, " + replica.buscarNoAcervo("romance", 100, true).size() + " títulos disponíveis");
+            System.out.print(replica.getMetricas().relatorio().lines()
+                    .filter(l -> l.startsWith("Atraso")).findFirst().orElse("") + System.lineSeparator());
+            System.out.printf("Multa arquivada (%d no arquivo) menos o pago: primário R$ %.2f | réplica R$ %.2f%n", arquivados,
+                    primario.consultarUsuario("R99").get().getMultaCentavos() / 100.0,
+                    replica.consultarUsuario("R99").get().getMultaCentavos() / 100.0);
+            try {
+                replica.realizarEmprestimo("R1", "RL2");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Empréstimo na réplica: " + e.getMessage());
+            }
+
+            primario.fecharJournal(); // Primário cai
+            seguidor.promover();
+            Emprestimo e = replica.realizarEmprestimo("R1", "RL2");
+            Usuario r99 = replica.consultarUsuario("R99").get();
+            System.out.println("Depois de promovida: empréstimo " + e.getIdEmprestimo() + " aceito na antiga réplica"
+                    + " | R99 deve R$ " + r99.getMultaCentavos() / 100.0 + " (apto: " + r99.isAptoParaEmprestimo() + ")");
+            replica.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (seguidor != null) {
+                seguidor.close();
+            }
+            if (primario != null) {
+                primario.fecharJournal();
+            }
+        }
+    }
+
+    // Três nós em localhost: itens e usuários espalhados pelo anel, limite do aluno valendo
+    // com os empréstimos em nós diferentes, e a conta do usuário sobrevivendo ao reinício do nó
+    private static void testeCluster() {
+        Map<String, java.net.InetSocketAddress> membros = new java.util.LinkedHashMap<>();
+        Map<String, String> pastas = new HashMap<>();
+        Map<String, NoCluster> nos = new HashMap<>();
+        try {
+            for (String nome : List.of("n1", "n2", "n3")) {
+                try (java.net.ServerSocket livre = new java.net.ServerSocket(0)) {
+                    membros.put(nome, new java.net.InetSocketAddress("localhost", livre.getLocalPort()));
+                }
+                pastas.put(nome, Files.createTempDirectory("biblioteca-" + nome).toString());
+            }
+            for (String nome : membros.keySet()) {
+                NoCluster no = new NoCluster(nome, pastas.get(nome), membros);
+                no.iniciar();
+                nos.put(nome, no);
+            }
+            try (ClienteCluster cliente = new ClienteCluster(membros)) {
+                Map<String, Integer> porNo = new java.util.TreeMap<>();
+                for (int i = 1; i <= 30; i++) {
+                    cliente.cadastrarItem(new Livro("C" + i, "Volume " + i, 2000 + i, "Autor C", "9" + i, 1));
+                    porNo.merge(cliente.donoDoItem("C" + i), 1, Integer::sum);
+                }
+                System.out.println("Itens por nó: " + porNo);
+
+                // Aluno cujo cadastro fica num nó e itens de outros nós
+                cliente.cadastrarUsuario(new Aluno("A60", "Davi Reis", "Rua Z", "2023060", "Física"));
+                String casa = cliente.donoDoUsuario("A60");
+                List<String> deFora = new ArrayList<>();
+                // 8 disputados pelos balcões e mais 2 livres pros empréstimos depois
+                for (int i = 1; i <= 30 && deFora.size() < 10; i++) {
+                    if (!cliente.donoDoItem("C" + i).equals(casa)) {
+                        deFora.add("C" + i);
+                    }
+                }
+                // 8 balcões ao mesmo tempo, cada um com um item: só 3 podem sair (limite do aluno)
+                ExecutorService balcoes = Executors.newFixedThreadPool(8);
+                List<String> emprestados = java.util.Collections.synchronizedList(new ArrayList<>());
+                AtomicInteger rn2 = new AtomicInteger();
+                for (String cod : deFora.subList(0, 8)) {
+                    balcoes.execute(() -> {
+                        try {
+                            emprestados.add(cliente.emprestar("A60", cod));
+                        } catch (RegraDeNegocioException e) {
+                            if (e.getRegra() == RegraDeNegocioException.Regra.RN2) {
+                                rn2.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            System.err.println("ERRO: " + e.getMessage());
+                        }
+                    });
+                }
+                balcoes.shutdown();
+                balcoes.awaitTermination(30, TimeUnit.SECONDS);
+                System.out.println("Usuário no " + casa + ", itens em outros nós: emprestados " + emprestados.size()
+                        + ", recusados por RN2 " + rn2.get() + " | " + cliente.situacao("A60"));
+
+                // RN1 entre nós: o exemplar único já saiu pra um usuário de outro nó
+                cliente.cadastrarUsuario(new Professor("P60", "Eva Luz", "Rua Z", "S60", "Química"));
+                cliente.cadastrarUsuario(new Aluno("A61", "Gil Rosa", "Rua Z", "2023061", "Física"));
+                cliente.emprestar("P60", "C30");
+                try {
+                    cliente.emprestar("A61", "C30");
+                } catch (RegraDeNegocioException e) {
+                    System.out.println("Segundo usuário no mesmo exemplar: " + e.getMessage());
+                }
+
+                long multa = cliente.devolver(emprestados.get(0));
+                String novo = cliente.emprestar("A60", deFora.get(8));
+                System.out.println("Devolveu " + emprestados.get(0) + " (multa " + multa + ") e pegou " + novo
+                        + " | " + cliente.situacao("A60"));
+
+                // Aviso de empréstimo desfeito antes da confirmação fica marcado; o reenvio do aviso de
+                // uma devolução que já chegou (F) não marca nada
+                cliente.chamar(casa, "COTA_LIBERAR;A60;n9-1;0");
+                cliente.chamar(casa, "COTA_LIBERAR;A60;" + emprestados.get(0) + ";0");
+
+                // Reinicia o nó dono do aluno: a conta volta do cotas.log
+                nos.remove(casa).close();
+                NoCluster reaberto = new NoCluster(casa, pastas.get(casa), membros);
+                reaberto.iniciar();
+                nos.put(casa, reaberto);
+                try (ClienteCluster outro = new ClienteCluster(membros)) {
+                    System.out.println("Depois de reiniciar o " + casa + ": " + outro.situacao("A60"));
+                    outro.emprestar("A60", deFora.get(9));
+                } catch (RegraDeNegocioException e) {
+                    System.out.println("Depois de reiniciar: " + e.getMessage());
+                }
+
+                // Multa de um item de outro nó, paga no dono do usuário, e o empréstimo seguinte
+                String casa61 = cliente.donoDoUsuario("A61");
+                String cod = null;
+                for (int i = 29; i >= 1 && cod == null; i--) {
+                    if (!deFora.contains("C" + i) && !cliente.donoDoItem("C" + i).equals(casa61)) {
+                        cod = "C" + i;
+                    }
+                }
+                String atrasado = cliente.emprestar("A61", cod);
+                // O prazo de verdade ainda não venceu: a devolução com R$ 15,00 de multa é montada
+                // como ficaria - a cópia do cadastro no nó do item com a multa e o aviso pro dono
+                nos.get(cliente.donoDoItem(cod)).getSistema().consultarUsuario("A61").get().registrarMulta(1500);
+                cliente.chamar(casa61, "COTA_LIBERAR;A61;" + atrasado + ";1500");
+                cliente.devolver(atrasado);
+                try {
+                    cliente.emprestar("A61", cod);
+                } catch (RegraDeNegocioException e) {
+                    System.out.println("Com multa: " + e.getMessage() + " | " + cliente.situacao("A61"));
+                }
+                long saldo = cliente.pagarMulta("A61", 1000, "CX-900");
+                saldo = cliente.pagarMulta("A61", 1000, "CX-900"); // Reenvio: não cobra de novo
+                System.out.println("Pagou R$ 10,00 (recibo mandado duas vezes), saldo " + saldo);
+                saldo = cliente.pagarMulta("A61", saldo, "CX-901");
+                System.out.println("Pagou o resto, saldo " + saldo + " | pegou " + cliente.emprestar("A61", cod)
+                        + " | " + cliente.situacao("A61"));
+                try {
+                    cliente.pagarMulta("A61", 100, "CX-902");
+                } catch (RegraDeNegocioException e) {
+                    System.out.println("Pagar de novo: " + e.getMessage());
+                }
+
+                // A multa da cópia no nó do item saiu com uma isenção lançada lá - continua depois de reiniciar
+                String noDoItem = cliente.donoDoItem(cod);
+                nos.remove(noDoItem).close();
+                NoCluster reiniciado = new NoCluster(noDoItem, pastas.get(noDoItem), membros);
+                reiniciado.iniciar();
+                nos.put(noDoItem, reiniciado);
+                SistemaBiblioteca doItem = reiniciado.getSistema();
+                doItem.getPagamentos().todos().stream()
+                        .filter(l -> l.getIdUsuario().equals("A61"))
+                        .forEach(l -> System.out.println("No " + noDoItem + " depois de reiniciar: " + l));
+                System.out.println("  Cópia de A61 no " + noDoItem + ": multa "
+                        + doItem.consultarUsuario("A61").get().getMultaCentavos());
+            }
+
+            // Entrando um quarto nó, só ~1/4 das chaves mudam de dono
+            AnelConsistente tres = new AnelConsistente(List.of("n1", "n2", "n3"));
+            AnelConsistente quatro = new AnelConsistente(List.of("n1", "n2", "n3", "n4"));
+            int mudaram = 0;
+            for (int i = 0; i < 10_000; i++) {
+                if (!tres.dono("L" + i).equals(quatro.dono("L" + i))) {
+                    mudaram++;
+                }
+            }
+            System.out.println("Novo nó no anel: " + mudaram + " de 10000 chaves mudaram de dono");
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (NoCluster no : nos.values()) {
+                no.close();
+            }
+        }
+    }
+
+    // Cada operação vira um evento no eventos.log, que dá pra ler aos pedaços pelo offset;
+    // num anel pequeno com assinante lento quem publica espera, e nada se perde nem sai de ordem
+    private static void testeEventos() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-eventos");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            Path log = sistema.ativarArquivoEventos();
+            sistema.adicionarUsuario(new Aluno("A50", "Bia Costa", "Rua X", "2023050", "Artes"));
+            sistema.adicionarItem(new Livro("E1", "História da Arte", 2016, "Autor E", "22222", 2));
+            Emprestimo e = sistema.realizarEmprestimo("A50", "E1");
+            sistema.realizarDevolucao(e.getIdEmprestimo());
+            sistema.fecharJournal(); // Entrega o que falta pro arquivo
+
+            ArquivoEventos.Leitura primeira = ArquivoEventos.ler(log, 0, 2);
+            ArquivoEventos.Leitura resto = ArquivoEventos.ler(log, primeira.getProximoOffset(), 100);
+            for (Evento evento : primeira.getEventos()) {
+                System.out.println("  " + evento.getTipo() + " " + evento.getDados());
+            }
+            for (Evento evento : resto.getEventos()) {
+                System.out.println("  " + evento.getTipo() + " empréstimo " + evento.getIdEmprestimo());
+            }
+            System.out.println("Offsets: 0 -> " + primeira.getProximoOffset() + " -> " + resto.getProximoOffset()
+                    + " (arquivo com " + Files.size(log) + " bytes)");
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+
+        BarramentoEventos barramento = new BarramentoEventos(8);
+        List<String> recebidos = new ArrayList<>();
+        barramento.assinar("lento", lote -> {
+            for (Evento evento : lote) {
+                recebidos.add(evento.getIdEmprestimo());
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, 4);
+        Aluno aluno = new Aluno("A51", "Caio Dias", "Rua Y", "2023051", "Artes");
+        Livro livro = new Livro("E2", "Desenho", 2018, "Autor E", "22223", 1);
+        for (int i = 0; i < 200; i++) {
+            barramento.publicar(Evento.emprestimoRealizado(new Emprestimo(String.valueOf(i), aluno, livro, LocalDate.now())));
+        }
+        barramento.fechar();
+        boolean emOrdem = true;
+        for (int i = 0; i < recebidos.size(); i++) {
+            emOrdem &= recebidos.get(i).equals(String.valueOf(i));
+        }
+        System.out.println("Anel de 8: publicados " + barramento.getPublicados() + " | recebidos " + recebidos.size()
+                + " em ordem: " + emOrdem + " | esperou vaga: " + (barramento.getEsperas() > 0));
+    }
+
+    // O catálogo gravado abre sem ler item nenhum; os exemplares emprestados são marcados
+    // a partir dos empréstimos em aberto e cada abertura tem o seu estado de exemplares
+    private static void testeCatalogoMapeado() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-catalogo");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            sistema.adicionarUsuario(new Aluno("A60", "Rui Matos", "Rua V", "2023060", "História"));
+            sistema.adicionarItem(new Livro("H1", "História do Brasil", 2009, "Autor H", "33333", 4, 2));
+            sistema.adicionarItem(new Revista("H2", "Revista de História", 2021, "Editora H", 12, "4444-0001"));
+            sistema.adicionarItem(new Livro("H3", "História Antiga", 2012, "Autor H", "33334", 1));
+            sistema.realizarEmprestimo("A60", "H1");
+            Path arquivo = sistema.gravarCatalogoMapeado();
+
+            CatalogoMapeado catalogo = CatalogoMapeado.abrir(arquivo);
+            for (Emprestimo e : sistema.getEmprestimosAtivos()) {
+                catalogo.marcar(e.getItem().getCodigo(), e.getExemplar());
+            }
+            sistema.fecharJournal();
+            ItemDeAcervo h1 = catalogo.buscar("H1");
+            System.out.println(catalogo.tamanho() + " itens, " + catalogo.bytesArquivo() + " bytes no arquivo | " + h1);
+            System.out.println("Livres em H1: " + h1.getExemplaresLivres() + " | exemplar pego: " + h1.tentarEmprestar()
+                    + " | de novo: " + h1.tentarEmprestar() + " | " + catalogo.buscar("H2") + " | X9: " + catalogo.buscar("X9"));
+
+            CatalogoMapeado outro = CatalogoMapeado.abrir(arquivo);
+            System.out.println("Outra abertura - livres em H1: " + outro.buscar("H1").getExemplaresLivres()
+                    + " | disponíveis: " + outro.contarDisponiveis() + " de " + outro.tamanho()
+                    + " | heap dos exemplares: " + catalogo.bytesNoHeap() + " bytes");
+
+            // Balcão em cima do mesmo catálogo: o acervo não é lido, e o empréstimo do journal e o
+            // novo ocupam os exemplares nos bits do catálogo
+            SistemaBiblioteca balcao = new SistemaBiblioteca(pasta.toString());
+            int itens = balcao.usarCatalogoMapeado();
+            balcao.carregarDados();
+            Emprestimo novo = balcao.realizarEmprestimo("A60", "H3");
+            ItemDeAcervo doJournal = balcao.getEmprestimosAtivos().get(0).getItem();
+            System.out.println("Balcão com catálogo (" + itens + " itens): " + doJournal.getCodigo() + " livres "
+                    + doJournal.getExemplaresLivres() + " | " + novo.getItem().getCodigo() + " ("
+                    + novo.getItem().getClass().getSimpleName() + ") livres " + novo.getItem().getExemplaresLivres());
+            try {
+                balcao.adicionarItem(new Livro("H4", "História Medieval", 2015, "Autor H", "33335", 1));
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Cadastro no balcão: " + e.getMessage());
+            }
+            balcao.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Os devolvidos saem da memória pro arquivo, mas a consulta por ID, por usuário e por
+    // item continua achando; depois de recarregar nada aparece duplicado e o relatório bate
+    private static void testeArquivoEmprestimos() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-arquivo");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            sistema.adicionarUsuario(new Aluno("A70", "Gil Nunes", "Rua T", "2023070", "Química"));
+            sistema.adicionarUsuario(new Professor("P70", "Lia Prado", "Rua U", "0770", "Química"));
+            sistema.adicionarItem(new Livro("Q1", "Química Geral", 2015, "Autor Q", "55555", 1, 2));
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                String usuario = i % 2 == 0 ? "A70" : "P70";
+                ids.add(sistema.realizarEmprestimo(usuario, "Q1").getIdEmprestimo());
+                if (i < 5) {
+                    sistema.realizarDevolucao(ids.get(i));
+                }
+            }
+
+            // Idade 0: tudo que já foi devolvido (hoje) vai pro arquivo; o aberto fica
+            int arquivados = sistema.arquivarEmprestimos(0);
+            System.out.println("Arquivados: " + arquivados + " | na memória: " + sistema.getHistoricoEmprestimos().size()
+                    + " | segmentos: " + sistema.getArquivo().getQuantidadeSegmentos());
+            System.out.println("Busca no arquivo: " + sistema.consultarEmprestimo(ids.get(0)).orElse(null));
+            System.out.println("Histórico do A70: " + sistema.getHistoricoDoUsuario("A70").size()
+                    + " | do Q1: " + sistema.getHistoricoDoItem("Q1").size());
+            try {
+                sistema.realizarDevolucao(ids.get(1));
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Devolver arquivado: " + e.getMessage());
+            }
+            System.out.println("ID novo depois do arquivo: " + sistema.realizarEmprestimo("A70", "Q1").getIdEmprestimo());
+
+            SistemaBiblioteca recuperado = new SistemaBiblioteca(pasta.toString());
+            recuperado.carregarDados();
+            sistema.fecharJournal();
+            System.out.println("Depois de recarregar - na memória: " + recuperado.getHistoricoEmprestimos().size()
+                    + " | no arquivo: " + recuperado.getArquivo().getQuantidade()
+                    + " | histórico do Q1: " + recuperado.getHistoricoDoItem("Q1").size());
+            Relatorios.Resultado incremental = recuperado.getRelatorio(5);
+            Relatorios.Resultado completo = recuperado.calcularRelatorio(5);
+            System.out.println("Empréstimos no relatório: " + incremental.getEmprestimos()
+                    + " | incremental igual ao completo: " + incremental.json().equals(completo.json()));
+            recuperado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Os agregados mantidos a cada evento batem com o cálculo em paralelo sobre o histórico,
+    // inclusive depois de uma queda (snapshot + journal); o relatório vai pra CSV e JSON
+    private static void testeRelatorios() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-relatorios");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            String[] cursos = { "Letras", "Física", "Letras" };
+            for (int i = 0; i < cursos.length; i++) {
+                sistema.adicionarUsuario(new Aluno("A9" + i, "Aluno " + i, "Rua R", "20239" + i, cursos[i]));
+            }
+            sistema.adicionarUsuario(new Professor("P90", "Ivo Reis", "Rua S", "0990", "Física"));
+            sistema.adicionarItem(new Livro("R1", "Cálculo I", 2018, "Autor R", "88888", 2, 3));
+            sistema.adicionarItem(new Livro("R2", "Física I", 2017, "Autor S", "99999", 1));
+
+            List<String> ids = new ArrayList<>();
+            for (String usuario : new String[] { "A90", "A91", "P90" }) {
+                ids.add(sistema.realizarEmprestimo(usuario, "R1").getIdEmprestimo());
+            }
+            sistema.realizarDevolucao(ids.get(0));
+            sistema.realizarEmprestimo("A92", "R2");
+            sistema.realizarEmprestimo("A90", "R1");
+            sistema.salvarDados();
+            sistema.realizarDevolucoes(ids.subList(1, 3));
+
+            SistemaBiblioteca recuperado = new SistemaBiblioteca(pasta.toString());
+            recuperado.carregarDados();
+            sistema.fecharJournal();
+            Relatorios.Resultado incremental = recuperado.getRelatorio(5);
+            Relatorios.Resultado completo = recuperado.calcularRelatorio(5);
+            System.out.println(incremental);
+            System.out.println("Incremental igual ao completo: " + incremental.json().equals(completo.json()));
+            incremental.gravarCsv(pasta.resolve("relatorio.csv"));
+            incremental.gravarJson(pasta.resolve("relatorio.json"));
+            System.out.println("CSV: " + Files.readAllLines(pasta.resolve("relatorio.csv")).size() + " linhas | JSON: "
+                    + Files.readString(pasta.resolve("relatorio.json")).substring(0, 60) + "...");
+            recuperado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Revista sai mais cara que livro, com teto; os dois primeiros dias de atraso são de
+    // carência e domingo/feriado não contam. O recálculo da madrugada mostra a multa que
+    // já correu nos empréstimos em aberto; a cobrada na devolução é a mesma conta
+    private static void testePoliticaMultas() {
+        LocalDate segunda = LocalDate.of(2026, 3, 2);
+        PoliticaEmprestimo politica = PoliticaEmprestimo.PADRAO
+                .comTaxa(PoliticaEmprestimo.TipoUsuario.ALUNO, PoliticaEmprestimo.TipoItem.REVISTA, 250)
+                .comTeto(PoliticaEmprestimo.TipoUsuario.ALUNO, PoliticaEmprestimo.TipoItem.REVISTA, 2000)
+                .comCarencia(2)
+                .comSemanaFechada(java.time.DayOfWeek.SUNDAY)
+                .comFeriados(List.of(segunda.plusDays(10)));
+        PoliticaEmprestimo.definir(politica);
+        try {
+            System.out.println(politica);
+            Path pasta = Files.createTempDirectory("biblioteca-multas");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            Aluno aluno = new Aluno("A80", "Hugo Lima", "Rua L", "2023080", "Letras");
+            sistema.adicionarUsuario(aluno);
+            Livro livro = new Livro("M1", "Gramática", 2010, "Autor M", "66666", 1);
+            Revista revista = new Revista("M2", "Revista de Letras", 2024, "Editora M", 4, "7777-0001");
+            sistema.adicionarItem(livro);
+            sistema.adicionarItem(revista);
+
+            // Emprestados numa segunda: o prazo de 7 dias cai no outro domingo e passa pra segunda
+            Emprestimo empLivro = new Emprestimo("M-1", aluno, livro, segunda.minusDays(1));
+            Emprestimo empRevista = new Emprestimo("M-2", aluno, revista, segunda.minusDays(1));
+            System.out.println("Prazo (domingo vira segunda): " + empLivro.getDataDevolucaoPrevista());
+
+            // 14 dias depois do prazo: tira 2 domingos, 1 feriado e 2 de carência = 9 dias cobrados
+            LocalDate devolucao = empLivro.getDataDevolucaoPrevista().plusDays(14);
+            System.out.println("Dias cobrados: " + politica.diasCobrados(empLivro.getDiaDevolucaoPrevista(), devolucao.toEpochDay())
+                    + " | livro: R$ " + empLivro.calcularMultaCentavos(devolucao.toEpochDay()) / 100.0
+                    + " | revista (teto R$ 20): R$ " + empRevista.calcularMultaCentavos(devolucao.toEpochDay()) / 100.0);
+
+            sistema.realizarEmprestimo("A80", "M1");
+            long total = sistema.recalcularMultas(LocalDate.now().plusDays(30));
+            System.out.println("Recálculo daqui a 30 dias: R$ " + total / 100.0 + " | "
+                    + sistema.getEmprestimosAtivos().get(0));
+            sistema.fecharJournal();
+
+            // O journal guarda o prazo e a multa: trocar a política depois não muda o que já foi cobrado
+            PoliticaEmprestimo longa = PoliticaEmprestimo.PADRAO
+                    .comPrazo(PoliticaEmprestimo.TipoUsuario.ALUNO, 30)
+                    .comTaxa(PoliticaEmprestimo.TipoUsuario.ALUNO, PoliticaEmprestimo.TipoItem.LIVRO, 300);
+            PoliticaEmprestimo.definir(longa);
+            Path pastaJournal = Files.createTempDirectory("biblioteca-multas-journal");
+            SistemaBiblioteca inicial = new SistemaBiblioteca(pastaJournal.toString());
+            inicial.carregarDados();
+            inicial.adicionarUsuario(new Aluno("A81", "Íris Lima", "Rua L", "2023081", "Letras"));
+            inicial.adicionarUsuario(new Aluno("A82", "Caio Lima", "Rua L", "2023082", "Letras"));
+            inicial.adicionarItem(new Livro("M3", "Redação", 2015, "Autor M", "66667", 1, 3));
+            inicial.fecharJournal();
+            LocalDate hoje = LocalDate.now();
+            Files.write(pastaJournal.resolve("journal.log"), ("E;9001;A81;M3;" + hoje.minusDays(40) + ";0;"
+                    + hoje.minusDays(10) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            SistemaBiblioteca antes = new SistemaBiblioteca(pastaJournal.toString());
+            antes.carregarDados();
+            Emprestimo aberto = antes.realizarEmprestimo("A82", "M3");
+            antes.realizarDevolucao("9001");
+            Emprestimo devolvido = antes.consultarEmprestimo("9001").get();
+            antes.fecharJournal(); // Cai sem salvar
+
+            PoliticaEmprestimo.definir(PoliticaEmprestimo.PADRAO);
+            SistemaBiblioteca depois = new SistemaBiblioteca(pastaJournal.toString());
+            depois.carregarDados();
+            Emprestimo abertoDepois = depois.consultarEmprestimo(aberto.getIdEmprestimo()).get();
+            Emprestimo devolvidoDepois = depois.consultarEmprestimo("9001").get();
+            System.out.println("Política trocada e journal reaplicado: prazo " + abertoDepois.getDataDevolucaoPrevista()
+                    + " (igual: " + abertoDepois.getDataDevolucaoPrevista().equals(aberto.getDataDevolucaoPrevista())
+                    + ") | multa R$ " + devolvidoDepois.getMultaCentavos() / 100.0
+                    + " (igual: " + (devolvidoDepois.getMultaCentavos() == devolvido.getMultaCentavos())
+                    + ") | saldo de A81: R$ " + depois.consultarUsuario("A81").get().getMultaCentavos() / 100.0);
+            depois.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        } finally {
+            PoliticaEmprestimo.definir(PoliticaEmprestimo.PADRAO);
+        }
+    }
+
+    // O snapshot binário lido direto pras colunas: a visão do item se comporta como o
+    // Livro de verdade (toString, exemplares ocupados pelo empréstimo em aberto)
+    private static void testeAcervoColunar() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-colunas");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.setFormatoSnapshot(SistemaBiblioteca.FormatoSnapshot.BINARIO);
+            sistema.carregarDados();
+            sistema.adicionarUsuario(new Aluno("A70", "Gil Rocha", "Rua K", "2023070", "Engenharia"));
+            sistema.adicionarItem(new Livro("K1", "Álgebra Linear", 2011, "Autor K", "44444", 3, 2));
+            sistema.adicionarItem(new Revista("K2", "Revista de Álgebra", 2020, "Editora K", 7, "5555-0001"));
+            sistema.realizarEmprestimo("A70", "K1");
+            sistema.salvarDados();
+            sistema.fecharJournal();
+
+            AcervoColunar acervo = AcervoColunar.carregar(pasta.resolve("biblioteca.snap"));
+            ItemDeAcervo k1 = acervo.buscar("K1");
+            System.out.println(acervo.tamanho() + " itens em colunas | " + k1);
+            System.out.println("Mesmo item nas duas buscas: " + k1.equals(acervo.item(acervo.numeroDe("K1")))
+                    + " | exemplar pego: " + k1.tentarEmprestar() + " | " + acervo.buscar("K2"));
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Um registro só pra três exemplares: cada empréstimo leva um exemplar qualquer,
+    // o quarto fica sem (RN1) e reserva; na devolução o exemplar passa direto pra reserva.
+    // No snapshot binário e no journal cada empréstimo volta com o exemplar certo
+    private static void testeExemplares() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-exemplares");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.setFormatoSnapshot(SistemaBiblioteca.FormatoSnapshot.BINARIO);
+            sistema.carregarDados();
+            Livro livro = new Livro("T1", "Cálculo Vol. 1", 2015, "Autor T", "97801", 8, 3);
+            sistema.adicionarItem(livro);
+            for (int i = 0; i < 4; i++) {
+                sistema.adicionarUsuario(new Aluno("A6" + i, "Aluno " + i, "Rua T", "20240" + i, "Engenharia"));
+            }
+
+            List<Emprestimo> emprestimos = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                emprestimos.add(sistema.realizarEmprestimo("A6" + i, "T1"));
+            }
+            System.out.println(livro);
+            try {
+                sistema.realizarEmprestimo("A63", "T1");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Quarto aluno: " + e.getMessage());
+            }
+            sistema.reservar("A63", "T1");
+            sistema.salvarDados();
+            sistema.realizarDevolucao(emprestimos.get(1).getIdEmprestimo());
+            System.out.println("Depois da devolução: " + sistema.getReservas("T1").get(0)
+                    + " | livres: " + livro.getExemplaresLivres());
+
+            // Queda: snapshot binário + journal (devolução e separação)
+            SistemaBiblioteca recuperado = new SistemaBiblioteca(pasta.toString());
+            recuperado.carregarDados();
+            sistema.fecharJournal();
+            Emprestimo retirada = recuperado.realizarEmprestimo("A63", "T1");
+            System.out.println("Retirada da reserva: " + retirada);
+            recuperado.realizarDevolucao(emprestimos.get(0).getIdEmprestimo());
+            recuperado.getEmprestimosAtivos().forEach(e -> System.out.println("  " + e));
+            System.out.println(recuperado.buscarNoAcervo("calculo", 1, true).get(0));
+            recuperado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Dois usuários na fila de um item emprestado: na devolução o item fica separado pro
+    // primeiro, que é o único que consegue pegar. A fila sobrevive a uma queda (journal)
+    // e uma retirada vencida passa o item pro próximo
+    private static void testeReservas() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-reservas");
+            SistemaBiblioteca sistema = new SistemaBiblioteca(pasta.toString());
+            sistema.carregarDados();
+            sistema.adicionarUsuario(new Aluno("A500", "Caio Dias", "Rua H", "2023006", "Física"));
+            sistema.adicionarUsuario(new Aluno("A501", "Duda Melo", "Rua I", "2023007", "Física"));
+            sistema.adicionarUsuario(new Professor("P501", "Eva Nunes", "Rua J", "0888", "Física"));
+            sistema.adicionarItem(new Livro("Q1", "Mecânica Quântica", 2019, "Autor Q", "33333", 2));
+
+            Emprestimo emp = sistema.realizarEmprestimo("A500", "Q1");
+            sistema.reservar("A501", "Q1");
+            sistema.reservar("P501", "Q1");
+            try {
+                sistema.reservar("A501", "Q1");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Reserva repetida recusada (" + e.getRegra() + "): " + e.getMessage());
+            }
+
+            // Queda antes da devolução: a fila volta pelo journal
+            SistemaBiblioteca recuperado = new SistemaBiblioteca(pasta.toString());
+            recuperado.carregarDados();
+            sistema.fecharJournal();
+            System.out.println("Fila depois da queda: " + recuperado.getReservas("Q1").size() + " reserva(s)");
+
+            recuperado.realizarDevolucao(emp.getIdEmprestimo());
+            System.out.println("Depois da devolução: " + recuperado.getReservas("Q1").get(0));
+            try {
+                recuperado.realizarEmprestimo("P501", "Q1");
+            } catch (RegraDeNegocioException e) {
+                System.out.println("Segundo da fila tentou pegar: " + e.getMessage());
+            }
+            recuperado.realizarEmprestimo("A501", "Q1");
+            System.out.println("Primeiro da fila pegou - ainda na fila: " + recuperado.getReservas("Q1").size());
+            recuperado.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+
+        // Expiração, com as datas na mão (sem esperar dias)
+        LocalDate hoje = LocalDate.now();
+        ControleReservas controle = new ControleReservas();
+        Livro livro = new Livro("Q2", "Relatividade", 2017, "Autor R", "44444", 1);
+        Aluno primeiro = new Aluno("A502", "Fábio Reis", "Rua K", "2023008", "Física");
+        Aluno segundo = new Aluno("A503", "Gabi Sá", "Rua L", "2023009", "Física");
+        int exemplar = livro.tentarEmprestar();
+        try {
+            controle.reservar(new Reserva("1", primeiro, livro, hoje));
+            controle.reservar(new Reserva("2", segundo, livro, hoje));
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+            return;
+        }
+        // Devolução: o exemplar vai direto pra reserva, sem voltar pra estante
+        if (controle.alocar(livro, exemplar, hoje) == null) {
+            livro.devolver(exemplar);
+        }
+        System.out.println("Separado para: " + livro.getReservasSeparadas().get(0).getUsuario().getNome()
+                + " | disponível pros outros: " + livro.isDisponivel());
+        System.out.println("No último dia de retirada expiram: " + controle.expirarAte(hoje.plusDays(ControleReservas.DIAS_RETIRADA)).size());
+        controle.expirarAte(hoje.plusDays(ControleReservas.DIAS_RETIRADA + 1));
+        System.out.println("Um dia depois - separado para: " + livro.getReservasSeparadas().get(0).getUsuario().getNome());
+    }
+
+    // Carrinho que estoura o limite é recusado inteiro; o que cabe sai junto e volta pela caixa de devolução
+    private static void testeLote() {
+        SistemaBiblioteca sistema = new SistemaBiblioteca();
+        try {
+            sistema.adicionarUsuario(new Aluno("A400", "Bruna Reis", "Rua G", "2023005", "Medicina"));
+            for (int i = 0; i < 5; i++) {
+                sistema.adicionarItem(new Livro("H" + i, "Anatomia " + i, 2021, "Autor M", "555" + i, 1));
+            }
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+            return;
+        }
+
+        ResultadoLote grande = sistema.realizarEmprestimos("A400", List.of("H0", "H1", "H2", "H3"));
+        System.out.println("Carrinho com 4 itens (limite 3) - emprestados: " + grande.getQuantidadeSucesso());
+        grande.getLinhas().forEach(l -> System.out.println("  " + l));
+
+        ResultadoLote certo = sistema.realizarEmprestimos("A400", List.of("H0", "H1", "H2"));
+        System.out.println("Carrinho com 3 itens - emprestados: " + certo.getQuantidadeSucesso());
+
+        List<String> ids = new ArrayList<>();
+        certo.getLinhas().forEach(l -> ids.add(l.getEmprestimo().getIdEmprestimo()));
+        ids.add("999"); // Não existe - não atrapalha os outros
+        ResultadoLote devolucao = sistema.realizarDevolucoes(ids);
+        System.out.println("Devolução em lote: " + devolucao.getQuantidadeSucesso() + " de " + ids.size()
+                + " | Disponíveis depois: " + sistema.filtrarAcervo(new IndicesAcervo.Filtro().apenasDisponiveis()).contar()
+                + " de 5");
+    }
+
+    // Livros disponíveis de um intervalo de anos e revistas de uma editora, paginando de 2 em 2
+    private static void testeFiltros() {
+        SistemaBiblioteca sistema = new SistemaBiblioteca();
+        try {
+            sistema.adicionarUsuario(new Aluno("A300", "Carlos Dias", "Rua F", "2023004", "Direito"));
+            for (int i = 0; i < 10; i++) {
+                sistema.adicionarItem(new Livro("F" + i, "Livro " + i, 2012 + i, "Autor Q", "333" + i, 1));
+            }
+            sistema.adicionarItem(new Revista("G1", "Revista Um", 2016, "Editora Ômega", 1, "4441"));
+            sistema.adicionarItem(new Revista("G2", "Revista Dois", 2016, "Outra Editora", 2, "4442"));
+            sistema.realizarEmprestimo("A300", "F5"); // 2017, sai dos disponíveis
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+            return;
+        }
+
+        IndicesAcervo.Resultado livros = sistema.filtrarAcervo(new IndicesAcervo.Filtro()
+                .tipo(Livro.class).anos(2015, 2020).apenasDisponiveis());
+        System.out.print("Livros disponíveis de 2015 a 2020 (" + livros.contar() + "):");
+        int cursor = 0;
+        do {
+            IndicesAcervo.Pagina pagina = livros.pagina(cursor, 2);
+            pagina.getItens().forEach(i -> System.out.print(" " + i.getCodigo()));
+            System.out.print(" |");
+            cursor = pagina.getProximoCursor();
+        } while (cursor >= 0);
+        System.out.println();
+
+        IndicesAcervo.Resultado revistas = sistema.filtrarAcervo(new IndicesAcervo.Filtro()
+                .tipo(Revista.class).editora("editora omega"));
+        System.out.println("Revistas da Editora Ômega: " + revistas.contar()
+                + " -> " + revistas.pagina(0, 10).getItens().get(0).getCodigo());
+    }
+
+    // Simula uma queda: faz alterações sem chamar salvarDados e abre outro sistema na mesma pasta
+    private static void testeJournal() {
+        try {
+            Path pasta = Files.createTempDirectory("biblioteca-journal");
+            SistemaBiblioteca antes = new SistemaBiblioteca(pasta.toString());
+            antes.carregarDados();
+            antes.adicionarUsuario(new Professor("P300", "Ana Lima", "Rua E", "0777", "Matemática"));
+            antes.adicionarItem(new Livro("L010", "Cálculo I", 2018, "Autor K", "22222", 5));
+            Emprestimo emp = antes.realizarEmprestimo("P300", "L010");
+            // Sem salvarDados() - o sistema "cai" aqui
+
+            SistemaBiblioteca depois = new SistemaBiblioteca(pasta.toString());
+            depois.carregarDados();
+            Emprestimo recuperado = depois.getHistoricoEmprestimos().get(0);
+            System.out.println("Empréstimo recuperado: #" + recuperado.getIdEmprestimo()
+                    + " (original #" + emp.getIdEmprestimo() + ") | Item emprestado: " + recuperado.getItem().isEmprestado()
+                    + " | Usuário com " + recuperado.getUsuario().getQuantidadeEmprestimos() + " empréstimo(s)");
+
+            // Snapshot novo + devolução: o journal fica só com a devolução
+            depois.salvarDados();
+            depois.realizarDevolucao(recuperado.getIdEmprestimo());
+            depois.fecharJournal();
+            antes.fecharJournal();
+
+            SistemaBiblioteca terceiro = new SistemaBiblioteca(pasta.toString());
+            terceiro.carregarDados();
+            System.out.println("Depois do snapshot + journal - devolvido em: "
+                    + terceiro.getHistoricoEmprestimos().get(0).getDataDevolucaoReal());
+            terceiro.fecharJournal();
+        } catch (IOException | RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+        }
+    }
+
+    // Teste de estresse: várias threads emprestando e devolvendo ao mesmo tempo
+    // No fim confere que nenhum item foi emprestado duas vezes e que ninguém passou do limite
+    private static void testeConcorrencia() {
+        SistemaBiblioteca sistema = new SistemaBiblioteca();
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        int qtdItens = 50;
+        int qtdUsuarios = 200;
+
+        try {
+            for (int i = 0; i < qtdUsuarios; i++) {
+                sistema.adicionarUsuario(new Aluno("U" + i, "Aluno " + i, "Rua", "M" + i, "Curso"));
+            }
+            for (int i = 0; i < qtdItens; i++) {
+                sistema.adicionarItem(new Livro("C" + i, "Livro " + i, 2020, "Autor", "ISBN" + i, 1));
+            }
+            sistema.adicionarItem(new Livro("DISPUTADO", "Livro Disputado", 2020, "Autor", "000", 1));
+        } catch (RegraDeNegocioException e) {
+            System.err.println("ERRO: " + e.getMessage());
+            return;
+        }
+
+        // Parte 1: todo mundo tenta pegar o mesmo item no mesmo instante
+        AtomicInteger sucessos = new AtomicInteger();
+        CountDownLatch largada = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final String idUsuario = "U" + t;
+            pool.submit(() -> {
+                try {
+                    largada.await();
+                    sistema.realizarEmprestimo(idUsuario, "DISPUTADO");
+                    sucessos.incrementAndGet();
+                } catch (RegraDeNegocioException | InterruptedException e) {
+                    // Esperado pra todo mundo menos um
+                }
+            });
+        }
+        largada.countDown();
+
+        // Parte 2: empréstimos e devoluções aleatórios em cima de poucos itens
+        int operacoesPorThread = 20_000;
+        CountDownLatch fim = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long semente = t;
+            pool.submit(() -> {
+                Random random = new Random(semente);
+                List<String> meusEmprestimos = new ArrayList<>();
+                try {
+                    for (int op = 0; op < operacoesPorThread; op++) {
+                        try {
+                            if (!meusEmprestimos.isEmpty() && random.nextBoolean()) {
+                                sistema.realizarDevolucao(meusEmprestimos.remove(meusEmprestimos.size() - 1));
+                            } else {
+                                Emprestimo e = sistema.realizarEmprestimo(
+                                        "U" + random.nextInt(qtdUsuarios), "C" + random.nextInt(qtdItens));
+                                meusEmprestimos.add(e.getIdEmprestimo());
+                            }
+                        } catch (RegraDeNegocioException e) {
+                            // RN1/RN2 acontecem o tempo todo aqui, faz parte do teste
+                        }
+                    }
+                } finally {
+                    fim.countDown();
+                }
+            });
+        }
+
+        try {
+            fim.await();
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Confere as invariantes
+        Map<String, Integer> abertosPorItem = new HashMap<>();
+        Map<String, Integer> abertosPorUsuario = new HashMap<>();
+        for (Emprestimo e : sistema.getHistoricoEmprestimos()) {
+            if (!e.isDevolvido()) {
+                abertosPorItem.merge(e.getItem().getCodigo(), 1, Integer::sum);
+                abertosPorUsuario.merge(e.getUsuario().getId(), 1, Integer::sum);
+            }
+        }
+        boolean emprestimoDuplo = abertosPorItem.values().stream().anyMatch(n -> n > 1);
+        boolean limiteEstourado = abertosPorUsuario.values().stream().anyMatch(n -> n > 3);
+
+        System.out.println("Threads: " + threads + " | Empréstimos registrados: " + sistema.getHistoricoEmprestimos().size());
+        System.out.println("Item disputado emprestado " + sucessos.get() + " vez(es) (esperado: 1)");
+        System.out.println("Algum item com dois empréstimos em aberto: " + emprestimoDuplo);
+        System.out.println("Algum aluno acima do limite de 3: " + limiteEstourado);
+        if (sucessos.get() != 1 || emprestimoDuplo || limiteEstourado) {
+            System.err.println("ERRO: invariantes de concorrência violadas!");
+        }
     }
 }
 
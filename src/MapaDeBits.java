@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Conjunto de bits denso, indexado pelo número interno do item
+ *
+ * Um bit por item, 64 itens por long. Os bits ficam em blocos de tamanho
+ * fixo (AtomicLongArray), então marcar e desmarcar é atômico e não precisa
+ * de trava, mesmo com vários balcões mexendo na mesma palavra. Crescer só
+ * acrescenta blocos novos: os que já existem continuam os mesmos objetos,
+ * e nenhuma alteração se perde durante o crescimento.
+ *
+ * @author Ryan Figueredo
+ */
+public class MapaDeBits {
+    private static final int BITS_BLOCO = 16; // 2^16 itens por bloco (1024 longs = 8 KB)
+    private static final int PALAVRAS_BLOCO = 1 << (BITS_BLOCO - 6);
+
+    private volatile AtomicLongArray[] blocos = new AtomicLongArray[0];
+
+    public void marcar(int numero) {
+        int p = numero >>> 6;
+        long bit = 1L << numero;
+        AtomicLongArray bloco = bloco(p);
+        int i = p & (PALAVRAS_BLOCO - 1);
+        long atual;
+        do {
+            atual = bloco.get(i);
+        } while ((atual & bit) == 0 && !bloco.compareAndSet(i, atual, atual | bit));
+    }
+
+    public void desmarcar(int numero) {
+        int p = numero >>> 6;
+        long bit = 1L << numero;
+        AtomicLongArray bloco = bloco(p);
+        int i = p & (PALAVRAS_BLOCO - 1);
+        long atual;
+        do {
+            atual = bloco.get(i);
+        } while ((atual & bit) != 0 && !bloco.compareAndSet(i, atual, atual & ~bit));
+    }
+
+    public void definir(int numero, boolean valor) {
+        if (valor) {
+            marcar(numero);
+        } else {
+            desmarcar(numero);
+        }
+    }
+
+    public boolean contem(int numero) {
+        return (palavra(numero >>> 6) & (1L << numero)) != 0;
+    }
+
+    // Palavra "p" (bits p*64 até p*64+63) - zero se ainda não foi alocada
+    public long palavra(int p) {
+        AtomicLongArray[] atuais = blocos;
+        int b = p >>> (BITS_BLOCO - 6);
+        return b < atuais.length ? atuais[b].get(p & (PALAVRAS_BLOCO - 1)) : 0L;
+    }
+
+    // Quantas palavras já existem (as de depois são todas zero)
+    public int getQuantidadePalavras() {
+        return blocos.length * PALAVRAS_BLOCO;
+    }
+
+    private AtomicLongArray bloco(int p) {
+        int b = p >>> (BITS_BLOCO - 6);
+        AtomicLongArray[] atuais = blocos;
+        if (b < atuais.length) {
+            return atuais[b];
+        }
+        synchronized (this) {
+            atuais = blocos;
+            if (b >= atuais.length) {
+                AtomicLongArray[] novos = Arrays.copyOf(atuais, Math.max(b + 1, atuais.length * 2));
+                for (int i = atuais.length; i < novos.length; i++) {
+                    novos[i] = new AtomicLongArray(PALAVRAS_BLOCO);
+                }
+                blocos = novos;
+                atuais = novos;
+            }
+            return atuais[b];
+        }
+    }
+}
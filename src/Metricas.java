@@ -0,0 +1,254 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas do SistemaBiblioteca
+ *
+ * Conta quantas vezes cada operação rodou, quantas deram erro, e guarda
+ * o histograma de latência de cada uma. As recusas também são contadas
+ * pela regra que recusou (RN1..RN4, não encontrado, conflito).
+ *
+ * Registrar é só System.nanoTime(), LongAdder e o Histograma: nada é
+ * alocado no caminho do empréstimo/devolução. O texto do relatório só é
+ * montado quando alguém pede (menu, GET /metricas ou JMX).
+ *
+ * @author Ryan Figueredo
+ */
+public class Metricas implements MetricasMBean {
+
+    // Operações medidas
+    public enum Operacao {
+        EMPRESTIMO("realizarEmprestimo"),
+        DEVOLUCAO("realizarDevolucao"),
+        EMPRESTIMO_LOTE("realizarEmprestimos"),
+        DEVOLUCAO_LOTE("realizarDevolucoes"),
+        BUSCA_USUARIO("buscarUsuario"),
+        BUSCA_ITEM("buscarItem"),
+        BUSCA_EMPRESTIMO("buscarEmprestimo"),
+        BUSCA_ACERVO("buscarNoAcervo"),
+        FILTRO_ACERVO("filtrarAcervo"),
+        LISTAGEM("listar"),
+        EXPORTACAO("exportar"),
+        RESERVA("reservar"),
+        EXPIRAR_RESERVAS("expirarReservas"),
+        RECALCULAR_MULTAS("recalcularMultas"),
+        PAGAMENTO("pagarMulta"),
+        ISENCAO("isentarMulta"),
+        IMPORTAR_QUITACOES("importarQuitacoes"),
+        ARQUIVAR("arquivarEmprestimos"),
+        REPLICAR("aplicarReplicado"),
+        JOURNAL("aguardarJournal"),
+        CARREGAR("carregarDados"),
+        SALVAR("salvarDados");
+
+        private final String nome;
+
+        Operacao(String nome) {
+            this.nome = nome;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+    }
+
+    private static final Operacao[] OPERACOES = Operacao.values();
+    private static final RegraDeNegocioException.Regra[] REGRAS = RegraDeNegocioException.Regra.values();
+
+    private final Histograma[] latencias = new Histograma[OPERACOES.length];
+    private final LongAdder[] falhas = new LongAdder[OPERACOES.length];
+    private final LongAdder[] recusas = new LongAdder[REGRAS.length];
+    private ObjectName nomeJmx; // null até registrarJmx()
+    // Atraso da réplica em relação ao primário - -1 quando o sistema não é réplica
+    private volatile long atrasoReplicacaoRegistros = -1;
+    private volatile long atrasoReplicacaoMillis;
+
+    public Metricas() {
+        for (int i = 0; i < OPERACOES.length; i++) {
+            latencias[i] = new Histograma();
+            falhas[i] = new LongAdder();
+        }
+        for (int i = 0; i < REGRAS.length; i++) {
+            recusas[i] = new LongAdder();
+        }
+    }
+
+    // Operação que terminou bem - "inicio" é o System.nanoTime() de quando ela começou
+    public void registrar(Operacao operacao, long inicio) {
+        latencias[operacao.ordinal()].registrar(System.nanoTime() - inicio);
+    }
+
+    // Operação que terminou com erro (a latência conta do mesmo jeito)
+    public void registrarFalha(Operacao operacao, long inicio) {
+        latencias[operacao.ordinal()].registrar(System.nanoTime() - inicio);
+        falhas[operacao.ordinal()].increment();
+    }
+
+    // Operação recusada por uma regra de negócio
+    public void registrarRecusa(Operacao operacao, RegraDeNegocioException.Regra regra, long inicio) {
+        registrarFalha(operacao, inicio);
+        recusar(regra);
+    }
+
+    // Só conta a recusa (linhas de um lote, que não têm latência própria)
+    public void recusar(RegraDeNegocioException.Regra regra) {
+        recusas[regra.ordinal()].increment();
+    }
+
+    // Chamado pelo SeguidorReplicacao a cada lote aplicado e a cada batimento do primário
+    public void registrarAtrasoReplicacao(long registros, long millis) {
+        atrasoReplicacaoMillis = millis;
+        atrasoReplicacaoRegistros = registros;
+    }
+
+    public Histograma getHistograma(Operacao operacao) {
+        return latencias[operacao.ordinal()];
+    }
+
+    public long getQuantidade(Operacao operacao) {
+        return latencias[operacao.ordinal()].getQuantidade();
+    }
+
+    public long getFalhas(Operacao operacao) {
+        return falhas[operacao.ordinal()].sum();
+    }
+
+    public long getRecusas(RegraDeNegocioException.Regra regra) {
+        return recusas[regra.ordinal()].sum();
+    }
+
+    // Registra no servidor JMX da plataforma (jconsole, VisualVM...) com o nome dado
+    // Retorna false se não deu (outro sistema já usa o nome, por exemplo)
+    public synchronized boolean registrarJmx(String nome) {
+        if (nomeJmx != null) {
+            return true;
+        }
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objeto = new ObjectName("biblioteca:type=Metricas,name=" + ObjectName.quote(nome));
+            servidor.registerMBean(this, objeto);
+            nomeJmx = objeto;
+            return true;
+        } catch (JMException e) {
+            System.err.println("Erro ao registrar métricas no JMX: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ---------------------------------------------------------------- JMX
+
+    @Override
+    public long getEmprestimos() {
+        return getQuantidade(Operacao.EMPRESTIMO) - getFalhas(Operacao.EMPRESTIMO);
+    }
+
+    @Override
+    public long getDevolucoes() {
+        return getQuantidade(Operacao.DEVOLUCAO) - getFalhas(Operacao.DEVOLUCAO);
+    }
+
+    @Override
+    public long getRecusasRN1() {
+        return getRecusas(RegraDeNegocioException.Regra.RN1);
+    }
+
+    @Override
+    public long getRecusasRN2() {
+        return getRecusas(RegraDeNegocioException.Regra.RN2);
+    }
+
+    @Override
+    public long getRecusasRN3() {
+        return getRecusas(RegraDeNegocioException.Regra.RN3);
+    }
+
+    @Override
+    public long getRecusasRN4() {
+        return getRecusas(RegraDeNegocioException.Regra.RN4);
+    }
+
+    @Override
+    public long getRecusasNaoEncontrado() {
+        return getRecusas(RegraDeNegocioException.Regra.NAO_ENCONTRADO);
+    }
+
+    @Override
+    public double getEmprestimoP50Micros() {
+        return getHistograma(Operacao.EMPRESTIMO).percentil(50) / 1e3;
+    }
+
+    @Override
+    public double getEmprestimoP99Micros() {
+        return getHistograma(Operacao.EMPRESTIMO).percentil(99) / 1e3;
+    }
+
+    @Override
+    public double getDevolucaoP50Micros() {
+        return getHistograma(Operacao.DEVOLUCAO).percentil(50) / 1e3;
+    }
+
+    @Override
+    public double getDevolucaoP99Micros() {
+        return getHistograma(Operacao.DEVOLUCAO).percentil(99) / 1e3;
+    }
+
+    @Override
+    public long getAtrasoReplicacaoRegistros() {
+        return atrasoReplicacaoRegistros;
+    }
+
+    @Override
+    public long getAtrasoReplicacaoMillis() {
+        return atrasoReplicacaoMillis;
+    }
+
+    @Override
+    public String getRelatorio() {
+        return relatorio();
+    }
+
+    @Override
+    public void zerar() {
+        for (int i = 0; i < OPERACOES.length; i++) {
+            latencias[i].zerar();
+            falhas[i].reset();
+        }
+        for (LongAdder r : recusas) {
+            r.reset();
+        }
+    }
+
+    // ---------------------------------------------------------------- relatório
+
+    // Texto com uma linha por operação que já rodou e as recusas por regra
+    public String relatorio() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operação", "qtd", "falhas", "média µs", "p50 µs", "p90 µs", "p99 µs", "máx µs"));
+        for (Operacao op : OPERACOES) {
+            Histograma h = latencias[op.ordinal()];
+            long n = h.getQuantidade();
+            if (n == 0) {
+                continue;
+            }
+            sb.append(String.format("%-20s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    op.getNome(), n, falhas[op.ordinal()].sum(), h.getMedia() / 1e3,
+                    h.percentil(50) / 1e3, h.percentil(90) / 1e3, h.percentil(99) / 1e3, h.getMaximo() / 1e3));
+        }
+        sb.append("Recusas por regra:");
+        for (RegraDeNegocioException.Regra regra : REGRAS) {
+            sb.append(' ').append(regra).append('=').append(recusas[regra.ordinal()].sum());
+        }
+        sb.append(System.lineSeparator());
+        long atraso = atrasoReplicacaoRegistros;
+        if (atraso >= 0) {
+            sb.append("Atraso da réplica: ").append(atraso).append(" registro(s), ")
+                    .append(atrasoReplicacaoMillis).append(" ms").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Interface JMX das Metricas (o que aparece no jconsole/VisualVM)
+ *
+ * Contadores e percentis dos empréstimos e devoluções, as recusas por
+ * regra, o atraso da réplica (-1 se não é réplica) e o relatório completo
+ * em texto.
+ *
+ * @author Ryan Figueredo
+ */
+public interface MetricasMBean {
+    long getEmprestimos();
+
+    long getDevolucoes();
+
+    long getRecusasRN1();
+
+    long getRecusasRN2();
+
+    long getRecusasRN3();
+
+    long getRecusasRN4();
+
+    long getRecusasNaoEncontrado();
+
+    double getEmprestimoP50Micros();
+
+    double getEmprestimoP99Micros();
+
+    double getDevolucaoP50Micros();
+
+    double getDevolucaoP99Micros();
+
+    long getAtrasoReplicacaoRegistros();
+
+    long getAtrasoReplicacaoMillis();
+
+    String getRelatorio();
+
+    void zerar();
+}
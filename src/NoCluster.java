@@ -0,0 +1,622 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Um nó do cluster de bibliotecas (uma biblioteca setorial)
+ *
+ * Cada nó é um SistemaBiblioteca normal, com a sua pasta de dados e o seu
+ * journal, que guarda só a sua parte do acervo (itens cujo código cai nele
+ * no AnelConsistente) e dos usuários (idem, pelo ID). Os nós conversam por
+ * TCP com o protocolo de linhas do ClienteCluster.
+ *
+ * Empréstimo quando o usuário e o item estão em nós diferentes:
+ *   1. o dono do item pede uma vaga ao dono do usuário (COTA_RESERVAR).
+ *      O dono do usuário tem a conta dele no cluster inteiro: empréstimos
+ *      abertos em qualquer nó, com o prazo, e multas. Ali se checam RN2,
+ *      RN3 e RN4, e a vaga fica separada (conta no limite) por PRAZO_VAGA
+ *   2. o dono do item faz o empréstimo local (RN1 com o CAS de sempre),
+ *      usando uma cópia do cadastro do usuário que veio junto com a vaga
+ *   3. confirma a vaga com o ID e o prazo (COTA_CONFIRMAR). Se o item não
+ *      saiu, cancela a vaga; se a confirmação falhar (vaga expirou, nó
+ *      fora do ar), desfaz o empréstimo devolvendo na hora e manda um
+ *      COTA_LIBERAR pela fila de reenvio - a confirmação pode ter chegado
+ *      e só a resposta ter se perdido
+ * Assim dois balcões em nós diferentes nunca passam do limite do mesmo
+ * usuário. Na devolução o dono do item avisa o dono do usuário
+ * (COTA_LIBERAR, com a multa); se ele estiver fora do ar o aviso fica numa
+ * fila e é reenviado - até lá a vaga continua ocupada, que é o lado seguro.
+ *
+ * A multa fica no saldo (em centavos) da conta no dono do usuário, e é lá
+ * que se paga (COTA_QUITAR, com o recibo do caixa - reenviar o mesmo recibo
+ * não cobra de novo). O cadastro do usuário nos outros nós também junta a
+ * multa das devoluções de lá, mas quem decide a RN3 é o saldo do dono: com
+ * a vaga concedida (saldo zerado), a cópia local é baixada com uma isenção
+ * no livro de lá (journal e lancamentos.log) que aponta pro dono. No dono,
+ * o pagamento que zera a conta baixa o cadastro dele do mesmo jeito, com o
+ * recibo no motivo.
+ *
+ * Quando usuário e item caem no mesmo nó é o mesmo caminho, sem rede.
+ * A conta de cada usuário é gravada em cotas.log (compactado na partida).
+ *
+ * Uso: java NoCluster nome pastaDados n1=host:porta,n2=host:porta,...
+ *
+ * @author Ryan Figueredo
+ */
+public class NoCluster implements AutoCloseable {
+    private static final long PRAZO_VAGA_NS = TimeUnit.SECONDS.toNanos(30);
+
+    // Conta de um usuário no cluster - só existe no nó dono dele
+    private static final class Conta {
+        final Map<String, LocalDate> abertos = new HashMap<>(); // ID global -> data prevista
+        final Map<Long, Long> vagas = new HashMap<>();           // Vaga separada -> quando expira (nanoTime)
+        final Map<String, Long> desfeitos = new HashMap<>();    // Liberados antes da confirmação -> até quando (ms)
+        final Set<String> fechados = new HashSet<>();           // Já liberados (F) - o reenvio do aviso não marca nada
+        final Set<String> recibos = new HashSet<>();            // Pagamentos já lançados
+        long multaCentavos;
+    }
+
+    private final String nome;
+    private final SistemaBiblioteca sistema;
+    private final ClienteCluster cliente; // Pra falar com os outros nós
+    private final AnelConsistente anel;
+    private final Map<String, Conta> contas = new ConcurrentHashMap<>();
+    private final AtomicLong proximaVaga = new AtomicLong();
+    private final Journal cotas;
+    private final ConcurrentLinkedQueue<String> avisosPendentes = new ConcurrentLinkedQueue<>(); // "dono;pedido"
+    private final ServerSocket servidor;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService reenvio;
+    private final Set<Socket> conexoes = ConcurrentHashMap.newKeySet();
+
+    public NoCluster(String nome, String pastaDados, Map<String, InetSocketAddress> membros) throws IOException {
+        InetSocketAddress endereco = membros.get(nome);
+        if (endereco == null) {
+            throw new IllegalArgumentException("Nó " + nome + " não está na lista de membros");
+        }
+        this.nome = nome;
+        this.cliente = new ClienteCluster(membros);
+        this.anel = cliente.getAnel();
+        this.sistema = new SistemaBiblioteca(pastaDados);
+        sistema.carregarDados();
+        Path arquivoCotas = Paths.get(pastaDados, "cotas.log");
+        carregarCotas(arquivoCotas);
+        this.cotas = new Journal(arquivoCotas);
+
+        this.servidor = new ServerSocket();
+        servidor.setReuseAddress(true);
+        servidor.bind(new InetSocketAddress(endereco.getPort()));
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "cluster-" + nome + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.reenvio = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-" + nome + "-reenvio");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void iniciar() {
+        executor.execute(this::aceitar);
+        reenvio.scheduleWithFixedDelay(this::reenviarAvisos, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public SistemaBiblioteca getSistema() {
+        return sistema;
+    }
+
+    // ---------------------------------------------------------------- rede
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket s = servidor.accept();
+                s.setTcpNoDelay(true);
+                conexoes.add(s);
+                executor.execute(() -> atenderConexao(s));
+            } catch (IOException e) {
+                if (!servidor.isClosed()) {
+                    System.err.println("Erro no nó " + nome + " ao aceitar conexão: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Uma conexão fica aberta pra vários pedidos (o cliente reaproveita)
+    private void atenderConexao(Socket s) {
+        try (s;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter saida = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            for (String linha; (linha = entrada.readLine()) != null; ) {
+                saida.write(atender(linha));
+                saida.newLine();
+                saida.flush();
+            }
+        } catch (IOException e) {
+            // Cliente foi embora ou o nó está parando
+        } finally {
+            conexoes.remove(s);
+        }
+    }
+
+    // Executa um pedido do protocolo e monta a linha de resposta
+    String atender(String linha) {
+        String[] partes = linha.split(";", 2);
+        String resto = partes.length > 1 ? partes[1] : "";
+        try {
+            switch (partes[0]) {
+                case "USUARIO":
+                    return ok(cadastrarUsuario(SistemaBiblioteca.converterUsuario(resto.split(";"))));
+                case "ITEM":
+                    return ok(cadastrarItem(SistemaBiblioteca.converterItem(resto.split(";"))));
+                case "EMPRESTAR": {
+                    String[] c = campos(resto, 2);
+                    return ok(emprestar(c[0], c[1]));
+                }
+                case "DEVOLVER":
+                    return ok(String.valueOf(devolver(resto)));
+                case "COTA_RESERVAR":
+                    return ok(reservarVaga(resto));
+                case "COTA_CONFIRMAR": {
+                    String[] c = campos(resto, 4);
+                    confirmarVaga(c[0], Long.parseLong(c[1]), c[2], LocalDate.parse(c[3]));
+                    return "OK";
+                }
+                case "COTA_CANCELAR": {
+                    String[] c = campos(resto, 2);
+                    cancelarVaga(c[0], Long.parseLong(c[1]));
+                    return "OK";
+                }
+                case "COTA_LIBERAR": {
+                    String[] c = campos(resto, 3);
+                    liberar(c[0], c[1], Long.parseLong(c[2]));
+                    return "OK";
+                }
+                case "COTA_QUITAR": {
+                    String[] c = campos(resto, 3);
+                    return ok(String.valueOf(quitar(c[0], c[1], Long.parseLong(c[2]))));
+                }
+                case "SITUACAO":
+                    return ok(situacao(resto));
+                default:
+                    return erro(RegraDeNegocioException.Regra.OUTRA, "Comando desconhecido: " + partes[0]);
+            }
+        } catch (RegraDeNegocioException e) {
+            return erro(e.getRegra(), e.getMessage());
+        } catch (RuntimeException e) {
+            return erro(RegraDeNegocioException.Regra.OUTRA, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static String[] campos(String texto, int quantidade) {
+        String[] c = texto.split(";", quantidade);
+        if (c.length < quantidade) {
+            throw new IllegalArgumentException("Pedido incompleto: " + texto);
+        }
+        return c;
+    }
+
+    private static String ok(String conteudo) {
+        return conteudo.isEmpty() ? "OK" : "OK;" + conteudo;
+    }
+
+    private static String erro(RegraDeNegocioException.Regra regra, String mensagem) {
+        return "ERRO;" + regra + ";" + mensagem.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Pedido pro dono de uma chave - se o dono sou eu, nem passa pela rede
+    private String pedir(String dono, String pedido) throws RegraDeNegocioException, IOException {
+        if (dono.equals(nome)) {
+            return ClienteCluster.conteudo(atender(pedido));
+        }
+        return cliente.chamar(dono, pedido);
+    }
+
+    private void exigirDono(String chave, String oQue) throws RegraDeNegocioException {
+        String dono = anel.dono(chave);
+        if (!dono.equals(nome)) {
+            throw new RegraDeNegocioException(oQue + " '" + chave + "' é do nó " + dono + ", não do " + nome + ".");
+        }
+    }
+
+    // ---------------------------------------------------------------- cadastro e circulação (dono do item)
+
+    private String cadastrarUsuario(Usuario u) throws RegraDeNegocioException {
+        exigirDono(u.getId(), "Usuário");
+        sistema.adicionarUsuario(u);
+        return "";
+    }
+
+    private String cadastrarItem(ItemDeAcervo item) throws RegraDeNegocioException {
+        exigirDono(item.getCodigo(), "Item");
+        sistema.adicionarItem(item);
+        return "";
+    }
+
+    private String emprestar(String idUsuario, String codItem) throws RegraDeNegocioException {
+        exigirDono(codItem, "Item");
+        String donoUsuario = anel.dono(idUsuario);
+        String[] vaga;
+        try {
+            vaga = campos(pedir(donoUsuario, "COTA_RESERVAR;" + idUsuario), 2);
+        } catch (IOException e) {
+            throw foraDoAr(donoUsuario, e);
+        }
+        long token = Long.parseLong(vaga[0]);
+        Emprestimo emprestimo;
+        try {
+            garantirCopiaDoUsuario(SistemaBiblioteca.converterUsuario(vaga[1].split(";")), donoUsuario, token);
+            emprestimo = sistema.realizarEmprestimo(idUsuario, codItem);
+        } catch (RegraDeNegocioException | RuntimeException e) {
+            // Item não saiu: devolve a vaga (se não der, ela expira sozinha)
+            try {
+                pedir(donoUsuario, "COTA_CANCELAR;" + idUsuario + ";" + token);
+            } catch (RegraDeNegocioException | IOException ignorada) {
+                // Expira em PRAZO_VAGA
+            }
+            throw e;
+        }
+        String idGlobal = nome + "-" + emprestimo.getIdEmprestimo();
+        try {
+            pedir(donoUsuario, "COTA_CONFIRMAR;" + idUsuario + ";" + token + ";" + idGlobal + ";"
+                    + emprestimo.getDataDevolucaoPrevista());
+        } catch (RegraDeNegocioException | IOException e) {
+            // Sem a vaga confirmada o empréstimo não pode ficar - poderia passar do limite
+            sistema.realizarDevolucao(emprestimo.getIdEmprestimo());
+            // Se a confirmação chegou ao dono e só a resposta se perdeu, a conta dele ficaria com um
+            // aberto que ninguém devolve (uma vaga do RN2 a menos e, depois do prazo, RN4 pra sempre).
+            // O aviso vai pela fila de reenvio; se o dono não tinha confirmado, não muda nada
+            avisar(donoUsuario, "COTA_LIBERAR;" + idUsuario + ";" + idGlobal + ";0");
+            throw new RegraDeNegocioException("Empréstimo desfeito, vaga não confirmada: " + e.getMessage());
+        }
+        return idGlobal;
+    }
+
+    // O empréstimo local precisa do Usuario; se ele é de outro nó, fica uma cópia do cadastro aqui
+    // A situação (ativo/bloqueado) é atualizada a cada empréstimo - quem manda é o dono. A multa
+    // também: a vaga só sai com o saldo do dono zerado, então o que a cópia ainda tiver já foi pago
+    private void garantirCopiaDoUsuario(Usuario copia, String dono, long vaga) throws RegraDeNegocioException {
+        Usuario local = sistema.consultarUsuario(copia.getId()).orElse(null);
+        if (local != null) {
+            local.setSituacao(copia.getSituacao());
+            sistema.zerarMultaDoCluster(copia.getId(), "Quitada no nó dono (" + dono + ", vaga " + vaga + ")");
+            return;
+        }
+        try {
+            sistema.adicionarUsuario(copia);
+        } catch (RegraDeNegocioException e) {
+            if (e.getRegra() != RegraDeNegocioException.Regra.CONFLITO) {
+                throw e;
+            }
+            // Outro balcão criou a cópia agora há pouco
+        }
+    }
+
+    private long devolver(String idLocal) throws RegraDeNegocioException {
+        sistema.realizarDevolucao(idLocal);
+        Emprestimo e = sistema.consultarEmprestimo(idLocal)
+                .orElseThrow(() -> new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO,
+                        "Empréstimo não encontrado."));
+        String idUsuario = e.getUsuario().getId();
+        avisar(anel.dono(idUsuario), "COTA_LIBERAR;" + idUsuario + ";" + nome + "-" + idLocal + ";" + e.getMultaCentavos());
+        return e.getMultaCentavos();
+    }
+
+    // Aviso que não pode se perder: se o dono não responder, vai pra fila de reenvio
+    private void avisar(String dono, String pedido) {
+        try {
+            pedir(dono, pedido);
+        } catch (IOException e) {
+            avisosPendentes.add(dono + ";" + pedido);
+        } catch (RegraDeNegocioException e) {
+            System.err.println("Nó " + dono + " recusou '" + pedido + "': " + e.getMessage());
+        }
+    }
+
+    private void reenviarAvisos() {
+        for (int n = avisosPendentes.size(); n > 0; n--) {
+            String aviso = avisosPendentes.poll();
+            if (aviso == null) {
+                return;
+            }
+            String[] c = aviso.split(";", 2);
+            avisar(c[0], c[1]);
+        }
+    }
+
+    // Quantos avisos de devolução ainda não chegaram ao dono do usuário
+    public int getAvisosPendentes() {
+        return avisosPendentes.size();
+    }
+
+    private static RegraDeNegocioException foraDoAr(String no, IOException e) {
+        return new RegraDeNegocioException("Nó " + no + " fora do ar: " + e.getMessage());
+    }
+
+    // ---------------------------------------------------------------- contas (dono do usuário)
+
+    private Conta conta(String idUsuario) {
+        return contas.computeIfAbsent(idUsuario, k -> new Conta());
+    }
+
+    // RN2, RN3 e RN4 contando os empréstimos do usuário em todos os nós
+    // Devolve "vaga;linha do cadastro" - a vaga conta no limite até ser confirmada, cancelada ou expirar
+    private String reservarVaga(String idUsuario) throws RegraDeNegocioException {
+        exigirDono(idUsuario, "Usuário");
+        Usuario u = sistema.consultarUsuario(idUsuario)
+                .orElseThrow(() -> new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO,
+                        "Usuário não encontrado."));
+        Conta c = conta(idUsuario);
+        long vaga;
+        synchronized (c) {
+            long agora = System.nanoTime();
+            c.vagas.values().removeIf(expira -> expira - agora < 0);
+            LocalDate hoje = LocalDate.now();
+            if (c.multaCentavos > 0) {
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.RN3,
+                        "RN3: Usuário bloqueado por multa pendente.");
+            }
+            if (u.getSituacao() == Usuario.Situacao.BLOQUEADO || u.getEmprestimosAtrasados() > 0
+                    || c.abertos.values().stream().anyMatch(prevista -> prevista.isBefore(hoje))) {
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.RN4,
+                        "RN4: Usuário bloqueado (item com prazo vencido ou cadastro bloqueado).");
+            }
+            if (c.abertos.size() + c.vagas.size() >= u.getLimiteEmprestimo()) {
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.RN2,
+                        "RN2: Limite máximo de empréstimos excedido (" + u.getLimiteEmprestimo() + ").");
+            }
+            vaga = proximaVaga.incrementAndGet();
+            c.vagas.put(vaga, agora + PRAZO_VAGA_NS);
+        }
+        return vaga + ";" + SistemaBiblioteca.linhaUsuario(u);
+    }
+
+    private void confirmarVaga(String idUsuario, long vaga, String idGlobal, LocalDate prevista) throws RegraDeNegocioException {
+        Conta c = conta(idUsuario);
+        synchronized (c) {
+            if (c.vagas.remove(vaga) == null) {
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO, "Vaga expirou.");
+            }
+            long agora = System.currentTimeMillis();
+            expirarDesfeitos(c, agora);
+            if (c.desfeitos.remove(idGlobal) != null) {
+                // A confirmação atrasou e o dono do item já desistiu e mandou liberar
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO, "Empréstimo já desfeito.");
+            }
+            gravar("A;" + idUsuario + ";" + idGlobal + ";" + prevista);
+            c.abertos.put(idGlobal, prevista);
+        }
+    }
+
+    // Chamado com a conta travada
+    private static void expirarDesfeitos(Conta c, long agora) {
+        c.desfeitos.values().removeIf(expira -> expira < agora);
+    }
+
+    private void cancelarVaga(String idUsuario, long vaga) {
+        Conta c = conta(idUsuario);
+        synchronized (c) {
+            c.vagas.remove(vaga);
+        }
+    }
+
+    // Pode chegar repetido (reenvio) - só conta a primeira vez
+    // Também chega pra empréstimo desfeito, talvez antes da confirmação dele (que ainda está na
+    // rede): o ID fica marcado (X no cotas.log, vale pro reinício) e a confirmação que chegar depois
+    // é recusada. A marca só precisa durar PRAZO_VAGA - depois disso a vaga dele já expirou
+    private void liberar(String idUsuario, String idGlobal, long multaCentavos) {
+        Conta c = conta(idUsuario);
+        synchronized (c) {
+            if (!c.abertos.containsKey(idGlobal)) {
+                long agora = System.currentTimeMillis();
+                expirarDesfeitos(c, agora);
+                if (!c.fechados.contains(idGlobal) && !c.desfeitos.containsKey(idGlobal)) {
+                    long expira = agora + TimeUnit.NANOSECONDS.toMillis(PRAZO_VAGA_NS);
+                    gravar("X;" + idUsuario + ";" + idGlobal + ";" + expira);
+                    c.desfeitos.put(idGlobal, expira);
+                }
+                return;
+            }
+            gravar("F;" + idUsuario + ";" + idGlobal + ";" + multaCentavos);
+            c.abertos.remove(idGlobal);
+            c.fechados.add(idGlobal);
+            c.multaCentavos += multaCentavos;
+        }
+    }
+
+    // Pagamento de multa no dono do usuário - devolve o saldo que sobrou, em centavos
+    // O recibo repetido (reenvio) só devolve o saldo, sem baixar de novo; vazio gera um
+    private long quitar(String idUsuario, String recibo, long centavos) throws RegraDeNegocioException {
+        exigirDono(idUsuario, "Usuário");
+        if (sistema.consultarUsuario(idUsuario).isEmpty()) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO, "Usuário não encontrado.");
+        }
+        if (SistemaBiblioteca.temSeparador(recibo)) {
+            throw new RegraDeNegocioException("Recibo não pode ter ';' nem quebra de linha.");
+        }
+        String id = recibo.trim().isEmpty() ? nome + "-" + UUID.randomUUID() : recibo.trim();
+        Conta c = conta(idUsuario);
+        long saldo;
+        synchronized (c) {
+            if (c.recibos.contains(id)) {
+                return c.multaCentavos;
+            }
+            if (c.multaCentavos == 0) {
+                throw new RegraDeNegocioException("Usuário não tem multa pendente.");
+            }
+            if (centavos <= 0 || centavos > c.multaCentavos) {
+                throw new RegraDeNegocioException(String.format("Valor inválido: R$ %.2f (saldo de multa: R$ %.2f).",
+                        centavos / 100.0, c.multaCentavos / 100.0));
+            }
+            gravar("Q;" + idUsuario + ";" + id + ";" + centavos);
+            c.recibos.add(id);
+            c.multaCentavos -= centavos;
+            saldo = c.multaCentavos;
+        }
+        if (saldo == 0) {
+            // Conta quitada: o que o cadastro daqui juntou nas devoluções locais já está nela
+            sistema.zerarMultaDoCluster(idUsuario, "Quitada no cluster (recibo " + id + ")");
+        }
+        return saldo;
+    }
+
+    private String situacao(String idUsuario) throws RegraDeNegocioException {
+        exigirDono(idUsuario, "Usuário");
+        Conta c = conta(idUsuario);
+        synchronized (c) {
+            long agora = System.currentTimeMillis();
+            expirarDesfeitos(c, agora);
+            return "abertos=" + c.abertos.size() + ";vagas=" + c.vagas.size() + ";desfeitos=" + c.desfeitos.size()
+                    + ";multaCentavos=" + c.multaCentavos;
+        }
+    }
+
+    private void gravar(String linha) {
+        try {
+            cotas.registrar(linha).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Erro ao gravar cotas.log: " + e.getCause().getMessage(), e);
+        }
+    }
+
+    // Reaplica cotas.log e reescreve o arquivo só com o estado atual: abertos, fechados e recibos
+    // já lançados (pra reenvio não contar de novo), desfeitos que ainda valem e o saldo de multa,
+    // que vem por último (S é o valor absoluto)
+    private void carregarCotas(Path arquivo) throws IOException {
+        long agora = System.currentTimeMillis();
+        for (String linha : Journal.lerLinhas(arquivo)) {
+            String[] c = linha.split(";");
+            Conta conta = conta(c[1]);
+            switch (c[0]) {
+                case "A":
+                    conta.abertos.put(c[2], LocalDate.parse(c[3]));
+                    break;
+                case "F":
+                    if (conta.abertos.remove(c[2]) != null) {
+                        conta.multaCentavos += Long.parseLong(c[3]);
+                    }
+                    conta.fechados.add(c[2]);
+                    break;
+                case "X":
+                    if (Long.parseLong(c[3]) >= agora) {
+                        conta.desfeitos.put(c[2], Long.parseLong(c[3]));
+                    }
+                    break;
+                case "Q":
+                    if (conta.recibos.add(c[2])) {
+                        conta.multaCentavos = Math.max(0, conta.multaCentavos - Long.parseLong(c[3]));
+                    }
+                    break;
+                case "S":
+                    conta.multaCentavos = Long.parseLong(c[2]);
+                    break;
+                default:
+                    System.err.println("Linha inválida em " + arquivo + ": " + linha);
+            }
+        }
+        List<String> atuais = new ArrayList<>();
+        for (Map.Entry<String, Conta> e : contas.entrySet()) {
+            for (Map.Entry<String, LocalDate> aberto : e.getValue().abertos.entrySet()) {
+                atuais.add("A;" + e.getKey() + ";" + aberto.getKey() + ";" + aberto.getValue());
+            }
+            for (String fechado : e.getValue().fechados) {
+                atuais.add("F;" + e.getKey() + ";" + fechado + ";0");
+            }
+            for (String recibo : e.getValue().recibos) {
+                atuais.add("Q;" + e.getKey() + ";" + recibo + ";0");
+            }
+            for (Map.Entry<String, Long> desfeito : e.getValue().desfeitos.entrySet()) {
+                if (desfeito.getValue() >= agora) {
+                    atuais.add("X;" + e.getKey() + ";" + desfeito.getKey() + ";" + desfeito.getValue());
+                }
+            }
+            if (e.getValue().multaCentavos > 0) {
+                atuais.add("S;" + e.getKey() + ";" + e.getValue().multaCentavos);
+            }
+        }
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        Files.write(temporario, atuais, StandardCharsets.UTF_8);
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Para de atender, fecha as conexões e grava tudo
+    @Override
+    public void close() {
+        try {
+            servidor.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar o nó " + nome + ": " + e.getMessage());
+        }
+        for (Socket s : conexoes) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Já estava fechada
+            }
+        }
+        reenvio.shutdownNow();
+        executor.shutdownNow();
+        cliente.close();
+        cotas.close();
+        sistema.fecharJournal();
+    }
+
+    // "n1=localhost:7001,n2=localhost:7002" -> mapa de membros, na ordem
+    static Map<String, InetSocketAddress> lerMembros(String texto) {
+        Map<String, InetSocketAddress> membros = new LinkedHashMap<>();
+        for (String membro : texto.split(",")) {
+            String[] nomeEndereco = membro.trim().split("=", 2);
+            int doisPontos = nomeEndereco[1].lastIndexOf(':');
+            membros.put(nomeEndereco[0], new InetSocketAddress(nomeEndereco[1].substring(0, doisPontos),
+                    Integer.parseInt(nomeEndereco[1].substring(doisPontos + 1))));
+        }
+        return membros;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Uso: java NoCluster nome pastaDados n1=host:porta,n2=host:porta,...");
+            System.exit(1);
+        }
+        NoCluster no = new NoCluster(args[0], args[1], lerMembros(args[2]));
+        no.iniciar();
+        Runtime.getRuntime().addShutdownHook(new Thread(no::close));
+        System.out.println("Nó " + args[0] + " no ar");
+        Thread.currentThread().join(); // As threads do nó são daemon - segura a JVM até o Ctrl+C
+    }
+}
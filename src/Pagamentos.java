@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pagamentos e isenções de multa - o livro-caixa das multas
+ *
+ * Até aqui multa só entrava (na devolução com atraso) e nunca saía: o
+ * usuário ficava bloqueado pela RN3 pra sempre. Agora o saldo de multa
+ * do usuário (ContaEmprestimos) pode baixar por dois lançamentos:
+ *   - PAGAMENTO: dinheiro recebido (balcão ou caixa do campus)
+ *   - ISENCAO:   perdão de multa, sempre com motivo
+ * Zerou o saldo, a RN3 libera na hora - a checagem só olha o saldo.
+ *
+ * Os lançamentos vão pro lancamentos.log, que só cresce (nunca é
+ * compactado, ao contrário do journal): ele é o histórico de caixa. A
+ * gravação usa a mesma classe Journal, então lançamentos de vários
+ * balcões (ou de uma importação inteira) dividem o mesmo fsync.
+ *
+ * Cada lançamento tem um ID único - o número do recibo do caixa ou um
+ * gerado aqui ("L1", "L2"...). Lançar de novo um ID que já existe não
+ * faz nada e devolve o lançamento original: reenviar o mesmo pagamento
+ * ou importar o mesmo arquivo duas vezes não cobra duas vezes.
+ *
+ * Linha do arquivo: tipo;id;usuario;centavos;data;motivo
+ *
+ * A aplicação no saldo (com a trava do usuário) fica no SistemaBiblioteca;
+ * aqui ficam os lançamentos, o arquivo e a leitura da planilha do caixa.
+ *
+ * @author Ryan Figueredo
+ */
+public class Pagamentos implements AutoCloseable {
+
+    public enum Tipo { PAGAMENTO, ISENCAO }
+
+    // Um lançamento já aplicado - imutável
+    public static final class Lancamento {
+        private final String id;
+        private final Tipo tipo;
+        private final String idUsuario;
+        private final long centavos;
+        private final int dia;
+        private final String motivo;
+
+        Lancamento(String id, Tipo tipo, String idUsuario, long centavos, LocalDate data, String motivo) {
+            this.id = id;
+            this.tipo = tipo;
+            this.idUsuario = idUsuario;
+            this.centavos = centavos;
+            this.dia = (int) data.toEpochDay();
+            // ';' e quebra de linha separam campo e linha no arquivo
+            this.motivo = motivo == null ? "" : motivo.replace(';', ',').replace('\n', ' ').replace('\r', ' ');
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Tipo getTipo() {
+            return tipo;
+        }
+
+        public String getIdUsuario() {
+            return idUsuario;
+        }
+
+        public long getCentavos() {
+            return centavos;
+        }
+
+        public LocalDate getData() {
+            return LocalDate.ofEpochDay(dia);
+        }
+
+        public String getMotivo() {
+            return motivo;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Lançamento %s | %s | Usuário: %s | R$ %.2f | %s%s", id, tipo, idUsuario,
+                    centavos / 100.0, getData(), motivo.isEmpty() ? "" : " | " + motivo);
+        }
+    }
+
+    // Uma linha da planilha do caixa: recibo;usuario;valor[;data]
+    static final class Quitacao {
+        final String recibo;
+        final String idUsuario;
+        final long centavos;
+        final LocalDate data; // null = hoje
+        Usuario usuario;      // Resolvido na importação
+
+        Quitacao(String recibo, String idUsuario, long centavos, LocalDate data) {
+            this.recibo = recibo;
+            this.idUsuario = idUsuario;
+            this.centavos = centavos;
+            this.data = data;
+        }
+    }
+
+    // Resultado de uma importação: quantas linhas entraram, quantas já tinham entrado antes
+    // (recibo repetido) e o motivo de cada linha recusada
+    public static final class Importacao {
+        private final int lancadas;
+        private final int repetidas;
+        private final long centavos;
+        private final List<String> erros;
+
+        Importacao(int lancadas, int repetidas, long centavos, List<String> erros) {
+            this.lancadas = lancadas;
+            this.repetidas = repetidas;
+            this.centavos = centavos;
+            this.erros = erros;
+        }
+
+        public int getLancadas() {
+            return lancadas;
+        }
+
+        public int getRepetidas() {
+            return repetidas;
+        }
+
+        // Total lançado nesta importação (sem as repetidas)
+        public long getCentavos() {
+            return centavos;
+        }
+
+        public List<String> getErros() {
+            return erros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Quitações lançadas: %d (R$ %.2f) | já lançadas antes: %d | recusadas: %d",
+                    lancadas, centavos / 100.0, repetidas, erros.size());
+        }
+    }
+
+    private final Path arquivo;
+    private final Map<String, Lancamento> lancamentos = new ConcurrentHashMap<>();
+    private final AtomicLong proximoId = new AtomicLong(1);
+    private volatile Journal gravador; // null até abrir() - sem ele os lançamentos ficam só na memória
+
+    Pagamentos(Path arquivo) {
+        this.arquivo = arquivo;
+    }
+
+    Path getArquivo() {
+        return arquivo;
+    }
+
+    boolean isAberto() {
+        return gravador != null;
+    }
+
+    // Começa a gravar no arquivo (depois de reaplicar o que já tinha nele)
+    void abrir() throws IOException {
+        gravador = new Journal(arquivo);
+    }
+
+    // Réplica promovida: o arquivo da pasta dela não tem o que veio do primário,
+    // então ele é regravado com todos os lançamentos da memória antes de abrir
+    void abrirRegravando() throws IOException {
+        StringBuilder texto = new StringBuilder();
+        for (Lancamento l : lancamentos.values()) {
+            texto.append(linha(l)).append('\n');
+        }
+        Files.write(arquivo, texto.toString().getBytes(StandardCharsets.UTF_8));
+        abrir();
+    }
+
+    String gerarId() {
+        String id;
+        do {
+            id = "L" + proximoId.getAndIncrement();
+        } while (lancamentos.containsKey(id));
+        return id;
+    }
+
+    public Lancamento buscar(String id) {
+        return lancamentos.get(id);
+    }
+
+    public int getQuantidade() {
+        return lancamentos.size();
+    }
+
+    Collection<Lancamento> todos() {
+        return lancamentos.values();
+    }
+
+    // Lançamentos de um usuário, do mais antigo pro mais novo (passa por todos)
+    public List<Lancamento> listar(String idUsuario) {
+        List<Lancamento> doUsuario = new ArrayList<>();
+        for (Lancamento l : lancamentos.values()) {
+            if (l.idUsuario.equals(idUsuario)) {
+                doUsuario.add(l);
+            }
+        }
+        doUsuario.sort((a, b) -> a.dia != b.dia ? Integer.compare(a.dia, b.dia) : a.id.compareTo(b.id));
+        return doUsuario;
+    }
+
+    // Guarda o lançamento se o ID ainda não existe - devolve o que já estava lá, se existia
+    Lancamento registrar(Lancamento l) {
+        Lancamento anterior = lancamentos.putIfAbsent(l.id, l);
+        if (anterior == null && l.id.length() > 1 && l.id.charAt(0) == 'L') {
+            try {
+                // Um "L" que veio do arquivo: o próximo gerado começa depois dele
+                long n = Long.parseLong(l.id.substring(1));
+                proximoId.accumulateAndGet(n + 1, Math::max);
+            } catch (NumberFormatException e) {
+                // Recibo do caixa que começa com L - gerarId() pula ele se precisar
+            }
+        }
+        return anterior;
+    }
+
+    // Manda um ou mais lançamentos (linhas já montadas) pro arquivo - um fsync pro lote
+    CompletableFuture<Void> gravar(String linhas) {
+        Journal j = gravador;
+        return j == null ? CompletableFuture.completedFuture(null) : j.registrar(linhas);
+    }
+
+    static String linha(Lancamento l) {
+        return l.tipo.name().charAt(0) + ";" + l.id + ";" + l.idUsuario + ";" + l.centavos + ";"
+                + l.getData() + ";" + l.motivo;
+    }
+
+    static Lancamento deLinha(String linha) {
+        String[] c = linha.split(";", 6);
+        if (c.length < 5) {
+            throw new IllegalArgumentException("campos faltando");
+        }
+        Tipo tipo = c[0].equals("P") ? Tipo.PAGAMENTO : c[0].equals("I") ? Tipo.ISENCAO : null;
+        if (tipo == null) {
+            throw new IllegalArgumentException("tipo '" + c[0] + "' desconhecido");
+        }
+        return new Lancamento(c[1], tipo, c[2], Long.parseLong(c[3]), LocalDate.parse(c[4]), c.length > 5 ? c[5] : "");
+    }
+
+    // Lê o arquivo inteiro (na carga) - uma última linha pela metade é descartada
+    List<String> lerArquivo() throws IOException {
+        return Journal.lerLinhas(arquivo);
+    }
+
+    // Planilha do caixa (recibo;usuario;valor em reais[;data do pagamento]), lida em paralelo
+    // pelo CarregadorCsv. O cabeçalho, se tiver, volta como null
+    static CarregadorCsv.Resultado<Quitacao> lerQuitacoes(Path planilha) throws IOException {
+        return CarregadorCsv.carregar(planilha, campos -> {
+            if (campos.length < 3) {
+                throw new IllegalArgumentException("esperado recibo;usuario;valor");
+            }
+            if (campos[0].trim().equalsIgnoreCase("recibo")) {
+                return null; // Cabeçalho
+            }
+            String recibo = campos[0].trim();
+            if (recibo.isEmpty()) {
+                throw new IllegalArgumentException("recibo vazio");
+            }
+            LocalDate data = campos.length > 3 && !campos[3].trim().isEmpty() ? LocalDate.parse(campos[3].trim()) : null;
+            return new Quitacao(recibo, campos[1].trim(), centavos(campos[2]), data);
+        });
+    }
+
+    // "12,50", "12.50" ou "12" (reais) -> 1250; mais de duas casas é erro
+    public static long centavos(String reais) {
+        try {
+            return new BigDecimal(reais.trim().replace(',', '.')).movePointRight(2).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("valor inválido: '" + reais + "'");
+        }
+    }
+
+    @Override
+    public void close() {
+        Journal j = gravador;
+        if (j != null) {
+            j.close();
+            gravador = null;
+        }
+    }
+}
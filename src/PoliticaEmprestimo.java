@@ -0,0 +1,267 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Regras de empréstimo: limite, prazo e multa
+ *
+ * Antes cada coisa estava fixa num lugar (3/7 no Aluno, 5/15 no Professor,
+ * R$ 1,00 por dia no Emprestimo). Agora fica tudo aqui, por tipo de
+ * usuário e, na multa, por tipo de item também:
+ *   - limite de itens e prazo em dias, por tipo de usuário
+ *   - multa diária em centavos e teto da multa por empréstimo
+ *   - carência: os primeiros dias de atraso não são cobrados
+ *   - calendário: dias da semana e feriados em que a biblioteca fecha não
+ *     contam como atraso, e um prazo que cai num dia fechado passa pro
+ *     próximo dia aberto
+ *
+ * Tudo trabalha com o número do dia (LocalDate.toEpochDay()) e centavos em
+ * long: calcular a multa de um empréstimo não cria objeto nenhum, o que
+ * importa no recálculo da madrugada sobre milhões de empréstimos.
+ *
+ * A política é imutável - os métodos com...() devolvem uma cópia alterada -
+ * e a vigente é trocada inteira com definir(), então quem está calculando
+ * nunca vê uma política pela metade. O padrão é a regra de sempre.
+ *
+ * @author Ryan Figueredo
+ */
+public final class PoliticaEmprestimo {
+
+    public enum TipoUsuario { ALUNO, PROFESSOR }
+
+    public enum TipoItem { LIVRO, REVISTA }
+
+    public static final long SEM_TETO = Long.MAX_VALUE;
+
+    private static final int TIPOS_ITEM = TipoItem.values().length;
+
+    // A regra de sempre: aluno 3 itens/7 dias, professor 5 itens/15 dias, R$ 1,00 por dia
+    public static final PoliticaEmprestimo PADRAO = new PoliticaEmprestimo(
+            new int[] { 3, 5 }, new int[] { 7, 15 }, new long[] { 100, 100, 100, 100 },
+            new long[] { SEM_TETO, SEM_TETO, SEM_TETO, SEM_TETO }, 0, 0, new int[0]);
+
+    private static volatile PoliticaEmprestimo vigente = PADRAO;
+
+    private final int[] limites;   // Por tipo de usuário
+    private final int[] prazos;    // Por tipo de usuário, em dias
+    private final long[] taxas;    // Centavos por dia, [usuário * TIPOS_ITEM + item]
+    private final long[] tetos;    // Centavos por empréstimo, mesma posição das taxas
+    private final int carencia;    // Dias de atraso sem cobrança
+    private final int semanaFechada; // Bit (DayOfWeek.ordinal()) ligado = fechado nesse dia da semana
+    private final int[] feriados;  // Dias fechados fora da regra da semana, ordenados e sem repetição
+
+    private PoliticaEmprestimo(int[] limites, int[] prazos, long[] taxas, long[] tetos,
+                               int carencia, int semanaFechada, int[] feriados) {
+        this.limites = limites;
+        this.prazos = prazos;
+        this.taxas = taxas;
+        this.tetos = tetos;
+        this.carencia = carencia;
+        this.semanaFechada = semanaFechada;
+        this.feriados = feriados;
+    }
+
+    // Política usada por Aluno, Professor e Emprestimo
+    public static PoliticaEmprestimo vigente() {
+        return vigente;
+    }
+
+    // Troca a política de todo o sistema - vale pros próximos empréstimos e devoluções
+    // (prazo de empréstimo já feito não muda; multa já cobrada também não)
+    public static void definir(PoliticaEmprestimo politica) {
+        if (politica == null) {
+            throw new IllegalArgumentException("Política não pode ser nula");
+        }
+        vigente = politica;
+    }
+
+    // ---------------------------------------------------------------- cópias alteradas
+
+    public PoliticaEmprestimo comLimite(TipoUsuario tipo, int limite) {
+        if (limite < 0) {
+            throw new IllegalArgumentException("Limite inválido: " + limite);
+        }
+        int[] novos = limites.clone();
+        novos[tipo.ordinal()] = limite;
+        return new PoliticaEmprestimo(novos, prazos, taxas, tetos, carencia, semanaFechada, feriados);
+    }
+
+    public PoliticaEmprestimo comPrazo(TipoUsuario tipo, int dias) {
+        if (dias < 1) {
+            throw new IllegalArgumentException("Prazo inválido: " + dias);
+        }
+        int[] novos = prazos.clone();
+        novos[tipo.ordinal()] = dias;
+        return new PoliticaEmprestimo(limites, novos, taxas, tetos, carencia, semanaFechada, feriados);
+    }
+
+    // Multa por dia de atraso, em centavos
+    public PoliticaEmprestimo comTaxa(TipoUsuario usuario, TipoItem item, long centavosPorDia) {
+        if (centavosPorDia < 0) {
+            throw new IllegalArgumentException("Taxa inválida: " + centavosPorDia);
+        }
+        long[] novas = taxas.clone();
+        novas[posicao(usuario, item)] = centavosPorDia;
+        return new PoliticaEmprestimo(limites, prazos, novas, tetos, carencia, semanaFechada, feriados);
+    }
+
+    // Valor máximo da multa de um empréstimo, em centavos (SEM_TETO = sem limite)
+    public PoliticaEmprestimo comTeto(TipoUsuario usuario, TipoItem item, long centavos) {
+        if (centavos < 0) {
+            throw new IllegalArgumentException("Teto inválido: " + centavos);
+        }
+        long[] novos = tetos.clone();
+        novos[posicao(usuario, item)] = centavos;
+        return new PoliticaEmprestimo(limites, prazos, taxas, novos, carencia, semanaFechada, feriados);
+    }
+
+    public PoliticaEmprestimo comCarencia(int dias) {
+        if (dias < 0) {
+            throw new IllegalArgumentException("Carência inválida: " + dias);
+        }
+        return new PoliticaEmprestimo(limites, prazos, taxas, tetos, dias, semanaFechada, feriados);
+    }
+
+    // Dias da semana em que a biblioteca não abre (substitui os anteriores)
+    public PoliticaEmprestimo comSemanaFechada(DayOfWeek... dias) {
+        int mascara = 0;
+        for (DayOfWeek d : dias) {
+            mascara |= 1 << d.ordinal();
+        }
+        return new PoliticaEmprestimo(limites, prazos, taxas, tetos, carencia, mascara, filtrarFeriados(feriados, mascara));
+    }
+
+    // Feriados (substitui os anteriores) - os que já caem num dia da semana fechado são ignorados
+    public PoliticaEmprestimo comFeriados(Collection<LocalDate> datas) {
+        int[] dias = new int[datas.size()];
+        int n = 0;
+        for (LocalDate d : datas) {
+            dias[n++] = (int) d.toEpochDay();
+        }
+        return new PoliticaEmprestimo(limites, prazos, taxas, tetos, carencia, semanaFechada, filtrarFeriados(dias, semanaFechada));
+    }
+
+    private static int[] filtrarFeriados(int[] dias, int semanaFechada) {
+        int[] ordenados = dias.clone();
+        Arrays.sort(ordenados);
+        int n = 0;
+        for (int i = 0; i < ordenados.length; i++) {
+            int d = ordenados[i];
+            if ((n == 0 || ordenados[n - 1] != d) && (semanaFechada & (1 << diaDaSemana(d))) == 0) {
+                ordenados[n++] = d;
+            }
+        }
+        return Arrays.copyOf(ordenados, n);
+    }
+
+    private static int posicao(TipoUsuario usuario, TipoItem item) {
+        return usuario.ordinal() * TIPOS_ITEM + item.ordinal();
+    }
+
+    // ---------------------------------------------------------------- consultas
+
+    public int getLimite(TipoUsuario tipo) {
+        return limites[tipo.ordinal()];
+    }
+
+    public int getPrazoDias(TipoUsuario tipo) {
+        return prazos[tipo.ordinal()];
+    }
+
+    public long getTaxa(TipoUsuario usuario, TipoItem item) {
+        return taxas[posicao(usuario, item)];
+    }
+
+    public long getTeto(TipoUsuario usuario, TipoItem item) {
+        return tetos[posicao(usuario, item)];
+    }
+
+    public int getCarencia() {
+        return carencia;
+    }
+
+    // DayOfWeek.ordinal() do dia (segunda = 0) - o dia 0 (01/01/1970) foi uma quinta
+    private static int diaDaSemana(long dia) {
+        return (int) Math.floorMod(dia + 3, 7L);
+    }
+
+    public boolean isFechado(long dia) {
+        return (semanaFechada & (1 << diaDaSemana(dia))) != 0 || Arrays.binarySearch(feriados, (int) dia) >= 0;
+    }
+
+    // Dia da devolução prevista de um empréstimo feito no dia "diaEmprestimo"
+    public long diaPrevisto(TipoUsuario tipo, long diaEmprestimo) {
+        long dia = diaEmprestimo + prazos[tipo.ordinal()];
+        if (semanaFechada == 0x7F) {
+            return dia; // Calendário sem dia aberto nenhum - não tem pra onde empurrar
+        }
+        while (isFechado(dia)) {
+            dia++;
+        }
+        return dia;
+    }
+
+    // Dias fechados entre de (exclusive) e ate (inclusive), sem percorrer os dias
+    private long fechadosEntre(long de, long ate) {
+        long total = 0;
+        for (int m = semanaFechada, d = 0; m != 0; m >>>= 1, d++) {
+            if ((m & 1) != 0) {
+                // Dias x em (de, ate] com x = 7k + d - 3
+                total += Math.floorDiv(ate + 3 - d, 7L) - Math.floorDiv(de + 3 - d, 7L);
+            }
+        }
+        return total + contarFeriadosAte(ate) - contarFeriadosAte(de);
+    }
+
+    // Quantos feriados até o dia (inclusive)
+    private int contarFeriadosAte(long dia) {
+        if (feriados.length == 0 || dia < feriados[0]) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(feriados, (int) Math.min(dia, Integer.MAX_VALUE));
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    // Dias de atraso que entram na multa: só os dias abertos depois do previsto, menos a carência
+    public long diasCobrados(long diaPrevisto, long diaDevolucao) {
+        if (diaDevolucao <= diaPrevisto) {
+            return 0;
+        }
+        long dias = diaDevolucao - diaPrevisto - fechadosEntre(diaPrevisto, diaDevolucao) - carencia;
+        return Math.max(dias, 0);
+    }
+
+    // Multa em centavos de um empréstimo devolvido (ou que seria devolvido) no dia "diaDevolucao"
+    public long multaCentavos(TipoUsuario usuario, TipoItem item, long diaPrevisto, long diaDevolucao) {
+        long dias = diasCobrados(diaPrevisto, diaDevolucao);
+        if (dias == 0) {
+            return 0;
+        }
+        int p = posicao(usuario, item);
+        long taxa = taxas[p];
+        long teto = tetos[p];
+        // Sem estourar o long: se a conta passaria do teto, já é o teto
+        return taxa != 0 && dias > teto / taxa ? teto : Math.min(dias * taxa, teto);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Política de empréstimo:");
+        for (TipoUsuario u : TipoUsuario.values()) {
+            sb.append(String.format("%n  %-9s limite %d, prazo %d dias", u, getLimite(u), getPrazoDias(u)));
+            for (TipoItem i : TipoItem.values()) {
+                long teto = getTeto(u, i);
+                sb.append(String.format(" | %s R$ %.2f/dia%s", i, getTaxa(u, i) / 100.0,
+                        teto == SEM_TETO ? "" : String.format(" (teto R$ %.2f)", teto / 100.0)));
+            }
+        }
+        sb.append(String.format("%n  Carência: %d dia(s) | Feriados: %d | Fechado:", carencia, feriados.length));
+        for (DayOfWeek d : DayOfWeek.values()) {
+            if ((semanaFechada & (1 << d.ordinal())) != 0) {
+                sb.append(' ').append(d);
+            }
+        }
+        return sb.toString();
+    }
+}
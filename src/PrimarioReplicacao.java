@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lado do primário na replicação: manda as linhas do journal pras réplicas
+ *
+ * Cada linha que vai pro journal ganha aqui um número de sequência, na
+ * mesma ordem do journal, e fica num anel com as últimas CAPACIDADE
+ * linhas. Cada réplica (SeguidorReplicacao) conecta por TCP, diz até onde
+ * já aplicou ("DESDE;época;seq") e recebe daí pra frente. Só vai pra
+ * réplica linha que já passou pelo fsync do primário, então a réplica
+ * nunca vê algo que o primário perderia numa queda.
+ *
+ * Réplica nova, de outro primário (época diferente) ou que ficou mais de
+ * CAPACIDADE linhas pra trás recebe antes o estado inteiro (base) em
+ * linhas de journal. A época é sorteada a cada iniciarReplicacao(), então
+ * depois de uma promoção as réplicas sabem que a numeração recomeçou.
+ *
+ * Se uma gravação no journal do primário falhar, a replicação para de vez
+ * (pararPorFalha): a linha não está no disco, então não pode ir pra
+ * réplica, e a réplica que pedisse de novo receberia a mesma falha pra
+ * sempre. O primário fica somente leitura; as réplicas ficam com o que
+ * estava no disco e uma delas pode ser promovida, como numa queda.
+ *
+ * Mensagens (uma por linha):
+ *   B;época;seq         começo da base - o estado vale até a linha seq
+ *   L;linha             linha da base
+ *   F                   fim da base
+ *   R;seq;instante;linha  linha do journal (instante em ms no primário)
+ *   H;seq;instante      batimento sem linha nova - última seq do primário
+ *
+ * @author Ryan Figueredo
+ */
+public class PrimarioReplicacao implements AutoCloseable {
+    public static final int CAPACIDADE = 1 << 16;
+    private static final int LOTE = 1024;
+    private static final long BATIMENTO_MS = 200;
+
+    private final SistemaBiblioteca sistema;
+    private final long epoca = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    // Anel das últimas linhas - tudo protegido pelo monitor deste objeto
+    private final String[] linhas = new String[CAPACIDADE];
+    private final long[] instantes = new long[CAPACIDADE];
+    @SuppressWarnings("unchecked")
+    private final CompletableFuture<Void>[] gravacoes = (CompletableFuture<Void>[]) new CompletableFuture<?>[CAPACIDADE];
+    private long ultima; // Sequência da última linha (0 = nenhuma ainda)
+
+    private final ServerSocket servidor;
+    private final ExecutorService executor;
+    private final Set<Socket> conexoes = ConcurrentHashMap.newKeySet();
+    private volatile boolean fechado;
+
+    PrimarioReplicacao(SistemaBiblioteca sistema, int porta) throws IOException {
+        this.sistema = sistema;
+        this.servidor = new ServerSocket();
+        servidor.setReuseAddress(true);
+        servidor.bind(new InetSocketAddress(porta));
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "replicacao-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void iniciar() {
+        executor.execute(this::aceitar);
+    }
+
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    public long getEpoca() {
+        return epoca;
+    }
+
+    public synchronized long getUltimaSequencia() {
+        return ultima;
+    }
+
+    // Quantas réplicas estão conectadas agora
+    public int getReplicas() {
+        return conexoes.size();
+    }
+
+    // Chamado pelo SistemaBiblioteca no lugar do journal.registrar(): manda pro journal e
+    // numera as linhas juntos, pra ordem das réplicas ser a mesma do arquivo
+    synchronized CompletableFuture<Void> registrar(String registro, Journal journal) {
+        CompletableFuture<Void> gravacao = journal == null ? CompletableFuture.completedFuture(null) : journal.registrar(registro);
+        long agora = System.currentTimeMillis();
+        int inicio = 0;
+        // Um registro pode ter várias linhas (devolução + reserva separada, lote por faixa)
+        while (inicio <= registro.length()) {
+            int fim = registro.indexOf('\n', inicio);
+            if (fim < 0) {
+                fim = registro.length();
+            }
+            if (fim > inicio) {
+                int posicao = (int) (++ultima & (CAPACIDADE - 1));
+                linhas[posicao] = registro.substring(inicio, fim);
+                instantes[posicao] = agora;
+                gravacoes[posicao] = gravacao;
+            }
+            inicio = fim + 1;
+        }
+        notifyAll();
+        return gravacao;
+    }
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket s = servidor.accept();
+                s.setTcpNoDelay(true);
+                conexoes.add(s);
+                executor.execute(() -> atender(s));
+            } catch (IOException e) {
+                if (!servidor.isClosed()) {
+                    System.err.println("Erro ao aceitar réplica: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Uma thread por réplica: base se precisar, depois as linhas em lotes
+    private void atender(Socket s) {
+        try (s;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter saida = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String pedido = entrada.readLine();
+            String[] campos = pedido == null ? new String[0] : pedido.split(";");
+            if (campos.length != 3 || !campos[0].equals("DESDE")) {
+                return;
+            }
+            long enviada = Long.parseLong(campos[2]);
+            if (Long.parseLong(campos[1]) != epoca || !disponivel(enviada)) {
+                enviada = enviarBase(saida);
+            }
+            String[] lote = new String[LOTE];
+            long[] momentos = new long[LOTE];
+            while (!fechado) {
+                int n;
+                long ultimaAgora;
+                CompletableFuture<Void> gravacao = null;
+                synchronized (this) {
+                    if (ultima == enviada) {
+                        wait(BATIMENTO_MS);
+                    }
+                    ultimaAgora = ultima;
+                    if (!disponivel(enviada)) {
+                        n = -1; // Ficou pra trás do anel - manda a base de novo
+                    } else {
+                        n = (int) Math.min(LOTE, ultima - enviada);
+                        for (int i = 0; i < n; i++) {
+                            int posicao = (int) ((enviada + 1 + i) & (CAPACIDADE - 1));
+                            lote[i] = linhas[posicao];
+                            momentos[i] = instantes[posicao];
+                            gravacao = gravacoes[posicao];
+                        }
+                    }
+                }
+                if (n < 0) {
+                    enviada = enviarBase(saida);
+                    continue;
+                }
+                if (n == 0) {
+                    saida.write("H;" + ultimaAgora + ";" + System.currentTimeMillis());
+                    saida.newLine();
+                    saida.flush();
+                    continue;
+                }
+                // O journal grava em ordem: se a última do lote está no disco, todas estão
+                try {
+                    gravacao.join();
+                } catch (CompletionException e) {
+                    pararPorFalha(e.getCause());
+                    return;
+                }
+                for (int i = 0; i < n; i++) {
+                    saida.write("R;" + (enviada + 1 + i) + ";" + momentos[i] + ";" + lote[i]);
+                    saida.newLine();
+                }
+                saida.flush();
+                enviada += n;
+            }
+        } catch (IOException e) {
+            // Réplica desconectou - ela volta com DESDE
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Erro ao enviar pra réplica: " + e.getMessage());
+        } finally {
+            conexoes.remove(s);
+        }
+    }
+
+    // As linhas depois de "seq" ainda estão no anel?
+    private synchronized boolean disponivel(long seq) {
+        return seq <= ultima && ultima - seq <= CAPACIDADE;
+    }
+
+    // Manda o estado atual e devolve até que sequência ele vale
+    // A marca é tirada antes de copiar o estado: o que acontecer durante a cópia vem de novo
+    // como linha depois da base, e reaplicar é seguro
+    private long enviarBase(BufferedWriter saida) throws IOException {
+        long marca = getUltimaSequencia();
+        List<String> estado = sistema.linhasDoEstado();
+        saida.write("B;" + epoca + ";" + marca);
+        saida.newLine();
+        for (String linha : estado) {
+            saida.write("L;" + linha);
+            saida.newLine();
+        }
+        saida.write("F");
+        saida.newLine();
+        saida.flush();
+        return marca;
+    }
+
+    // O journal do primário falhou (ver o comentário da classe) - chamado também pelo
+    // SistemaBiblioteca, pra parar mesmo sem réplica esperando a linha que falhou
+    void pararPorFalha(Throwable causa) {
+        if (!fechado) {
+            System.err.println("Replicação parada - o journal do primário falhou: " + causa.getMessage());
+        }
+        close();
+    }
+
+    // Para de aceitar réplicas e fecha as conexões (as réplicas ficam tentando reconectar)
+    @Override
+    public void close() {
+        fechado = true;
+        try {
+            servidor.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar a replicação: " + e.getMessage());
+        }
+        for (Socket s : conexoes) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Já estava fechada
+            }
+        }
+        executor.shutdownNow();
+    }
+}
@@ -1,24 +1,20 @@
-import java.time.LocalDate;
-
 /**
  * Classe que representa um Professor
  * 
- * Herda de Usuario e implementa os métodos abstratos com valores
- * específicos pra professor: limite de 5 itens e prazo de 15 dias.
+ * Herda de Usuario. Limite e prazo vêm da PoliticaEmprestimo (no padrão,
+ * 5 itens e 15 dias pra professor).
  * 
  * @author Ryan Figueredo
  */
 public class Professor extends Usuario {
     private String siape;
     private String departamento;
-    private final int limiteEmprestimo = 5; // Professor pode pegar até 5 itens
-    private final int prazoDevolucaoDias = 15; // Professor tem 15 dias pra devolver
 
     // Construtor - uso super() pra chamar o construtor da classe pai
     public Professor(String id, String nome, String endereco, String siape, String departamento) {
         super(id, nome, endereco);
         this.siape = siape;
-        this.departamento = departamento;
+        this.departamento = Dicionario.GERAL.canonico(departamento); // Mesma String pra todos do mesmo departamento
     }
 
     // Getters específicos de professor
@@ -30,15 +26,9 @@ public class Professor extends Usuario {
         return departamento; 
     }
 
-    // Implementa o método abstrato - professor tem limite de 5
-    @Override
-    public int getLimiteEmprestimo() {
-        return limiteEmprestimo;
-    }
-
-    // Implementa o método abstrato - professor tem 15 dias pra devolver
+    // Implementa o método abstrato - limite e prazo de professor saem da política
     @Override
-    public LocalDate calculaPrazoDevolucao(LocalDate dataEmprestimo) {
-        return dataEmprestimo.plusDays(prazoDevolucaoDias);
+    public PoliticaEmprestimo.TipoUsuario getTipoUsuario() {
+        return PoliticaEmprestimo.TipoUsuario.PROFESSOR;
     }
 }
@@ -1,13 +1,39 @@
 /**
  * Exceção customizada pra regras de negócio
- * 
+ *
  * Criei essa exceção pra tratar erros específicos do sistema,
  * como item indisponível, limite excedido, etc.
- * 
+ *
+ * Cada exceção diz qual regra foi quebrada, pra quem está do outro lado
+ * (servidor HTTP, métricas) não depender do texto da mensagem.
+ *
  * @author Ryan Figueredo
  */
 public class RegraDeNegocioException extends Exception {
+
+    // Qual regra recusou a operação
+    public enum Regra {
+        RN1,            // Item indisponível
+        RN2,            // Limite de empréstimos
+        RN3,            // Multa pendente
+        RN4,            // Item atrasado ou usuário bloqueado
+        NAO_ENCONTRADO, // Usuário, item ou empréstimo que não existe
+        CONFLITO,       // Cadastro repetido, empréstimo já devolvido
+        OUTRA
+    }
+
+    private final Regra regra;
+
     public RegraDeNegocioException(String message) {
+        this(Regra.OUTRA, message);
+    }
+
+    public RegraDeNegocioException(Regra regra, String message) {
         super(message);
+        this.regra = regra;
+    }
+
+    public Regra getRegra() {
+        return regra;
     }
 }
@@ -0,0 +1,483 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Relatórios do histórico de empréstimos
+ *
+ * Quatro números sobre o histórico: títulos mais emprestados, empréstimos
+ * por curso (aluno) e departamento (professor), multas cobradas por mês e
+ * duração média do empréstimo.
+ *
+ * Dá pra tirar de dois jeitos:
+ *   - calcular(): passa pelo histórico inteiro com parallel stream - cada
+ *     pedaço soma no seu Agregado e no fim os Agregados são juntados
+ *   - uma instância de Relatorios, que o SistemaBiblioteca atualiza a cada
+ *     empréstimo e devolução (agregado materializado): gerar() só junta as
+ *     faixas, sem olhar o histórico
+ *
+ * As chaves são números, nunca objetos: o item pela posição no acervo, o
+ * curso/departamento pelo código no Dicionario e o mês como ano*12+mês.
+ * Os contadores são tabelas de int -> long, então somar um empréstimo não
+ * cria objeto nenhum. As faixas são travadas separadas (pelo usuário),
+ * como as travas do SistemaBiblioteca, pra os balcões não disputarem uma
+ * trava só.
+ *
+ * O resultado é gravado em CSV ou JSON direto no arquivo, linha a linha,
+ * sem montar o texto inteiro na memória.
+ *
+ * @author Ryan Figueredo
+ */
+public class Relatorios {
+    public static final int TOP_PADRAO = 10;
+
+    // Quantidade de faixas - potência de 2 pra usar máscara
+    private static final int FAIXAS = 64;
+
+    private final Agregado[] faixas = new Agregado[FAIXAS];
+
+    public Relatorios() {
+        for (int i = 0; i < FAIXAS; i++) {
+            faixas[i] = new Agregado();
+        }
+    }
+
+    // Empréstimo aberto - conta pro título e pro curso/departamento
+    public void registrarEmprestimo(Emprestimo emprestimo) {
+        Agregado a = faixa(emprestimo);
+        synchronized (a) {
+            a.emprestimo(emprestimo);
+        }
+    }
+
+    // Empréstimo fechado - conta a duração e a multa (chamar depois de finalizarEmprestimo())
+    public void registrarDevolucao(Emprestimo emprestimo) {
+        Agregado a = faixa(emprestimo);
+        synchronized (a) {
+            a.devolucao(emprestimo);
+        }
+    }
+
+    private Agregado faixa(Emprestimo emprestimo) {
+        int h = emprestimo.getUsuario().getId().hashCode();
+        h ^= (h >>> 16);
+        return faixas[h & (FAIXAS - 1)];
+    }
+
+    // Junta as faixas num resultado - "itens" devolve o item de cada posição do acervo
+    public Resultado gerar(IntFunction<ItemDeAcervo> itens, int top) {
+        Agregado total = new Agregado();
+        for (Agregado a : faixas) {
+            synchronized (a) {
+                total.juntar(a);
+            }
+        }
+        return total.resultado(itens, top);
+    }
+
+    // Calcula tudo de novo a partir dos empréstimos, em paralelo (ForkJoinPool comum)
+    public static Resultado calcular(Collection<Emprestimo> emprestimos, IntFunction<ItemDeAcervo> itens, int top) {
+        Emprestimo[] copia = emprestimos.toArray(new Emprestimo[0]); // Lista sincronizada: copia com a trava
+        return calcular(Arrays.stream(copia), itens, top);
+    }
+
+    // Mesmo cálculo sobre qualquer fonte (ex.: memória + arquivo morto do SistemaBiblioteca)
+    public static Resultado calcular(Stream<Emprestimo> emprestimos, IntFunction<ItemDeAcervo> itens, int top) {
+        Agregado total = emprestimos.parallel()
+                .collect(Agregado::new, Agregado::adicionar, Agregado::juntar);
+        return total.resultado(itens, top);
+    }
+
+    // Curso do aluno ou departamento do professor: código no Dicionario * 2 + tipo (0 aluno, 1 professor)
+    private static int grupo(Usuario usuario) {
+        if (usuario instanceof Professor) {
+            return codigo(((Professor) usuario).getDepartamento()) * 2 + 1;
+        }
+        return codigo(usuario instanceof Aluno ? ((Aluno) usuario).getCurso() : null) * 2;
+    }
+
+    private static int codigo(String nome) {
+        return Dicionario.GERAL.codigo(nome == null ? "" : nome);
+    }
+
+    // Mês do dia (LocalDate.toEpochDay()) como ano * 12 + (mês - 1), sem criar LocalDate
+    // (conta do calendário civil do Howard Hinnant, "days_from_civil" ao contrário)
+    static int mes(long dia) {
+        long z = dia + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long m = mp < 10 ? mp + 3 : mp - 9;
+        long ano = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        return (int) (ano * 12 + m - 1);
+    }
+
+    // ---------------------------------------------------------------- acumulador
+
+    // Somas de um pedaço do histórico (ou de uma faixa) - não é thread-safe, quem usa trava
+    static final class Agregado {
+        private final ContadorInt porItem = new ContadorInt();
+        private final ContadorInt porGrupo = new ContadorInt();
+        private final ContadorInt multaPorMes = new ContadorInt();
+        private long emprestimos;
+        private long devolvidos;
+        private long somaDias;
+        private long multaTotal;
+
+        void adicionar(Emprestimo e) {
+            emprestimo(e);
+            if (e.isDevolvido()) {
+                devolucao(e);
+            }
+        }
+
+        void emprestimo(Emprestimo e) {
+            emprestimos++;
+            porItem.somar(e.getItem().getNumeroInterno(), 1);
+            porGrupo.somar(grupo(e.getUsuario()), 1);
+        }
+
+        void devolucao(Emprestimo e) {
+            int dia = e.getDiaDevolucaoReal();
+            devolvidos++;
+            somaDias += dia - e.getDiaEmprestimo();
+            long multa = e.getMultaCentavos();
+            if (multa > 0) {
+                multaTotal += multa;
+                multaPorMes.somar(mes(dia), multa);
+            }
+        }
+
+        void juntar(Agregado outro) {
+            porItem.juntar(outro.porItem);
+            porGrupo.juntar(outro.porGrupo);
+            multaPorMes.juntar(outro.multaPorMes);
+            emprestimos += outro.emprestimos;
+            devolvidos += outro.devolvidos;
+            somaDias += outro.somaDias;
+            multaTotal += outro.multaTotal;
+        }
+
+        Resultado resultado(IntFunction<ItemDeAcervo> itens, int top) {
+            // Títulos: os "top" mais emprestados (empate: o cadastrado primeiro)
+            int[] topChaves = new int[Math.min(top, porItem.tamanho)];
+            long[] topQtd = new long[topChaves.length];
+            int n = 0;
+            for (int i = 0; i < porItem.chaves.length && topChaves.length > 0; i++) {
+                int chave = porItem.chaves[i];
+                if (chave == ContadorInt.VAZIO) {
+                    continue;
+                }
+                long qtd = porItem.valores[i];
+                if (n == topChaves.length && !antes(qtd, chave, topQtd[n - 1], topChaves[n - 1])) {
+                    continue;
+                }
+                int j = n < topChaves.length ? n++ : n - 1;
+                while (j > 0 && antes(qtd, chave, topQtd[j - 1], topChaves[j - 1])) {
+                    topQtd[j] = topQtd[j - 1];
+                    topChaves[j] = topChaves[j - 1];
+                    j--;
+                }
+                topQtd[j] = qtd;
+                topChaves[j] = chave;
+            }
+            String[] codigos = new String[n];
+            String[] titulos = new String[n];
+            for (int i = 0; i < n; i++) {
+                ItemDeAcervo item = topChaves[i] < 0 ? null : itens.apply(topChaves[i]);
+                codigos[i] = item == null ? "?" : item.getCodigo();
+                titulos[i] = item == null ? "(fora do acervo)" : item.getTitulo();
+            }
+            long[] grupos = porGrupo.ordenados(true);
+            long[] meses = multaPorMes.ordenados(false);
+            return new Resultado(emprestimos, devolvidos, somaDias, multaTotal,
+                    codigos, titulos, Arrays.copyOf(topQtd, n), grupos, porGrupo, meses, multaPorMes);
+        }
+
+        private static boolean antes(long qtd, int chave, long outraQtd, int outraChave) {
+            return qtd > outraQtd || (qtd == outraQtd && chave < outraChave);
+        }
+    }
+
+    // Tabela int -> long com endereçamento aberto (sondagem linear)
+    static final class ContadorInt {
+        static final int VAZIO = Integer.MIN_VALUE;
+
+        int[] chaves;
+        long[] valores;
+        int tamanho;
+
+        ContadorInt() {
+            chaves = new int[16];
+            Arrays.fill(chaves, VAZIO);
+            valores = new long[16];
+        }
+
+        void somar(int chave, long valor) {
+            if ((tamanho + 1) * 2 > chaves.length) {
+                crescer();
+            }
+            int mascara = chaves.length - 1;
+            int i = espalhar(chave) & mascara;
+            while (chaves[i] != VAZIO && chaves[i] != chave) {
+                i = (i + 1) & mascara;
+            }
+            if (chaves[i] == VAZIO) {
+                chaves[i] = chave;
+                tamanho++;
+            }
+            valores[i] += valor;
+        }
+
+        long valor(int chave) {
+            int mascara = chaves.length - 1;
+            for (int i = espalhar(chave) & mascara; chaves[i] != VAZIO; i = (i + 1) & mascara) {
+                if (chaves[i] == chave) {
+                    return valores[i];
+                }
+            }
+            return 0;
+        }
+
+        void juntar(ContadorInt outro) {
+            for (int i = 0; i < outro.chaves.length; i++) {
+                if (outro.chaves[i] != VAZIO) {
+                    somar(outro.chaves[i], outro.valores[i]);
+                }
+            }
+        }
+
+        private void crescer() {
+            int[] velhasChaves = chaves;
+            long[] velhosValores = valores;
+            chaves = new int[velhasChaves.length * 2];
+            Arrays.fill(chaves, VAZIO);
+            valores = new long[chaves.length];
+            tamanho = 0;
+            for (int i = 0; i < velhasChaves.length; i++) {
+                if (velhasChaves[i] != VAZIO) {
+                    somar(velhasChaves[i], velhosValores[i]);
+                }
+            }
+        }
+
+        // Chaves ordenadas pelo valor (maior primeiro) ou pela própria chave (menor primeiro),
+        // cada uma num long: valor nos 32 bits de cima quando ordena por valor
+        long[] ordenados(boolean porValor) {
+            long[] saida = new long[tamanho];
+            int n = 0;
+            for (int i = 0; i < chaves.length; i++) {
+                if (chaves[i] != VAZIO) {
+                    saida[n++] = porValor
+                            ? ((long) ~(int) Math.min(valores[i], Integer.MAX_VALUE) << 32) | (chaves[i] & 0xFFFFFFFFL)
+                            : chaves[i];
+                }
+            }
+            Arrays.sort(saida);
+            for (int i = 0; i < n; i++) {
+                saida[i] = (int) saida[i]; // Fica só a chave
+            }
+            return saida;
+        }
+
+        private static int espalhar(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // ---------------------------------------------------------------- resultado
+
+    // Relatório pronto - já não depende do sistema, dá pra gravar quando quiser
+    public static final class Resultado {
+        private final long emprestimos;
+        private final long devolvidos;
+        private final long somaDias;
+        private final long multaTotal;
+        private final String[] codigos;
+        private final String[] titulos;
+        private final long[] qtdTitulos;
+        private final long[] grupos;
+        private final ContadorInt porGrupo;
+        private final long[] meses;
+        private final ContadorInt multaPorMes;
+
+        private Resultado(long emprestimos, long devolvidos, long somaDias, long multaTotal, String[] codigos,
+                          String[] titulos, long[] qtdTitulos, long[] grupos, ContadorInt porGrupo,
+                          long[] meses, ContadorInt multaPorMes) {
+            this.emprestimos = emprestimos;
+            this.devolvidos = devolvidos;
+            this.somaDias = somaDias;
+            this.multaTotal = multaTotal;
+            this.codigos = codigos;
+            this.titulos = titulos;
+            this.qtdTitulos = qtdTitulos;
+            this.grupos = grupos;
+            this.porGrupo = porGrupo;
+            this.meses = meses;
+            this.multaPorMes = multaPorMes;
+        }
+
+        public long getEmprestimos() {
+            return emprestimos;
+        }
+
+        public long getDevolvidos() {
+            return devolvidos;
+        }
+
+        // Duração média dos empréstimos já devolvidos, em dias
+        public double getMediaDias() {
+            return devolvidos == 0 ? 0 : (double) somaDias / devolvidos;
+        }
+
+        public long getMultaTotalCentavos() {
+            return multaTotal;
+        }
+
+        public int getQuantidadeTitulos() {
+            return codigos.length;
+        }
+
+        public String getCodigoTitulo(int posicao) {
+            return codigos[posicao];
+        }
+
+        public long getEmprestimosTitulo(int posicao) {
+            return qtdTitulos[posicao];
+        }
+
+        private static String tipoGrupo(long grupo) {
+            return (grupo & 1) == 0 ? "Aluno" : "Professor";
+        }
+
+        private static String nomeGrupo(long grupo) {
+            return Dicionario.GERAL.valor((int) (grupo >> 1));
+        }
+
+        private static String nomeMes(long mes) {
+            return String.format("%04d-%02d", Math.floorDiv(mes, 12), Math.floorMod(mes, 12) + 1);
+        }
+
+        private static String reais(long centavos) {
+            return String.format(Locale.ROOT, "%.2f", centavos / 100.0);
+        }
+
+        // CSV com ; (igual aos arquivos de dados): secao;chave;nome;valor
+        public void gravarCsv(Path arquivo) throws IOException {
+            try (BufferedWriter w = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+                w.write("secao;chave;nome;valor\n");
+                w.write("resumo;emprestimos;;" + emprestimos + "\n");
+                w.write("resumo;devolvidos;;" + devolvidos + "\n");
+                w.write("resumo;media_dias;;" + String.format(Locale.ROOT, "%.2f", getMediaDias()) + "\n");
+                w.write("resumo;multas;;" + reais(multaTotal) + "\n");
+                for (int i = 0; i < codigos.length; i++) {
+                    w.write("titulo;" + codigos[i] + ";" + titulos[i] + ";" + qtdTitulos[i] + "\n");
+                }
+                for (long g : grupos) {
+                    w.write("grupo;" + tipoGrupo(g) + ";" + nomeGrupo(g) + ";" + porGrupo.valor((int) g) + "\n");
+                }
+                for (long m : meses) {
+                    w.write("multa_mes;" + nomeMes(m) + ";;" + reais(multaPorMes.valor((int) m)) + "\n");
+                }
+            }
+        }
+
+        public void gravarJson(Path arquivo) throws IOException {
+            try (BufferedWriter w = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+                escreverJson(w);
+            }
+        }
+
+        public String json() {
+            StringWriter w = new StringWriter();
+            try {
+                escreverJson(w);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // StringWriter não lança
+            }
+            return w.toString();
+        }
+
+        // Um objeto JSON; as listas vão sendo escritas item a item no Writer
+        public void escreverJson(Writer w) throws IOException {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append('{');
+            Json.campo(sb, "emprestimos").append(emprestimos).append(',');
+            Json.campo(sb, "devolvidos").append(devolvidos).append(',');
+            Json.campo(sb, "mediaDias").append(getMediaDias()).append(',');
+            Json.campo(sb, "multas").append(multaTotal / 100.0).append(',');
+            Json.campo(sb, "titulos").append('[');
+            for (int i = 0; i < codigos.length; i++) {
+                sb.append(i == 0 ? "{" : ",{");
+                Json.campo(sb, "codigo");
+                Json.texto(sb, codigos[i]).append(',');
+                Json.campo(sb, "titulo");
+                Json.texto(sb, titulos[i]).append(',');
+                Json.campo(sb, "emprestimos").append(qtdTitulos[i]).append('}');
+                descarregar(w, sb);
+            }
+            sb.append("],");
+            Json.campo(sb, "grupos").append('[');
+            for (int i = 0; i < grupos.length; i++) {
+                sb.append(i == 0 ? "{" : ",{");
+                Json.campo(sb, "tipo");
+                Json.texto(sb, tipoGrupo(grupos[i])).append(',');
+                Json.campo(sb, "nome");
+                Json.texto(sb, nomeGrupo(grupos[i])).append(',');
+                Json.campo(sb, "emprestimos").append(porGrupo.valor((int) grupos[i])).append('}');
+                descarregar(w, sb);
+            }
+            sb.append("],");
+            Json.campo(sb, "multasPorMes").append('[');
+            for (int i = 0; i < meses.length; i++) {
+                sb.append(i == 0 ? "{" : ",{");
+                Json.campo(sb, "mes");
+                Json.texto(sb, nomeMes(meses[i])).append(',');
+                Json.campo(sb, "multas").append(multaPorMes.valor((int) meses[i]) / 100.0).append('}');
+                descarregar(w, sb);
+            }
+            sb.append("]}");
+            w.append(sb);
+        }
+
+        private static void descarregar(Writer w, StringBuilder sb) throws IOException {
+            if (sb.length() >= 8192) {
+                w.append(sb);
+                sb.setLength(0);
+            }
+        }
+
+        // Resumo pro menu
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Empréstimos: %d | Devolvidos: %d | Duração média: %.1f dias | Multas: R$ %s%n",
+                    emprestimos, devolvidos, getMediaDias(), reais(multaTotal)));
+            sb.append("Mais emprestados:");
+            for (int i = 0; i < codigos.length; i++) {
+                sb.append(String.format("%n  %d. %s - %s (%d)", i + 1, codigos[i], titulos[i], qtdTitulos[i]));
+            }
+            sb.append(String.format("%nPor curso/departamento:"));
+            for (long g : grupos) {
+                sb.append(String.format("%n  %s %s: %d", tipoGrupo(g), nomeGrupo(g), porGrupo.valor((int) g)));
+            }
+            sb.append(String.format("%nMultas por mês:"));
+            for (long m : meses) {
+                sb.append(String.format("%n  %s: R$ %s", nomeMes(m), reais(multaPorMes.valor((int) m))));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.time.LocalDate;
+
+/**
+ * Classe que representa uma Reserva de um item emprestado
+ *
+ * O usuário entra na fila do item e espera. Quando um exemplar volta, ele é
+ * separado pro primeiro da fila que pode pegar emprestado, e essa pessoa
+ * tem até a data de retirada pra fazer o empréstimo. Se não vier, a
+ * reserva expira e o exemplar passa pro próximo.
+ *
+ * Quem muda o status é o ControleReservas (com a trava dele).
+ *
+ * @author Ryan Figueredo
+ */
+public class Reserva {
+
+    public enum Status {
+        NA_FILA,              // Esperando o item voltar
+        AGUARDANDO_RETIRADA,  // Item separado, esperando o usuário vir buscar
+        ATENDIDA,             // Virou empréstimo
+        EXPIRADA,             // Passou do prazo de retirada
+        CANCELADA
+    }
+
+    private final String idReserva;
+    private final Usuario usuario;
+    private final ItemDeAcervo item;
+    private final LocalDate dataReserva;
+    // volatile porque o status é lido sem a trava do ControleReservas nas listagens
+    private volatile Status status;
+    private volatile LocalDate prazoRetirada; // null enquanto está na fila
+    private volatile int exemplar = -1; // Exemplar separado - -1 enquanto está na fila
+
+    public Reserva(String idReserva, Usuario usuario, ItemDeAcervo item, LocalDate dataReserva) {
+        this.idReserva = idReserva;
+        this.usuario = usuario;
+        this.item = item;
+        this.dataReserva = dataReserva;
+        this.status = Status.NA_FILA;
+    }
+
+    // Exemplar separado pro usuário até a data informada (inclusive)
+    void separar(LocalDate prazoRetirada, int exemplar) {
+        this.prazoRetirada = prazoRetirada;
+        this.exemplar = exemplar;
+        this.status = Status.AGUARDANDO_RETIRADA;
+    }
+
+    void encerrar(Status status) {
+        this.status = status;
+    }
+
+    // Na fila ou com o item separado
+    public boolean isAtiva() {
+        Status s = status;
+        return s == Status.NA_FILA || s == Status.AGUARDANDO_RETIRADA;
+    }
+
+    // Getters
+    public String getIdReserva() {
+        return idReserva;
+    }
+
+    public Usuario getUsuario() {
+        return usuario;
+    }
+
+    public ItemDeAcervo getItem() {
+        return item;
+    }
+
+    public LocalDate getDataReserva() {
+        return dataReserva;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public LocalDate getPrazoRetirada() {
+        return prazoRetirada;
+    }
+
+    public int getExemplar() {
+        return exemplar;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Reserva #%s | Usuário: %s | Item: %s | Desde: %s | %s%s",
+                idReserva, usuario.getNome(), item.getTitulo(), dataReserva, status,
+                status == Status.AGUARDANDO_RETIRADA ? " até " + prazoRetirada
+                        + (item.getQuantidadeExemplares() > 1 ? " (exemplar " + (exemplar + 1) + ")" : "") : "");
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resultado de uma operação em lote (carrinho de empréstimos ou devoluções)
+ *
+ * Tem uma linha pra cada entrada do pedido, na mesma ordem: o código do
+ * item ou o ID do empréstimo, se deu certo e, se não deu, o motivo (a
+ * mesma mensagem da RegraDeNegocioException da operação individual).
+ *
+ * @author Ryan Figueredo
+ */
+public class ResultadoLote {
+
+    /**
+     * Uma linha do lote
+     */
+    public static class Linha {
+        private final String chave;
+        private Emprestimo emprestimo;
+        private String erro;
+        private RegraDeNegocioException.Regra regra;
+
+        Linha(String chave) {
+            this.chave = chave;
+        }
+
+        // Código do item (empréstimo) ou ID do empréstimo (devolução)
+        public String getChave() {
+            return chave;
+        }
+
+        public boolean isSucesso() {
+            return erro == null;
+        }
+
+        // Empréstimo criado ou devolvido - null se a linha falhou
+        public Emprestimo getEmprestimo() {
+            return emprestimo;
+        }
+
+        public String getErro() {
+            return erro;
+        }
+
+        // Regra que recusou a linha - null se deu certo
+        public RegraDeNegocioException.Regra getRegra() {
+            return regra;
+        }
+
+        @Override
+        public String toString() {
+            return chave + ": " + (erro == null ? "OK (empréstimo #" + emprestimo.getIdEmprestimo() + ")" : erro);
+        }
+    }
+
+    private final List<Linha> linhas;
+
+    ResultadoLote(List<String> chaves) {
+        this.linhas = new ArrayList<>(chaves.size());
+        for (String chave : chaves) {
+            linhas.add(new Linha(chave));
+        }
+    }
+
+    Linha linha(int i) {
+        return linhas.get(i);
+    }
+
+    int tamanho() {
+        return linhas.size();
+    }
+
+    // Só marca o erro se a linha ainda não tiver um (o primeiro motivo é o que vale)
+    void falhar(int i, RegraDeNegocioException.Regra regra, String erro) {
+        Linha l = linhas.get(i);
+        if (l.erro == null) {
+            l.erro = erro;
+            l.regra = regra;
+        }
+    }
+
+    void falhar(int i, RegraDeNegocioException e) {
+        falhar(i, e.getRegra(), e.getMessage());
+    }
+
+    // Falha todas as linhas que ainda estão sem erro
+    void falharRestantes(RegraDeNegocioException.Regra regra, String erro) {
+        for (int i = 0; i < linhas.size(); i++) {
+            falhar(i, regra, erro);
+        }
+    }
+
+    boolean temErro() {
+        for (Linha l : linhas) {
+            if (l.erro != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void concluir(int i, Emprestimo emprestimo) {
+        linhas.get(i).emprestimo = emprestimo;
+    }
+
+    public List<Linha> getLinhas() {
+        return Collections.unmodifiableList(linhas);
+    }
+
+    public int getQuantidadeSucesso() {
+        int total = 0;
+        for (Linha l : linhas) {
+            if (l.isSucesso()) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    // true quando todas as linhas deram certo
+    public boolean isCompleto() {
+        return !linhas.isEmpty() && getQuantidadeSucesso() == linhas.size();
+    }
+}
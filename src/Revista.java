@@ -11,10 +11,16 @@ public class Revista extends ItemDeAcervo {
     private int volume;
     private String issn;
 
-    // Construtor - uso super() pra chamar o construtor da classe pai
+    // Construtor - um exemplar só
     public Revista(String codigo, String titulo, int anoPublicacao, String editora, int volume, String issn) {
-        super(codigo, titulo, anoPublicacao);
-        this.editora = editora;
+        this(codigo, titulo, anoPublicacao, editora, volume, issn, 1);
+    }
+
+    // Construtor com a quantidade de exemplares - uso super() pra chamar o construtor da classe pai
+    public Revista(String codigo, String titulo, int anoPublicacao, String editora, int volume, String issn,
+                   int quantidadeExemplares) {
+        super(codigo, titulo, anoPublicacao, quantidadeExemplares);
+        this.editora = Dicionario.GERAL.canonico(editora); // Mesma String pra todos os itens da mesma editora
         this.volume = volume;
         this.issn = issn;
     }
@@ -27,6 +33,11 @@ public class Revista extends ItemDeAcervo {
     public int getVolume() { 
         return volume; 
     }
+
+    @Override
+    public PoliticaEmprestimo.TipoItem getTipoItem() {
+        return PoliticaEmprestimo.TipoItem.REVISTA;
+    }
     
     public String getIssn() { 
         return issn; 
@@ -35,8 +46,8 @@ public class Revista extends ItemDeAcervo {
     // toString pra exibir as informações da revista
     @Override
     public String toString() {
-        String status = isEmprestado() ? "Emprestado" : "Disponível";
+        String status = descricaoStatus();
         return String.format("Revista - Código: %s | Título: %s | Editora: %s | Volume: %d | ISSN: %s | Ano: %d | Status: %s",
-                getCodigo(), getTitulo(), editora, volume, issn, getAnoPublicacao(), status);
+                getCodigo(), getTitulo(), getEditora(), getVolume(), getIssn(), getAnoPublicacao(), status);
     }
 }
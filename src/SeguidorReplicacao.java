@@ -0,0 +1,198 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Réplica somente leitura de um SistemaBiblioteca primário
+ *
+ * Uma thread conecta no PrimarioReplicacao, recebe as linhas do journal do
+ * primário e aplica no SistemaBiblioteca local (o mesmo código que
+ * reaplica o journal na carga). Busca, listagem do acervo, disponibilidade,
+ * relatórios e consultas de empréstimo respondem daqui, sem disputar nada
+ * com os balcões do primário; alterações são recusadas.
+ *
+ * Se a conexão cair, tenta de novo a cada meio segundo pedindo a partir da
+ * última linha aplicada. O atraso (linhas que o primário já tem e a réplica
+ * ainda não, e há quantos ms a última aplicada aconteceu no primário) vai
+ * pras Metricas do sistema: relatório, GET /metricas e JMX.
+ *
+ * promover() desliga a réplica do primário e transforma o sistema dela num
+ * primário (snapshot na pasta dela + journal novo).
+ *
+ * @author Ryan Figueredo
+ */
+public class SeguidorReplicacao implements AutoCloseable {
+    private static final long ESPERA_RECONEXAO_MS = 500;
+
+    private final SistemaBiblioteca sistema;
+    private final InetSocketAddress primario;
+    private final Thread thread;
+    private volatile boolean rodando = true;
+    private volatile Socket socket;
+
+    // Só a thread da réplica escreve; volatile pra quem consulta de fora
+    private volatile long epoca;
+    private volatile long aplicada;       // Última sequência aplicada
+    private volatile long ultimaPrimario; // Última sequência que o primário disse ter
+    private volatile long erros;          // Linhas que não deu pra aplicar
+
+    // O sistema tem que estar vazio (sem carregarDados): o estado vem todo do primário
+    public SeguidorReplicacao(SistemaBiblioteca sistema, InetSocketAddress primario) {
+        sistema.tornarReplica();
+        this.sistema = sistema;
+        this.primario = primario;
+        this.thread = new Thread(this::rodar, "replica-" + primario.getPort());
+        this.thread.setDaemon(true);
+    }
+
+    public void iniciar() {
+        thread.start();
+    }
+
+    public SistemaBiblioteca getSistema() {
+        return sistema;
+    }
+
+    public long getAplicada() {
+        return aplicada;
+    }
+
+    public long getAtrasoRegistros() {
+        return Math.max(0, ultimaPrimario - aplicada);
+    }
+
+    public long getErros() {
+        return erros;
+    }
+
+    public boolean isConectada() {
+        Socket s = socket;
+        return s != null && !s.isClosed();
+    }
+
+    private void rodar() {
+        boolean avisou = false;
+        while (rodando) {
+            try (Socket s = new Socket()) {
+                s.setTcpNoDelay(true);
+                s.connect(primario, 5_000);
+                socket = s;
+                avisou = false;
+                receber(s);
+            } catch (IOException e) {
+                if (rodando && !avisou) {
+                    System.err.println("Réplica sem conexão com o primário " + primario + ": " + e.getMessage());
+                    avisou = true; // Avisa uma vez por queda, não a cada tentativa
+                }
+            } finally {
+                socket = null;
+            }
+            if (rodando) {
+                try {
+                    Thread.sleep(ESPERA_RECONEXAO_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receber(Socket s) throws IOException {
+        BufferedReader entrada = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        BufferedWriter saida = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+        saida.write("DESDE;" + epoca + ";" + aplicada);
+        saida.newLine();
+        saida.flush();
+        long marcaBase = -1;
+        for (String msg; rodando && (msg = entrada.readLine()) != null; ) {
+            switch (msg.charAt(0)) {
+                case 'R': {
+                    String[] c = msg.split(";", 4);
+                    long seq = Long.parseLong(c[1]);
+                    if (seq <= aplicada) {
+                        continue; // Já veio (reconexão)
+                    }
+                    if (seq != aplicada + 1) {
+                        throw new IOException("Buraco na sequência: esperava " + (aplicada + 1) + ", veio " + seq);
+                    }
+                    aplicar(c[3]);
+                    aplicada = seq;
+                    ultimaPrimario = Math.max(ultimaPrimario, seq);
+                    // O primário manda em lotes: sem mais nada no buffer, o lote acabou
+                    if (!entrada.ready()) {
+                        sistema.getMetricas().registrarAtrasoReplicacao(getAtrasoRegistros(),
+                                Math.max(0, System.currentTimeMillis() - Long.parseLong(c[2])));
+                    }
+                    break;
+                }
+                case 'H': {
+                    String[] c = msg.split(";");
+                    ultimaPrimario = Long.parseLong(c[1]);
+                    sistema.getMetricas().registrarAtrasoReplicacao(getAtrasoRegistros(), 0);
+                    break;
+                }
+                case 'B': {
+                    String[] c = msg.split(";");
+                    epoca = Long.parseLong(c[1]);
+                    marcaBase = Long.parseLong(c[2]);
+                    aplicada = 0; // Até o F chegar a réplica não vale como "em dia"
+                    break;
+                }
+                case 'L':
+                    aplicar(msg.substring(2));
+                    break;
+                case 'F':
+                    aplicada = marcaBase;
+                    ultimaPrimario = Math.max(ultimaPrimario, marcaBase);
+                    break;
+                default:
+                    throw new IOException("Mensagem desconhecida do primário: " + msg);
+            }
+        }
+    }
+
+    private void aplicar(String linha) {
+        try {
+            sistema.aplicarReplicado(linha);
+        } catch (RuntimeException e) {
+            erros++;
+            System.err.println("Réplica não aplicou '" + linha + "': " + e.getMessage());
+        }
+    }
+
+    // Para de seguir o primário e vira primário - retorna o sistema já aceitando alterações
+    public SistemaBiblioteca promover() throws IOException {
+        parar();
+        sistema.promover();
+        sistema.getMetricas().registrarAtrasoReplicacao(-1, 0);
+        return sistema;
+    }
+
+    private void parar() {
+        rodando = false;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Já estava fechada
+            }
+        }
+        thread.interrupt();
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        parar();
+    }
+}
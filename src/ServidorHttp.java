@@ -0,0 +1,969 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor HTTP/JSON em cima do SistemaBiblioteca
+ *
+ * Usa o servidor HTTP que já vem no JDK (com.sun.net.httpserver), então
+ * não precisa de nenhuma dependência. Cada requisição roda numa thread
+ * virtual quando a JVM tem (Java 21+); no Java 17 cai pra um pool de
+ * threads normais que cresce conforme a demanda. O SistemaBiblioteca já
+ * aguenta vários balcões ao mesmo tempo, então o servidor só traduz
+ * JSON <-> chamadas.
+ *
+ * Rotas:
+ *   POST /usuarios                          cadastro de Aluno/Professor
+ *   POST /itens                             cadastro de Livro/Revista
+ *   POST /emprestimos                       {"usuario","item"} ou carrinho {"usuario","itens":[...]}
+ *   GET  /emprestimos?id=|usuario=|item=    um empréstimo ou o histórico (memória + arquivo morto)
+ *   POST /devolucoes                        {"emprestimo"} ou lote {"emprestimos":[...]}
+ *   POST /reservas                          {"usuario","item"} - entra na fila do item
+ *   GET  /reservas?item=                    fila do item (sem item: todas as ativas)
+ *   POST /reservas/cancelamentos            {"reserva"}
+ *   POST /pagamentos                        {"usuario","valor"(reais),"id"?} - "id" é o recibo: repetir não cobra de novo
+ *   GET  /pagamentos?usuario=               saldo de multa e lançamentos do usuário
+ *   POST /isencoes                          {"usuario","motivo","valor"?,"id"?} - sem valor isenta o saldo todo
+ *   POST /pagamentos/importacao             corpo = planilha do caixa (recibo;usuario;valor[;data])
+ *   GET  /busca?q=...&limite=&disponiveis=  busca textual
+ *   GET  /acervo?tipo=&anos=&autor=&editora=&disponiveis=&cursor=&limite=
+ *   GET  /listagens/{usuarios|acervo|emprestimos-ativos|emprestimos-atrasados}?ordem=&desc=&cursor=&limite=
+ *                                           uma página na ordem pedida (ver Listagens)
+ *   GET  /exportar/{usuarios|acervo|emprestimos-ativos|emprestimos-atrasados}
+ *                                           listagem inteira em CSV, mandada em pedaços (chunked)
+ *   GET  /relatorios/emprestimos-ativos     tudo num JSON só - pra listas grandes use as duas de cima
+ *   GET  /relatorios/emprestimos-atrasados
+ *   GET  /relatorios/agregados?top=         títulos, cursos/departamentos, multas por mês, duração média
+ *   GET  /eventos?offset=&limite=           eventos de circulação gravados em eventos.log, a partir do offset
+ *   GET  /metricas                          contadores e latências, em texto
+ *   GET  /replicacao                        papel (primario/replica), sequência e atraso
+ *   POST /replicacao/promover               réplica vira primário
+ *
+ * Erro de regra de negócio volta com {"erro": mensagem, "regra": "RN1"...}:
+ * RN1 e conflito = 409, RN2/RN3/RN4 = 422, não encontrado = 404.
+ * Campo de cadastro com ';' ou caractere de controle (inclusive "\n"
+ * escapado no JSON) volta 400 antes de chegar no sistema.
+ *
+ * Numa réplica (--seguir) as rotas de consulta respondem com o estado que
+ * veio do primário e as de alteração voltam 400 até a promoção.
+ *
+ * Uso: java ServidorHttp [porta] [pastaDados] [--replicar portaReplicacao | --seguir host:porta]
+ *
+ * @author Ryan Figueredo
+ */
+public class ServidorHttp {
+    private static final int LIMITE_PADRAO = 20;
+    private static final int LIMITE_MAXIMO = 1000;
+
+    static {
+        // O servidor do JDK manda cabeçalho e corpo em escritas separadas; com o algoritmo de
+        // Nagle ligado, a segunda espera o ACK atrasado do cliente (~40 ms por requisição)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Resposta de uma rota: status HTTP e o corpo (JSON, a não ser que diga outro tipo)
+    private static class Resposta {
+        final int status;
+        final String json;
+        final String tipo;
+
+        Resposta(int status, String json) {
+            this(status, json, "application/json; charset=utf-8");
+        }
+
+        Resposta(int status, String corpo, String tipo) {
+            this.status = status;
+            this.json = corpo;
+            this.tipo = tipo;
+        }
+    }
+
+    private final SistemaBiblioteca sistema;
+    private final HttpServer servidor;
+    private final ExecutorService executor;
+    private final boolean threadsVirtuais;
+    private volatile PrimarioReplicacao primario;  // Quando este é o primário com réplicas
+    private volatile SeguidorReplicacao seguidor;  // Quando este é uma réplica
+
+    // Porta 0 = o sistema operacional escolhe uma livre (ver getPorta())
+    public ServidorHttp(SistemaBiblioteca sistema, int porta) throws IOException {
+        this.sistema = sistema;
+        this.servidor = HttpServer.create(new InetSocketAddress(porta), 1024);
+        ExecutorService virtual = executorVirtual();
+        this.threadsVirtuais = virtual != null;
+        this.executor = virtual != null ? virtual : executorComum();
+        this.servidor.setExecutor(executor);
+        this.servidor.createContext("/", this::atender);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() só existe do Java 21 pra frente -
+    // chamado por reflexão pra continuar compilando e rodando no 17
+    private static ExecutorService executorVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService executorComum() {
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "http-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    // Para de aceitar conexões, espera até 2s as requisições em andamento e encerra as threads
+    public void parar() {
+        servidor.stop(2);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    public boolean isThreadsVirtuais() {
+        return threadsVirtuais;
+    }
+
+    public void setReplicacao(PrimarioReplicacao primario, SeguidorReplicacao seguidor) {
+        this.primario = primario;
+        this.seguidor = seguidor;
+    }
+
+    // ---------------------------------------------------------------- roteamento
+
+    private void atender(HttpExchange troca) throws IOException {
+        Resposta resposta;
+        try {
+            resposta = rotear(troca.getRequestMethod(), troca.getRequestURI().getPath(),
+                    parametros(troca.getRequestURI().getRawQuery()), troca);
+        } catch (RegraDeNegocioException e) {
+            resposta = new Resposta(status(e.getRegra()), erro(e.getMessage(), e.getRegra()));
+        } catch (IllegalArgumentException e) {
+            resposta = new Resposta(400, erro(e.getMessage(), null));
+        } catch (RuntimeException e) {
+            System.err.println("Erro no servidor HTTP: " + e);
+            resposta = new Resposta(500, erro("Erro interno: " + e.getMessage(), null));
+        }
+        if (resposta != null) { // null = a rota já respondeu sozinha (exportação)
+            responder(troca, resposta);
+        }
+    }
+
+    private Resposta rotear(String metodo, String caminho, Map<String, String> parametros, HttpExchange troca)
+            throws IOException, RegraDeNegocioException {
+        switch (caminho) {
+            case "/usuarios":
+                exigir(metodo, "POST");
+                return cadastrarUsuario(corpo(troca));
+            case "/itens":
+                exigir(metodo, "POST");
+                return cadastrarItem(corpo(troca));
+            case "/emprestimos":
+                if ("GET".equals(metodo)) {
+                    return consultarEmprestimos(parametros);
+                }
+                exigir(metodo, "POST");
+                return emprestar(corpo(troca));
+            case "/devolucoes":
+                exigir(metodo, "POST");
+                return devolver(corpo(troca));
+            case "/reservas":
+                if ("POST".equals(metodo)) {
+                    return reservar(corpo(troca));
+                }
+                exigir(metodo, "GET");
+                return listarReservas(parametros);
+            case "/reservas/cancelamentos":
+                exigir(metodo, "POST");
+                return cancelarReserva(corpo(troca));
+            case "/pagamentos":
+                if ("GET".equals(metodo)) {
+                    return consultarPagamentos(parametros);
+                }
+                exigir(metodo, "POST");
+                return pagar(corpo(troca));
+            case "/isencoes":
+                exigir(metodo, "POST");
+                return isentar(corpo(troca));
+            case "/pagamentos/importacao":
+                exigir(metodo, "POST");
+                return importarQuitacoes(troca);
+            case "/busca":
+                exigir(metodo, "GET");
+                return buscar(parametros);
+            case "/acervo":
+                exigir(metodo, "GET");
+                return filtrar(parametros);
+            case "/listagens/usuarios":
+            case "/listagens/acervo":
+            case "/listagens/emprestimos-ativos":
+            case "/listagens/emprestimos-atrasados":
+                exigir(metodo, "GET");
+                return listar(Listagens.Tipo.porNome(caminho.substring("/listagens/".length())), parametros);
+            case "/exportar/usuarios":
+            case "/exportar/acervo":
+            case "/exportar/emprestimos-ativos":
+            case "/exportar/emprestimos-atrasados":
+                exigir(metodo, "GET");
+                exportar(Listagens.Tipo.porNome(caminho.substring("/exportar/".length())), troca);
+                return null;
+            case "/relatorios/emprestimos-ativos":
+                exigir(metodo, "GET");
+                return new Resposta(200, listaEmprestimos(sistema.getEmprestimosAtivos()));
+            case "/relatorios/emprestimos-atrasados":
+                exigir(metodo, "GET");
+                return new Resposta(200, listaEmprestimos(sistema.getEmprestimosAtrasados()));
+            case "/relatorios/agregados":
+                exigir(metodo, "GET");
+                int top = parametros.containsKey("top") ? numero(parametros.get("top"), "top") : Relatorios.TOP_PADRAO;
+                return new Resposta(200, sistema.getRelatorio(Math.max(0, Math.min(top, LIMITE_MAXIMO))).json());
+            case "/eventos":
+                exigir(metodo, "GET");
+                return eventos(parametros);
+            case "/metricas":
+                exigir(metodo, "GET");
+                return new Resposta(200, sistema.getMetricas().relatorio(), "text/plain; charset=utf-8");
+            case "/replicacao":
+                exigir(metodo, "GET");
+                return new Resposta(200, replicacao());
+            case "/replicacao/promover":
+                exigir(metodo, "POST");
+                return promover();
+            default:
+                return new Resposta(404, erro("Rota não encontrada: " + caminho, null));
+        }
+    }
+
+    private static void exigir(String metodo, String esperado) {
+        if (!esperado.equals(metodo)) {
+            throw new IllegalArgumentException("Método " + metodo + " não suportado, use " + esperado);
+        }
+    }
+
+    // Regra de negócio -> status HTTP
+    static int status(RegraDeNegocioException.Regra regra) {
+        switch (regra) {
+            case RN1:
+            case CONFLITO:
+                return 409;
+            case RN2:
+            case RN3:
+            case RN4:
+                return 422;
+            case NAO_ENCONTRADO:
+                return 404;
+            default:
+                return 400;
+        }
+    }
+
+    // ---------------------------------------------------------------- rotas
+
+    private Resposta cadastrarUsuario(Map<String, Object> dados) throws RegraDeNegocioException {
+        String tipo = texto(dados, "tipo");
+        Usuario u;
+        if ("Aluno".equalsIgnoreCase(tipo)) {
+            u = new Aluno(campo(dados, "id"), campo(dados, "nome"), campo(dados, "endereco"),
+                    campo(dados, "matricula"), campo(dados, "curso"));
+        } else if ("Professor".equalsIgnoreCase(tipo)) {
+            u = new Professor(campo(dados, "id"), campo(dados, "nome"), campo(dados, "endereco"),
+                    campo(dados, "siape"), campo(dados, "departamento"));
+        } else {
+            throw new IllegalArgumentException("tipo de usuário deve ser Aluno ou Professor");
+        }
+        sistema.adicionarUsuario(u);
+        return new Resposta(201, usuario(new StringBuilder(), u).toString());
+    }
+
+    private Resposta cadastrarItem(Map<String, Object> dados) throws RegraDeNegocioException {
+        String tipo = texto(dados, "tipo");
+        // "exemplares" é opcional - sem ele o título tem um exemplar só
+        int exemplares = dados.containsKey("exemplares") ? inteiro(dados, "exemplares") : 1;
+        ItemDeAcervo item;
+        if ("Livro".equalsIgnoreCase(tipo)) {
+            item = new Livro(campo(dados, "codigo"), campo(dados, "titulo"), inteiro(dados, "ano"),
+                    campo(dados, "autor"), campo(dados, "isbn"), inteiro(dados, "edicao"), exemplares);
+        } else if ("Revista".equalsIgnoreCase(tipo)) {
+            item = new Revista(campo(dados, "codigo"), campo(dados, "titulo"), inteiro(dados, "ano"),
+                    campo(dados, "editora"), inteiro(dados, "volume"), campo(dados, "issn"), exemplares);
+        } else {
+            throw new IllegalArgumentException("tipo de item deve ser Livro ou Revista");
+        }
+        sistema.adicionarItem(item);
+        return new Resposta(201, item(new StringBuilder(), item).toString());
+    }
+
+    private Resposta emprestar(Map<String, Object> dados) throws RegraDeNegocioException {
+        String idUsuario = texto(dados, "usuario");
+        if (dados.containsKey("itens")) {
+            ResultadoLote lote = sistema.realizarEmprestimos(idUsuario, textos(dados, "itens"));
+            return new Resposta(lote.isCompleto() ? 201 : statusDoLote(lote), lote(lote));
+        }
+        Emprestimo e = sistema.realizarEmprestimo(idUsuario, texto(dados, "item"));
+        return new Resposta(201, emprestimo(new StringBuilder(), e).toString());
+    }
+
+    private Resposta consultarEmprestimos(Map<String, String> parametros) throws RegraDeNegocioException {
+        if (parametros.containsKey("id")) {
+            Emprestimo e = sistema.consultarEmprestimo(parametros.get("id"))
+                    .orElseThrow(() -> new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO,
+                            "Empréstimo não encontrado."));
+            return new Resposta(200, emprestimo(new StringBuilder(), e).toString());
+        }
+        if (parametros.containsKey("usuario")) {
+            return new Resposta(200, listaEmprestimos(sistema.getHistoricoDoUsuario(parametros.get("usuario"))));
+        }
+        if (parametros.containsKey("item")) {
+            return new Resposta(200, listaEmprestimos(sistema.getHistoricoDoItem(parametros.get("item"))));
+        }
+        throw new IllegalArgumentException("informe id, usuario ou item");
+    }
+
+    private Resposta devolver(Map<String, Object> dados) throws RegraDeNegocioException {
+        if (dados.containsKey("emprestimos")) {
+            return new Resposta(200, lote(sistema.realizarDevolucoes(textos(dados, "emprestimos"))));
+        }
+        String id = texto(dados, "emprestimo");
+        sistema.realizarDevolucao(id);
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "emprestimo");
+        Json.texto(sb, id).append(',');
+        Json.campo(sb, "devolvido").append("true}");
+        return new Resposta(200, sb.toString());
+    }
+
+    private Resposta reservar(Map<String, Object> dados) throws RegraDeNegocioException {
+        Reserva r = sistema.reservar(texto(dados, "usuario"), texto(dados, "item"));
+        return new Resposta(201, reserva(new StringBuilder(), r).toString());
+    }
+
+    private Resposta listarReservas(Map<String, String> parametros) throws RegraDeNegocioException {
+        String item = parametros.get("item");
+        List<Reserva> reservas = item != null ? sistema.getReservas(item) : sistema.getReservasAtivas();
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "total").append(reservas.size()).append(',');
+        Json.campo(sb, "reservas").append('[');
+        for (int i = 0; i < reservas.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            reserva(sb, reservas.get(i));
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    private Resposta cancelarReserva(Map<String, Object> dados) throws RegraDeNegocioException {
+        String id = texto(dados, "reserva");
+        sistema.cancelarReserva(id);
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "reserva");
+        Json.texto(sb, id).append(',');
+        Json.campo(sb, "cancelada").append("true}");
+        return new Resposta(200, sb.toString());
+    }
+
+    // Carrinho recusado: o status da primeira linha que tem uma regra de verdade
+    private static int statusDoLote(ResultadoLote lote) {
+        for (ResultadoLote.Linha l : lote.getLinhas()) {
+            if (l.getRegra() != null && l.getRegra() != RegraDeNegocioException.Regra.OUTRA) {
+                return status(l.getRegra());
+            }
+        }
+        return 400;
+    }
+
+    private Resposta pagar(Map<String, Object> dados) throws RegraDeNegocioException {
+        Pagamentos.Lancamento l = sistema.pagarMulta(texto(dados, "usuario"), centavos(dados),
+                opcional(dados, "id"));
+        return new Resposta(201, lancamento(new StringBuilder(), l).toString());
+    }
+
+    private Resposta isentar(Map<String, Object> dados) throws RegraDeNegocioException {
+        long centavos = dados.get("valor") == null ? 0 : centavos(dados);
+        Pagamentos.Lancamento l = sistema.isentarMulta(texto(dados, "usuario"), centavos, texto(dados, "motivo"),
+                opcional(dados, "id"));
+        return new Resposta(201, lancamento(new StringBuilder(), l).toString());
+    }
+
+    private Resposta consultarPagamentos(Map<String, String> parametros) throws RegraDeNegocioException {
+        String id = parametros.get("usuario");
+        if (id == null) {
+            throw new IllegalArgumentException("informe usuario");
+        }
+        Usuario u = sistema.consultarUsuario(id)
+                .orElseThrow(() -> new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO,
+                        "Usuário não encontrado."));
+        List<Pagamentos.Lancamento> lancamentos = sistema.getPagamentos().listar(id);
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "usuario");
+        Json.texto(sb, u.getId()).append(',');
+        Json.campo(sb, "multaPendente").append(u.getMultaCentavos() / 100.0).append(',');
+        Json.campo(sb, "apto").append(u.isAptoParaEmprestimo()).append(',');
+        Json.campo(sb, "lancamentos").append('[');
+        for (int i = 0; i < lancamentos.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            lancamento(sb, lancamentos.get(i));
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    // A planilha vem no corpo; vai pra um arquivo temporário pra ser lida em paralelo pelo CarregadorCsv
+    private Resposta importarQuitacoes(HttpExchange troca) throws IOException, RegraDeNegocioException {
+        Path planilha = Files.createTempFile("quitacoes", ".csv");
+        try {
+            try (InputStream entrada = troca.getRequestBody()) {
+                Files.copy(entrada, planilha, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Pagamentos.Importacao resultado = sistema.importarQuitacoes(planilha);
+            StringBuilder sb = new StringBuilder("{");
+            Json.campo(sb, "lancadas").append(resultado.getLancadas()).append(',');
+            Json.campo(sb, "repetidas").append(resultado.getRepetidas()).append(',');
+            Json.campo(sb, "valor").append(resultado.getCentavos() / 100.0).append(',');
+            Json.campo(sb, "erros").append('[');
+            List<String> erros = resultado.getErros();
+            for (int i = 0; i < erros.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                Json.texto(sb, erros.get(i));
+            }
+            return new Resposta(200, sb.append("]}").toString());
+        } finally {
+            Files.deleteIfExists(planilha);
+        }
+    }
+
+    private Resposta buscar(Map<String, String> parametros) {
+        String consulta = parametros.getOrDefault("q", "");
+        List<ItemDeAcervo> itens = sistema.buscarNoAcervo(consulta, limite(parametros),
+                "true".equalsIgnoreCase(parametros.get("disponiveis")));
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "itens").append('[');
+        for (int i = 0; i < itens.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            item(sb, itens.get(i));
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    private Resposta filtrar(Map<String, String> parametros) {
+        IndicesAcervo.Filtro filtro = new IndicesAcervo.Filtro();
+        String tipo = parametros.get("tipo");
+        if ("Livro".equalsIgnoreCase(tipo)) {
+            filtro.tipo(Livro.class);
+        } else if ("Revista".equalsIgnoreCase(tipo)) {
+            filtro.tipo(Revista.class);
+        } else if (tipo != null) {
+            throw new IllegalArgumentException("tipo deve ser Livro ou Revista");
+        }
+        String anos = parametros.get("anos");
+        if (anos != null) {
+            String[] faixa = anos.split("-");
+            int inicial = numero(faixa[0], "anos");
+            filtro.anos(inicial, faixa.length > 1 ? numero(faixa[1], "anos") : inicial);
+        }
+        if (parametros.containsKey("autor")) {
+            filtro.autor(parametros.get("autor"));
+        }
+        if (parametros.containsKey("editora")) {
+            filtro.editora(parametros.get("editora"));
+        }
+        if ("true".equalsIgnoreCase(parametros.get("disponiveis"))) {
+            filtro.apenasDisponiveis();
+        }
+        int cursor = parametros.containsKey("cursor") ? numero(parametros.get("cursor"), "cursor") : 0;
+
+        IndicesAcervo.Resultado resultado = sistema.filtrarAcervo(filtro);
+        IndicesAcervo.Pagina pagina = resultado.pagina(cursor, limite(parametros));
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "total").append(resultado.contar()).append(',');
+        Json.campo(sb, "proximoCursor").append(pagina.temMais() ? String.valueOf(pagina.getProximoCursor()) : "null").append(',');
+        Json.campo(sb, "itens").append('[');
+        List<ItemDeAcervo> itens = pagina.getItens();
+        for (int i = 0; i < itens.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            item(sb, itens.get(i));
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    // Uma página da listagem - o cliente manda o proximoCursor de volta pra pegar a seguinte
+    private Resposta listar(Listagens.Tipo tipo, Map<String, String> parametros) {
+        boolean desc = "true".equalsIgnoreCase(parametros.get("desc"));
+        String cursor = parametros.get("cursor");
+        int limite = limite(parametros);
+        String ordem = parametros.get("ordem");
+        StringBuilder sb = new StringBuilder("{");
+        switch (tipo) {
+            case USUARIOS: {
+                Listagens.Pagina<Usuario> pagina = sistema.listarUsuarios(
+                        ordem(Listagens.OrdemUsuarios.class, ordem, Listagens.OrdemUsuarios.ID), desc, cursor, limite);
+                cabecalhoPagina(sb, pagina);
+                for (int i = 0; i < pagina.getItens().size(); i++) {
+                    usuario(i > 0 ? sb.append(',') : sb, pagina.getItens().get(i));
+                }
+                break;
+            }
+            case ACERVO: {
+                Listagens.Pagina<ItemDeAcervo> pagina = sistema.listarAcervo(
+                        ordem(Listagens.OrdemAcervo.class, ordem, Listagens.OrdemAcervo.CODIGO), desc, cursor, limite);
+                cabecalhoPagina(sb, pagina);
+                for (int i = 0; i < pagina.getItens().size(); i++) {
+                    item(i > 0 ? sb.append(',') : sb, pagina.getItens().get(i));
+                }
+                break;
+            }
+            default: {
+                Listagens.OrdemEmprestimos o = ordem(Listagens.OrdemEmprestimos.class, ordem, Listagens.OrdemEmprestimos.ID);
+                Listagens.Pagina<Emprestimo> pagina = tipo == Listagens.Tipo.EMPRESTIMOS_ATIVOS
+                        ? sistema.listarEmprestimosAtivos(o, desc, cursor, limite)
+                        : sistema.listarEmprestimosAtrasados(o, desc, cursor, limite);
+                cabecalhoPagina(sb, pagina);
+                for (int i = 0; i < pagina.getItens().size(); i++) {
+                    emprestimo(i > 0 ? sb.append(',') : sb, pagina.getItens().get(i));
+                }
+                break;
+            }
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    private static void cabecalhoPagina(StringBuilder sb, Listagens.Pagina<?> pagina) {
+        Json.campo(sb, "total").append(pagina.getTotal()).append(',');
+        Json.campo(sb, "proximoCursor");
+        Json.texto(sb, pagina.getProximoCursor()).append(',');
+        Json.campo(sb, "itens").append('[');
+    }
+
+    private static <E extends Enum<E>> E ordem(Class<E> tipo, String texto, E padrao) {
+        if (texto == null || texto.isEmpty()) {
+            return padrao;
+        }
+        try {
+            return Enum.valueOf(tipo, texto.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("'ordem' deve ser uma de " + Arrays.toString(tipo.getEnumConstants()).toLowerCase());
+        }
+    }
+
+    // O CSV vai direto pro corpo da resposta, de 64 KB em 64 KB, sem montar a resposta inteira
+    // na memória - por isso responde sozinha em vez de devolver uma Resposta
+    private void exportar(Listagens.Tipo tipo, HttpExchange troca) throws IOException {
+        troca.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        troca.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + tipo.getNome() + ".csv\"");
+        troca.sendResponseHeaders(200, 0); // 0 = tamanho desconhecido, vai em chunks
+        try (OutputStream saida = troca.getResponseBody()) {
+            sistema.exportar(tipo, Channels.newChannel(saida));
+        }
+    }
+
+    // Quem consome guarda o proximoOffset e pede de novo a partir dele
+    private String replicacao() {
+        StringBuilder sb = new StringBuilder("{");
+        SeguidorReplicacao s = seguidor;
+        PrimarioReplicacao p = primario;
+        Json.campo(sb, "papel");
+        if (s != null) {
+            Json.texto(sb, "replica").append(',');
+            Json.campo(sb, "conectada").append(s.isConectada()).append(',');
+            Json.campo(sb, "aplicada").append(s.getAplicada()).append(',');
+            Json.campo(sb, "atrasoRegistros").append(sistema.getMetricas().getAtrasoReplicacaoRegistros()).append(',');
+            Json.campo(sb, "atrasoMs").append(sistema.getMetricas().getAtrasoReplicacaoMillis());
+        } else {
+            Json.texto(sb, "primario");
+            if (p != null) {
+                sb.append(',');
+                Json.campo(sb, "sequencia").append(p.getUltimaSequencia()).append(',');
+                Json.campo(sb, "replicas").append(p.getReplicas());
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    // Só uma requisição promove - as outras já encontram o seguidor nulo
+    private synchronized Resposta promover() throws IOException {
+        SeguidorReplicacao s = seguidor;
+        if (s == null) {
+            throw new IllegalArgumentException("Este servidor não é réplica");
+        }
+        s.promover();
+        seguidor = null;
+        sistema.iniciarAgendadorReservas();
+        return new Resposta(200, replicacao());
+    }
+
+    private Resposta eventos(Map<String, String> parametros) throws IOException {
+        long offset;
+        try {
+            offset = Long.parseLong(parametros.getOrDefault("offset", "0").trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'offset' deve ser um número inteiro");
+        }
+        ArquivoEventos.Leitura leitura = sistema.lerEventos(offset, limite(parametros));
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "proximoOffset").append(leitura.getProximoOffset()).append(',');
+        Json.campo(sb, "eventos").append('[');
+        List<Evento> eventos = leitura.getEventos();
+        for (int i = 0; i < eventos.size(); i++) {
+            Evento e = eventos.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('{');
+            Json.campo(sb, "tipo");
+            Json.texto(sb, e.getTipo().toString()).append(',');
+            Json.campo(sb, "instante").append(e.getInstante()).append(',');
+            Json.campo(sb, "usuario");
+            Json.texto(sb, e.getIdUsuario()).append(',');
+            Json.campo(sb, "item");
+            Json.texto(sb, e.getCodItem()).append(',');
+            Json.campo(sb, "emprestimo");
+            Json.texto(sb, e.getIdEmprestimo()).append(',');
+            Json.campo(sb, "valor").append(e.getValor()).append(',');
+            Json.campo(sb, "dados");
+            Json.texto(sb, e.getDados()).append('}');
+        }
+        return new Resposta(200, sb.append("]}").toString());
+    }
+
+    private static int limite(Map<String, String> parametros) {
+        int limite = parametros.containsKey("limite") ? numero(parametros.get("limite"), "limite") : LIMITE_PADRAO;
+        return Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+    }
+
+    // ---------------------------------------------------------------- JSON de saída
+
+    private static StringBuilder usuario(StringBuilder sb, Usuario u) {
+        sb.append('{');
+        Json.campo(sb, "tipo");
+        Json.texto(sb, u.getClass().getSimpleName()).append(',');
+        Json.campo(sb, "id");
+        Json.texto(sb, u.getId()).append(',');
+        Json.campo(sb, "nome");
+        Json.texto(sb, u.getNome()).append(',');
+        Json.campo(sb, "status");
+        Json.texto(sb, u.getStatus()).append(',');
+        Json.campo(sb, "emprestimos").append(u.getQuantidadeEmprestimos()).append(',');
+        Json.campo(sb, "limite").append(u.getLimiteEmprestimo()).append(',');
+        LocalDate vencimento = u.getProximoVencimento();
+        Json.campo(sb, "proximoVencimento");
+        Json.texto(sb, vencimento == null ? null : vencimento.toString()).append(',');
+        Json.campo(sb, "multaPendente").append(u.getMultaCentavos() / 100.0);
+        return sb.append('}');
+    }
+
+    private static StringBuilder lancamento(StringBuilder sb, Pagamentos.Lancamento l) {
+        sb.append('{');
+        Json.campo(sb, "id");
+        Json.texto(sb, l.getId()).append(',');
+        Json.campo(sb, "tipo");
+        Json.texto(sb, l.getTipo().name()).append(',');
+        Json.campo(sb, "usuario");
+        Json.texto(sb, l.getIdUsuario()).append(',');
+        Json.campo(sb, "valor").append(l.getCentavos() / 100.0).append(',');
+        Json.campo(sb, "data");
+        Json.texto(sb, l.getData().toString()).append(',');
+        Json.campo(sb, "motivo");
+        Json.texto(sb, l.getMotivo());
+        return sb.append('}');
+    }
+
+    private static StringBuilder item(StringBuilder sb, ItemDeAcervo i) {
+        sb.append('{');
+        Json.campo(sb, "tipo");
+        Json.texto(sb, i.getClass().getSimpleName()).append(',');
+        Json.campo(sb, "codigo");
+        Json.texto(sb, i.getCodigo()).append(',');
+        Json.campo(sb, "titulo");
+        Json.texto(sb, i.getTitulo()).append(',');
+        Json.campo(sb, "ano").append(i.getAnoPublicacao()).append(',');
+        if (i instanceof Livro) {
+            Livro l = (Livro) i;
+            Json.campo(sb, "autor");
+            Json.texto(sb, l.getAutor()).append(',');
+            Json.campo(sb, "isbn");
+            Json.texto(sb, l.getIsbn()).append(',');
+        } else if (i instanceof Revista) {
+            Revista r = (Revista) i;
+            Json.campo(sb, "editora");
+            Json.texto(sb, r.getEditora()).append(',');
+            Json.campo(sb, "issn");
+            Json.texto(sb, r.getIssn()).append(',');
+        }
+        Json.campo(sb, "exemplares").append(i.getQuantidadeExemplares()).append(',');
+        Json.campo(sb, "exemplaresLivres").append(i.getExemplaresLivres()).append(',');
+        Json.campo(sb, "emprestado").append(i.isEmprestado()).append(',');
+        Json.campo(sb, "disponivel").append(i.isDisponivel());
+        return sb.append('}');
+    }
+
+    private static StringBuilder reserva(StringBuilder sb, Reserva r) {
+        LocalDate prazo = r.getPrazoRetirada();
+        sb.append('{');
+        Json.campo(sb, "id");
+        Json.texto(sb, r.getIdReserva()).append(',');
+        Json.campo(sb, "usuario");
+        Json.texto(sb, r.getUsuario().getId()).append(',');
+        Json.campo(sb, "item");
+        Json.texto(sb, r.getItem().getCodigo()).append(',');
+        Json.campo(sb, "dataReserva");
+        Json.texto(sb, r.getDataReserva().toString()).append(',');
+        Json.campo(sb, "status");
+        Json.texto(sb, r.getStatus().name()).append(',');
+        Json.campo(sb, "prazoRetirada");
+        Json.texto(sb, prazo == null ? null : prazo.toString()).append(',');
+        Json.campo(sb, "exemplar");
+        if (prazo == null) {
+            sb.append("null");
+        } else {
+            sb.append(r.getExemplar());
+        }
+        return sb.append('}');
+    }
+
+    private static StringBuilder emprestimo(StringBuilder sb, Emprestimo e) {
+        LocalDate real = e.getDataDevolucaoReal();
+        sb.append('{');
+        Json.campo(sb, "id");
+        Json.texto(sb, e.getIdEmprestimo()).append(',');
+        Json.campo(sb, "usuario");
+        Json.texto(sb, e.getUsuario().getId()).append(',');
+        Json.campo(sb, "item");
+        Json.texto(sb, e.getItem().getCodigo()).append(',');
+        Json.campo(sb, "exemplar").append(e.getExemplar()).append(',');
+        Json.campo(sb, "dataEmprestimo");
+        Json.texto(sb, e.getDataEmprestimo().toString()).append(',');
+        Json.campo(sb, "dataPrevista");
+        Json.texto(sb, e.getDataDevolucaoPrevista().toString()).append(',');
+        Json.campo(sb, "dataDevolucao");
+        Json.texto(sb, real == null ? null : real.toString()).append(',');
+        Json.campo(sb, "multa").append(e.getMultaCobrada()).append(',');
+        Json.campo(sb, "multaAcumulada").append(e.getMultaAcumuladaCentavos() / 100.0);
+        return sb.append('}');
+    }
+
+    private static String listaEmprestimos(List<Emprestimo> emprestimos) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "total").append(emprestimos.size()).append(',');
+        Json.campo(sb, "emprestimos").append('[');
+        for (int i = 0; i < emprestimos.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            emprestimo(sb, emprestimos.get(i));
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String lote(ResultadoLote lote) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "completo").append(lote.isCompleto()).append(',');
+        Json.campo(sb, "sucesso").append(lote.getQuantidadeSucesso()).append(',');
+        Json.campo(sb, "linhas").append('[');
+        List<ResultadoLote.Linha> linhas = lote.getLinhas();
+        for (int i = 0; i < linhas.size(); i++) {
+            ResultadoLote.Linha l = linhas.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('{');
+            Json.campo(sb, "chave");
+            Json.texto(sb, l.getChave()).append(',');
+            if (l.isSucesso()) {
+                Json.campo(sb, "emprestimo");
+                emprestimo(sb, l.getEmprestimo());
+            } else {
+                Json.campo(sb, "erro");
+                Json.texto(sb, l.getErro()).append(',');
+                Json.campo(sb, "regra");
+                Json.texto(sb, l.getRegra().name());
+            }
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String erro(String mensagem, RegraDeNegocioException.Regra regra) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "erro");
+        Json.texto(sb, mensagem);
+        if (regra != null) {
+            sb.append(',');
+            Json.campo(sb, "regra");
+            Json.texto(sb, regra.name());
+        }
+        return sb.append('}').toString();
+    }
+
+    // ---------------------------------------------------------------- entrada
+
+    private static Map<String, Object> corpo(HttpExchange troca) throws IOException {
+        String texto = new String(troca.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        return Json.lerObjeto(texto);
+    }
+
+    private static Map<String, String> parametros(String query) {
+        Map<String, String> parametros = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parametros;
+        }
+        for (String par : query.split("&")) {
+            int igual = par.indexOf('=');
+            String nome = igual < 0 ? par : par.substring(0, igual);
+            String valor = igual < 0 ? "" : par.substring(igual + 1);
+            parametros.put(URLDecoder.decode(nome, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return parametros;
+    }
+
+    private static String texto(Map<String, Object> dados, String campo) {
+        Object valor = dados.get(campo);
+        if (valor == null) {
+            throw new IllegalArgumentException("campo '" + campo + "' é obrigatório");
+        }
+        return valor.toString();
+    }
+
+    private static int inteiro(Map<String, Object> dados, String campo) {
+        Object valor = dados.get(campo);
+        if (valor instanceof Number) {
+            return ((Number) valor).intValue();
+        }
+        return numero(texto(dados, campo), campo);
+    }
+
+    // Campo de cadastro: vai pro journal e pros CSVs, onde ';' e quebra de linha são separadores -
+    // o JSON decodifica "\n" e "\u003b", então a checagem é aqui, no texto já decodificado
+    private static String campo(Map<String, Object> dados, String campo) {
+        String valor = texto(dados, campo);
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == ';' || c < 0x20 || c == 0x7F) {
+                throw new IllegalArgumentException("campo '" + campo + "' não pode ter ';' nem caractere de controle");
+            }
+        }
+        return valor;
+    }
+
+    private static String opcional(Map<String, Object> dados, String campo) {
+        Object valor = dados.get(campo);
+        return valor == null ? null : valor.toString();
+    }
+
+    // "valor" em reais, número (12.5) ou texto ("12,50")
+    private static long centavos(Map<String, Object> dados) {
+        return Pagamentos.centavos(texto(dados, "valor"));
+    }
+
+    private static List<String> textos(Map<String, Object> dados, String campo) {
+        Object valor = dados.get(campo);
+        if (!(valor instanceof List)) {
+            throw new IllegalArgumentException("campo '" + campo + "' deve ser uma lista");
+        }
+        List<String> textos = new ArrayList<>();
+        for (Object v : (List<?>) valor) {
+            textos.add(String.valueOf(v));
+        }
+        return textos;
+    }
+
+    private static int numero(String texto, String campo) {
+        try {
+            return Integer.parseInt(texto.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + campo + "' deve ser um número inteiro");
+        }
+    }
+
+    private static void responder(HttpExchange troca, Resposta resposta) throws IOException {
+        byte[] bytes = resposta.json.getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", resposta.tipo);
+        troca.sendResponseHeaders(resposta.status, bytes.length);
+        try (OutputStream saida = troca.getResponseBody()) {
+            saida.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String pasta = args.length > 1 ? args[1] : ".";
+        String modo = args.length > 3 ? args[2] : "";
+
+        SistemaBiblioteca sistema = new SistemaBiblioteca(pasta);
+        PrimarioReplicacao primario = null;
+        SeguidorReplicacao seguidor = null;
+        if ("--seguir".equals(modo)) {
+            // Réplica: nada de carregar a pasta - o estado vem do primário
+            int doisPontos = args[3].lastIndexOf(':');
+            seguidor = new SeguidorReplicacao(sistema, new InetSocketAddress(args[3].substring(0, doisPontos),
+                    Integer.parseInt(args[3].substring(doisPontos + 1))));
+            seguidor.iniciar();
+        } else {
+            sistema.carregarDados();
+            sistema.ativarArquivoEventos();
+            sistema.iniciarAgendadorReservas();
+            if ("--replicar".equals(modo)) {
+                primario = sistema.iniciarReplicacao(Integer.parseInt(args[3]));
+            }
+        }
+        sistema.registrarJmx();
+        ServidorHttp servidor = new ServidorHttp(sistema, porta);
+        servidor.setReplicacao(primario, seguidor);
+        servidor.iniciar();
+        SeguidorReplicacao replica = seguidor;
+        // Ctrl+C: para de atender e fecha o journal (tudo que foi respondido já está nele)
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar();
+            if (replica != null) {
+                replica.close();
+            }
+            sistema.fecharJournal();
+        }));
+        System.out.println("Servidor HTTP na porta " + servidor.getPorta()
+                + (servidor.isThreadsVirtuais() ? " (threads virtuais)" : " (pool de threads - JVM sem threads virtuais)")
+                + (primario != null ? " - replicação na porta " + primario.getPorta() : "")
+                + (seguidor != null ? " - réplica de " + args[3] : ""));
+    }
+}
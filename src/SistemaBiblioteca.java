@@ -1,15 +1,37 @@
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Classe principal que gerencia o sistema
@@ -17,6 +39,40 @@ import java.util.Scanner;
  * Essa classe coordena tudo: cadastro, empréstimos, devoluções, etc.
  * Trabalha com as hierarquias de Usuario e ItemDeAcervo usando polimorfismo.
  * 
+ * Empréstimo e devolução podem ser chamados de várias threads (vários
+ * balcões ao mesmo tempo). Não tem uma trava global: cada usuário cai numa
+ * "faixa" de travas (RN2, RN3 e RN4 dependem só dele) e os exemplares do
+ * item são disputados com compare-and-set (RN1), então operações de
+ * usuários e itens diferentes rodam em paralelo. O empréstimo é sempre do
+ * título (código do item): sai qualquer exemplar que esteja na estante.
+ * 
+ * Depois de carregarDados(), toda alteração também vai pro journal
+ * (journal.log) antes do método retornar, então uma queda não perde
+ * empréstimo nenhum. salvarDados() grava o snapshot completo e limpa
+ * o journal. Se a gravação no journal falhar (disco cheio), a operação
+ * volta com erro e o sistema fica somente leitura até reiniciar.
+ * 
+ * Empréstimos devolvidos há muito tempo podem sair da memória e do
+ * snapshot pro arquivo morto (arquivarEmprestimos / ArquivoEmprestimos);
+ * as consultas por ID, usuário e item e o relatório completo olham as
+ * duas camadas.
+ * 
+ * Multa paga ou isentada (pagarMulta, isentarMulta, importarQuitacoes) baixa
+ * o saldo do usuário na hora e fica no lancamentos.log (Pagamentos), que
+ * não é compactado; o lançamento também vai pro journal, pras réplicas.
+ * 
+ * Com iniciarReplicacao() as mesmas linhas do journal também vão pras
+ * réplicas (PrimarioReplicacao). Numa réplica (SeguidorReplicacao) o
+ * sistema fica somente leitura: cadastro, empréstimo, devolução e reserva
+ * são recusados até ela ser promovida.
+ * 
+ * Balcão só de circulação: usarCatalogoMapeado() antes de carregarDados()
+ * e o acervo vem do catalogo.map (CatalogoMapeado) em vez do acervo.csv ou
+ * do snapshot. Cada item é uma visão do arquivo, o código é achado pela
+ * tabela do próprio catálogo e os exemplares que os empréstimos pegam são
+ * os bits dele. Cadastro de item é recusado - mudou o acervo, grava o
+ * catálogo de novo (gravarCatalogoMapeado) no balcão principal.
+ * 
  * @author Ryan Figueredo
  */
 public class SistemaBiblioteca {
@@ -24,212 +80,2260 @@ public class SistemaBiblioteca {
     private List<ItemDeAcervo> acervo;
     private List<Emprestimo> historicoEmprestimos;
 
-    private final String USUARIOS_FILE = "usuarios.csv";
-    private final String ACERVO_FILE = "acervo.csv";
+    // Índices por chave primária - evitam varrer as listas a cada busca
+    // As listas continuam existindo pra manter a ordem de cadastro nas listagens
+    private Map<String, Usuario> indiceUsuarios;
+    private Map<String, ItemDeAcervo> indiceAcervo;
+    private ConcurrentHashMap<String, Emprestimo> indiceEmprestimos;
+
+    private final String USUARIOS_FILE;
+    private final String ACERVO_FILE;
+    private final String EMPRESTIMOS_FILE;
+    private final String JOURNAL_FILE;
+    private final String SNAPSHOT_FILE;
+    private final String RESERVAS_FILE;
+    private final String EVENTOS_FILE;
+
+    // Formato do snapshot gravado por salvarDados()
+    public enum FormatoSnapshot { CSV, BINARIO }
+
+    private FormatoSnapshot formatoSnapshot = FormatoSnapshot.CSV;
+
+    // Prefixos das linhas do journal
+    private static final String EVT_USUARIO = "U";
+    private static final String EVT_ITEM = "I";
+    private static final String EVT_EMPRESTIMO = "E";
+    private static final String EVT_DEVOLUCAO = "D";
+    private static final String EVT_RESERVA = "R";
+    private static final String EVT_SITUACAO_RESERVA = "V"; // Reserva separada, atendida, expirada ou cancelada
+    private static final String EVT_LANCAMENTO = "Q"; // Pagamento ou isenção de multa (linha do Pagamentos)
+
+    // Quantidade de faixas de trava por usuário - potência de 2 pra usar máscara
+    private static final int FAIXAS_TRAVA = 256;
+    // A partir de quantos empréstimos por pedaço o recálculo de multas divide o trabalho entre threads
+    private static final long LIMIAR_PARALELO = 10_000;
+
+    private final AtomicLong proximoIdEmprestimo = new AtomicLong(1);
+    private final AtomicLong proximoIdReserva = new AtomicLong(1);
+    private final ReentrantLock[] travasUsuarios;
+    private final ControleAtrasos controleAtrasos;
+    private final ControleReservas controleReservas;
+    private ScheduledExecutorService agendadorReservas; // null até iniciarAgendadorReservas()
+    private volatile long diaRecalculoMultas = Long.MIN_VALUE; // Último dia em que as multas foram recalculadas
+    private volatile int diasParaArquivar; // Idade mínima (em dias desde a devolução) pro arquivamento automático - 0 desliga
+    private final IndiceBusca indiceBusca;
+    private final IndicesAcervo indicesSecundarios; // Tipo, ano, autor, editora e disponibilidade
+    private volatile Journal journal; // null até carregarDados() abrir
+    private final Metricas metricas;
+    private final Relatorios relatorios; // Agregados atualizados a cada empréstimo e devolução
+    private final ArquivoEmprestimos arquivo; // Empréstimos devolvidos que já saíram da memória
+    private final BarramentoEventos barramento; // Eventos de circulação pros sistemas de fora
+    private final Pagamentos pagamentos; // Pagamentos e isenções de multa (lancamentos.log)
+    private ArquivoEventos arquivoEventos; // null até ativarArquivoEventos()
+    private volatile PrimarioReplicacao primario; // null até iniciarReplicacao()
+    private volatile boolean somenteLeitura; // Réplica: só o SeguidorReplicacao altera o estado
+    private volatile String falhaJournal; // Gravação que falhou: daí em diante só leitura (o disco ficou pra trás)
+    private volatile CatalogoMapeado catalogo; // null até usarCatalogoMapeado() - aí o acervo são visões dele
+    private boolean arquivoAberto;
+    private final String pastaDados;
+    private Scanner scanner;
+
+    // Construtor - inicializa tudo vazio, com os arquivos na pasta atual
+    public SistemaBiblioteca() {
+        this(".");
+    }
+
+    // Construtor com a pasta onde ficam os arquivos de dados
+    public SistemaBiblioteca(String pastaDados) {
+        this.USUARIOS_FILE = Paths.get(pastaDados, "usuarios.csv").normalize().toString();
+        this.ACERVO_FILE = Paths.get(pastaDados, "acervo.csv").normalize().toString();
+        this.EMPRESTIMOS_FILE = Paths.get(pastaDados, "emprestimos.csv").normalize().toString();
+        this.JOURNAL_FILE = Paths.get(pastaDados, "journal.log").normalize().toString();
+        this.SNAPSHOT_FILE = Paths.get(pastaDados, "biblioteca.snap").normalize().toString();
+        this.RESERVAS_FILE = Paths.get(pastaDados, "reservas.csv").normalize().toString();
+        this.EVENTOS_FILE = Paths.get(pastaDados, "eventos.log").normalize().toString();
+        this.listaUsuarios = Collections.synchronizedList(new ArrayList<>());
+        this.acervo = Collections.synchronizedList(new ArrayList<>());
+        this.historicoEmprestimos = Collections.synchronizedList(new ArrayList<>());
+        this.indiceUsuarios = new ConcurrentHashMap<>();
+        this.indiceAcervo = new ConcurrentHashMap<>();
+        this.indiceEmprestimos = new ConcurrentHashMap<>();
+        this.travasUsuarios = new ReentrantLock[FAIXAS_TRAVA];
+        for (int i = 0; i < FAIXAS_TRAVA; i++) {
+            this.travasUsuarios[i] = new ReentrantLock();
+        }
+        this.controleAtrasos = new ControleAtrasos(LocalDate.now());
+        this.controleReservas = new ControleReservas();
+        this.indiceBusca = new IndiceBusca();
+        this.indicesSecundarios = new IndicesAcervo();
+        this.metricas = new Metricas();
+        this.relatorios = new Relatorios();
+        this.arquivo = new ArquivoEmprestimos(Paths.get(pastaDados), this::montarArquivado);
+        this.barramento = new BarramentoEventos();
+        this.pagamentos = new Pagamentos(Paths.get(pastaDados, "lancamentos.log").normalize());
+        this.pastaDados = Paths.get(pastaDados).toAbsolutePath().normalize().toString();
+        this.scanner = new Scanner(System.in);
+    }
+
+    // Escolhe a trava da faixa do usuário
+    // Espalha o hash pra IDs parecidos ("A100", "A101"...) não caírem na mesma faixa
+    private ReentrantLock travaDoUsuario(Usuario usuario) {
+        return travasUsuarios[faixaDoUsuario(usuario)];
+    }
+
+    private static int faixaDoUsuario(Usuario usuario) {
+        int h = usuario.getId().hashCode();
+        h ^= (h >>> 16);
+        return h & (FAIXAS_TRAVA - 1);
+    }
+
+    // Busca um usuário pelo ID direto no índice (O(1))
+    private Optional<Usuario> buscarUsuario(String id) {
+        return Optional.ofNullable(medirBusca(Metricas.Operacao.BUSCA_USUARIO, indiceUsuarios, id));
+    }
+    
+    // Busca um item pelo código - pode ser Livro ou Revista
+    private Optional<ItemDeAcervo> buscarItem(String cod) {
+        if (catalogo == null) {
+            return Optional.ofNullable(medirBusca(Metricas.Operacao.BUSCA_ITEM, indiceAcervo, cod));
+        }
+        long inicio = System.nanoTime();
+        ItemDeAcervo item = itemDoAcervo(cod);
+        if (item == null) {
+            metricas.registrarFalha(Metricas.Operacao.BUSCA_ITEM, inicio);
+        } else {
+            metricas.registrar(Metricas.Operacao.BUSCA_ITEM, inicio);
+        }
+        return Optional.ofNullable(item);
+    }
+
+    // Sem medir: no modo catálogo o código vai pela tabela hash do catalogo.map, e a posição
+    // dela é a mesma da lista (a visão registrada, sempre o mesmo objeto pro mesmo item)
+    private ItemDeAcervo itemDoAcervo(String cod) {
+        CatalogoMapeado c = catalogo;
+        if (c == null) {
+            return indiceAcervo.get(cod);
+        }
+        int n = c.numeroDe(cod);
+        return n < 0 ? null : acervo.get(n);
+    }
+    
+    // Busca um empréstimo pelo ID - primeiro na memória, depois no arquivo morto
+    // (o que vem do arquivo já está devolvido, então devolver de novo dá "já devolvido")
+    private Optional<Emprestimo> buscarEmprestimo(String id) {
+        long inicio = System.nanoTime();
+        Emprestimo emprestimo = indiceEmprestimos.get(id);
+        if (emprestimo == null) {
+            emprestimo = arquivo.buscar(id);
+        }
+        if (emprestimo == null) {
+            metricas.registrarFalha(Metricas.Operacao.BUSCA_EMPRESTIMO, inicio);
+        } else {
+            metricas.registrar(Metricas.Operacao.BUSCA_EMPRESTIMO, inicio);
+        }
+        return Optional.ofNullable(emprestimo);
+    }
+
+    // Consulta um empréstimo pelo ID, esteja ele na memória ou no arquivo morto
+    public Optional<Emprestimo> consultarEmprestimo(String id) {
+        return buscarEmprestimo(id);
+    }
+
+    // Consulta um usuário pelo ID (o cluster usa pra checar a vaga no nó dono do usuário)
+    public Optional<Usuario> consultarUsuario(String id) {
+        return buscarUsuario(id);
+    }
+
+    // Todos os empréstimos do usuário: primeiro os arquivados (mais antigos), depois os da memória
+    public List<Emprestimo> getHistoricoDoUsuario(String idUsuario) {
+        List<Emprestimo> saida = arquivo.doUsuario(idUsuario);
+        for (Emprestimo e : new ArrayList<>(historicoEmprestimos)) {
+            if (e.getUsuario().getId().equals(idUsuario)) {
+                saida.add(e);
+            }
+        }
+        return saida;
+    }
+
+    // Todos os empréstimos do item, também nas duas camadas
+    public List<Emprestimo> getHistoricoDoItem(String codItem) {
+        List<Emprestimo> saida = arquivo.doItem(codItem);
+        for (Emprestimo e : new ArrayList<>(historicoEmprestimos)) {
+            if (e.getItem().getCodigo().equals(codItem)) {
+                saida.add(e);
+            }
+        }
+        return saida;
+    }
+
+    // Arquivo morto (empréstimos devolvidos que saíram da memória)
+    public ArquivoEmprestimos getArquivo() {
+        return arquivo;
+    }
+
+    // Consulta no índice contando o tempo - chave que não existe conta como falha
+    private <T> T medirBusca(Metricas.Operacao operacao, Map<String, T> indice, String chave) {
+        long inicio = System.nanoTime();
+        T valor = indice.get(chave);
+        if (valor == null) {
+            metricas.registrarFalha(operacao, inicio);
+        } else {
+            metricas.registrar(operacao, inicio);
+        }
+        return valor;
+    }
+
+    // Contadores e latências das operações (também no menu, no GET /metricas e no JMX)
+    public Metricas getMetricas() {
+        return metricas;
+    }
+
+    // Relatório dos agregados mantidos a cada evento - não passa pelo histórico
+    public Relatorios.Resultado getRelatorio(int top) {
+        return relatorios.gerar(acervo::get, top);
+    }
+
+    // Mesmo relatório, recalculado do histórico inteiro em paralelo (memória + arquivo morto)
+    public Relatorios.Resultado calcularRelatorio(int top) {
+        Stream<Emprestimo> todos = Stream.concat(new ArrayList<>(historicoEmprestimos).stream(), arquivo.emprestimos());
+        return Relatorios.calcular(todos, acervo::get, top);
+    }
+
+    // Grava o acervo atual como catálogo mapeado (catalogo.map na pasta de dados) - os balcões
+    // que só consultam e circulam exemplares usam ele com usarCatalogoMapeado(), sem ler o acervo
+    public Path gravarCatalogoMapeado() throws IOException {
+        Path destino = Paths.get(pastaDados, "catalogo.map");
+        CatalogoMapeado.gravar(destino, acervo);
+        return destino;
+    }
+
+    // Modo catálogo: o acervo passa a ser o catalogo.map da pasta de dados, sem ler o acervo.csv
+    // nem os itens do snapshot. Chamar antes de carregarDados() - os empréstimos e reservas que a
+    // carga reabre marcam os exemplares nos bits do catálogo. Retorna quantos itens tem
+    public synchronized int usarCatalogoMapeado() throws IOException {
+        if (catalogo != null || !acervo.isEmpty()) {
+            throw new IllegalStateException("O catálogo mapeado tem que ser aberto antes de carregar o acervo.");
+        }
+        CatalogoMapeado aberto = CatalogoMapeado.abrir(Paths.get(pastaDados, "catalogo.map"));
+        // A visão do item n fica na posição n da lista: o número interno dela já é n
+        for (int n = 0; n < aberto.tamanho(); n++) {
+            ItemDeAcervo item = aberto.item(n);
+            acervo.add(item);
+            indiceBusca.adicionar(item);
+            indicesSecundarios.adicionar(item);
+        }
+        catalogo = aberto;
+        return aberto.tamanho();
+    }
+
+    // Barramento onde saem os eventos de cadastro, empréstimo, devolução e multa
+    public BarramentoEventos getBarramento() {
+        return barramento;
+    }
+
+    // Passa a gravar os eventos em eventos.log na pasta de dados (chamar de novo não faz nada)
+    // Quem consome de fora lê com ArquivoEventos.ler(arquivo, offset, limite)
+    public synchronized Path ativarArquivoEventos() throws IOException {
+        Path destino = Paths.get(EVENTOS_FILE);
+        if (arquivoEventos == null) {
+            arquivoEventos = new ArquivoEventos(destino);
+            barramento.assinar("arquivo", arquivoEventos);
+        }
+        return destino;
+    }
+
+    // Eventos gravados em eventos.log a partir do offset (o próximo offset vem na resposta)
+    public ArquivoEventos.Leitura lerEventos(long offset, int limite) throws IOException {
+        return ArquivoEventos.ler(Paths.get(EVENTOS_FILE), offset, limite);
+    }
+
+    // Só monta o evento se tiver alguém ouvindo; chamado depois do journal e fora das travas,
+    // porque com o anel cheio quem publica espera o assinante (contrapressão)
+    private void publicar(Function<Emprestimo, Evento> tipo, Emprestimo emprestimo) {
+        if (barramento.temAssinantes()) {
+            barramento.publicar(tipo.apply(emprestimo));
+        }
+    }
+
+    private void publicarDevolucao(Emprestimo emprestimo) {
+        publicar(Evento::emprestimoDevolvido, emprestimo);
+        if (emprestimo.getMultaCentavos() > 0) {
+            publicar(Evento::multaAplicada, emprestimo);
+        }
+    }
+
+    private void publicarLote(ResultadoLote resultado, boolean devolucao) {
+        if (!barramento.temAssinantes()) {
+            return;
+        }
+        for (ResultadoLote.Linha linha : resultado.getLinhas()) {
+            if (linha.isSucesso()) {
+                if (devolucao) {
+                    publicarDevolucao(linha.getEmprestimo());
+                } else {
+                    publicar(Evento::emprestimoRealizado, linha.getEmprestimo());
+                }
+            }
+        }
+    }
+
+    // Publica as métricas no JMX, com o nome da pasta de dados (dá pra chamar mais de uma vez)
+    public boolean registrarJmx() {
+        return metricas.registrarJmx(pastaDados);
+    }
+
+    // Adiciona um usuário - pode ser Aluno ou Professor
+    // Rejeita ID repetido, senão o índice esconderia um dos dois
+    public void adicionarUsuario(Usuario u) throws RegraDeNegocioException {
+        exigirPrimario();
+        validarCampos(camposDoUsuario(u));
+        cadastrarUsuario(u);
+        aguardarJournal(registrarNoJournal(EVT_USUARIO + ";" + linhaUsuario(u)));
+        if (barramento.temAssinantes()) {
+            barramento.publicar(Evento.usuarioCadastrado(u));
+        }
+    }
+    
+    // Adiciona um item ao acervo - pode ser Livro ou Revista
+    // Rejeita código repetido pelo mesmo motivo
+    public void adicionarItem(ItemDeAcervo item) throws RegraDeNegocioException {
+        exigirPrimario();
+        validarCampos(camposDoItem(item));
+        cadastrarItem(item);
+        aguardarJournal(registrarNoJournal(EVT_ITEM + ";" + linhaItem(item)));
+        if (barramento.temAssinantes()) {
+            barramento.publicar(Evento.itemAdicionado(item));
+        }
+    }
+
+    // ';' separa os campos e a quebra de linha separa os registros no journal, nos CSVs e no que
+    // vai pras réplicas - um nome com "\nU;..." viraria outro cadastro na próxima carga
+    static boolean temSeparador(String campo) {
+        return campo != null && (campo.indexOf(';') >= 0 || campo.indexOf('\n') >= 0 || campo.indexOf('\r') >= 0);
+    }
+
+    private static void validarCampos(String... campos) throws RegraDeNegocioException {
+        for (String campo : campos) {
+            if (temSeparador(campo)) {
+                throw new RegraDeNegocioException("Os campos do cadastro não podem ter ';' nem quebra de linha.");
+            }
+        }
+    }
+
+    // Os campos de texto que vão pra linhaUsuario / linhaItem
+    private static String[] camposDoUsuario(Usuario u) {
+        if (u instanceof Aluno) {
+            Aluno a = (Aluno) u;
+            return new String[] {u.getId(), u.getNome(), u.getEndereco(), u.getStatus(), a.getMatricula(), a.getCurso()};
+        } else if (u instanceof Professor) {
+            Professor p = (Professor) u;
+            return new String[] {u.getId(), u.getNome(), u.getEndereco(), u.getStatus(), p.getSiape(), p.getDepartamento()};
+        }
+        return new String[] {u.getId(), u.getNome(), u.getEndereco(), u.getStatus()};
+    }
+
+    private static String[] camposDoItem(ItemDeAcervo i) {
+        if (i instanceof Livro) {
+            Livro l = (Livro) i;
+            return new String[] {i.getCodigo(), i.getTitulo(), l.getAutor(), l.getIsbn()};
+        } else if (i instanceof Revista) {
+            Revista r = (Revista) i;
+            return new String[] {i.getCodigo(), i.getTitulo(), r.getEditora(), r.getIssn()};
+        }
+        return new String[] {i.getCodigo(), i.getTitulo()};
+    }
+
+    // Cadastro sem passar pelo journal - usado na carga dos arquivos
+    private void cadastrarUsuario(Usuario u) throws RegraDeNegocioException {
+        if (indiceUsuarios.putIfAbsent(u.getId(), u) != null) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO, "Já existe um usuário com o ID '" + u.getId() + "'.");
+        }
+        this.listaUsuarios.add(u);
+    }
+
+    private void cadastrarItem(ItemDeAcervo item) throws RegraDeNegocioException {
+        if (catalogo != null) {
+            throw new RegraDeNegocioException("Acervo vem do catálogo mapeado: cadastre no balcão principal e grave o catálogo de novo.");
+        }
+        if (indiceAcervo.putIfAbsent(item.getCodigo(), item) != null) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO, "Já existe um item com o código '" + item.getCodigo() + "'.");
+        }
+        // O número interno é a posição na lista - atribuído junto com o add pra não repetir
+        synchronized (acervo) {
+            item.setNumeroInterno(acervo.size());
+            this.acervo.add(item);
+        }
+        indiceBusca.adicionar(item);
+        indicesSecundarios.adicionar(item);
+    }
+
+    // Registra um empréstimo no histórico e no índice
+    private void registrarEmprestimo(Emprestimo emprestimo) {
+        this.indiceEmprestimos.put(emprestimo.getIdEmprestimo(), emprestimo);
+        this.historicoEmprestimos.add(emprestimo);
+        relatorios.registrarEmprestimo(emprestimo);
+        if (emprestimo.isDevolvido()) {
+            relatorios.registrarDevolucao(emprestimo); // Já veio fechado do arquivo
+        }
+    }
+
+    // Manda uma linha pro journal (se estiver aberto) sem esperar o disco
+    // Com replicação ligada, o PrimarioReplicacao numera a linha na mesma ordem do journal
+    private CompletableFuture<Void> registrarNoJournal(String linha) {
+        Journal j = this.journal;
+        PrimarioReplicacao p = this.primario;
+        if (p != null) {
+            return p.registrar(linha, j);
+        }
+        return j == null ? CompletableFuture.completedFuture(null) : j.registrar(linha);
+    }
+
+    private static final String SOMENTE_LEITURA = "Réplica somente leitura: cadastros, empréstimos, devoluções e reservas vão pro primário.";
+
+    private void exigirPrimario() throws RegraDeNegocioException {
+        String bloqueio = bloqueioDeEscrita();
+        if (bloqueio != null) {
+            throw new RegraDeNegocioException(bloqueio);
+        }
+    }
+
+    // Por que o sistema não aceita alteração agora (réplica ou journal com falha) - null se aceita
+    private String bloqueioDeEscrita() {
+        return somenteLeitura ? SOMENTE_LEITURA : falhaJournal;
+    }
+
+    public boolean isSomenteLeitura() {
+        return somenteLeitura;
+    }
+
+    // Espera o fsync do journal - feito fora das travas pra vários balcões
+    // caírem no mesmo lote de gravação
+    // Se a gravação falhou, a alteração já está na memória (e outros balcões já viram) mas não no
+    // disco: a operação volta como falha e o sistema passa a só ler - reiniciar volta pro que está
+    // no disco
+    private void aguardarJournal(CompletableFuture<Void> gravacao) {
+        long inicio = System.nanoTime();
+        try {
+            gravacao.join();
+            if (journal != null) {
+                metricas.registrar(Metricas.Operacao.JOURNAL, inicio);
+            }
+        } catch (CompletionException e) {
+            metricas.registrarFalha(Metricas.Operacao.JOURNAL, inicio);
+            String motivo = "Falha ao gravar no journal: " + e.getCause().getMessage();
+            falhaJournal = motivo + ". Sistema em somente leitura até reiniciar.";
+            System.err.println("Erro ao gravar no journal: " + e.getCause().getMessage());
+            PrimarioReplicacao p = primario;
+            if (p != null) {
+                p.pararPorFalha(e.getCause()); // As réplicas ficam com o que está no disco
+            }
+            throw new IllegalStateException(motivo + " (operação não confirmada)", e.getCause());
+        }
+    }
+    
+    public List<Emprestimo> getHistoricoEmprestimos() { 
+        return historicoEmprestimos; 
+    }
+
+    // Empréstimos ainda não devolvidos, na ordem em que foram feitos
+    public List<Emprestimo> getEmprestimosAtivos() {
+        List<Emprestimo> ativos = new ArrayList<>();
+        for (Emprestimo e : new ArrayList<>(historicoEmprestimos)) {
+            if (!e.isDevolvido()) {
+                ativos.add(e);
+            }
+        }
+        return ativos;
+    }
+
+    // Atrasados até hoje, do que venceu primeiro pro último
+    public List<Emprestimo> getEmprestimosAtrasados() {
+        controleAtrasos.avancarAte(LocalDate.now());
+        return controleAtrasos.listarAtrasados();
+    }
+
+    // Listagens paginadas (ver Listagens): uma página na ordem pedida e o cursor da próxima
+    // A lista é copiada de uma vez (toArray) e percorrida fora do lock
+    public Listagens.Pagina<Usuario> listarUsuarios(Listagens.OrdemUsuarios ordem, boolean decrescente,
+                                                    String cursor, int limite) {
+        long inicio = System.nanoTime();
+        Listagens.Pagina<Usuario> pagina = Listagens.paginar(Arrays.asList(listaUsuarios.toArray(new Usuario[0])),
+                Listagens.chave(ordem), Listagens.listagem("usuarios", ordem, decrescente), cursor, limite, decrescente);
+        metricas.registrar(Metricas.Operacao.LISTAGEM, inicio);
+        return pagina;
+    }
+
+    public Listagens.Pagina<ItemDeAcervo> listarAcervo(Listagens.OrdemAcervo ordem, boolean decrescente,
+                                                       String cursor, int limite) {
+        long inicio = System.nanoTime();
+        Listagens.Pagina<ItemDeAcervo> pagina = Listagens.paginar(Arrays.asList(acervo.toArray(new ItemDeAcervo[0])),
+                Listagens.chave(ordem), Listagens.listagem("acervo", ordem, decrescente), cursor, limite, decrescente);
+        metricas.registrar(Metricas.Operacao.LISTAGEM, inicio);
+        return pagina;
+    }
+
+    public Listagens.Pagina<Emprestimo> listarEmprestimosAtivos(Listagens.OrdemEmprestimos ordem, boolean decrescente,
+                                                                String cursor, int limite) {
+        long inicio = System.nanoTime();
+        Listagens.Pagina<Emprestimo> pagina = Listagens.paginar(getEmprestimosAtivos(), Listagens.chave(ordem),
+                Listagens.listagem("ativos", ordem, decrescente), cursor, limite, decrescente);
+        metricas.registrar(Metricas.Operacao.LISTAGEM, inicio);
+        return pagina;
+    }
+
+    public Listagens.Pagina<Emprestimo> listarEmprestimosAtrasados(Listagens.OrdemEmprestimos ordem, boolean decrescente,
+                                                                   String cursor, int limite) {
+        long inicio = System.nanoTime();
+        Listagens.Pagina<Emprestimo> pagina = Listagens.paginar(getEmprestimosAtrasados(), Listagens.chave(ordem),
+                Listagens.listagem("atrasados", ordem, decrescente), cursor, limite, decrescente);
+        metricas.registrar(Metricas.Operacao.LISTAGEM, inicio);
+        return pagina;
+    }
+
+    // Escreve a listagem inteira em CSV no canal (arquivo, resposta HTTP) - retorna quantas linhas
+    // Não fecha o canal: quem abriu fecha
+    public int exportar(Listagens.Tipo tipo, WritableByteChannel canal) throws IOException {
+        long inicio = System.nanoTime();
+        Exportador exportador = new Exportador(canal);
+        int linhas;
+        switch (tipo) {
+            case USUARIOS:
+                linhas = exportador.usuarios(Arrays.asList(listaUsuarios.toArray(new Usuario[0])));
+                break;
+            case ACERVO:
+                linhas = exportador.acervo(Arrays.asList(acervo.toArray(new ItemDeAcervo[0])));
+                break;
+            case EMPRESTIMOS_ATIVOS:
+                linhas = exportador.emprestimos(getEmprestimosAtivos(), LocalDate.now().toEpochDay());
+                break;
+            default:
+                linhas = exportador.emprestimos(getEmprestimosAtrasados(), LocalDate.now().toEpochDay());
+                break;
+        }
+        metricas.registrar(Metricas.Operacao.EXPORTACAO, inicio);
+        return linhas;
+    }
+
+    // Busca textual no título, autor, editora, ISBN e ISSN - sem acento e por prefixo
+    // Retorna os mais relevantes primeiro, no máximo "limite" itens
+    public List<ItemDeAcervo> buscarNoAcervo(String consulta, int limite, boolean apenasDisponiveis) {
+        long inicio = System.nanoTime();
+        List<ItemDeAcervo> encontrados = indiceBusca.buscar(consulta, limite, apenasDisponiveis);
+        metricas.registrar(Metricas.Operacao.BUSCA_ACERVO, inicio);
+        return encontrados;
+    }
+
+    // Filtro por tipo, intervalo de anos, autor, editora e/ou só disponíveis
+    // O resultado é paginado pelo cursor: filtrarAcervo(f).pagina(0, 20), depois pagina(proximoCursor, 20)...
+    public IndicesAcervo.Resultado filtrarAcervo(IndicesAcervo.Filtro filtro) {
+        long inicio = System.nanoTime();
+        IndicesAcervo.Resultado resultado = indicesSecundarios.filtrar(filtro);
+        metricas.registrar(Metricas.Operacao.FILTRO_ACERVO, inicio);
+        return resultado;
+    }
+
+    // CSV (padrão, dá pra abrir em planilha) ou binário (menor e mais rápido)
+    public void setFormatoSnapshot(FormatoSnapshot formato) {
+        this.formatoSnapshot = formato;
+    }
+
+    // Realiza um empréstimo - valida todas as regras de negócio
+    // RN1: Item disponível | RN2: Limite de empréstimos | RN3: Sem multa | RN4: Sem item atrasado
+    public Emprestimo realizarEmprestimo(String idUsuario, String codItem) throws RegraDeNegocioException {
+        long inicio = System.nanoTime();
+        try {
+            Emprestimo emprestimo = emprestar(idUsuario, codItem);
+            metricas.registrar(Metricas.Operacao.EMPRESTIMO, inicio);
+            return emprestimo;
+        } catch (RegraDeNegocioException e) {
+            metricas.registrarRecusa(Metricas.Operacao.EMPRESTIMO, e.getRegra(), inicio);
+            throw e;
+        }
+    }
+
+    private Emprestimo emprestar(String idUsuario, String codItem) throws RegraDeNegocioException {
+        exigirPrimario();
+        // Busca usuário e item
+        Usuario usuario = buscarUsuario(idUsuario)
+                .orElseThrow(() -> naoEncontrado("Usuário não encontrado."));
+
+        ItemDeAcervo item = buscarItem(codItem)
+                .orElseThrow(() -> naoEncontrado("Item de Acervo não encontrado."));
+
+        // Garante que os contadores de atraso estão em dia antes de checar RN4,
+        // e que um item com retirada vencida já passou pro próximo da fila
+        LocalDate hoje = LocalDate.now();
+        controleAtrasos.avancarAte(hoje);
+        expirarReservas(hoje);
+
+        // RN1: Item deve ter exemplar na estante (ou um separado pra esse usuário por uma reserva)
+        // Checagem rápida antes de pegar a trava - a garantia de verdade é o CAS lá embaixo
+        if (!item.isDisponivelPara(usuario)) {
+            throw itemIndisponivel(item);
+        }
+
+        Emprestimo emprestimoCriado;
+        CompletableFuture<Void> gravacao;
+        ReentrantLock trava = travaDoUsuario(usuario);
+        trava.lock();
+        try {
+            // RN2 e RN4: Verifica se pode emprestar
+            // Polimorfismo: getLimiteEmprestimo() retorna 3 pra Aluno e 5 pra Professor
+            if (!usuario.isAptoParaEmprestimo()) {
+                throw usuario.getQuantidadeEmprestimos() >= usuario.getLimiteEmprestimo()
+                        ? limiteExcedido(usuario) : usuarioBloqueado(usuario);
+            }
+
+            // RN1 de novo, agora atômico. Se tem exemplar separado pra esse usuário, é ele que
+            // sai (e a reserva fica atendida); senão, qualquer exemplar da estante - só um
+            // balcão consegue pegar cada exemplar
+            Reserva separada = item.getReservaSeparadaPara(usuario);
+            int exemplar;
+            if (separada != null && controleReservas.atender(separada)) {
+                exemplar = separada.getExemplar();
+            } else {
+                separada = null; // Expirou agora há pouco
+                exemplar = item.tentarEmprestar();
+            }
+            if (exemplar < 0) {
+                throw itemIndisponivel(item);
+            }
+
+            // Cria o empréstimo
+            String novoId = String.valueOf(proximoIdEmprestimo.getAndIncrement());
+            Emprestimo novoEmprestimo = new Emprestimo(novoId, usuario, item, exemplar, hoje);
+
+            // Atualiza tudo
+            usuario.adicionarEmprestimo(novoEmprestimo);
+            registrarEmprestimo(novoEmprestimo);
+            controleAtrasos.registrarAbertura(novoEmprestimo);
+            gravacao = registrarNoJournal(EVT_EMPRESTIMO + ";" + novoId + ";" + usuario.getId() + ";"
+                    + item.getCodigo() + ";" + hoje + ";" + exemplar + ";" + novoEmprestimo.getDataDevolucaoPrevista()
+                    + (separada != null ? "\n" + linhaSituacaoReserva(separada) : ""));
+            emprestimoCriado = novoEmprestimo;
+        } finally {
+            trava.unlock();
+        }
+        aguardarJournal(gravacao);
+        publicar(Evento::emprestimoRealizado, emprestimoCriado);
+        return emprestimoCriado;
+    }
+
+    private static RegraDeNegocioException itemIndisponivel(ItemDeAcervo item) {
+        return new RegraDeNegocioException(RegraDeNegocioException.Regra.RN1,
+                "RN1: O item '" + item.getTitulo() + "' está indisponível para empréstimo.");
+    }
+
+    private static RegraDeNegocioException limiteExcedido(Usuario usuario) {
+        return new RegraDeNegocioException(RegraDeNegocioException.Regra.RN2,
+                "RN2: Limite máximo de empréstimos excedido (" + usuario.getLimiteEmprestimo() + ").");
+    }
+
+    // RN3 quando tem multa pendente, RN4 pro resto (item atrasado ou cadastro bloqueado)
+    private static RegraDeNegocioException usuarioBloqueado(Usuario usuario) {
+        if (usuario.getMultasPendentes() > 0) {
+            return new RegraDeNegocioException(RegraDeNegocioException.Regra.RN3,
+                    "RN3: Usuário bloqueado por multa pendente.");
+        }
+        return new RegraDeNegocioException(RegraDeNegocioException.Regra.RN4,
+                "RN4: Usuário bloqueado (item com prazo vencido ou cadastro bloqueado).");
+    }
+
+    private static RegraDeNegocioException naoEncontrado(String mensagem) {
+        return new RegraDeNegocioException(RegraDeNegocioException.Regra.NAO_ENCONTRADO, mensagem);
+    }
+
+    private static RegraDeNegocioException jaDevolvido() {
+        return new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO, "Empréstimo já foi devolvido.");
+    }
+
+    private static final String CARRINHO_RECUSADO = "Não emprestado: outro item do carrinho foi recusado.";
+
+    // Empréstimo de um carrinho: ou todos os itens saem pro usuário, ou nenhum sai
+    // Usuário e itens são resolvidos uma vez só e a RN2 conta o carrinho inteiro
+    // (não só o primeiro item). Cada linha do resultado diz se o item saiu ou o motivo
+    public ResultadoLote realizarEmprestimos(String idUsuario, List<String> codItens) {
+        long inicio = System.nanoTime();
+        ResultadoLote resultado = new ResultadoLote(codItens);
+        aguardarJournal(emprestarCarrinho(idUsuario, codItens, resultado, LocalDate.now()));
+        publicarLote(resultado, false);
+        registrarLote(Metricas.Operacao.EMPRESTIMO_LOTE, resultado, inicio);
+        return resultado;
+    }
+
+    // Vários carrinhos de uma vez (ID do usuário -> códigos dos itens), cada um tudo-ou-nada
+    // Espera o journal uma vez só no fim, então o lote inteiro cai em poucos fsyncs
+    public Map<String, ResultadoLote> realizarEmprestimos(Map<String, List<String>> carrinhos) {
+        long inicio = System.nanoTime();
+        LocalDate hoje = LocalDate.now();
+        Map<String, ResultadoLote> resultados = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> gravacoes = new ArrayList<>();
+        for (Map.Entry<String, List<String>> carrinho : carrinhos.entrySet()) {
+            ResultadoLote resultado = new ResultadoLote(carrinho.getValue());
+            gravacoes.add(emprestarCarrinho(carrinho.getKey(), carrinho.getValue(), resultado, hoje));
+            resultados.put(carrinho.getKey(), resultado);
+        }
+        aguardarJournal(CompletableFuture.allOf(gravacoes.toArray(new CompletableFuture<?>[0])));
+        for (ResultadoLote resultado : resultados.values()) {
+            publicarLote(resultado, false);
+            registrarLote(Metricas.Operacao.EMPRESTIMO_LOTE, resultado, inicio);
+        }
+        return resultados;
+    }
+
+    // Um lote conta como falha se alguma linha falhou; cada linha recusada conta na sua regra
+    // (as linhas de um carrinho que caíram junto com outra ficam como OUTRA e não contam)
+    private void registrarLote(Metricas.Operacao operacao, ResultadoLote resultado, long inicio) {
+        boolean falhou = false;
+        for (int i = 0; i < resultado.tamanho(); i++) {
+            ResultadoLote.Linha linha = resultado.linha(i);
+            if (!linha.isSucesso()) {
+                falhou = true;
+                if (linha.getRegra() != RegraDeNegocioException.Regra.OUTRA) {
+                    metricas.recusar(linha.getRegra());
+                }
+            }
+        }
+        if (falhou) {
+            metricas.registrarFalha(operacao, inicio);
+        } else {
+            metricas.registrar(operacao, inicio);
+        }
+    }
+
+    private CompletableFuture<Void> emprestarCarrinho(String idUsuario, List<String> codItens,
+                                                      ResultadoLote resultado, LocalDate hoje) {
+        CompletableFuture<Void> nada = CompletableFuture.completedFuture(null);
+        String recusa = bloqueioDeEscrita();
+        if (recusa != null) {
+            resultado.falharRestantes(RegraDeNegocioException.Regra.OUTRA, recusa);
+            return nada;
+        }
+        Usuario usuario = indiceUsuarios.get(idUsuario);
+        if (usuario == null) {
+            resultado.falharRestantes(RegraDeNegocioException.Regra.NAO_ENCONTRADO, "Usuário não encontrado.");
+            return nada;
+        }
+
+        // Resolve cada item uma vez e já faz a checagem rápida de RN1
+        ItemDeAcervo[] itens = new ItemDeAcervo[codItens.size()];
+        Set<String> vistos = new HashSet<>();
+        for (int i = 0; i < itens.length; i++) {
+            String cod = codItens.get(i);
+            itens[i] = itemDoAcervo(cod);
+            if (itens[i] == null) {
+                resultado.falhar(i, naoEncontrado("Item de Acervo não encontrado."));
+            } else if (!vistos.add(cod)) {
+                resultado.falhar(i, RegraDeNegocioException.Regra.CONFLITO, "Item repetido no carrinho.");
+            } else if (!itens[i].isDisponivelPara(usuario)) {
+                resultado.falhar(i, itemIndisponivel(itens[i]));
+            }
+        }
+        controleAtrasos.avancarAte(hoje);
+        expirarReservas(hoje);
+
+        ReentrantLock trava = travaDoUsuario(usuario);
+        trava.lock();
+        try {
+            // RN3/RN4 valem pro carrinho todo
+            if (usuario.isBloqueado()) {
+                RegraDeNegocioException bloqueio = usuarioBloqueado(usuario);
+                resultado.falharRestantes(bloqueio.getRegra(), bloqueio.getMessage());
+            }
+            // RN2 com o carrinho inteiro: as linhas que passam do que falta pro limite são recusadas
+            int livres = usuario.getLimiteEmprestimo() - usuario.getQuantidadeEmprestimos();
+            for (int i = Math.max(livres, 0); i < itens.length; i++) {
+                resultado.falhar(i, limiteExcedido(usuario));
+            }
+            if (resultado.temErro()) {
+                resultado.falharRestantes(RegraDeNegocioException.Regra.OUTRA, CARRINHO_RECUSADO);
+                return nada;
+            }
+
+            // RN1 atômico item a item: os itens com exemplar separado pra este usuário ficam pra
+            // depois, os outros pegam qualquer exemplar da estante. Se outro balcão levou o
+            // último exemplar de um deles, desfaz os que já foram pegos
+            int[] exemplares = new int[itens.length];
+            Reserva[] reservadas = new Reserva[itens.length];
+            List<Reserva> separadas = new ArrayList<>();
+            for (int i = 0; i < itens.length; i++) {
+                reservadas[i] = itens[i].getReservaSeparadaPara(usuario);
+                if (reservadas[i] != null) {
+                    separadas.add(reservadas[i]);
+                    continue;
+                }
+                exemplares[i] = itens[i].tentarEmprestar();
+                if (exemplares[i] < 0) {
+                    devolverPegos(itens, exemplares, reservadas, i);
+                    resultado.falhar(i, itemIndisponivel(itens[i]));
+                    resultado.falharRestantes(RegraDeNegocioException.Regra.OUTRA, CARRINHO_RECUSADO);
+                    return nada;
+                }
+            }
+
+            // As reservas são atendidas juntas (se uma expirou nesse meio tempo, o carrinho
+            // volta inteiro). A linha culpada é a da reserva que não está mais aguardando retirada
+            if (!separadas.isEmpty() && !controleReservas.atenderTodas(separadas)) {
+                int culpada = 0;
+                while (reservadas[culpada] == null || reservadas[culpada].getStatus() == Reserva.Status.AGUARDANDO_RETIRADA) {
+                    culpada++;
+                }
+                devolverPegos(itens, exemplares, reservadas, itens.length);
+                resultado.falhar(culpada, itemIndisponivel(itens[culpada]));
+                resultado.falharRestantes(RegraDeNegocioException.Regra.OUTRA, CARRINHO_RECUSADO);
+                return nada;
+            }
+            for (int i = 0; i < itens.length; i++) {
+                if (reservadas[i] != null) {
+                    exemplares[i] = reservadas[i].getExemplar();
+                }
+            }
+
+            List<Emprestimo> criados = new ArrayList<>(itens.length);
+            StringBuilder eventos = new StringBuilder();
+            for (int i = 0; i < itens.length; i++) {
+                String novoId = String.valueOf(proximoIdEmprestimo.getAndIncrement());
+                Emprestimo novoEmprestimo = new Emprestimo(novoId, usuario, itens[i], exemplares[i], hoje);
+                usuario.adicionarEmprestimo(novoEmprestimo);
+                registrarEmprestimo(novoEmprestimo);
+                criados.add(novoEmprestimo);
+                resultado.concluir(i, novoEmprestimo);
+                if (journal == null) {
+                    continue; // Sem journal (antes da carga) não precisa montar o evento
+                }
+                if (eventos.length() > 0) {
+                    eventos.append('\n');
+                }
+                eventos.append(EVT_EMPRESTIMO).append(';').append(novoId).append(';').append(usuario.getId())
+                        .append(';').append(itens[i].getCodigo()).append(';').append(hoje)
+                        .append(';').append(exemplares[i])
+                        .append(';').append(novoEmprestimo.getDataDevolucaoPrevista());
+            }
+            if (journal != null) {
+                for (Reserva r : separadas) {
+                    eventos.append('\n').append(linhaSituacaoReserva(r));
+                }
+            }
+            controleAtrasos.registrarAberturas(criados);
+            // Um registro só: as linhas do carrinho vão juntas pro journal
+            return eventos.length() == 0 ? nada : registrarNoJournal(eventos.toString());
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    // Desfaz o RN1 das linhas 0..fim-1 que pegaram exemplar da estante (as reservadas não pegaram)
+    private static void devolverPegos(ItemDeAcervo[] itens, int[] exemplares, Reserva[] reservadas, int fim) {
+        for (int j = 0; j < fim; j++) {
+            if (reservadas[j] == null) {
+                itens[j].devolver(exemplares[j]);
+            }
+        }
+    }
+
+    // Realiza uma devolução e calcula multa se tiver atraso
+    public void realizarDevolucao(String idEmprestimo) throws RegraDeNegocioException {
+        long inicio = System.nanoTime();
+        try {
+            devolver(idEmprestimo);
+            metricas.registrar(Metricas.Operacao.DEVOLUCAO, inicio);
+        } catch (RegraDeNegocioException e) {
+            metricas.registrarRecusa(Metricas.Operacao.DEVOLUCAO, e.getRegra(), inicio);
+            throw e;
+        }
+    }
+
+    private void devolver(String idEmprestimo) throws RegraDeNegocioException {
+        exigirPrimario();
+        Emprestimo emprestimo = buscarEmprestimo(idEmprestimo)
+                .orElseThrow(() -> naoEncontrado("Empréstimo não encontrado."));
+
+        // Trava a faixa do dono do empréstimo - duas devoluções do mesmo
+        // empréstimo ao mesmo tempo não podem passar as duas
+        CompletableFuture<Void> gravacao;
+        ReentrantLock trava = travaDoUsuario(emprestimo.getUsuario());
+        trava.lock();
+        try {
+            if (emprestimo.isDevolvido()) {
+                throw jaDevolvido();
+            }
+
+            LocalDate dataDevolucaoReal = LocalDate.now();
+            // O exemplar vai direto pro próximo da fila de reservas, se tiver; senão volta pra estante
+            Reserva separada = controleReservas.alocar(emprestimo.getItem(), emprestimo.getExemplar(), dataDevolucaoReal);
+            fecharEmprestimo(emprestimo, dataDevolucaoReal, separada == null);
+            if (separada == null) {
+                separada = controleReservas.alocarSeLivre(emprestimo.getItem(), dataDevolucaoReal);
+            }
+            gravacao = registrarNoJournal(EVT_DEVOLUCAO + ";" + idEmprestimo + ";" + dataDevolucaoReal
+                    + ";" + emprestimo.getMultaCentavos()
+                    + (separada != null ? "\n" + linhaSituacaoReserva(separada) : ""));
+        } finally {
+            trava.unlock();
+        }
+        aguardarJournal(gravacao);
+        publicarDevolucao(emprestimo);
+    }
+
+    // Devolução em lote (caixa de devolução) - cada linha é independente, um ID errado
+    // não segura os outros. Tudo numa passada: os empréstimos são agrupados pela faixa
+    // de trava do dono, cada faixa é travada uma vez só e vai um registro por faixa pro journal
+    public ResultadoLote realizarDevolucoes(List<String> idsEmprestimo) {
+        long inicio = System.nanoTime();
+        ResultadoLote resultado = new ResultadoLote(idsEmprestimo);
+        String recusa = bloqueioDeEscrita();
+        if (recusa != null) {
+            resultado.falharRestantes(RegraDeNegocioException.Regra.OUTRA, recusa);
+            registrarLote(Metricas.Operacao.DEVOLUCAO_LOTE, resultado, inicio);
+            return resultado;
+        }
+        Emprestimo[] emprestimos = new Emprestimo[idsEmprestimo.size()];
+        long[] ordem = new long[emprestimos.length]; // Faixa nos 32 bits de cima, linha nos de baixo
+        int validos = 0;
+        Set<String> vistos = new HashSet<>();
+        for (int i = 0; i < emprestimos.length; i++) {
+            String id = idsEmprestimo.get(i);
+            emprestimos[i] = indiceEmprestimos.get(id);
+            if (emprestimos[i] == null) {
+                emprestimos[i] = arquivo.buscar(id); // Arquivado já está devolvido - cai no "já devolvido"
+            }
+            if (emprestimos[i] == null) {
+                resultado.falhar(i, naoEncontrado("Empréstimo não encontrado."));
+            } else if (!vistos.add(id)) {
+                resultado.falhar(i, RegraDeNegocioException.Regra.CONFLITO, "Empréstimo repetido no lote.");
+            } else {
+                ordem[validos++] = ((long) faixaDoUsuario(emprestimos[i].getUsuario()) << 32) | i;
+            }
+        }
+        Arrays.sort(ordem, 0, validos);
+
+        LocalDate hoje = LocalDate.now();
+        List<CompletableFuture<Void>> gravacoes = new ArrayList<>();
+        List<Emprestimo> fechados = new ArrayList<>();
+        StringBuilder eventos = new StringBuilder();
+        int k = 0;
+        while (k < validos) {
+            int faixa = (int) (ordem[k] >>> 32);
+            fechados.clear();
+            eventos.setLength(0);
+            ReentrantLock trava = travasUsuarios[faixa];
+            trava.lock();
+            try {
+                for (; k < validos && (int) (ordem[k] >>> 32) == faixa; k++) {
+                    int i = (int) ordem[k];
+                    Emprestimo emprestimo = emprestimos[i];
+                    if (emprestimo.isDevolvido()) {
+                        resultado.falhar(i, jaDevolvido());
+                        continue;
+                    }
+                    emprestimo.finalizarEmprestimo(hoje);
+                    emprestimo.getUsuario().removerEmprestimo(emprestimo);
+                    relatorios.registrarDevolucao(emprestimo);
+                    fechados.add(emprestimo);
+                    resultado.concluir(i, emprestimo);
+                    if (journal == null) {
+                        continue;
+                    }
+                    if (eventos.length() > 0) {
+                        eventos.append('\n');
+                    }
+                    eventos.append(EVT_DEVOLUCAO).append(';').append(emprestimo.getIdEmprestimo()).append(';').append(hoje)
+                            .append(';').append(emprestimo.getMultaCentavos());
+                }
+                controleAtrasos.registrarDevolucoes(fechados);
+                // Libera os exemplares por último, como na devolução individual - os itens com
+                // fila de reserva passam o exemplar direto pro próximo
+                for (Emprestimo emprestimo : fechados) {
+                    ItemDeAcervo item = emprestimo.getItem();
+                    Reserva separada = controleReservas.alocar(item, emprestimo.getExemplar(), hoje);
+                    if (separada == null) {
+                        item.devolver(emprestimo.getExemplar());
+                        separada = controleReservas.alocarSeLivre(item, hoje);
+                    }
+                    if (separada != null && journal != null) {
+                        eventos.append('\n').append(linhaSituacaoReserva(separada));
+                    }
+                }
+                // Ainda com a trava, pra ordem no journal ser a mesma da memória
+                if (eventos.length() > 0) {
+                    gravacoes.add(registrarNoJournal(eventos.toString()));
+                }
+            } finally {
+                trava.unlock();
+            }
+        }
+        aguardarJournal(CompletableFuture.allOf(gravacoes.toArray(new CompletableFuture<?>[0])));
+        publicarLote(resultado, true);
+        registrarLote(Metricas.Operacao.DEVOLUCAO_LOTE, resultado, inicio);
+        return resultado;
+    }
+
+    // Entra na fila de reserva de um item sem exemplar na estante
+    // Quando um exemplar voltar, ele fica separado por alguns dias pro primeiro da fila que estiver apto
+    // Usuário com multa ou atraso (RN3/RN4) não reserva; o limite (RN2) só conta na retirada
+    public Reserva reservar(String idUsuario, String codItem) throws RegraDeNegocioException {
+        long inicio = System.nanoTime();
+        try {
+            Reserva reserva = criarReserva(idUsuario, codItem);
+            metricas.registrar(Metricas.Operacao.RESERVA, inicio);
+            return reserva;
+        } catch (RegraDeNegocioException e) {
+            metricas.registrarRecusa(Metricas.Operacao.RESERVA, e.getRegra(), inicio);
+            throw e;
+        }
+    }
+
+    private Reserva criarReserva(String idUsuario, String codItem) throws RegraDeNegocioException {
+        exigirPrimario();
+        Usuario usuario = buscarUsuario(idUsuario)
+                .orElseThrow(() -> naoEncontrado("Usuário não encontrado."));
+        ItemDeAcervo item = buscarItem(codItem)
+                .orElseThrow(() -> naoEncontrado("Item de Acervo não encontrado."));
+
+        LocalDate hoje = LocalDate.now();
+        controleAtrasos.avancarAte(hoje);
+        expirarReservas(hoje);
+
+        Reserva reserva;
+        CompletableFuture<Void> gravacao;
+        ReentrantLock trava = travaDoUsuario(usuario);
+        trava.lock();
+        try {
+            if (usuario.isBloqueado()) {
+                throw usuarioBloqueado(usuario);
+            }
+            if (usuario.temEmprestado(item)) {
+                throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                        "Usuário já está com este item emprestado.");
+            }
+            reserva = new Reserva(String.valueOf(proximoIdReserva.getAndIncrement()), usuario, item, hoje);
+            // O evento vai pro journal ainda com a trava do ControleReservas: assim ele entra
+            // antes de qualquer evento que separe essa reserva
+            synchronized (controleReservas) {
+                controleReservas.reservar(reserva);
+                gravacao = registrarNoJournal(EVT_RESERVA + ";" + reserva.getIdReserva() + ";" + usuario.getId()
+                        + ";" + item.getCodigo() + ";" + hoje);
+            }
+        } finally {
+            trava.unlock();
+        }
+        aguardarJournal(gravacao);
+        return reserva;
+    }
+
+    // Cancela uma reserva ativa - se tinha exemplar separado pra ela, passa pro próximo da fila
+    public void cancelarReserva(String idReserva) throws RegraDeNegocioException {
+        exigirPrimario();
+        Reserva reserva = controleReservas.buscar(idReserva);
+        if (reserva == null) {
+            throw naoEncontrado("Reserva não encontrada (ou já encerrada).");
+        }
+        List<Reserva> mudancas = controleReservas.cancelar(reserva, LocalDate.now());
+        aguardarJournal(registrarNoJournal(linhasSituacaoReserva(mudancas)));
+    }
+
+    // Reservas com exemplar separado e a fila do item, na ordem
+    public List<Reserva> getReservas(String codItem) throws RegraDeNegocioException {
+        ItemDeAcervo item = buscarItem(codItem)
+                .orElseThrow(() -> naoEncontrado("Item de Acervo não encontrado."));
+        return controleReservas.listar(item);
+    }
+
+    // Todas as reservas ativas, na ordem em que foram feitas
+    public List<Reserva> getReservasAtivas() {
+        return controleReservas.listarAtivas();
+    }
+
+    // Expira as retiradas vencidas e passa os exemplares pros próximos das filas
+    // Retorna quantas reservas expiraram
+    public int expirarReservas() {
+        return expirarReservas(LocalDate.now());
+    }
+
+    private int expirarReservas(LocalDate hoje) {
+        if (bloqueioDeEscrita() != null) {
+            return 0; // Numa réplica a expiração chega do primário
+        }
+        long inicio = System.nanoTime();
+        List<Reserva> mudancas = controleReservas.expirarAte(hoje);
+        if (mudancas.isEmpty()) {
+            return 0;
+        }
+        aguardarJournal(registrarNoJournal(linhasSituacaoReserva(mudancas)));
+        metricas.registrar(Metricas.Operacao.EXPIRAR_RESERVAS, inicio);
+        int expiradas = 0;
+        for (Reserva r : mudancas) {
+            if (r.getStatus() == Reserva.Status.EXPIRADA) {
+                expiradas++;
+            }
+        }
+        return expiradas;
+    }
+
+    // Recalcula a multa acumulada de todos os empréstimos em aberto até hoje
+    // Retorna a soma em centavos. Roda uma vez por dia pelo agendador, mas dá pra chamar quando quiser
+    public long recalcularMultas() {
+        return recalcularMultas(LocalDate.now());
+    }
+
+    // Passa pelo índice de empréstimos em paralelo (reduceValuesToLong divide o mapa entre as
+    // threads do ForkJoinPool comum e soma em long, sem embrulhar em Long). Não pega trava
+    // nenhuma: por empréstimo é só conta com o número do dia e centavos, sem criar objeto
+    public long recalcularMultas(LocalDate hoje) {
+        long inicio = System.nanoTime();
+        PoliticaEmprestimo politica = PoliticaEmprestimo.vigente();
+        long dia = hoje.toEpochDay();
+        long total = indiceEmprestimos.reduceValuesToLong(LIMIAR_PARALELO,
+                e -> e.atualizarMultaAcumulada(politica, dia), 0L, Long::sum);
+        diaRecalculoMultas = dia;
+        metricas.registrar(Metricas.Operacao.RECALCULAR_MULTAS, inicio);
+        return total;
+    }
+
+    // ---------------------------------------------------------------- pagamentos
+
+    public Pagamentos getPagamentos() {
+        return pagamentos;
+    }
+
+    // Pagamento de multa: baixa o saldo do usuário (no máximo até zerar) e, zerou, a RN3 libera
+    // na hora. "id" é o recibo - mandar de novo o mesmo recibo (mesmo usuário e valor) devolve o
+    // lançamento que já existe sem cobrar duas vezes; recibo já usado em outro lançamento é
+    // recusado (CONFLITO). null gera um ID
+    public Pagamentos.Lancamento pagarMulta(String idUsuario, long centavos, String id) throws RegraDeNegocioException {
+        return medirLancamento(Metricas.Operacao.PAGAMENTO, Pagamentos.Tipo.PAGAMENTO, idUsuario, centavos, "", id);
+    }
+
+    // Isenção (perdão) de multa, com motivo obrigatório - centavos 0 isenta o saldo inteiro
+    public Pagamentos.Lancamento isentarMulta(String idUsuario, long centavos, String motivo, String id)
+            throws RegraDeNegocioException {
+        return medirLancamento(Metricas.Operacao.ISENCAO, Pagamentos.Tipo.ISENCAO, idUsuario, centavos, motivo, id);
+    }
+
+    private Pagamentos.Lancamento medirLancamento(Metricas.Operacao operacao, Pagamentos.Tipo tipo, String idUsuario,
+                                                  long centavos, String motivo, String id) throws RegraDeNegocioException {
+        long inicio = System.nanoTime();
+        try {
+            Pagamentos.Lancamento lancamento = lancar(tipo, idUsuario, centavos, motivo, id);
+            metricas.registrar(operacao, inicio);
+            return lancamento;
+        } catch (RegraDeNegocioException e) {
+            metricas.registrarRecusa(operacao, e.getRegra(), inicio);
+            throw e;
+        }
+    }
+
+    private Pagamentos.Lancamento lancar(Pagamentos.Tipo tipo, String idUsuario, long centavos, String motivo, String id)
+            throws RegraDeNegocioException {
+        exigirPrimario();
+        if (tipo == Pagamentos.Tipo.ISENCAO && (motivo == null || motivo.trim().isEmpty())) {
+            throw new RegraDeNegocioException("Isenção precisa de motivo.");
+        }
+        String recibo = id == null || id.trim().isEmpty() ? null : validarRecibo(id.trim());
+        Pagamentos.Lancamento existente = recibo == null ? null : pagamentos.buscar(recibo);
+        if (existente != null) {
+            return mesmoLancamento(existente, tipo, idUsuario, centavos); // Reenvio do mesmo recibo
+        }
+        Usuario usuario = buscarUsuario(idUsuario)
+                .orElseThrow(() -> naoEncontrado("Usuário não encontrado."));
+
+        Pagamentos.Lancamento lancamento;
+        CompletableFuture<Void> gravacao;
+        ReentrantLock trava = travaDoUsuario(usuario);
+        trava.lock();
+        try {
+            // O saldo só muda com a trava do usuário: a checagem e a baixa são uma coisa só
+            lancamento = novoLancamento(tipo, usuario, centavos, motivo, recibo, LocalDate.now());
+            Pagamentos.Lancamento anterior = pagamentos.registrar(lancamento);
+            if (anterior != null) {
+                // O mesmo recibo chegou por outro balcão agora há pouco
+                return mesmoLancamento(anterior, tipo, idUsuario, centavos);
+            }
+            usuario.quitarMulta(lancamento.getCentavos());
+            gravacao = gravarLancamentos(Collections.singletonList(lancamento));
+        } finally {
+            trava.unlock();
+        }
+        aguardarJournal(gravacao);
+        return lancamento;
+    }
+
+    // Recibo que já existe só vale como reenvio se for o mesmo lançamento: usuário, tipo e valor
+    // (isenção com valor 0 é "o saldo todo", bate com qualquer valor)
+    private static Pagamentos.Lancamento mesmoLancamento(Pagamentos.Lancamento existente, Pagamentos.Tipo tipo,
+                                                         String idUsuario, long centavos) throws RegraDeNegocioException {
+        boolean mesmoValor = existente.getCentavos() == centavos || (tipo == Pagamentos.Tipo.ISENCAO && centavos == 0);
+        if (existente.getTipo() != tipo || !existente.getIdUsuario().equals(idUsuario) || !mesmoValor) {
+            throw new RegraDeNegocioException(RegraDeNegocioException.Regra.CONFLITO,
+                    "Recibo '" + existente.getId() + "' já usado em outro lançamento.");
+        }
+        return existente;
+    }
+
+    private static String validarRecibo(String recibo) throws RegraDeNegocioException {
+        if (temSeparador(recibo)) {
+            throw new RegraDeNegocioException("ID do lançamento não pode ter ';' nem quebra de linha.");
+        }
+        return recibo;
+    }
+
+    // Confere o valor contra o saldo - chamado com a trava do usuário
+    private Pagamentos.Lancamento novoLancamento(Pagamentos.Tipo tipo, Usuario usuario, long centavos, String motivo,
+                                                 String recibo, LocalDate data) throws RegraDeNegocioException {
+        long saldo = usuario.getMultaCentavos();
+        if (saldo == 0) {
+            throw new RegraDeNegocioException("Usuário não tem multa pendente.");
+        }
+        long valor = centavos == 0 && tipo == Pagamentos.Tipo.ISENCAO ? saldo : centavos;
+        if (valor <= 0) {
+            throw new RegraDeNegocioException("Valor do lançamento tem que ser positivo.");
+        }
+        if (valor > saldo) {
+            throw new RegraDeNegocioException(String.format("Valor (R$ %.2f) maior que a multa pendente (R$ %.2f).",
+                    valor / 100.0, saldo / 100.0));
+        }
+        return new Pagamentos.Lancamento(recibo != null ? recibo : pagamentos.gerarId(), tipo, usuario.getId(),
+                valor, data, motivo);
+    }
+
+    // Os lançamentos vão juntos (um registro só) pro lancamentos.log e pro journal, que gravam em
+    // paralelo. Chamado ainda com a trava, pra ordem no journal ser a mesma da memória
+    private CompletableFuture<Void> gravarLancamentos(List<Pagamentos.Lancamento> lancamentos) {
+        StringBuilder livro = new StringBuilder();
+        StringBuilder eventos = new StringBuilder();
+        for (Pagamentos.Lancamento l : lancamentos) {
+            String linha = Pagamentos.linha(l);
+            if (livro.length() > 0) {
+                livro.append('\n');
+                eventos.append('\n');
+            }
+            livro.append(linha);
+            eventos.append(EVT_LANCAMENTO).append(';').append(linha);
+        }
+        return CompletableFuture.allOf(pagamentos.gravar(livro.toString()), registrarNoJournal(eventos.toString()));
+    }
+
+    // Importa a planilha de quitações do caixa do campus: recibo;usuario;valor[;data]
+    // Leitura paralela (CarregadorCsv); depois as linhas são separadas pela faixa de trava do
+    // usuário e cada faixa é lançada numa thread, travada uma vez só e com um registro só pros
+    // arquivos. O recibo é o ID do lançamento: importar o mesmo arquivo de novo não lança nada
+    public Pagamentos.Importacao importarQuitacoes(Path planilha) throws IOException, RegraDeNegocioException {
+        long inicio = System.nanoTime();
+        exigirPrimario();
+        CarregadorCsv.Resultado<Pagamentos.Quitacao> lidas = Pagamentos.lerQuitacoes(planilha);
+        List<String> erros = new ArrayList<>(lidas.getErros());
+
+        // Resolve os usuários e separa por faixa, mantendo a ordem do arquivo dentro de cada uma
+        List<List<Pagamentos.Quitacao>> porFaixa = new ArrayList<>(Collections.nCopies(FAIXAS_TRAVA, null));
+        for (Pagamentos.Quitacao q : lidas.getRegistros()) {
+            if (q == null) {
+                continue; // Cabeçalho
+            }
+            q.usuario = indiceUsuarios.get(q.idUsuario);
+            if (q.usuario == null) {
+                erros.add("Recibo " + q.recibo + ": usuário '" + q.idUsuario + "' não encontrado.");
+                continue;
+            }
+            int faixa = faixaDoUsuario(q.usuario);
+            if (porFaixa.get(faixa) == null) {
+                porFaixa.set(faixa, new ArrayList<>());
+            }
+            porFaixa.get(faixa).add(q);
+        }
+
+        LocalDate hoje = LocalDate.now();
+        List<FaixaImportada> faixas = porFaixa.parallelStream()
+                .filter(linhas -> linhas != null)
+                .map(linhas -> importarFaixa(linhas, hoje))
+                .collect(Collectors.toList());
+
+        int lancadas = 0;
+        int repetidas = 0;
+        long total = 0;
+        List<CompletableFuture<Void>> gravacoes = new ArrayList<>();
+        for (FaixaImportada f : faixas) {
+            lancadas += f.lancadas;
+            repetidas += f.repetidas;
+            total += f.centavos;
+            erros.addAll(f.erros);
+            gravacoes.add(f.gravacao);
+        }
+        aguardarJournal(CompletableFuture.allOf(gravacoes.toArray(new CompletableFuture<?>[0])));
+        metricas.registrar(Metricas.Operacao.IMPORTAR_QUITACOES, inicio);
+        return new Pagamentos.Importacao(lancadas, repetidas, total, erros);
+    }
+
+    // O que saiu de uma faixa da importação
+    private static final class FaixaImportada {
+        int lancadas;
+        int repetidas;
+        long centavos;
+        final List<String> erros = new ArrayList<>();
+        CompletableFuture<Void> gravacao = CompletableFuture.completedFuture(null);
+    }
+
+    // Lança as linhas de uma faixa com a trava dela
+    private FaixaImportada importarFaixa(List<Pagamentos.Quitacao> linhas, LocalDate hoje) {
+        FaixaImportada resultado = new FaixaImportada();
+        List<Pagamentos.Lancamento> novos = new ArrayList<>();
+        ReentrantLock trava = travaDoUsuario(linhas.get(0).usuario);
+        trava.lock();
+        try {
+            for (Pagamentos.Quitacao q : linhas) {
+                Usuario usuario = q.usuario;
+                try {
+                    Pagamentos.Lancamento existente = pagamentos.buscar(q.recibo);
+                    if (existente != null) {
+                        mesmoLancamento(existente, Pagamentos.Tipo.PAGAMENTO, usuario.getId(), q.centavos);
+                        resultado.repetidas++;
+                        continue;
+                    }
+                    Pagamentos.Lancamento l = novoLancamento(Pagamentos.Tipo.PAGAMENTO, usuario, q.centavos,
+                            "caixa", validarRecibo(q.recibo), q.data != null ? q.data : hoje);
+                    Pagamentos.Lancamento anterior = pagamentos.registrar(l);
+                    if (anterior != null) {
+                        // Mesmo recibo em outra faixa (outro usuário) ao mesmo tempo
+                        mesmoLancamento(anterior, Pagamentos.Tipo.PAGAMENTO, usuario.getId(), q.centavos);
+                        resultado.repetidas++;
+                        continue;
+                    }
+                    usuario.quitarMulta(l.getCentavos());
+                    novos.add(l);
+                    resultado.lancadas++;
+                    resultado.centavos += l.getCentavos();
+                } catch (RegraDeNegocioException e) {
+                    resultado.erros.add("Recibo " + q.recibo + " (" + usuario.getId() + "): " + e.getMessage());
+                }
+            }
+            if (!novos.isEmpty()) {
+                resultado.gravacao = gravarLancamentos(novos);
+            }
+        } finally {
+            trava.unlock();
+        }
+        return resultado;
+    }
+
+    // Reaplica um lançamento (arquivo, journal ou réplica) - ignora o que já está na memória
+    // O valor é limitado ao saldo - o saldo nunca fica negativo
+    private boolean reaplicarLancamento(Pagamentos.Lancamento lancamento) {
+        if (pagamentos.buscar(lancamento.getId()) != null) {
+            return false;
+        }
+        Usuario usuario = buscarUsuario(lancamento.getIdUsuario())
+                .orElseThrow(() -> new IllegalArgumentException("usuário não existe"));
+        ReentrantLock trava = travaDoUsuario(usuario);
+        trava.lock();
+        try {
+            if (pagamentos.registrar(lancamento) != null) {
+                return false;
+            }
+            usuario.quitarMulta(lancamento.getCentavos());
+            return true;
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    // No cluster (NoCluster) o saldo de multa que vale é o da conta no nó dono do usuário - é lá
+    // que se paga. A multa que o cadastro daqui juntou nas devoluções sai com uma isenção lançada
+    // como qualquer outra (journal e lancamentos.log), com o motivo apontando pro pagamento no dono:
+    // no reinício a devolução reaplicada traz a multa de volta e a isenção baixa de novo
+    void zerarMultaDoCluster(String idUsuario, String motivo) {
+        Usuario usuario = buscarUsuario(idUsuario).orElse(null);
+        if (usuario == null || usuario.getMultaCentavos() == 0) {
+            return;
+        }
+        try {
+            isentarMulta(idUsuario, 0, motivo, null);
+        } catch (RegraDeNegocioException e) {
+            // Outro balcão baixou agora há pouco (ou o nó está só leitura - o empréstimo é recusado igual)
+        }
+    }
+
+    // Liga o arquivamento automático: na passada diária do agendador, os empréstimos devolvidos
+    // há mais de "dias" dias vão pro arquivo morto. 0 desliga
+    public void setDiasParaArquivar(int dias) {
+        if (dias < 0) {
+            throw new IllegalArgumentException("Idade inválida: " + dias);
+        }
+        this.diasParaArquivar = dias;
+    }
+
+    // Tira da memória os empréstimos devolvidos há mais de "idadeDias" dias e grava no arquivo
+    // morto (ArquivoEmprestimos). Continuam aparecendo nas consultas e nos relatórios, só não
+    // ocupam mais o heap nem o snapshot. Retorna quantos foram arquivados
+    // Com multa ou sem: o registro do arquivo guarda o valor, e a carga soma a multa dos arquivados
+    // no saldo do usuário antes de reaplicar os pagamentos (somarArquivo)
+    public int arquivarEmprestimos(int idadeDias) {
+        if (bloqueioDeEscrita() != null) {
+            return 0;
+        }
+        long inicio = System.nanoTime();
+        long limite = LocalDate.now().toEpochDay() - idadeDias;
+        List<Emprestimo> antigos = new ArrayList<>();
+        for (Emprestimo e : new ArrayList<>(historicoEmprestimos)) {
+            if (e.isDevolvido() && e.getDiaDevolucaoReal() <= limite) {
+                antigos.add(e);
+            }
+        }
+        if (antigos.isEmpty()) {
+            metricas.registrar(Metricas.Operacao.ARQUIVAR, inicio);
+            return 0;
+        }
+        try {
+            arquivo.arquivar(antigos);
+        } catch (IOException | RuntimeException e) {
+            metricas.registrarFalha(Metricas.Operacao.ARQUIVAR, inicio);
+            System.err.println("Erro ao arquivar empréstimos: " + e.getMessage());
+            return 0;
+        }
+        // Só sai da memória depois que o segmento está no disco
+        Set<Emprestimo> arquivados = Collections.newSetFromMap(new IdentityHashMap<>());
+        arquivados.addAll(antigos);
+        for (Emprestimo e : antigos) {
+            indiceEmprestimos.remove(e.getIdEmprestimo(), e);
+        }
+        historicoEmprestimos.removeIf(arquivados::contains);
+        controleAtrasos.descartarDevolvidos(); // Devolvido antes do prazo ainda estaria na fila
+        // Snapshot novo sem eles - se cair antes disso, a carga pula o que já está no arquivo
+        salvarDados();
+        metricas.registrar(Metricas.Operacao.ARQUIVAR, inicio);
+        return antigos.size();
+    }
+
+    // Abre os segmentos do arquivo morto na primeira carga - retorna true se abriu agora
+    // Vem antes do snapshot: a carga precisa saber o que já está arquivado pra não duplicar
+    private boolean abrirArquivo() {
+        if (arquivoAberto) {
+            return false;
+        }
+        try {
+            arquivo.abrir();
+            arquivoAberto = true;
+        } catch (IOException e) {
+            System.err.println("Erro ao abrir o arquivo de empréstimos: " + e.getMessage());
+            return false;
+        }
+        proximoIdEmprestimo.accumulateAndGet(arquivo.getMaiorId() + 1, Math::max);
+        return true;
+    }
+
+    // Põe os empréstimos arquivados nos agregados e a multa deles no saldo do usuário (o que já foi
+    // pago sai depois, com os lançamentos) - depois do snapshot, quando usuários e itens já existem
+    private void somarArquivo() {
+        arquivo.emprestimos().forEach(e -> {
+            relatorios.registrarEmprestimo(e);
+            relatorios.registrarDevolucao(e);
+            if (e.getMultaCentavos() > 0) {
+                e.getUsuario().registrarMulta(e.getMultaCentavos());
+            }
+        });
+        if (arquivo.getQuantidade() > 0) {
+            System.out.println("Empréstimos no arquivo: " + arquivo.getQuantidade()
+                    + " em " + arquivo.getQuantidadeSegmentos() + " segmento(s)");
+        }
+    }
+
+    // Monta um empréstimo que volta do arquivo - null se o usuário ou o item não existe mais
+    private Emprestimo montarArquivado(String id, String idUsuario, String codItem, int exemplar, long diaEmprestimo,
+                                       long diaPrevisto, long diaDevolucao, long multaCentavos) {
+        Usuario usuario = indiceUsuarios.get(idUsuario);
+        ItemDeAcervo item = itemDoAcervo(codItem);
+        if (usuario == null || item == null) {
+            return null;
+        }
+        return new Emprestimo(id, usuario, item, exemplar, LocalDate.ofEpochDay(diaEmprestimo),
+                LocalDate.ofEpochDay(diaPrevisto), LocalDate.ofEpochDay(diaDevolucao), multaCentavos);
+    }
+
+    // Passa pelas reservas de hora em hora numa thread separada, pra expirar as
+    // retiradas vencidas mesmo sem ninguém usando o sistema (chamar de novo não faz nada)
+    // Na primeira passada de cada dia também recalcula as multas acumuladas
+    public synchronized void iniciarAgendadorReservas() {
+        if (agendadorReservas != null) {
+            return;
+        }
+        agendadorReservas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reservas-expiracao");
+            t.setDaemon(true);
+            return t;
+        });
+        agendadorReservas.scheduleAtFixedRate(() -> {
+            try {
+                int expiradas = expirarReservas();
+                if (expiradas > 0) {
+                    System.out.println("Reservas expiradas: " + expiradas);
+                }
+                if (LocalDate.now().toEpochDay() != diaRecalculoMultas) {
+                    recalcularMultas();
+                    int dias = diasParaArquivar;
+                    if (dias > 0) {
+                        int arquivados = arquivarEmprestimos(dias);
+                        if (arquivados > 0) {
+                            System.out.println("Empréstimos arquivados: " + arquivados);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Uma exceção aqui cancelaria as próximas execuções
+                System.err.println("Erro ao expirar reservas: " + e.getMessage());
+            }
+        }, 0, 1, TimeUnit.HOURS);
+    }
+
+    private synchronized void pararAgendadorReservas() {
+        if (agendadorReservas != null) {
+            agendadorReservas.shutdownNow();
+            agendadorReservas = null;
+        }
+    }
+
+    // Evento do journal com a situação atual da reserva: V;id;status;prazo de retirada;exemplar
+    private static String linhaSituacaoReserva(Reserva r) {
+        LocalDate prazo = r.getPrazoRetirada();
+        return EVT_SITUACAO_RESERVA + ";" + r.getIdReserva() + ";" + r.getStatus() + ";" + (prazo != null ? prazo : "")
+                + ";" + (prazo != null ? String.valueOf(r.getExemplar()) : "");
+    }
+
+    private static String linhasSituacaoReserva(List<Reserva> reservas) {
+        StringBuilder sb = new StringBuilder();
+        for (Reserva r : reservas) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(linhaSituacaoReserva(r));
+        }
+        return sb.toString();
+    }
+
+    // Finaliza o empréstimo e desfaz os vínculos com usuário e item
+    // "liberarExemplar" é false quando o exemplar já foi separado pra uma reserva
+    private void fecharEmprestimo(Emprestimo emprestimo, LocalDate dataDevolucaoReal, boolean liberarExemplar) {
+        emprestimo.finalizarEmprestimo(dataDevolucaoReal);
+        desvincular(emprestimo, liberarExemplar);
+    }
+
+    // Tira o empréstimo já finalizado do usuário e dos controles
+    private void desvincular(Emprestimo emprestimo, boolean liberarExemplar) {
+        emprestimo.getUsuario().removerEmprestimo(emprestimo);
+        controleAtrasos.registrarDevolucao(emprestimo);
+        relatorios.registrarDevolucao(emprestimo);
+        // Libera o exemplar por último, depois que o empréstimo já está fechado
+        if (liberarExemplar) {
+            emprestimo.getItem().devolver(emprestimo.getExemplar());
+        }
+    }
+
+    // Abre um empréstimo que já foi validado antes (vindo do snapshot ou do journal)
+    private void reabrirEmprestimo(Emprestimo emprestimo) {
+        emprestimo.getItem().emprestar(emprestimo.getExemplar());
+        emprestimo.getUsuario().adicionarEmprestimo(emprestimo);
+        registrarEmprestimo(emprestimo);
+        controleAtrasos.registrarAbertura(emprestimo);
+        atualizarProximoId(emprestimo.getIdEmprestimo());
+    }
+
+    // Garante que o próximo ID gerado é maior que qualquer ID já carregado
+    private void atualizarProximoId(String idEmprestimo) {
+        try {
+            long id = Long.parseLong(idEmprestimo);
+            proximoIdEmprestimo.accumulateAndGet(id + 1, Math::max);
+        } catch (NumberFormatException e) {
+            // ID que não é número não interfere na sequência
+        }
+    }
+
+    private void atualizarProximoIdReserva(String idReserva) {
+        try {
+            long id = Long.parseLong(idReserva);
+            proximoIdReserva.accumulateAndGet(id + 1, Math::max);
+        } catch (NumberFormatException e) {
+            // ID que não é número não interfere na sequência
+        }
+    }
+
+    // Salva os dados em arquivos CSV (snapshot completo)
+    // Cada arquivo é gravado num .tmp e trocado de uma vez, pra uma queda no meio
+    // não deixar arquivo pela metade. Depois o journal é compactado: só fica o que
+    // aconteceu depois que o snapshot começou (reaplicar isso em cima dele é seguro)
+    // Depois de uma falha no journal não salva: a memória tem operações que voltaram como falha
+    public void salvarDados() {
+        if (falhaJournal != null) {
+            System.err.println("Dados não salvos: " + falhaJournal);
+            return;
+        }
+        long inicio = System.nanoTime();
+        Journal j = this.journal;
+        long marcaJournal = j != null ? j.getTamanhoDuravel() : 0;
+        try {
+            // Copia as listas antes (a cópia é feita com a trava da lista sincronizada),
+            // porque percorrer uma lista sincronizada não trava sozinho
+            List<Usuario> usuarios = new ArrayList<>(listaUsuarios);
+            List<ItemDeAcervo> itens = new ArrayList<>(acervo);
+            List<Emprestimo> emprestimos = new ArrayList<>(historicoEmprestimos);
+            List<Reserva> reservas = controleReservas.listarAtivas();
+
+            if (formatoSnapshot == FormatoSnapshot.BINARIO) {
+                Path destino = Paths.get(SNAPSHOT_FILE);
+                Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+                SnapshotBinario.gravar(temporario, usuarios, itens, emprestimos, reservas);
+                Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                gravarSnapshot(USUARIOS_FILE, usuarios, SistemaBiblioteca::linhaUsuario);
+                gravarSnapshot(ACERVO_FILE, itens, SistemaBiblioteca::linhaItem);
+                gravarSnapshot(EMPRESTIMOS_FILE, emprestimos, SistemaBiblioteca::linhaEmprestimo);
+                gravarSnapshot(RESERVAS_FILE, reservas, SistemaBiblioteca::linhaReserva);
+                // Um snapshot binário antigo teria prioridade na carga - tira ele do caminho
+                Files.deleteIfExists(Paths.get(SNAPSHOT_FILE));
+            }
+
+            if (j != null) {
+                j.compactar(marcaJournal).join();
+            }
+            System.out.println("Dados salvos com sucesso em " + (formatoSnapshot == FormatoSnapshot.BINARIO
+                    ? SNAPSHOT_FILE : USUARIOS_FILE + ", " + ACERVO_FILE + ", " + EMPRESTIMOS_FILE + " e " + RESERVAS_FILE));
+            metricas.registrar(Metricas.Operacao.SALVAR, inicio);
+
+        } catch (IOException e) {
+            metricas.registrarFalha(Metricas.Operacao.SALVAR, inicio);
+            System.err.println("Erro ao salvar dados: " + e.getMessage());
+        } catch (CompletionException e) {
+            metricas.registrarFalha(Metricas.Operacao.SALVAR, inicio);
+            System.err.println("Erro ao compactar journal: " + e.getCause().getMessage());
+        }
+    }
+
+    private <T> void gravarSnapshot(String arquivo, List<T> registros,
+                                    java.util.function.Function<T, String> formatador) throws IOException {
+        Path destino = Paths.get(arquivo);
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(temporario, StandardCharsets.UTF_8)) {
+            for (T registro : registros) {
+                w.write(formatador.apply(registro));
+                w.newLine();
+            }
+        }
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Linha de usuarios.csv - uso instanceof pra saber se é Aluno ou Professor
+    static String linhaUsuario(Usuario u) {
+        String base = u.getClass().getSimpleName() + ";" + u.getId() + ";" + 
+                     u.getNome() + ";" + u.getEndereco() + ";" + u.getStatus();
+
+        // Verifica o tipo real do objeto
+        if (u instanceof Aluno) {
+            Aluno a = (Aluno) u;
+            return base + ";" + a.getMatricula() + ";" + a.getCurso();
+        } else if (u instanceof Professor) {
+            Professor p = (Professor) u;
+            return base + ";" + p.getSiape() + ";" + p.getDepartamento();
+        }
+        return "";
+    }
 
-    private long proximoIdEmprestimo = 1;
-    private Scanner scanner;
+    // Linha de acervo.csv - Livro ou Revista, com a quantidade de exemplares no fim
+    // (o "emprestado" continua no meio pra arquivos antigos: nenhum exemplar na estante)
+    static String linhaItem(ItemDeAcervo i) {
+        String base = i.getClass().getSimpleName() + ";" + i.getCodigo() + ";" + 
+                     i.getTitulo() + ";" + i.getAnoPublicacao() + ";" + i.isEmprestado();
 
-    // Construtor - inicializa tudo vazio
-    public SistemaBiblioteca() {
-        this.listaUsuarios = new ArrayList<>();
-        this.acervo = new ArrayList<>();
-        this.historicoEmprestimos = new ArrayList<>();
-        this.scanner = new Scanner(System.in);
+        // Verifica o tipo real do objeto
+        if (i instanceof Livro) {
+            Livro l = (Livro) i;
+            return base + ";" + l.getAutor() + ";" + l.getIsbn() + ";" + l.getEdicao() + ";" + i.getQuantidadeExemplares();
+        } else if (i instanceof Revista) {
+            Revista r = (Revista) i;
+            return base + ";" + r.getEditora() + ";" + r.getVolume() + ";" + r.getIssn() + ";" + i.getQuantidadeExemplares();
+        }
+        return "";
     }
 
-    // Busca um usuário pelo ID usando Stream
-    private Optional<Usuario> buscarUsuario(String id) {
-        return listaUsuarios.stream()
-                .filter(u -> u.getId().equals(id))
-                .findFirst();
+    // Linha de emprestimos.csv - a data real fica vazia enquanto está em aberto
+    static String linhaEmprestimo(Emprestimo e) {
+        LocalDate real = e.getDataDevolucaoReal();
+        return e.getIdEmprestimo() + ";" + e.getUsuario().getId() + ";" + e.getItem().getCodigo() + ";"
+                + e.getDataEmprestimo() + ";" + e.getDataDevolucaoPrevista() + ";"
+                + (real != null ? real.toString() : "") + ";" + e.getMultaCobrada() + ";" + e.getExemplar();
     }
-    
-    // Busca um item pelo código - pode ser Livro ou Revista
-    private Optional<ItemDeAcervo> buscarItem(String cod) {
-        return acervo.stream()
-                .filter(i -> i.getCodigo().equals(cod))
-                .findFirst();
+
+    // Linha de reservas.csv - só as ativas; prazo e exemplar ficam vazios enquanto está na fila
+    static String linhaReserva(Reserva r) {
+        LocalDate prazo = r.getPrazoRetirada();
+        return r.getIdReserva() + ";" + r.getUsuario().getId() + ";" + r.getItem().getCodigo() + ";"
+                + r.getDataReserva() + ";" + r.getStatus() + ";" + (prazo != null ? prazo.toString() : "")
+                + ";" + (prazo != null ? String.valueOf(r.getExemplar()) : "");
     }
-    
-    // Busca um empréstimo pelo ID
-    private Optional<Emprestimo> buscarEmprestimo(String id) {
-        return historicoEmprestimos.stream()
-                .filter(e -> e.getIdEmprestimo().equals(id))
-                .findFirst();
+
+    // Carrega os dados dos arquivos CSV e recria os objetos
+    // A leitura e conversão das linhas é paralela (CarregadorCsv); o cadastro
+    // nos índices é feito em sequência pra manter a ordem do arquivo
+    public void carregarDados() {
+        long inicio = System.nanoTime();
+        System.out.println("Carregando dados...");
+
+        boolean arquivoNovo = abrirArquivo();
+        // Se tiver snapshot binário, ele é o mais recente (salvarDados em CSV apaga ele)
+        if (Files.exists(Paths.get(SNAPSHOT_FILE))) {
+            carregarSnapshotBinario();
+        } else {
+            carregarCsv();
+        }
+        // Antes do journal e do lancamentos.log: os pagamentos são reaplicados por cima da multa
+        // de todos os empréstimos, inclusive os arquivados
+        if (arquivoNovo) {
+            somarArquivo();
+        }
+
+        // Reaplica o journal e deixa ele aberto pras próximas alterações
+        if (this.journal == null) {
+            reaplicarJournal();
+        }
+        // Depois do journal: os lançamentos que ele trouxe já estão na memória e são pulados
+        if (!pagamentos.isAberto()) {
+            carregarLancamentos();
+        }
+        metricas.registrar(Metricas.Operacao.CARREGAR, inicio);
     }
 
-    // Adiciona um usuário - pode ser Aluno ou Professor
-    public void adicionarUsuario(Usuario u) { 
-        this.listaUsuarios.add(u); 
+    private void carregarSnapshotBinario() {
+        int[] contagem = new int[5]; // usuários, itens, empréstimos, duplicados, reservas
+        List<String> erros = new ArrayList<>();
+        try {
+            SnapshotBinario.ler(Paths.get(SNAPSHOT_FILE), new SnapshotBinario.Leitor() {
+                @Override
+                public void usuario(Usuario usuario) {
+                    try {
+                        cadastrarUsuario(usuario);
+                        contagem[0]++;
+                    } catch (RegraDeNegocioException e) {
+                        contagem[3]++;
+                    }
+                }
+
+                @Override
+                public void item(ItemDeAcervo item) {
+                    if (catalogo != null) {
+                        return; // O acervo é o do catalogo.map
+                    }
+                    try {
+                        cadastrarItem(item);
+                        contagem[1]++;
+                    } catch (RegraDeNegocioException e) {
+                        contagem[3]++;
+                    }
+                }
+
+                @Override
+                public void emprestimo(String id, String idUsuario, String codItem, int exemplar, LocalDate dataEmprestimo,
+                                       LocalDate dataPrevista, LocalDate dataReal, long multa) {
+                    try {
+                        if (restaurarEmprestimo(id, idUsuario, codItem, exemplar, dataEmprestimo, dataPrevista, dataReal, multa)) {
+                            contagem[2]++;
+                        }
+                    } catch (RuntimeException e) {
+                        erros.add("Empréstimo " + id + ": " + e.getMessage());
+                    }
+                }
+
+                @Override
+                public void reserva(String id, String idUsuario, String codItem, LocalDate dataReserva,
+                                    Reserva.Status status, LocalDate prazoRetirada, int exemplar) {
+                    try {
+                        if (restaurarReserva(id, idUsuario, codItem, dataReserva, status, prazoRetirada, exemplar)) {
+                            contagem[4]++;
+                        }
+                    } catch (RuntimeException e) {
+                        erros.add("Reserva " + id + ": " + e.getMessage());
+                    }
+                }
+            });
+            System.out.println("Snapshot binário: " + contagem[0] + " usuários, " + contagem[1] + " itens, "
+                    + contagem[2] + " empréstimos, " + contagem[4] + " reservas" + (contagem[3] > 0 ? " (" + contagem[3] + " duplicados ignorados)" : ""));
+            reportarErros(SNAPSHOT_FILE, erros);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro ao ler snapshot binário: " + e.getMessage());
+        }
     }
-    
-    // Adiciona um item ao acervo - pode ser Livro ou Revista
-    public void adicionarItem(ItemDeAcervo item) { 
-        this.acervo.add(item); 
+
+    private void carregarCsv() {
+        // Carrega usuários
+        // Registros com ID que já existe na memória são ignorados (e contados)
+        try {
+            CarregadorCsv.Resultado<Usuario> resultado =
+                    CarregadorCsv.carregar(Paths.get(USUARIOS_FILE), SistemaBiblioteca::converterUsuario);
+            int duplicados = 0;
+            for (Usuario u : resultado.getRegistros()) {
+                try {
+                    cadastrarUsuario(u);
+                } catch (RegraDeNegocioException e) {
+                    duplicados++;
+                }
+            }
+            System.out.println("Usuários carregados: " + this.listaUsuarios.size()
+                    + (duplicados > 0 ? " (" + duplicados + " duplicados ignorados)" : ""));
+            reportarErros(USUARIOS_FILE, resultado.getErros());
+        } catch (IOException e) {
+            System.out.println("Nenhum arquivo de usuários encontrado para carregar.");
+        }
+
+        // Carrega itens do acervo (no modo catálogo eles já vieram do catalogo.map)
+        if (catalogo != null) {
+            System.out.println("Itens de acervo do catálogo mapeado: " + this.acervo.size());
+        } else {
+            try {
+                CarregadorCsv.Resultado<ItemDeAcervo> resultado =
+                        CarregadorCsv.carregar(Paths.get(ACERVO_FILE), SistemaBiblioteca::converterItem);
+                int duplicados = 0;
+                for (ItemDeAcervo item : resultado.getRegistros()) {
+                    try {
+                        cadastrarItem(item);
+                    } catch (RegraDeNegocioException e) {
+                        duplicados++;
+                    }
+                }
+                System.out.println("Itens de acervo carregados: " + this.acervo.size()
+                        + (duplicados > 0 ? " (" + duplicados + " duplicados ignorados)" : ""));
+                reportarErros(ACERVO_FILE, resultado.getErros());
+            } catch (IOException e) {
+                System.out.println("Nenhum arquivo de acervo encontrado para carregar.");
+            }
+        }
+
+        // Carrega o histórico de empréstimos (precisa dos usuários e itens já carregados)
+        try {
+            CarregadorCsv.Resultado<String[]> resultado =
+                    CarregadorCsv.carregar(Paths.get(EMPRESTIMOS_FILE), campos -> campos);
+            List<String> erros = new ArrayList<>(resultado.getErros());
+            int carregados = 0;
+            for (String[] campos : resultado.getRegistros()) {
+                try {
+                    if (restaurarEmprestimo(campos)) {
+                        carregados++;
+                    }
+                } catch (RuntimeException e) {
+                    erros.add("Empréstimo " + campos[0] + ": " + e.getMessage());
+                }
+            }
+            System.out.println("Empréstimos carregados: " + carregados);
+            reportarErros(EMPRESTIMOS_FILE, erros);
+        } catch (IOException e) {
+            System.out.println("Nenhum arquivo de empréstimos encontrado para carregar.");
+        }
+
+        // Reservas ativas (depois dos empréstimos, pra saber quais itens estão na estante)
+        // Sem o arquivo não tem mensagem: versões antigas não gravavam reservas
+        if (Files.exists(Paths.get(RESERVAS_FILE))) {
+            try {
+                CarregadorCsv.Resultado<String[]> resultado =
+                        CarregadorCsv.carregar(Paths.get(RESERVAS_FILE), campos -> campos);
+                List<String> erros = new ArrayList<>(resultado.getErros());
+                int carregadas = 0;
+                for (String[] campos : resultado.getRegistros()) {
+                    try {
+                        if (restaurarReserva(campos[0], campos[1], campos[2], LocalDate.parse(campos[3]),
+                                Reserva.Status.valueOf(campos[4]),
+                                campos.length < 6 || campos[5].isEmpty() ? null : LocalDate.parse(campos[5]),
+                                exemplar(campos, 6))) {
+                            carregadas++;
+                        }
+                    } catch (RuntimeException e) {
+                        erros.add("Reserva " + campos[0] + ": " + e.getMessage());
+                    }
+                }
+                System.out.println("Reservas carregadas: " + carregadas);
+                reportarErros(RESERVAS_FILE, erros);
+            } catch (IOException e) {
+                System.err.println("Erro ao ler reservas: " + e.getMessage());
+            }
+        }
     }
-    
-    public List<Emprestimo> getHistoricoEmprestimos() { 
-        return historicoEmprestimos; 
+
+    // Exemplar gravado na coluna dada - arquivos e journals de antes dos exemplares
+    // não têm a coluna, e lá todo item tinha um exemplar só (o 0)
+    private static int exemplar(String[] campos, int coluna) {
+        return campos.length <= coluna || campos[coluna].isEmpty() ? 0 : Integer.parseInt(campos[coluna]);
     }
 
-    // Realiza um empréstimo - valida todas as regras de negócio
-    // RN1: Item disponível | RN2: Limite de empréstimos | RN3: Sem multa | RN4: Sem item atrasado
-    public Emprestimo realizarEmprestimo(String idUsuario, String codItem) throws RegraDeNegocioException {
-        // Busca usuário e item
+    // Recria uma reserva ativa do snapshot - retorna false se ela já estava na memória
+    private boolean restaurarReserva(String id, String idUsuario, String codItem, LocalDate dataReserva,
+                                     Reserva.Status status, LocalDate prazoRetirada, int exemplar) {
         Usuario usuario = buscarUsuario(idUsuario)
-                .orElseThrow(() -> new RegraDeNegocioException("Usuário não encontrado."));
+                .orElseThrow(() -> new IllegalArgumentException("usuário '" + idUsuario + "' não existe"));
+        ItemDeAcervo item = buscarItem(codItem)
+                .orElseThrow(() -> new IllegalArgumentException("item '" + codItem + "' não existe"));
+        if (status == Reserva.Status.AGUARDANDO_RETIRADA && prazoRetirada == null) {
+            throw new IllegalArgumentException("reserva separada sem prazo de retirada");
+        }
+        if (status == Reserva.Status.AGUARDANDO_RETIRADA) {
+            validarExemplar(item, exemplar);
+        }
+        atualizarProximoIdReserva(id);
+        return controleReservas.restaurar(new Reserva(id, usuario, item, dataReserva), status, prazoRetirada, exemplar);
+    }
+
+    private static void validarExemplar(ItemDeAcervo item, int exemplar) {
+        if (exemplar < 0 || exemplar >= item.getQuantidadeExemplares()) {
+            throw new IllegalArgumentException("item '" + item.getCodigo() + "' não tem o exemplar " + exemplar);
+        }
+    }
+
+    // Recria um empréstimo de uma linha de emprestimos.csv
+    private boolean restaurarEmprestimo(String[] campos) {
+        return restaurarEmprestimo(campos[0], campos[1], campos[2], exemplar(campos, 7), LocalDate.parse(campos[3]),
+                LocalDate.parse(campos[4]), campos[5].isEmpty() ? null : LocalDate.parse(campos[5]),
+                Math.round(Double.parseDouble(campos[6]) * 100)); // No arquivo a multa está em reais
+    }
 
+    // Recria um empréstimo do snapshot - retorna false se ele já estava na memória
+    private boolean restaurarEmprestimo(String id, String idUsuario, String codItem, int exemplar, LocalDate dataEmprestimo,
+                                        LocalDate dataPrevista, LocalDate real, long multa) {
+        if (indiceEmprestimos.containsKey(id)) {
+            return false;
+        }
+        // Queda entre gravar o segmento e salvar o snapshot: o empréstimo está nos dois
+        if (real != null && arquivo.contem(id)) {
+            return false;
+        }
+        Usuario usuario = buscarUsuario(idUsuario)
+                .orElseThrow(() -> new IllegalArgumentException("usuário '" + idUsuario + "' não existe"));
         ItemDeAcervo item = buscarItem(codItem)
-                .orElseThrow(() -> new RegraDeNegocioException("Item de Acervo não encontrado."));
+                .orElseThrow(() -> new IllegalArgumentException("item '" + codItem + "' não existe"));
+        validarExemplar(item, exemplar);
+        Emprestimo emprestimo = new Emprestimo(id, usuario, item, exemplar, dataEmprestimo, dataPrevista, real, multa);
+
+        if (real == null) {
+            reabrirEmprestimo(emprestimo);
+        } else {
+            registrarEmprestimo(emprestimo);
+            atualizarProximoId(emprestimo.getIdEmprestimo());
+            if (emprestimo.getMultaCentavos() > 0) {
+                usuario.registrarMulta(emprestimo.getMultaCentavos());
+            }
+        }
+        return true;
+    }
 
-        // RN1: Item deve estar disponível
-        if (item.isEmprestado()) {
-            throw new RegraDeNegocioException("RN1: O item '" + item.getTitulo() + "' está indisponível para empréstimo.");
+    // Lê o journal, aplica cada evento que o snapshot ainda não tem e abre o journal pra escrita
+    private void reaplicarJournal() {
+        Path arquivo = Paths.get(JOURNAL_FILE);
+        try {
+            List<String> linhas = Journal.lerLinhas(arquivo);
+            List<String> erros = new ArrayList<>();
+            int aplicados = 0;
+            for (int i = 0; i < linhas.size(); i++) {
+                try {
+                    if (aplicarEvento(linhas.get(i))) {
+                        aplicados++;
+                    }
+                } catch (RuntimeException e) {
+                    erros.add("Linha " + (i + 1) + ": " + e.getMessage() + " -> " + linhas.get(i));
+                }
+            }
+            if (!linhas.isEmpty()) {
+                System.out.println("Eventos do journal reaplicados: " + aplicados + " de " + linhas.size());
+            }
+            reportarErros(JOURNAL_FILE, erros);
+            this.journal = new Journal(arquivo);
+        } catch (IOException e) {
+            System.err.println("Erro ao abrir journal: " + e.getMessage());
         }
+    }
 
-        // RN2 e RN4: Verifica se pode emprestar
-        // Polimorfismo: getLimiteEmprestimo() retorna 3 pra Aluno e 5 pra Professor
-        if (!usuario.isAptoParaEmprestimo()) {
-            String motivo = usuario.getItensEmprestados().size() >= usuario.getLimiteEmprestimo()
-                    ? "RN2: Limite máximo de empréstimos excedido (" + usuario.getLimiteEmprestimo() + ")."
-                    : "RN4: Usuário bloqueado (multa pendente ou item com prazo vencido).";
-            throw new RegraDeNegocioException(motivo);
+    // Lê o lancamentos.log, aplica os lançamentos por cima das multas carregadas e abre o arquivo
+    // pra escrita. Lançamento que só chegou ao journal (queda entre as duas gravações) é
+    // completado no arquivo aqui, antes que a compactação do journal leve ele embora
+    private void carregarLancamentos() {
+        try {
+            List<String> linhas = pagamentos.lerArquivo();
+            List<String> erros = new ArrayList<>();
+            Set<String> noArquivo = new HashSet<>();
+            int aplicados = 0;
+            for (int i = 0; i < linhas.size(); i++) {
+                try {
+                    Pagamentos.Lancamento l = Pagamentos.deLinha(linhas.get(i));
+                    noArquivo.add(l.getId());
+                    if (reaplicarLancamento(l)) {
+                        aplicados++;
+                    }
+                } catch (RuntimeException e) {
+                    erros.add("Linha " + (i + 1) + ": " + e.getMessage() + " -> " + linhas.get(i));
+                }
+            }
+            if (!linhas.isEmpty()) {
+                System.out.println("Lançamentos de multa reaplicados: " + aplicados + " de " + linhas.size());
+            }
+            reportarErros(pagamentos.getArquivo().toString(), erros);
+            pagamentos.abrir();
+            List<Pagamentos.Lancamento> faltando = new ArrayList<>();
+            for (Pagamentos.Lancamento l : pagamentos.todos()) {
+                if (!noArquivo.contains(l.getId())) {
+                    faltando.add(l);
+                }
+            }
+            if (!faltando.isEmpty()) {
+                StringBuilder texto = new StringBuilder();
+                for (Pagamentos.Lancamento l : faltando) {
+                    texto.append(texto.length() > 0 ? "\n" : "").append(Pagamentos.linha(l));
+                }
+                aguardarJournal(pagamentos.gravar(texto.toString()));
+            }
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Erro ao abrir lançamentos: " + e.getMessage());
         }
+    }
 
-        // Cria o empréstimo
-        String novoId = String.valueOf(proximoIdEmprestimo++);
-        Emprestimo novoEmprestimo = new Emprestimo(novoId, usuario, item, LocalDate.now());
+    // Aplica um evento do journal na memória
+    // Todo evento é idempotente: se já estiver no snapshot, é ignorado (retorna false)
+    private boolean aplicarEvento(String linha) {
+        int separador = linha.indexOf(';');
+        String tipo = linha.substring(0, separador);
+        String[] campos = CarregadorCsv.dividir(linha.substring(separador + 1));
 
-        // Atualiza tudo
-        item.emprestar();
-        usuario.adicionarEmprestimo(novoEmprestimo);
-        this.historicoEmprestimos.add(novoEmprestimo);
+        switch (tipo) {
+            case EVT_USUARIO:
+                try {
+                    cadastrarUsuario(converterUsuario(campos));
+                    return true;
+                } catch (RegraDeNegocioException e) {
+                    return false;
+                }
+            case EVT_ITEM:
+                try {
+                    cadastrarItem(converterItem(campos));
+                    return true;
+                } catch (RegraDeNegocioException e) {
+                    return false;
+                }
+            case EVT_EMPRESTIMO: {
+                if (indiceEmprestimos.containsKey(campos[0]) || arquivo.contem(campos[0])) {
+                    return false;
+                }
+                Usuario usuario = buscarUsuario(campos[1])
+                        .orElseThrow(() -> new IllegalArgumentException("usuário não existe"));
+                ItemDeAcervo item = buscarItem(campos[2])
+                        .orElseThrow(() -> new IllegalArgumentException("item não existe"));
+                int exemplar = exemplar(campos, 4);
+                validarExemplar(item, exemplar);
+                LocalDate data = LocalDate.parse(campos[3]);
+                // O prazo vem gravado na linha: a política pode ter mudado depois do empréstimo
+                // (linha antiga, sem o prazo, recalcula com a vigente)
+                reabrirEmprestimo(campos.length > 5 && !campos[5].isEmpty()
+                        ? new Emprestimo(campos[0], usuario, item, exemplar, data, LocalDate.parse(campos[5]), null, 0)
+                        : new Emprestimo(campos[0], usuario, item, exemplar, data));
+                return true;
+            }
+            case EVT_DEVOLUCAO: {
+                Emprestimo emprestimo = buscarEmprestimo(campos[0])
+                        .orElseThrow(() -> new IllegalArgumentException("empréstimo não existe"));
+                if (emprestimo.isDevolvido()) {
+                    return false;
+                }
+                // Se o exemplar foi separado pra uma reserva, o evento V seguinte marca de novo
+                // Usa a multa cobrada na devolução, não a da política vigente agora
+                if (campos.length > 2 && !campos[2].isEmpty()) {
+                    emprestimo.finalizarEmprestimo(LocalDate.parse(campos[1]), Long.parseLong(campos[2]));
+                    desvincular(emprestimo, true);
+                } else {
+                    fecharEmprestimo(emprestimo, LocalDate.parse(campos[1]), true);
+                }
+                return true;
+            }
+            case EVT_RESERVA:
+                return restaurarReserva(campos[0], campos[1], campos[2], LocalDate.parse(campos[3]),
+                        Reserva.Status.NA_FILA, null, 0);
+            case EVT_SITUACAO_RESERVA:
+                return controleReservas.aplicar(campos[0], Reserva.Status.valueOf(campos[1]),
+                        campos.length < 3 || campos[2].isEmpty() ? null : LocalDate.parse(campos[2]), exemplar(campos, 3));
+            case EVT_LANCAMENTO:
+                return reaplicarLancamento(Pagamentos.deLinha(linha.substring(separador + 1)));
+            default:
+                throw new IllegalArgumentException("evento desconhecido '" + tipo + "'");
+        }
+    }
 
-        return novoEmprestimo;
+    // Fecha o journal esperando as gravações pendentes
+    // Também entrega os eventos que faltam aos assinantes e para as threads deles
+    public void fecharJournal() {
+        // Para antes o agendador: uma expiração depois daqui não iria pro journal
+        pararAgendadorReservas();
+        barramento.fechar();
+        synchronized (this) {
+            if (arquivoEventos != null) {
+                arquivoEventos.close();
+                arquivoEventos = null;
+            }
+        }
+        PrimarioReplicacao p = this.primario;
+        if (p != null) {
+            p.close();
+            this.primario = null;
+        }
+        Journal j = this.journal;
+        if (j != null) {
+            j.close();
+            this.journal = null;
+        }
+        pagamentos.close();
     }
 
-    // Realiza uma devolução e calcula multa se tiver atraso
-    public void realizarDevolucao(String idEmprestimo) throws RegraDeNegocioException {
-        Emprestimo emprestimo = buscarEmprestimo(idEmprestimo)
-                .orElseThrow(() -> new RegraDeNegocioException("Empréstimo não encontrado."));
+    // ---------------------------------------------------------------- replicação
 
-        if (emprestimo.getDataDevolucaoReal() != null) {
-            throw new RegraDeNegocioException("Empréstimo já foi devolvido.");
+    // Começa a mandar as alterações pras réplicas que se conectarem na porta (0 = qualquer livre)
+    public synchronized PrimarioReplicacao iniciarReplicacao(int porta) throws IOException {
+        if (somenteLeitura) {
+            throw new IllegalStateException("Réplica não serve outras réplicas - promova antes");
         }
+        if (falhaJournal != null) {
+            throw new IllegalStateException(falhaJournal);
+        }
+        if (primario == null) {
+            PrimarioReplicacao p = new PrimarioReplicacao(this, porta);
+            p.iniciar();
+            primario = p;
+        }
+        return primario;
+    }
 
-        LocalDate dataDevolucaoReal = LocalDate.now();
-        emprestimo.finalizarEmprestimo(dataDevolucaoReal);
-        emprestimo.getItem().devolver();
-        emprestimo.getUsuario().removerEmprestimo(emprestimo);
+    // O estado inteiro em linhas de journal, pra réplica que está começando (ou ficou muito pra trás)
+    // Empréstimo devolvido vira E + D, reserva ativa vira R + V; reaplicar em cima de um estado
+    // que já tem parte disso é seguro (todo evento é idempotente). Do arquivo morto só vão os
+    // empréstimos com multa: sem eles o saldo da réplica fica menor e os pagamentos não fecham
+    List<String> linhasDoEstado() {
+        List<String> linhas = new ArrayList<>();
+        for (Usuario u : new ArrayList<>(listaUsuarios)) {
+            linhas.add(EVT_USUARIO + ";" + linhaUsuario(u));
+        }
+        for (ItemDeAcervo item : new ArrayList<>(acervo)) {
+            // Na estante: quem ocupa os exemplares são os empréstimos e reservas que vêm depois
+            String[] campos = linhaItem(item).split(";", -1);
+            campos[4] = "false";
+            linhas.add(EVT_ITEM + ";" + String.join(";", campos));
+        }
+        // Os arquivados primeiro: são os mais antigos e já voltaram, o exemplar fica livre de novo
+        arquivo.emprestimos().filter(e -> e.getMultaCentavos() > 0).forEach(e -> linhasDoEmprestimo(e, linhas));
+        for (Emprestimo e : new ArrayList<>(historicoEmprestimos)) {
+            linhasDoEmprestimo(e, linhas);
+        }
+        // Depois dos empréstimos: a multa que o lançamento baixa já está no saldo
+        for (Pagamentos.Lancamento l : pagamentos.todos()) {
+            linhas.add(EVT_LANCAMENTO + ";" + Pagamentos.linha(l));
+        }
+        for (Reserva r : controleReservas.listarAtivas()) {
+            linhas.add(EVT_RESERVA + ";" + r.getIdReserva() + ";" + r.getUsuario().getId() + ";"
+                    + r.getItem().getCodigo() + ";" + r.getDataReserva());
+            if (r.getStatus() != Reserva.Status.NA_FILA) {
+                linhas.add(linhaSituacaoReserva(r));
+            }
+        }
+        return linhas;
     }
 
-    // Salva os dados em arquivos CSV
-    // Uso instanceof pra saber se é Aluno/Professor ou Livro/Revista
-    public void salvarDados() {
+    private static void linhasDoEmprestimo(Emprestimo e, List<String> linhas) {
+        linhas.add(EVT_EMPRESTIMO + ";" + e.getIdEmprestimo() + ";" + e.getUsuario().getId() + ";"
+                + e.getItem().getCodigo() + ";" + e.getDataEmprestimo() + ";" + e.getExemplar()
+                + ";" + e.getDataDevolucaoPrevista());
+        LocalDate real = e.getDataDevolucaoReal();
+        if (real != null) {
+            linhas.add(EVT_DEVOLUCAO + ";" + e.getIdEmprestimo() + ";" + real + ";" + e.getMultaCentavos());
+        }
+    }
+
+    // Aplica uma linha que veio do primário - mesmo caminho da carga do journal
+    boolean aplicarReplicado(String linha) {
+        long inicio = System.nanoTime();
         try {
-            // Salva usuários
-            List<String> userLines = listaUsuarios.stream().map(u -> {
-                String base = u.getClass().getSimpleName() + ";" + u.getId() + ";" + 
-                             u.getNome() + ";" + u.getEndereco() + ";" + u.getStatus();
-
-                // Verifica o tipo real do objeto
-                if (u instanceof Aluno) {
-                    Aluno a = (Aluno) u;
-                    return base + ";" + a.getMatricula() + ";" + a.getCurso();
-                } else if (u instanceof Professor) {
-                    Professor p = (Professor) u;
-                    return base + ";" + p.getSiape() + ";" + p.getDepartamento();
-                }
-                return "";
-            }).collect(Collectors.toList());
-            Files.write(Paths.get(USUARIOS_FILE), userLines);
-
-            // Salva itens do acervo
-            List<String> itemLines = acervo.stream().map(i -> {
-                String base = i.getClass().getSimpleName() + ";" + i.getCodigo() + ";" + 
-                             i.getTitulo() + ";" + i.getAnoPublicacao() + ";" + i.isEmprestado();
-
-                // Verifica o tipo real do objeto
-                if (i instanceof Livro) {
-                    Livro l = (Livro) i;
-                    return base + ";" + l.getAutor() + ";" + l.getIsbn() + ";" + l.getEdicao();
-                } else if (i instanceof Revista) {
-                    Revista r = (Revista) i;
-                    return base + ";" + r.getEditora() + ";" + r.getVolume() + ";" + r.getIssn();
-                }
-                return "";
-            }).collect(Collectors.toList());
-            Files.write(Paths.get(ACERVO_FILE), itemLines);
-
-            System.out.println("Dados salvos com sucesso em " + USUARIOS_FILE + " e " + ACERVO_FILE);
+            boolean aplicado = aplicarEvento(linha);
+            metricas.registrar(Metricas.Operacao.REPLICAR, inicio);
+            return aplicado;
+        } catch (RuntimeException e) {
+            metricas.registrarFalha(Metricas.Operacao.REPLICAR, inicio);
+            throw e;
+        }
+    }
 
-        } catch (IOException e) {
-            System.err.println("Erro ao salvar dados: " + e.getMessage());
+    // Chamado pelo SeguidorReplicacao antes de receber a primeira linha
+    void tornarReplica() {
+        if (journal != null || primario != null) {
+            throw new IllegalStateException("Sistema já aberto como primário não pode virar réplica");
         }
+        somenteLeitura = true;
     }
 
-    // Carrega os dados dos arquivos CSV e recria os objetos
-    public void carregarDados() {
-        System.out.println("Carregando dados...");
-        
-        // Carrega usuários
-        try (BufferedReader br = new BufferedReader(new FileReader(USUARIOS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(";");
-                String tipo = parts[0];
-                
-                if ("Aluno".equals(tipo)) {
-                    Aluno a = new Aluno(parts[1], parts[2], parts[3], parts[5], parts[6]);
-                    a.setStatus(parts[4]);
-                    this.listaUsuarios.add(a);
-                } else if ("Professor".equals(tipo)) {
-                    Professor p = new Professor(parts[1], parts[2], parts[3], parts[5], parts[6]);
-                    p.setStatus(parts[4]);
-                    this.listaUsuarios.add(p);
-                }
-            }
-            System.out.println("Usuários carregados: " + this.listaUsuarios.size());
+    // Réplica vira primário: grava o estado recebido como snapshot na pasta dela, abre o
+    // journal e passa a aceitar alterações. Quem garante que nada mais chega do antigo
+    // primário é o SeguidorReplicacao (fecha a conexão antes)
+    synchronized void promover() throws IOException {
+        if (!somenteLeitura) {
+            return;
+        }
+        abrirArquivo();
+        salvarDados();
+        // O snapshot já tem tudo - um journal velho nessa pasta seria reaplicado por cima dele
+        Files.deleteIfExists(Paths.get(JOURNAL_FILE));
+        this.journal = new Journal(Paths.get(JOURNAL_FILE));
+        pagamentos.abrirRegravando();
+        somenteLeitura = false;
+    }
 
-        } catch (IOException e) {
-            System.out.println("Nenhum arquivo de usuários encontrado para carregar.");
+    // Mostra as linhas que não deu pra carregar (só as primeiras, o resto é contado)
+    private void reportarErros(String arquivo, List<String> erros) {
+        if (erros.isEmpty()) {
+            return;
         }
+        System.err.println(erros.size() + " linha(s) com erro em " + arquivo + ":");
+        erros.stream().limit(10).forEach(e -> System.err.println("  " + e));
+        if (erros.size() > 10) {
+            System.err.println("  ... e mais " + (erros.size() - 10));
+        }
+    }
 
-        // Carrega itens do acervo
-        try (BufferedReader br = new BufferedReader(new FileReader(ACERVO_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(";");
-                String tipo = parts[0];
-                boolean isEmprestado = Boolean.parseBoolean(parts[4]);
-
-                ItemDeAcervo item = null;
-                if ("Livro".equals(tipo)) {
-                    item = new Livro(parts[1], parts[2], Integer.parseInt(parts[3]), 
-                                   parts[5], parts[6], Integer.parseInt(parts[7]));
-                } else if ("Revista".equals(tipo)) {
-                    item = new Revista(parts[1], parts[2], Integer.parseInt(parts[3]), 
-                                     parts[5], Integer.parseInt(parts[6]), parts[7]);
-                }
-
-                if (item != null) {
-                    if (isEmprestado) {
-                        item.emprestar();
-                    } else {
-                        item.devolver();
-                    }
-                    this.acervo.add(item);
-                }
-            }
-            System.out.println("Itens de acervo carregados: " + this.acervo.size());
-        } catch (IOException | NumberFormatException | DateTimeParseException e) {
-            System.out.println("Nenhum arquivo de acervo encontrado ou erro no formato para carregar.");
+    // Converte uma linha de usuarios.csv - Aluno ou Professor
+    static Usuario converterUsuario(String[] parts) {
+        String tipo = parts[0];
+        Usuario u;
+        if ("Aluno".equals(tipo)) {
+            u = new Aluno(parts[1], parts[2], parts[3], parts[5], parts[6]);
+        } else if ("Professor".equals(tipo)) {
+            u = new Professor(parts[1], parts[2], parts[3], parts[5], parts[6]);
+        } else {
+            throw new IllegalArgumentException("tipo de usuário desconhecido '" + tipo + "'");
+        }
+        u.setStatus(parts[4]);
+        return u;
+    }
+
+    // Converte uma linha de acervo.csv - Livro ou Revista
+    static ItemDeAcervo converterItem(String[] parts) {
+        String tipo = parts[0];
+        boolean isEmprestado = Boolean.parseBoolean(parts[4]);
+        // Arquivos antigos não têm a coluna: um exemplar por item
+        int exemplares = parts.length > 8 ? Integer.parseInt(parts[8]) : 1;
+
+        ItemDeAcervo item;
+        if ("Livro".equals(tipo)) {
+            item = new Livro(parts[1], parts[2], Integer.parseInt(parts[3]), 
+                           parts[5], parts[6], Integer.parseInt(parts[7]), exemplares);
+        } else if ("Revista".equals(tipo)) {
+            item = new Revista(parts[1], parts[2], Integer.parseInt(parts[3]), 
+                             parts[5], Integer.parseInt(parts[6]), parts[7], exemplares);
+        } else {
+            throw new IllegalArgumentException("tipo de item desconhecido '" + tipo + "'");
+        }
+
+        // Com vários exemplares quem diz quais estão fora são os empréstimos e as reservas
+        // (que são carregados depois); a marca só vale pros arquivos de um exemplar por item
+        if (isEmprestado && exemplares == 1) {
+            item.emprestar(0);
         }
+        return item;
     }
 
     // Menu interativo do sistema
     public void exibirMenu() {
+        registrarJmx();
+        iniciarAgendadorReservas();
         int opcao;
         do {
 
@@ -247,6 +2351,20 @@ public class SistemaBiblioteca {
             System.out.println("10. Listar Empréstimos Atrasados");
             System.out.println("11. Salvar Dados");
             System.out.println("12. Carregar Dados");
+            System.out.println("13. Buscar no Acervo");
+            System.out.println("14. Filtrar Acervo");
+            System.out.println("15. Empréstimo em Lote (carrinho)");
+            System.out.println("16. Devolução em Lote");
+            System.out.println("17. Métricas");
+            System.out.println("18. Reservar Item");
+            System.out.println("19. Cancelar Reserva");
+            System.out.println("20. Reservas de um Item");
+            System.out.println("21. Política e Multas");
+            System.out.println("22. Relatórios (grava CSV e JSON)");
+            System.out.println("23. Arquivar Empréstimos Antigos");
+            System.out.println("24. Exportar Listagem (CSV)");
+            System.out.println("25. Pagar ou Isentar Multa");
+            System.out.println("26. Importar Quitações do Caixa (CSV)");
             System.out.println("0.  Sair");
             System.out.println("-");
             
@@ -262,13 +2380,27 @@ public class SistemaBiblioteca {
                     case 4: cadastrarRevista(); break;
                     case 5: realizarEmprestimoMenu(); break;
                     case 6: realizarDevolucaoMenu(); break;
-                    case 7: listarUsuarios(); break;
-                    case 8: listarAcervo(); break;
-                    case 9: listarEmprestimosAtivos(); break;
-                    case 10: listarEmprestimosAtrasados(); break;
+                    case 7: listarUsuariosMenu(); break;
+                    case 8: listarAcervoMenu(); break;
+                    case 9: listarEmprestimosAtivosMenu(); break;
+                    case 10: listarEmprestimosAtrasadosMenu(); break;
                     case 11: salvarDados(); break;
                     case 12: carregarDados(); break;
-                    case 0: System.out.println("Saindo..."); break;
+                    case 13: buscarNoAcervoMenu(); break;
+                    case 14: filtrarAcervoMenu(); break;
+                    case 15: realizarEmprestimosMenu(); break;
+                    case 16: realizarDevolucoesMenu(); break;
+                    case 17: System.out.print(metricas.relatorio()); break;
+                    case 18: reservarMenu(); break;
+                    case 19: cancelarReservaMenu(); break;
+                    case 20: listarReservasMenu(); break;
+                    case 21: politicaMenu(); break;
+                    case 22: relatoriosMenu(); break;
+                    case 23: arquivarMenu(); break;
+                    case 24: exportarMenu(); break;
+                    case 25: pagarMultaMenu(); break;
+                    case 26: importarQuitacoesMenu(); break;
+                    case 0: fecharJournal(); System.out.println("Saindo..."); break;
                     default: System.out.println("Opção inválida!");
                 }
             } catch (RegraDeNegocioException e) {
@@ -282,7 +2414,7 @@ public class SistemaBiblioteca {
         } while (opcao != 0);
     }
     
-    private void cadastrarAluno() {
+    private void cadastrarAluno() throws RegraDeNegocioException {
         System.out.print("ID: ");
         String id = scanner.nextLine();
         System.out.print("Nome: ");
@@ -299,7 +2431,7 @@ public class SistemaBiblioteca {
         System.out.println("Aluno cadastrado com sucesso!");
     }
     
-    private void cadastrarProfessor() {
+    private void cadastrarProfessor() throws RegraDeNegocioException {
         System.out.print("ID: ");
         String id = scanner.nextLine();
         System.out.print("Nome: ");
@@ -316,7 +2448,7 @@ public class SistemaBiblioteca {
         System.out.println("Professor cadastrado com sucesso!");
     }
     
-    private void cadastrarLivro() {
+    private void cadastrarLivro() throws RegraDeNegocioException {
         System.out.print("Código: ");
         String codigo = scanner.nextLine();
         System.out.print("Título: ");
@@ -331,13 +2463,14 @@ public class SistemaBiblioteca {
         System.out.print("Edição: ");
         int edicao = scanner.nextInt();
         scanner.nextLine();
+        int exemplares = lerExemplares();
         
-        Livro livro = new Livro(codigo, titulo, ano, autor, isbn, edicao);
+        Livro livro = new Livro(codigo, titulo, ano, autor, isbn, edicao, exemplares);
         adicionarItem(livro);
         System.out.println("Livro cadastrado com sucesso!");
     }
     
-    private void cadastrarRevista() {
+    private void cadastrarRevista() throws RegraDeNegocioException {
         System.out.print("Código: ");
         String codigo = scanner.nextLine();
         System.out.print("Título: ");
@@ -352,12 +2485,29 @@ public class SistemaBiblioteca {
         scanner.nextLine();
         System.out.print("ISSN: ");
         String issn = scanner.nextLine();
+        int exemplares = lerExemplares();
         
-        Revista revista = new Revista(codigo, titulo, ano, editora, volume, issn);
+        Revista revista = new Revista(codigo, titulo, ano, editora, volume, issn, exemplares);
         adicionarItem(revista);
         System.out.println("Revista cadastrada com sucesso!");
     }
     
+    // Quantidade de exemplares físicos do título - Enter é um só
+    private int lerExemplares() {
+        System.out.print("Exemplares (Enter = 1): ");
+        String texto = scanner.nextLine().trim();
+        try {
+            int exemplares = texto.isEmpty() ? 1 : Integer.parseInt(texto);
+            if (exemplares >= 1 && exemplares <= ItemDeAcervo.MAX_EXEMPLARES) {
+                return exemplares;
+            }
+        } catch (NumberFormatException e) {
+            // Cai no aviso abaixo
+        }
+        System.out.println("Quantidade inválida, cadastrando 1 exemplar.");
+        return 1;
+    }
+
     private void realizarEmprestimoMenu() throws RegraDeNegocioException {
         System.out.print("ID do Usuário: ");
         String idUsuario = scanner.nextLine();
@@ -377,38 +2527,302 @@ public class SistemaBiblioteca {
         System.out.println("Devolução realizada com sucesso!");
     }
     
-    private void listarUsuarios() {
-        System.out.println("\n--- USUÁRIOS CADASTRADOS ---");
-        listaUsuarios.forEach(u -> System.out.println(u));
+    private void realizarEmprestimosMenu() {
+        System.out.print("ID do Usuário: ");
+        String idUsuario = scanner.nextLine();
+        System.out.print("Códigos dos Itens (separados por vírgula): ");
+        List<String> codigos = lerLista(scanner.nextLine());
+
+        ResultadoLote resultado = realizarEmprestimos(idUsuario, codigos);
+        System.out.println(resultado.isCompleto() ? "Carrinho emprestado com sucesso!" : "Carrinho recusado:");
+        resultado.getLinhas().forEach(l -> System.out.println("  " + l));
     }
-    
-    private void listarAcervo() {
-        System.out.println("\n--- ACERVO ---");
-        acervo.forEach(i -> System.out.println(i));
+
+    private void realizarDevolucoesMenu() {
+        System.out.print("IDs dos Empréstimos (separados por vírgula): ");
+        List<String> ids = lerLista(scanner.nextLine());
+
+        ResultadoLote resultado = realizarDevolucoes(ids);
+        System.out.println("Devoluções realizadas: " + resultado.getQuantidadeSucesso() + " de " + ids.size());
+        resultado.getLinhas().stream().filter(l -> !l.isSucesso()).forEach(l -> System.out.println("  " + l));
     }
-    
-    private void listarEmprestimosAtivos() {
-        System.out.println("\n--- EMPRÉSTIMOS ATIVOS ---");
-        historicoEmprestimos.stream()
-            .filter(e -> e.getDataDevolucaoReal() == null)
-            .forEach(e -> System.out.println(e));
+
+    private void reservarMenu() throws RegraDeNegocioException {
+        System.out.print("ID do Usuário: ");
+        String idUsuario = scanner.nextLine();
+        System.out.print("Código do Item: ");
+        String codItem = scanner.nextLine();
+
+        Reserva reserva = reservar(idUsuario, codItem);
+        System.out.println("Reserva #" + reserva.getIdReserva() + " feita. Posição na fila: "
+                + (getReservas(codItem).indexOf(reserva) + 1));
     }
-    
-    private void listarEmprestimosAtrasados() {
-        System.out.println("\n--- EMPRÉSTIMOS ATRASADOS ---");
-        historicoEmprestimos.stream()
-            .filter(e -> e.getDataDevolucaoReal() == null)
-            .filter(e -> e.getDataDevolucaoPrevista().isBefore(LocalDate.now()))
-            .forEach(e -> {
-                System.out.println(e);
-                long diasAtraso = java.time.temporal.ChronoUnit.DAYS.between(
-                    e.getDataDevolucaoPrevista(), LocalDate.now());
-                System.out.println("  Dias de atraso: " + diasAtraso);
-            });
+
+    private void cancelarReservaMenu() throws RegraDeNegocioException {
+        System.out.print("ID da Reserva: ");
+        cancelarReserva(scanner.nextLine());
+        System.out.println("Reserva cancelada.");
+    }
+
+    private void listarReservasMenu() throws RegraDeNegocioException {
+        System.out.print("Código do Item: ");
+        List<Reserva> reservas = getReservas(scanner.nextLine());
+        if (reservas.isEmpty()) {
+            System.out.println("Nenhuma reserva para este item.");
+        }
+        reservas.forEach(System.out::println);
+    }
+
+    private static List<String> lerLista(String texto) {
+        List<String> valores = new ArrayList<>();
+        for (String v : texto.split(",")) {
+            if (!v.trim().isEmpty()) {
+                valores.add(v.trim());
+            }
+        }
+        return valores;
+    }
+
+    private void buscarNoAcervoMenu() {
+        System.out.print("Buscar (título, autor, editora, ISBN/ISSN): ");
+        String consulta = scanner.nextLine();
+        System.out.print("Só disponíveis? (s/n): ");
+        boolean apenasDisponiveis = scanner.nextLine().trim().equalsIgnoreCase("s");
+
+        List<ItemDeAcervo> encontrados = buscarNoAcervo(consulta, 20, apenasDisponiveis);
+        System.out.println("\n--- RESULTADO DA BUSCA (" + encontrados.size() + ") ---");
+        encontrados.forEach(i -> System.out.println(i));
+    }
+
+    private void filtrarAcervoMenu() {
+        IndicesAcervo.Filtro filtro = new IndicesAcervo.Filtro();
+        System.out.print("Tipo (Livro/Revista, Enter = todos): ");
+        String tipo = scanner.nextLine().trim();
+        if (tipo.equalsIgnoreCase("Livro")) {
+            filtro.tipo(Livro.class);
+        } else if (tipo.equalsIgnoreCase("Revista")) {
+            filtro.tipo(Revista.class);
+        }
+        System.out.print("Anos (ex: 2015-2020, Enter = todos): ");
+        String anos = scanner.nextLine().trim();
+        if (!anos.isEmpty()) {
+            String[] faixa = anos.split("-");
+            try {
+                int inicial = Integer.parseInt(faixa[0].trim());
+                filtro.anos(inicial, faixa.length > 1 ? Integer.parseInt(faixa[1].trim()) : inicial);
+            } catch (NumberFormatException e) {
+                System.out.println("Anos inválidos, ignorando esse filtro.");
+            }
+        }
+        System.out.print("Autor (Enter = todos): ");
+        String autor = scanner.nextLine().trim();
+        if (!autor.isEmpty()) {
+            filtro.autor(autor);
+        }
+        System.out.print("Editora (Enter = todas): ");
+        String editora = scanner.nextLine().trim();
+        if (!editora.isEmpty()) {
+            filtro.editora(editora);
+        }
+        System.out.print("Só disponíveis? (s/n): ");
+        if (scanner.nextLine().trim().equalsIgnoreCase("s")) {
+            filtro.apenasDisponiveis();
+        }
+
+        IndicesAcervo.Resultado resultado = filtrarAcervo(filtro);
+        System.out.println("\n--- RESULTADO DO FILTRO (" + resultado.contar() + ") ---");
+        int cursor = 0;
+        while (true) {
+            IndicesAcervo.Pagina pagina = resultado.pagina(cursor, 20);
+            pagina.getItens().forEach(i -> System.out.println(i));
+            if (!pagina.temMais()) {
+                break;
+            }
+            System.out.print("Enter para a próxima página, 'q' para parar: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            cursor = pagina.getProximoCursor();
+        }
+    }
+
+    // Listagens do menu: pergunta a ordem e mostra de página em página, como o filtro
+    private void listarUsuariosMenu() {
+        Listagens.OrdemUsuarios ordem = lerOrdem(Listagens.OrdemUsuarios.values());
+        boolean decrescente = lerDecrescente();
+        paginarMenu("USUÁRIOS CADASTRADOS", cursor -> listarUsuarios(ordem, decrescente, cursor, Listagens.LIMITE_PADRAO),
+                u -> System.out.println(u));
+    }
+
+    private void listarAcervoMenu() {
+        Listagens.OrdemAcervo ordem = lerOrdem(Listagens.OrdemAcervo.values());
+        boolean decrescente = lerDecrescente();
+        paginarMenu("ACERVO", cursor -> listarAcervo(ordem, decrescente, cursor, Listagens.LIMITE_PADRAO),
+                i -> System.out.println(i));
+    }
+
+    private void listarEmprestimosAtivosMenu() {
+        Listagens.OrdemEmprestimos ordem = lerOrdem(Listagens.OrdemEmprestimos.values());
+        boolean decrescente = lerDecrescente();
+        paginarMenu("EMPRÉSTIMOS ATIVOS", cursor -> listarEmprestimosAtivos(ordem, decrescente, cursor, Listagens.LIMITE_PADRAO),
+                e -> System.out.println(e));
+    }
+
+    // Usa o ControleAtrasos - só passa pelos atrasados, não pelo histórico todo
+    private void listarEmprestimosAtrasadosMenu() {
+        Listagens.OrdemEmprestimos ordem = lerOrdem(Listagens.OrdemEmprestimos.values());
+        boolean decrescente = lerDecrescente();
+        long hoje = LocalDate.now().toEpochDay();
+        paginarMenu("EMPRÉSTIMOS ATRASADOS", cursor -> listarEmprestimosAtrasados(ordem, decrescente, cursor, Listagens.LIMITE_PADRAO),
+                e -> {
+                    System.out.println(e);
+                    System.out.printf("  Dias de atraso: %d | Multa se devolver hoje: R$ %.2f%n",
+                            hoje - e.getDiaDevolucaoPrevista(), e.calcularMultaCentavos(hoje) / 100.0);
+                });
+    }
+
+    private <T> void paginarMenu(String titulo, Function<String, Listagens.Pagina<T>> paginas, Consumer<T> mostrar) {
+        Listagens.Pagina<T> pagina = paginas.apply(null);
+        System.out.println("\n--- " + titulo + " (" + pagina.getTotal() + ") ---");
+        while (true) {
+            pagina.getItens().forEach(mostrar);
+            if (!pagina.temMais()) {
+                break;
+            }
+            System.out.print("Enter para a próxima página, 'q' para parar: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            pagina = paginas.apply(pagina.getProximoCursor());
+        }
+    }
+
+    // Enter = a primeira ordem da lista
+    private <E extends Enum<E>> E lerOrdem(E[] ordens) {
+        StringBuilder nomes = new StringBuilder();
+        for (E o : ordens) {
+            nomes.append(nomes.length() == 0 ? "" : "/").append(o.name().toLowerCase());
+        }
+        System.out.print("Ordenar por (" + nomes + ", Enter = " + ordens[0].name().toLowerCase() + "): ");
+        String texto = scanner.nextLine().trim();
+        for (E o : ordens) {
+            if (o.name().equalsIgnoreCase(texto)) {
+                return o;
+            }
+        }
+        if (!texto.isEmpty()) {
+            System.out.println("Ordem desconhecida, usando " + ordens[0].name().toLowerCase() + ".");
+        }
+        return ordens[0];
+    }
+
+    private boolean lerDecrescente() {
+        System.out.print("Decrescente? (s/n): ");
+        return scanner.nextLine().trim().equalsIgnoreCase("s");
+    }
+
+    // Grava a listagem inteira em <pasta>/<listagem>.csv
+    void exportarMenu() {
+        System.out.print("Listagem (usuarios/acervo/emprestimos-ativos/emprestimos-atrasados): ");
+        Listagens.Tipo tipo;
+        try {
+            tipo = Listagens.Tipo.porNome(scanner.nextLine().trim().toLowerCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        Path csv = Paths.get(pastaDados, tipo.getNome() + ".csv");
+        long inicio = System.nanoTime();
+        try (FileChannel canal = FileChannel.open(csv, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int linhas = exportar(tipo, canal);
+            System.out.println(linhas + " linha(s) gravada(s) em " + csv + " em "
+                    + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("Erro ao exportar: " + e.getMessage());
+        }
+    }
+
+    private void pagarMultaMenu() throws RegraDeNegocioException {
+        System.out.print("ID do Usuário: ");
+        String idUsuario = scanner.nextLine().trim();
+        Usuario usuario = buscarUsuario(idUsuario).orElseThrow(() -> naoEncontrado("Usuário não encontrado."));
+        System.out.printf("Multa pendente: R$ %.2f%n", usuario.getMultaCentavos() / 100.0);
+        System.out.print("(P)agamento ou (I)senção: ");
+        boolean isencao = scanner.nextLine().trim().equalsIgnoreCase("i");
+        System.out.print(isencao ? "Valor em reais (vazio = tudo): " : "Valor em reais: ");
+        String valor = scanner.nextLine().trim();
+        long centavos;
+        try {
+            centavos = valor.isEmpty() && isencao ? 0 : Pagamentos.centavos(valor);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Valor inválido.");
+            return;
+        }
+        System.out.print("Recibo (vazio = gerar): ");
+        String recibo = scanner.nextLine().trim();
+        Pagamentos.Lancamento lancamento;
+        if (isencao) {
+            System.out.print("Motivo: ");
+            lancamento = isentarMulta(idUsuario, centavos, scanner.nextLine().trim(), recibo);
+        } else {
+            lancamento = pagarMulta(idUsuario, centavos, recibo);
+        }
+        System.out.println(lancamento);
+        System.out.printf("Multa pendente agora: R$ %.2f%s%n", usuario.getMultaCentavos() / 100.0,
+                usuario.isAptoParaEmprestimo() ? " (liberado para empréstimo)" : "");
+    }
+
+    private void importarQuitacoesMenu() throws RegraDeNegocioException {
+        System.out.print("Arquivo CSV (recibo;usuario;valor[;data]): ");
+        Path csv = Paths.get(scanner.nextLine().trim());
+        try {
+            Pagamentos.Importacao resultado = importarQuitacoes(csv);
+            System.out.println(resultado);
+            reportarErros(csv.toString(), resultado.getErros());
+        } catch (IOException e) {
+            System.err.println("Erro ao importar: " + e.getMessage());
+        }
+    }
+
+    // Mostra o resumo e grava o relatório completo na pasta de dados
+    void relatoriosMenu() {
+        Relatorios.Resultado resultado = getRelatorio(Relatorios.TOP_PADRAO);
+        System.out.println(resultado);
+        Path csv = Paths.get(pastaDados, "relatorio.csv");
+        Path json = Paths.get(pastaDados, "relatorio.json");
+        try {
+            resultado.gravarCsv(csv);
+            resultado.gravarJson(json);
+            System.out.println("Relatório gravado em " + csv + " e " + json);
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar relatório: " + e.getMessage());
+        }
+    }
+
+    // Mostra a política vigente e recalcula as multas acumuladas na hora
+    void politicaMenu() {
+        System.out.println(PoliticaEmprestimo.vigente());
+        long inicio = System.nanoTime();
+        long total = recalcularMultas();
+        System.out.printf("Multas acumuladas em aberto: R$ %.2f (recalculadas em %d ms)%n",
+                total / 100.0, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    void arquivarMenu() {
+        System.out.print("Arquivar devolvidos há mais de quantos dias: ");
+        int dias = scanner.nextInt();
+        scanner.nextLine();
+        int arquivados = arquivarEmprestimos(dias);
+        System.out.println("Empréstimos arquivados: " + arquivados + " | no arquivo: " + arquivo.getQuantidade()
+                + " em " + arquivo.getQuantidadeSegmentos() + " segmento(s), "
+                + arquivo.getBytes() / 1024 + " KB | na memória: " + historicoEmprestimos.size());
     }
 
     public static void main(String[] args) {
         SistemaBiblioteca sistema = new SistemaBiblioteca();
+        // Começa pelo último snapshot + journal, pra não perder nada da última execução
+        sistema.carregarDados();
         sistema.exibirMenu();
     }
 }
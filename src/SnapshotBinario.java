@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classe que grava e lê o snapshot em formato binário
+ *
+ * Alternativa mais compacta aos arquivos CSV. O arquivo tem um cabeçalho
+ * com versão e depois quatro seções (usuários, itens, empréstimos e as
+ * reservas ativas - essa só da versão 2 em diante). Da versão 3 em diante
+ * o item tem a quantidade de exemplares, e empréstimos e reservas separadas
+ * dizem qual exemplar. Inteiros
+ * são gravados como varint (números pequenos ocupam 1 byte) e campos que se
+ * repetem muito (curso, departamento, editora, autor, status) passam por um
+ * dicionário: na primeira vez a string vai inteira, nas próximas só o número
+ * dela. A gravação é em streaming por um FileChannel com buffer direto, e a
+ * leitura é direto do arquivo mapeado em memória, sem cópia intermediária.
+ *
+ * @author Ryan Figueredo
+ */
+public class SnapshotBinario {
+    private static final int MAGICO = 0x42494253; // "BIBS"
+    private static final int VERSAO = 3;
+    private static final int TAMANHO_BUFFER = 1 << 16;
+
+    private static final byte TIPO_ALUNO = 1;
+    private static final byte TIPO_PROFESSOR = 2;
+    private static final byte TIPO_LIVRO = 1;
+    private static final byte TIPO_REVISTA = 2;
+
+    // Recebe os registros conforme vão sendo lidos do arquivo
+    public interface Leitor {
+        void usuario(Usuario usuario);
+
+        void item(ItemDeAcervo item);
+
+        void emprestimo(String id, String idUsuario, String codItem, int exemplar, LocalDate dataEmprestimo,
+                        LocalDate dataPrevista, LocalDate dataReal, long multaCentavos);
+
+        // exemplar é -1 enquanto a reserva está na fila
+        void reserva(String id, String idUsuario, String codItem, LocalDate dataReserva,
+                     Reserva.Status status, LocalDate prazoRetirada, int exemplar);
+    }
+
+    private SnapshotBinario() {
+    }
+
+    // ---------------------------------------------------------------- gravação
+
+    public static void gravar(Path arquivo, List<Usuario> usuarios, List<ItemDeAcervo> itens,
+                              List<Emprestimo> emprestimos, List<Reserva> reservas) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Escritor w = new Escritor(canal);
+            w.buffer.putInt(MAGICO);
+            w.varint(VERSAO);
+
+            w.varint(usuarios.size());
+            for (Usuario u : usuarios) {
+                if (u instanceof Aluno) {
+                    Aluno a = (Aluno) u;
+                    w.byteTipo(TIPO_ALUNO);
+                    gravarUsuarioBase(w, u);
+                    w.texto(a.getMatricula());
+                    w.textoDicionario(a.getCurso());
+                } else if (u instanceof Professor) {
+                    Professor p = (Professor) u;
+                    w.byteTipo(TIPO_PROFESSOR);
+                    gravarUsuarioBase(w, u);
+                    w.texto(p.getSiape());
+                    w.textoDicionario(p.getDepartamento());
+                } else {
+                    throw new IOException("Tipo de usuário sem formato binário: " + u.getClass().getSimpleName());
+                }
+            }
+
+            w.varint(itens.size());
+            for (ItemDeAcervo i : itens) {
+                if (i instanceof Livro) {
+                    Livro l = (Livro) i;
+                    w.byteTipo(TIPO_LIVRO);
+                    gravarItemBase(w, i);
+                    w.textoDicionario(l.getAutor());
+                    w.texto(l.getIsbn());
+                    w.varint(l.getEdicao());
+                } else if (i instanceof Revista) {
+                    Revista r = (Revista) i;
+                    w.byteTipo(TIPO_REVISTA);
+                    gravarItemBase(w, i);
+                    w.textoDicionario(r.getEditora());
+                    w.varint(r.getVolume());
+                    w.texto(r.getIssn());
+                } else {
+                    throw new IOException("Tipo de item sem formato binário: " + i.getClass().getSimpleName());
+                }
+            }
+
+            w.varint(emprestimos.size());
+            for (Emprestimo e : emprestimos) {
+                LocalDate real = e.getDataDevolucaoReal();
+                w.texto(e.getIdEmprestimo());
+                w.texto(e.getUsuario().getId());
+                w.texto(e.getItem().getCodigo());
+                w.varlong(e.getDiaEmprestimo());
+                // Prevista e real como diferença pra data do empréstimo - quase sempre 1 byte
+                w.varlong(e.getDiaDevolucaoPrevista() - e.getDiaEmprestimo());
+                w.varlong(real == null ? 0 : real.toEpochDay() - e.getDiaEmprestimo() + 1);
+                w.varlong(e.getMultaCentavos());
+                w.varint(e.getExemplar());
+            }
+
+            w.varint(reservas.size());
+            for (Reserva r : reservas) {
+                LocalDate prazo = r.getPrazoRetirada();
+                w.texto(r.getIdReserva());
+                w.texto(r.getUsuario().getId());
+                w.texto(r.getItem().getCodigo());
+                w.varlong(r.getDataReserva().toEpochDay());
+                w.byteTipo((byte) r.getStatus().ordinal());
+                w.varlong(prazo == null ? 0 : prazo.toEpochDay() - r.getDataReserva().toEpochDay() + 1);
+                w.varint(prazo == null ? 0 : r.getExemplar() + 1); // 0 = na fila
+            }
+
+            w.descarregar();
+            canal.force(true);
+        }
+    }
+
+    private static void gravarUsuarioBase(Escritor w, Usuario u) throws IOException {
+        w.texto(u.getId());
+        w.texto(u.getNome());
+        w.texto(u.getEndereco());
+        w.textoDicionario(u.getStatus());
+    }
+
+    private static void gravarItemBase(Escritor w, ItemDeAcervo i) throws IOException {
+        w.texto(i.getCodigo());
+        w.texto(i.getTitulo());
+        w.varint(i.getAnoPublicacao());
+        w.byteTipo((byte) (i.isEmprestado() ? 1 : 0));
+        w.varint(i.getQuantidadeExemplares());
+    }
+
+    // Escreve num ByteBuffer direto e manda pro canal quando enche
+    private static class Escritor {
+        final FileChannel canal;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+        final Map<String, Integer> dicionario = new HashMap<>();
+
+        Escritor(FileChannel canal) {
+            this.canal = canal;
+        }
+
+        void garantir(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                descarregar();
+            }
+        }
+
+        void descarregar() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void byteTipo(byte b) throws IOException {
+            garantir(1);
+            buffer.put(b);
+        }
+
+        void varint(int valor) throws IOException {
+            varlong(valor & 0xFFFFFFFFL);
+        }
+
+        // 7 bits por byte, o bit mais alto indica que tem mais bytes
+        void varlong(long valor) throws IOException {
+            garantir(10);
+            while ((valor & ~0x7FL) != 0) {
+                buffer.put((byte) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            buffer.put((byte) valor);
+        }
+
+        void texto(String s) throws IOException {
+            byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                descarregar();
+                ByteBuffer grande = ByteBuffer.wrap(bytes);
+                while (grande.hasRemaining()) {
+                    canal.write(grande);
+                }
+            } else {
+                garantir(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        // 0 = string nova (vem logo depois e ganha o próximo número), n = entrada n-1 do dicionário
+        void textoDicionario(String s) throws IOException {
+            String valor = s == null ? "" : s;
+            Integer numero = dicionario.get(valor);
+            if (numero != null) {
+                varint(numero + 1);
+            } else {
+                dicionario.put(valor, dicionario.size());
+                varint(0);
+                texto(valor);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- leitura
+
+    public static void ler(Path arquivo, Leitor leitor) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot binário maior que 2 GB não é suportado");
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            Leitura r = new Leitura(mapa);
+
+            if (mapa.remaining() < 4 || mapa.getInt() != MAGICO) {
+                throw new IOException("Arquivo não é um snapshot binário da biblioteca");
+            }
+            int versao = r.varint();
+            if (versao > VERSAO) {
+                throw new IOException("Versão do snapshot (" + versao + ") mais nova que a suportada (" + VERSAO + ")");
+            }
+
+            int qtdUsuarios = r.varint();
+            for (int n = 0; n < qtdUsuarios; n++) {
+                byte tipo = mapa.get();
+                String id = r.texto();
+                String nome = r.texto();
+                String endereco = r.texto();
+                String status = r.textoDicionario();
+                String registro = r.texto();
+                String lotacao = r.textoDicionario();
+                Usuario u;
+                if (tipo == TIPO_ALUNO) {
+                    u = new Aluno(id, nome, endereco, registro, lotacao);
+                } else if (tipo == TIPO_PROFESSOR) {
+                    u = new Professor(id, nome, endereco, registro, lotacao);
+                } else {
+                    throw new IOException("Tipo de usuário inválido no snapshot: " + tipo);
+                }
+                u.setStatus(status);
+                leitor.usuario(u);
+            }
+
+            int qtdItens = r.varint();
+            for (int n = 0; n < qtdItens; n++) {
+                byte tipo = mapa.get();
+                String codigo = r.texto();
+                String titulo = r.texto();
+                int ano = r.varint();
+                boolean emprestado = mapa.get() != 0;
+                int exemplares = versao >= 3 ? r.varint() : 1;
+                ItemDeAcervo item;
+                // Os argumentos são avaliados da esquerda pra direita, na mesma ordem da gravação
+                if (tipo == TIPO_LIVRO) {
+                    item = new Livro(codigo, titulo, ano, r.textoDicionario(), r.texto(), r.varint(), exemplares);
+                } else if (tipo == TIPO_REVISTA) {
+                    item = new Revista(codigo, titulo, ano, r.textoDicionario(), r.varint(), r.texto(), exemplares);
+                } else {
+                    throw new IOException("Tipo de item inválido no snapshot: " + tipo);
+                }
+                // Com vários exemplares, os empréstimos e reservas dizem quais estão fora
+                if (emprestado && exemplares == 1) {
+                    item.emprestar(0);
+                }
+                leitor.item(item);
+            }
+
+            int qtdEmprestimos = r.varint();
+            for (int n = 0; n < qtdEmprestimos; n++) {
+                String id = r.texto();
+                String idUsuario = r.texto();
+                String codItem = r.texto();
+                long diaEmprestimo = r.varlong();
+                long diaPrevisto = diaEmprestimo + r.varlong();
+                long deltaReal = r.varlong();
+                long multa = r.varlong(); // Em centavos
+                int exemplar = versao >= 3 ? r.varint() : 0;
+                leitor.emprestimo(id, idUsuario, codItem, exemplar, LocalDate.ofEpochDay(diaEmprestimo),
+                        LocalDate.ofEpochDay(diaPrevisto),
+                        deltaReal == 0 ? null : LocalDate.ofEpochDay(diaEmprestimo + deltaReal - 1), multa);
+            }
+
+            // A versão 1 não tinha reservas
+            int qtdReservas = versao >= 2 ? r.varint() : 0;
+            Reserva.Status[] status = Reserva.Status.values();
+            for (int n = 0; n < qtdReservas; n++) {
+                String id = r.texto();
+                String idUsuario = r.texto();
+                String codItem = r.texto();
+                long diaReserva = r.varlong();
+                byte situacao = mapa.get();
+                long deltaPrazo = r.varlong();
+                int exemplar = versao >= 3 ? r.varint() - 1 : (deltaPrazo == 0 ? -1 : 0);
+                if (situacao < 0 || situacao >= status.length) {
+                    throw new IOException("Status de reserva inválido no snapshot: " + situacao);
+                }
+                leitor.reserva(id, idUsuario, codItem, LocalDate.ofEpochDay(diaReserva), status[situacao],
+                        deltaPrazo == 0 ? null : LocalDate.ofEpochDay(diaReserva + deltaPrazo - 1), exemplar);
+            }
+        }
+    }
+
+    // Lê direto do buffer mapeado; o byte[] de rascunho é reaproveitado entre strings
+    private static class Leitura {
+        final ByteBuffer buffer;
+        final List<String> dicionario = new ArrayList<>();
+        byte[] rascunho = new byte[256];
+
+        Leitura(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long valor = 0;
+            int deslocamento = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                valor |= (long) (b & 0x7F) << deslocamento;
+                deslocamento += 7;
+            } while ((b & 0x80) != 0);
+            return valor;
+        }
+
+        String texto() {
+            int tamanho = varint();
+            if (tamanho > rascunho.length) {
+                rascunho = new byte[Math.max(tamanho, rascunho.length * 2)];
+            }
+            buffer.get(rascunho, 0, tamanho);
+            return new String(rascunho, 0, tamanho, StandardCharsets.UTF_8);
+        }
+
+        String textoDicionario() {
+            int numero = varint();
+            if (numero == 0) {
+                String s = texto();
+                dicionario.add(s);
+                return s;
+            }
+            return dicionario.get(numero - 1);
+        }
+    }
+}
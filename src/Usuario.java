@@ -1,6 +1,6 @@
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Classe abstrata que representa um Usuário da biblioteca
@@ -12,64 +12,172 @@ import java.util.List;
  * @author Ryan Figueredo
  */
 public abstract class Usuario {
+
+    // Situação do cadastro - nos arquivos continua o texto de sempre ("Ativo"/"Bloqueado")
+    public enum Situacao {
+        ATIVO("Ativo"),
+        BLOQUEADO("Bloqueado");
+
+        private final String rotulo;
+
+        Situacao(String rotulo) {
+            this.rotulo = rotulo;
+        }
+
+        public String getRotulo() {
+            return rotulo;
+        }
+
+        // Qualquer texto que não seja "Bloqueado" (sem ligar pra maiúscula) é ativo, como sempre foi
+        public static Situacao de(String texto) {
+            return BLOQUEADO.rotulo.equalsIgnoreCase(texto) ? BLOQUEADO : ATIVO;
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Usuario> ATRASADOS =
+            AtomicIntegerFieldUpdater.newUpdater(Usuario.class, "emprestimosAtrasados");
+
     private String id;
     private String nome;
     private String endereco;
-    private String status;
-    private List<Emprestimo> itensEmprestados;
+    private volatile Situacao situacao;
+    // Empréstimos abertos e multas - null enquanto o usuário não tem nada (ver ContaEmprestimos)
+    // Só é alterada com a trava do usuário (ver SistemaBiblioteca)
+    private volatile ContaEmprestimos conta;
+    // Contador mantido pelo ControleAtrasos - evita percorrer os empréstimos a cada checagem
+    // (int volatile + updater em vez de AtomicInteger: é um objeto a menos por usuário)
+    private volatile int emprestimosAtrasados;
     
     // Construtor básico
     public Usuario(String id, String nome, String endereco) {
         this.id = id;
         this.nome = nome;
         this.endereco = endereco;
-        this.status = "Ativo";
-        this.itensEmprestados = new ArrayList<>(); // Lista vazia no começo
+        this.situacao = Situacao.ATIVO;
     }
 
-    // Método abstrato - cada tipo de usuário tem limite diferente
-    // Aluno tem 3, Professor tem 5
-    public abstract int getLimiteEmprestimo();
-    
-    // Método abstrato - cada tipo calcula o prazo diferente
-    // Aluno tem 7 dias, Professor tem 15 dias
-    public abstract LocalDate calculaPrazoDevolucao(LocalDate dataEmprestimo);
+    // Método abstrato - cada tipo de usuário tem uma linha na política de empréstimo
+    public abstract PoliticaEmprestimo.TipoUsuario getTipoUsuario();
+
+    // Limite de itens ao mesmo tempo - vem da política vigente
+    // (no padrão, Aluno tem 3 e Professor tem 5)
+    public int getLimiteEmprestimo() {
+        return PoliticaEmprestimo.vigente().getLimite(getTipoUsuario());
+    }
+
+    // Data prevista de devolução - vem da política vigente
+    // (no padrão, Aluno tem 7 dias e Professor tem 15; com calendário, pula os dias fechados)
+    public LocalDate calculaPrazoDevolucao(LocalDate dataEmprestimo) {
+        return LocalDate.ofEpochDay(PoliticaEmprestimo.vigente().diaPrevisto(getTipoUsuario(), dataEmprestimo.toEpochDay()));
+    }
 
     // Verifica se o usuário pode pegar mais livros
     // Checa limite, multa pendente, item atrasado e se está bloqueado
+    // Tudo O(1): os atrasos só ficam atualizados se o ControleAtrasos tiver avançado até hoje
     public boolean isAptoParaEmprestimo() {
         // Verifica se já atingiu o limite
-        if (itensEmprestados.size() >= getLimiteEmprestimo()) {
+        if (getQuantidadeEmprestimos() >= getLimiteEmprestimo()) {
             return false;
         }
+        return !isBloqueado();
+    }
 
+    // RN3/RN4 sem o limite: multa pendente, item atrasado ou status bloqueado
+    // Separado pra quem precisa checar o limite de outro jeito (carrinho com vários itens)
+    public boolean isBloqueado() {
         // Verifica se tem multa ou item atrasado
-        for (Emprestimo e : itensEmprestados) {
-            if (e.getMultaCobrada() > 0) {
-                return false; // Tem multa pendente
-            }
-            if (e.getDataDevolucaoReal() == null && 
-                e.getDataDevolucaoPrevista().isBefore(LocalDate.now())) {
-                return false; // Tem item atrasado
-            }
+        if (getMultaCentavos() > 0) {
+            return true; // Tem multa pendente
+        }
+        if (emprestimosAtrasados > 0) {
+            return true; // Tem item atrasado
         }
 
         // Verifica se está bloqueado
-        if ("Bloqueado".equalsIgnoreCase(status)) {
-            return false;
-        }
-        
-        return true;
+        return situacao == Situacao.BLOQUEADO;
     }
 
-    // Adiciona um empréstimo na lista do usuário
+    // Abre um empréstimo na conta do usuário - O(1)
     public void adicionarEmprestimo(Emprestimo emprestimo) {
-        this.itensEmprestados.add(emprestimo);
+        ContaEmprestimos c = conta;
+        if (c == null) {
+            c = new ContaEmprestimos();
+            conta = c;
+        }
+        c.abrir(emprestimo);
     }
 
-    // Remove um empréstimo da lista do usuário
+    // Fecha um empréstimo na conta do usuário - O(1), pela posição guardada no empréstimo
     public void removerEmprestimo(Emprestimo emprestimo) {
-        this.itensEmprestados.remove(emprestimo);
+        ContaEmprestimos c = conta;
+        if (c != null && c.fechar(emprestimo) && c.isVazia()) {
+            conta = null; // Nada aberto e nada devendo: solta a memória
+        }
+    }
+
+    // Contadores de atraso - chamados pelo ControleAtrasos
+    public void registrarAtraso() {
+        ATRASADOS.incrementAndGet(this);
+    }
+
+    public void removerAtraso() {
+        ATRASADOS.decrementAndGet(this);
+    }
+
+    // Chamado quando um empréstimo é finalizado com multa (o valor em centavos)
+    public void registrarMulta(long centavos) {
+        ContaEmprestimos c = conta;
+        if (c == null) {
+            c = new ContaEmprestimos();
+            conta = c;
+        }
+        c.lancarMulta(centavos);
+    }
+
+    // Pagamento ou isenção de multa (em centavos, até o saldo) - zerou, a RN3 já libera
+    public void quitarMulta(long centavos) {
+        ContaEmprestimos c = conta;
+        if (c == null) {
+            return;
+        }
+        c.quitarMulta(centavos);
+        if (c.isVazia()) {
+            conta = null;
+        }
+    }
+
+    public int getEmprestimosAtrasados() {
+        return emprestimosAtrasados;
+    }
+
+    // Quantas devoluções com multa ainda não pagas
+    public int getMultasPendentes() {
+        ContaEmprestimos c = conta;
+        return c == null ? 0 : c.getMultas();
+    }
+
+    // Saldo de multa em aberto, em centavos
+    public long getMultaCentavos() {
+        ContaEmprestimos c = conta;
+        return c == null ? 0 : c.getMultaCentavos();
+    }
+
+    public int getQuantidadeEmprestimos() {
+        ContaEmprestimos c = conta;
+        return c == null ? 0 : c.getQuantidade();
+    }
+
+    // Devolução prevista mais próxima entre os abertos (null se não tem nada aberto)
+    public LocalDate getProximoVencimento() {
+        ContaEmprestimos c = conta;
+        return c == null || c.getMenorDiaPrevisto() == ContaEmprestimos.SEM_VENCIMENTO
+                ? null : LocalDate.ofEpochDay(c.getMenorDiaPrevisto());
+    }
+
+    // Está com algum exemplar deste item? (só olha os abertos)
+    public boolean temEmprestado(ItemDeAcervo item) {
+        ContaEmprestimos c = conta;
+        return c != null && c.temItem(item);
     }
 
     // Getters e Setters
@@ -81,27 +189,38 @@ public abstract class Usuario {
         return nome; 
     }
     
+    // Texto da situação ("Ativo"/"Bloqueado") - é o que vai pros arquivos e pro JSON
     public String getStatus() { 
-        return status; 
+        return situacao.getRotulo(); 
     }
     
     public void setStatus(String status) { 
-        this.status = status; 
+        this.situacao = Situacao.de(status); 
+    }
+
+    public Situacao getSituacao() {
+        return situacao;
+    }
+
+    public void setSituacao(Situacao situacao) {
+        this.situacao = situacao;
     }
     
     public String getEndereco() { 
         return endereco; 
     }
     
+    // Cópia dos abertos - pra contar use getQuantidadeEmprestimos()
     public List<Emprestimo> getItensEmprestados() { 
-        return itensEmprestados; 
+        ContaEmprestimos c = conta;
+        return c == null ? List.of() : c.listar();
     }
     
     // toString pra exibir as informações do usuário
     @Override
     public String toString() {
         return String.format("ID: %s | Nome: %s | Tipo: %s | Status: %s | Empréstimos: %d/%d",
-                id, nome, this.getClass().getSimpleName(), status, 
-                itensEmprestados.size(), getLimiteEmprestimo());
+                id, nome, this.getClass().getSimpleName(), situacao.getRotulo(), 
+                getQuantidadeEmprestimos(), getLimiteEmprestimo());
     }
 }